@@ -23,6 +23,8 @@ public class Client{
             int id = Integer.parseInt(args[0]);
             
             System.out.println(MessageFormat.format("Client {0} running!", id));
+            // Every key is read once, before the first request
+            KeyGetter.load();
             ClientLibrary clientLib = new ClientLibrary(id);
 
             for (;;) {
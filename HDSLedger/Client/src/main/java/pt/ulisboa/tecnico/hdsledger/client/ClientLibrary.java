@@ -14,12 +14,13 @@ import java.security.PublicKey;
 import java.text.MessageFormat;
 import java.util.Arrays;
 import java.util.Map;
-import java.util.concurrent.Callable;
-import java.util.Optional;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.Base64;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.crypto.Cipher;
@@ -36,64 +37,91 @@ import pt.ulisboa.tecnico.hdsledger.communication.messages.*;
 public class ClientLibrary {
     private static final CustomLogger LOGGER = new CustomLogger(Client.class.getName());
 
-    private Link linkToNodes;
+    private AsyncLink linkToNodes;
     private int id;
-    private Map<Integer, ClientMessage> responses = new ConcurrentHashMap<>();
-    private AtomicBoolean waitResponses = new AtomicBoolean(true);
+    // Response type -> Request ID -> Request waiting for its responses
+    private final Map<Type, Map<Integer, PendingRequest<?>>> pendingRequests = new ConcurrentHashMap<>();
     private AtomicInteger currentRequest = new AtomicInteger(0);
     private SystemConfig systemConfig;
 
+    /*
+     * Request waiting for f + 1 responses with the same value
+     */
+    private static class PendingRequest<T> {
+        private final Function<ClientMessage, T> reader;
+        // Sender -> Value of its response
+        private final Map<Integer, T> values = new HashMap<>();
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        // Created by the caller, not by a response received before the request was awaited
+        private volatile boolean claimed = false;
+
+        private PendingRequest(Function<ClientMessage, T> reader) {
+            this.reader = reader;
+        }
+
+        private synchronized void add(ClientMessage response) {
+            if (result.isDone() || values.containsKey(response.getSenderId()))
+                return;
+
+            T value = reader.apply(response);
+            values.put(response.getSenderId(), value);
+            if (Collections.frequency(values.values(), value) >= ProcessConfigBuilder.getMaxFaulty() + 1)
+                result.complete(value);
+        }
+    }
+
     public ClientLibrary(int id) throws Exception {
+        this(id, createLink(id));
+    }
+
+    /*
+     * Client communicating over the given link instead of its own APL (e.g. a SimulatedLink)
+     */
+    public ClientLibrary(int id, AsyncLink linkToNodes) throws Exception {
         this.systemConfig = ProcessConfigBuilder.getSystemConfig();
+        this.id = id;
+        this.linkToNodes = linkToNodes;
+
+        pendingRequests.put(Type.RESPONSE_TRANSFER, new ConcurrentHashMap<>());
+        pendingRequests.put(Type.RESPONSE_BALANCE, new ConcurrentHashMap<>());
+        // Responses are handled by the thread receiving them, no thread per request or message
+        this.linkToNodes.onReceive(this::uponMessage);
+    }
+
+    private static AsyncLink createLink(int id) {
+        SystemConfig systemConfig = ProcessConfigBuilder.getSystemConfig();
         ProcessConfig[] nodeConfigs = systemConfig.getNodes();
         ProcessConfig[] clientConfigs = systemConfig.getClients();
-        
-        ProcessConfig config = Arrays.stream(clientConfigs).filter(c -> c.getId() == id).findFirst().get();
 
-        this.id = id;
-        this.linkToNodes = new APL(config, config.getPort(), nodeConfigs, clientConfigs, ClientMessage.class);
+        ProcessConfig config = Arrays.stream(clientConfigs).filter(c -> c.getId() == id).findFirst().get();
+        return new APL(config, config.getPort(), nodeConfigs, clientConfigs, ClientMessage.class);
     }
    
     /*
      * If f + 1 messages with the same success value, return that value
      */
     public boolean listenTransferMessages() {
-        return listen(() -> {
-            Map<Boolean, Integer> count = new ConcurrentHashMap<>();
-            for (ClientMessage message : responses.values()) {
-                boolean result = message.deserializeTransferResponseMessage().wasSuccessful();
-                count.put(result, count.getOrDefault(result, 0) + 1);
-            }
-
-            for (Map.Entry<Boolean, Integer> entry : count.entrySet()) {
-                if (entry.getValue() >= ProcessConfigBuilder.getMaxFaulty() + 1)
-                    return Optional.of(entry.getKey());
-            }
-
-            return Optional.empty();
-        });
+        return this.<Boolean>await(Type.RESPONSE_TRANSFER, currentRequest.get()).join();
     }
+
     /*
      * If f + 1 messages with the same balance, return that balance
      */
     public int listenBalanceMessages() {
-        return listen(() -> {
-            Map<Integer, Integer> count = new ConcurrentHashMap<>();
-            for (ClientMessage message : responses.values()) {
-                int result = message.deserializeBalanceResponseMessage().getBalance();
-                count.put(result, count.getOrDefault(result, 0) + 1);
-            }
-
-            for (Map.Entry<Integer, Integer> entry : count.entrySet()) {
-                if (entry.getValue() >= ProcessConfigBuilder.getMaxFaulty() + 1) 
-                    return Optional.of(entry.getKey());
-            }
-
-            return Optional.empty();
-        });
+        return this.<Integer>await(Type.RESPONSE_BALANCE, currentRequest.get()).join();
     }
 
     public boolean transfer(PublicKey sourcePublicKey, PublicKey destinationPublicKey, int amount) throws Exception {
+        return transferAsync(sourcePublicKey, destinationPublicKey, amount).join();
+    }
+
+    /*
+     * Same as transfer, without waiting for the response
+     * Several requests can be in flight at the same time
+     *
+     * @return Future completed with the success value once f + 1 nodes agree on it
+     */
+    public CompletableFuture<Boolean> transferAsync(PublicKey sourcePublicKey, PublicKey destinationPublicKey, int amount) {
         if (amount <= 0 ){
             throw new HDSSException(ErrorMessage.AmountNotValid);
         }
@@ -101,40 +129,66 @@ public class ClientLibrary {
             throw new HDSSException(ErrorMessage.InvalidDestination);
         }
 
-        SystemConfig systemConfig = ProcessConfigBuilder.getSystemConfig();
-        ProcessConfig[] nodeConfigs = systemConfig.getNodes();
-        ProcessConfig[] clientConfigs = systemConfig.getClients();
-        
-        ProcessConfig config = ProcessConfigBuilder.fromId(id);
-
-        //Convert publickKeys to strings
-        String source       = Base64.getEncoder().encodeToString(sourcePublicKey.getEncoded());
-        String destination  = Base64.getEncoder().encodeToString(destinationPublicKey.getEncoded());
+        // Accounts are identified by key ID
+        String source       = KeyGetter.keyId(sourcePublicKey);
+        String destination  = KeyGetter.keyId(destinationPublicKey);
         
         TransferMessage req = new TransferMessage(source, destination, amount);
         
         ClientMessage clientReq = new ClientMessage(id, Message.Type.TRANSFER, currentRequest.incrementAndGet());
         clientReq.setMessage(req.toJson());
 
-        this.linkToNodes.broadcast(clientReq);
-        boolean success = listenTransferMessages();
+        // Awaited before sending, no response can arrive before the request is known
+        CompletableFuture<Boolean> result = await(Type.RESPONSE_TRANSFER, clientReq.getRequestId());
+        broadcast(clientReq);
 
-        return success;
+        return result;
     }
 
     public int check_balance(PublicKey accountPublicKey){ 
-        //Convert publickKey to string
-        String publicKeyString = Base64.getEncoder().encodeToString(accountPublicKey.getEncoded());
+        return checkBalanceAsync(accountPublicKey).join();
+    }
+
+    /*
+     * Same as check_balance, without waiting for the response
+     *
+     * @return Future completed with the balance once f + 1 nodes agree on it
+     */
+    public CompletableFuture<Integer> checkBalanceAsync(PublicKey accountPublicKey) {
+        // Accounts are identified by key ID
+        String publicKeyString = KeyGetter.keyId(accountPublicKey);
         CheckBalanceMessage req = new CheckBalanceMessage(publicKeyString);
         
         ClientMessage clientReq = new ClientMessage(id, Message.Type.CHECK_BALANCE, currentRequest.incrementAndGet());
         clientReq.setMessage(req.toJson());
 
-        this.linkToNodes.broadcast(clientReq);
+        CompletableFuture<Integer> result = await(Type.RESPONSE_BALANCE, clientReq.getRequestId());
+        broadcast(clientReq);
 
-        int balance = listenBalanceMessages();
+        return result;
+    }
 
-        return balance;
+    /*
+     * Broadcasts a request, a node whose send queue is full doesn't get it (the others are enough
+     * to answer it)
+     */
+    private void broadcast(ClientMessage request) {
+        try {
+            this.linkToNodes.broadcast(request);
+        } catch (HDSSException e) {
+            LOGGER.log(Level.WARNING, MessageFormat.format("{0} - Request {1} not sent to every node: {2}",
+                    id, request.getRequestId(), e.getMessage()));
+        }
+    }
+
+    private void uponMessage(Message message) {
+        switch (message.getType()) {
+            case RESPONSE_BALANCE, RESPONSE_TRANSFER -> 
+                uponResponse((ClientMessage) message);
+            default ->
+                LOGGER.log(Level.INFO,
+                        MessageFormat.format("{0} - Received unknown message from {1}", this.id, message.getSenderId()));
+        }
     }
 
     public void uponResponse(ClientMessage message) {
@@ -143,59 +197,39 @@ public class ClientLibrary {
         } catch (Exception e) {
             return;
         }
-        if (message.getRequestId() == currentRequest.get())
-            responses.putIfAbsent(message.getSenderId(), message);
+
+        Map<Integer, PendingRequest<?>> requests = pendingRequests.get(message.getType());
+        PendingRequest<?> request = requests.get(message.getRequestId());
+        // Response to a request not awaited yet (e.g. sent through getLink), kept for listen*
+        if (request == null && message.getRequestId() >= currentRequest.get())
+            request = requests.computeIfAbsent(message.getRequestId(), (requestId) -> newRequest(message.getType()));
+        if (request != null)
+            request.add(message);
     }
 
     /*
-     * Receives a callable stopCondition which returns an Optional
-     * If the condition to stop listening to messages is reached, stopCondition() should return a non empty Optional<T> yielding the result
-     * If the condition hasn't been reached, return an empty Optional
+     * Future completed once f + 1 responses of the given type to the request agree on a value
      */
-    public <T> T listen(Callable<Optional<T>> stopCondition) {
-        try {
-            waitResponses.set(true); 
-            responses = new ConcurrentHashMap<>();
-            // Thread to listen on every request
-            new Thread(() -> {
-                try {
-                    while (waitResponses.get()) {
-                        Message message = this.linkToNodes.receive();
-
-                        // Separate thread to handle each message
-                        new Thread(() -> {
-                            switch (message.getType()) {
-                                case RESPONSE_BALANCE, RESPONSE_TRANSFER -> 
-                                    uponResponse((ClientMessage) message);
-                                default ->
-                                    LOGGER.log(Level.INFO,
-                                            MessageFormat.format("{0} - Received unknown message from {1}", this.id, message.getSenderId()));
-                            }
-                        }).start();
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }).start(); 
-
-            Optional<T> result = Optional.empty();
-            while (!result.isPresent())
-                result = stopCondition.call();
-
-            waitResponses.set(false);  // Stop waiting for responses
-            return result.get();
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
-        }
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> await(Type responseType, int requestId) {
+        Map<Integer, PendingRequest<?>> requests = pendingRequests.get(responseType);
+        // Unclaimed requests of older IDs only hold late responses
+        requests.entrySet().removeIf((entry) -> entry.getKey() < requestId && !entry.getValue().claimed);
+
+        PendingRequest<T> request = (PendingRequest<T>) requests.computeIfAbsent(requestId, (key) -> newRequest(responseType));
+        request.claimed = true;
+        request.result.whenComplete((value, error) -> requests.remove(requestId, request));
+        return request.result;
     }
 
-    public int getId() {
-        return this.id;
+    private static PendingRequest<?> newRequest(Type responseType) {
+        if (responseType == Type.RESPONSE_TRANSFER)
+            return new PendingRequest<>((response) -> response.deserializeTransferResponseMessage().wasSuccessful());
+        return new PendingRequest<>((response) -> response.deserializeBalanceResponseMessage().getBalance());
     }
 
-    public Map<Integer, ClientMessage> getResponses() {
-        return this.responses;
+    public int getId() {
+        return this.id;
     }
 
     public Link getLink() {
@@ -2,6 +2,8 @@ package pt.ulisboa.tecnico.hdsledger.communication;
 
 import com.google.gson.Gson;
 
+import pt.ulisboa.tecnico.hdsledger.communication.codec.BinaryCodec;
+import pt.ulisboa.tecnico.hdsledger.communication.codec.MessageCodec;
 import pt.ulisboa.tecnico.hdsledger.communication.messages.Message.Type;
 import pt.ulisboa.tecnico.hdsledger.communication.messages.*;
 import pt.ulisboa.tecnico.hdsledger.communication.messages.consensus.*;
@@ -11,21 +13,56 @@ import pt.ulisboa.tecnico.hdsledger.utilities.*;
 import java.sql.Timestamp;
 import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 
-public class APL implements Link {
+public class APL implements AsyncLink {
 
     private static final CustomLogger LOGGER = new CustomLogger(Link.class.getName());
+    private static final Gson GSON = new Gson();
+    // Time a received message waits for an outbound message to carry its ACK (ms)
+    public static final int DEFAULT_ACK_DELAY = 10;
+    // Maximum number of message IDs above the floor carried by a single ACK
+    private static final int MAX_SPARSE_ACKS = 128;
+    // Maximum number of received frames being verified or waiting for receive
+    public static final int PIPELINE_CAPACITY = 4096;
+    // Decode and verify the received messages of every link, one thread per core
+    private static final ExecutorService VERIFIERS = CryptoPool.getExecutor();
     // Time to wait for an ACK before resending the message
     private final int BASE_SLEEP_TIME;
-    // UDP Socket
-    private final DatagramSocket socket;
+    // UDP Channel
+    private final DatagramChannel channel;
+    // Receive buffers
+    private final BufferPool buffers = new BufferPool();
+    // Coalesces the frames sent to the same destination
+    private final DatagramBatcher batcher;
+    // Received messages in arrival order, each one decoded and verified by the verifiers
+    private final BlockingQueue<Pending> pipeline = new LinkedBlockingQueue<>();
+    // Bounds the received frames in the pipeline, the reader stops reading once they are all taken
+    private final Semaphore pipelineSlots = new Semaphore(PIPELINE_CAPACITY);
+    // Reads datagrams into the pipeline, started by the first receive
+    private Thread reader;
+    // Encodes sent messages (received ones are decoded by the codec that produced them)
+    private final MessageCodec codec;
+    // Keys authenticating the messages to other replicas with MACs, null if they are signed
+    private final SessionKeys sessionKeys;
     // Map of all nodes in the network
     private final Map<Integer, ProcessConfig> nodes = new ConcurrentHashMap<>();
     // Map of all clients in the network
@@ -37,11 +74,29 @@ public class APL implements Link {
     // Set of received messages from specific node (prevent duplicates)
     private final Map<Integer, CollapsingSet> receivedMessages = new ConcurrentHashMap<>();
     // Set of received ACKs from specific node
-    private final CollapsingSet receivedAcks = new CollapsingSet();
-    // Message counter
-    private final AtomicInteger messageCounter = new AtomicInteger(0);
-    // Send messages to self by pushing to queue instead of through the network
-    private final Queue<AuthedMessage> localhostQueue = new ConcurrentLinkedQueue<>();
+    private final Map<Integer, CollapsingSet> receivedAcks = new ConcurrentHashMap<>();
+    // Retransmits unacknowledged messages
+    private final RetransmissionScheduler retransmissions;
+    // Outbound queue of each destination, bounds the messages in flight and waiting
+    private final Map<Integer, PeerSendQueue> sendQueues = new ConcurrentHashMap<>();
+    // Message counter of each destination, message IDs are not part of the signed data
+    private final Map<Integer, AtomicInteger> messageCounters = new ConcurrentHashMap<>();
+    // Message IDs received from each process and not yet acknowledged to it
+    private final Map<Integer, Set<Integer>> unackedMessages = new ConcurrentHashMap<>();
+    // Processes with a standalone ACK scheduled
+    private final Set<Integer> ackFlushes = ConcurrentHashMap.newKeySet();
+    // Address each process sends from, standalone ACKs are sent back there
+    private final Map<Integer, InetSocketAddress> ackAddresses = new ConcurrentHashMap<>();
+    // Sends the ACKs that no outbound message carried in time
+    private final ScheduledExecutorService ackTimer;
+    private final int ackDelay;
+    // Runs the standalone sends of messages, a thread (of the configured mode) each
+    private final Executor tasks;
+    // Handler of the received messages and the executor running it, set by onReceive
+    private volatile Consumer<Message> receiveHandler;
+    private volatile Executor receiveExecutor;
+    // Thread calling receive on behalf of the handler
+    private Thread receiver;
     // Save timestamps for each id
     private Map<Integer, Timestamp> timestampMap = new ConcurrentHashMap<>();
 
@@ -53,10 +108,44 @@ public class APL implements Link {
     }
 
     public APL(ProcessConfig self, int port, ProcessConfig[] nodes, ProcessConfig[] clients, Class<? extends Message> messageClass, boolean activateLogs, int baseSleepTime) {
+        this(self, port, nodes, clients, messageClass, activateLogs, baseSleepTime, new RetransmissionScheduler());
+    }
+
+    public APL(ProcessConfig self, int port, ProcessConfig[] nodes, ProcessConfig[] clients, Class<? extends Message> messageClass, boolean activateLogs, int baseSleepTime, RetransmissionScheduler retransmissions) {
+        this(self, port, nodes, clients, messageClass, activateLogs, baseSleepTime, retransmissions,
+                MessageCodec.forName(ProcessConfigBuilder.getSystemConfig().getCodec()));
+    }
+
+    public APL(ProcessConfig self, int port, ProcessConfig[] nodes, ProcessConfig[] clients, Class<? extends Message> messageClass, boolean activateLogs, int baseSleepTime, RetransmissionScheduler retransmissions, MessageCodec codec) {
+        this(self, port, nodes, clients, messageClass, activateLogs, baseSleepTime, retransmissions, codec,
+                orDefault(ProcessConfigBuilder.getSystemConfig().getBatchSize(), DatagramBatcher.DEFAULT_MAX_BATCH_SIZE),
+                orDefault(ProcessConfigBuilder.getSystemConfig().getBatchLinger(), DatagramBatcher.DEFAULT_LINGER),
+                orDefault(ProcessConfigBuilder.getSystemConfig().getSendWindow(), PeerSendQueue.DEFAULT_WINDOW),
+                orDefault(ProcessConfigBuilder.getSystemConfig().getSendQueueCapacity(), PeerSendQueue.DEFAULT_CAPACITY),
+                PeerSendQueue.OverflowPolicy.forName(ProcessConfigBuilder.getSystemConfig().getSendOverflow()));
+    }
+
+    /*
+     * @param batchSize Maximum size of a datagram carrying several messages
+     *
+     * @param batchLinger Maximum time (ms) a message waits to share a datagram, 0 disables batching
+     *
+     * @param sendWindow Maximum number of unacknowledged messages to a process
+     *
+     * @param sendQueueCapacity Maximum number of messages waiting for the window of a process
+     *
+     * @param overflowPolicy What happens to a message sent to a process with a full queue
+     */
+    public APL(ProcessConfig self, int port, ProcessConfig[] nodes, ProcessConfig[] clients, Class<? extends Message> messageClass, boolean activateLogs, int baseSleepTime, RetransmissionScheduler retransmissions, MessageCodec codec, int batchSize, int batchLinger,
+            int sendWindow, int sendQueueCapacity, PeerSendQueue.OverflowPolicy overflowPolicy) {
 
         this.config = self;
+        this.retransmissions = retransmissions;
+        this.codec = codec;
         this.messageClass = messageClass;
         this.BASE_SLEEP_TIME = baseSleepTime;
+        this.ackDelay = Math.max(1, Math.min(DEFAULT_ACK_DELAY, baseSleepTime / 4));
+        this.tasks = ThreadMode.configured().perTask("apl-send-" + self.getId());
         this.port = port;
         this.hostname = config.getHostname();
 
@@ -64,24 +153,47 @@ public class APL implements Link {
             int id = node.getId();
             this.nodes.put(id, node);
             receivedMessages.put(id, new CollapsingSet());
+            receivedAcks.put(id, new CollapsingSet());
+            unackedMessages.put(id, ConcurrentHashMap.newKeySet());
+            sendQueues.put(id, new PeerSendQueue(sendWindow, sendQueueCapacity, overflowPolicy));
+            messageCounters.put(id, new AtomicInteger(0));
         });
 
         Arrays.stream(clients).forEach(node -> {
             int id = node.getId();
             this.clients.put(id, node);
             receivedMessages.put(id, new CollapsingSet());
+            receivedAcks.put(id, new CollapsingSet());
+            unackedMessages.put(id, ConcurrentHashMap.newKeySet());
+            sendQueues.put(id, new PeerSendQueue(sendWindow, sendQueueCapacity, overflowPolicy));
+            messageCounters.put(id, new AtomicInteger(0));
         });
 
+        // Replicas derive the keys they share with each other replica at startup
+        boolean macs = "mac".equalsIgnoreCase(ProcessConfigBuilder.getSystemConfig().getReplicaAuthentication());
+        this.sessionKeys = macs && this.nodes.containsKey(config.getId()) ? new SessionKeys(config.getId(), this.nodes.keySet()) : null;
+
         try {
-            this.socket = new DatagramSocket(port, InetAddress.getByName(config.getHostname()));
-        } catch (UnknownHostException | SocketException e) {
+            this.channel = DatagramChannel.open();
+            this.channel.bind(new InetSocketAddress(InetAddress.getByName(config.getHostname()), port));
+        } catch (IOException e) {
             throw new HDSSException(ErrorMessage.CannotOpenSocket);
         }
+        this.batcher = new DatagramBatcher(channel, batchSize, batchLinger);
+        this.ackTimer = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "ack-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
         if (!activateLogs) {
             LogManager.getLogManager().reset();
         }
     }
 
+    private static int orDefault(Integer value, int defaultValue) {
+        return value != null ? value : defaultValue;
+    }
+
     public ProcessConfig getNode(int id) {
         return this.nodes.get(id);
     }
@@ -90,8 +202,132 @@ public class APL implements Link {
         return this.clients.get(id);
     }
 
-    public void ackAll(List<Integer> messageIds) {
-        receivedAcks.addAll(messageIds);
+    public void ackAll(int nodeId, List<Integer> messageIds) {
+        messageIds.forEach((messageId) -> acknowledge(nodeId, messageId));
+    }
+
+    /*
+     * Applies a cumulative ACK: every message ID up to (and including) floor and each ID in sparse
+     */
+    public void ackAll(int nodeId, int floor, int[] sparse) {
+        CollapsingSet acks = receivedAcks.get(nodeId);
+        if (acks != null)
+            acks.addUpTo(floor);
+        retransmissions.acknowledgeUpTo(nodeId, floor);
+
+        for (int messageId : sparse)
+            acknowledge(nodeId, messageId);
+    }
+
+    private void acknowledge(int senderId, int messageId) {
+        CollapsingSet acks = receivedAcks.get(senderId);
+        if (acks != null)
+            acks.add(messageId);
+        retransmissions.acknowledge(senderId, messageId);
+    }
+
+    /*
+     * Marks a received message to be acknowledged, by the next message sent to its sender
+     * or by a standalone ACK if nothing is sent to it within the ACK delay
+     */
+    private void scheduleAck(int senderId, int messageId, InetSocketAddress source) {
+        unackedMessages.get(senderId).add(messageId);
+        ackAddresses.put(senderId, source);
+        scheduleAckFlush(senderId);
+    }
+
+    private void scheduleAckFlush(int nodeId) {
+        if (ackFlushes.add(nodeId))
+            ackTimer.schedule(() -> flushAcks(nodeId), ackDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * Moves the pending ACKs of a process into a message sent to it, authenticated for it along
+     * with the message ID of the message
+     *
+     * @return false if there was nothing to acknowledge
+     */
+    private boolean attachAcks(int nodeId, AuthedMessage envelope) throws Exception {
+        Set<Integer> unacked = unackedMessages.get(nodeId);
+        if (unacked == null || unacked.isEmpty())
+            return false;
+
+        // IDs up to the floor are all covered by it
+        int floor = receivedMessages.get(nodeId).getFloor();
+        List<Integer> sparse = new ArrayList<>();
+        Iterator<Integer> iterator = unacked.iterator();
+        while (iterator.hasNext() && sparse.size() < MAX_SPARSE_ACKS) {
+            int messageId = iterator.next();
+            iterator.remove();
+            if (messageId > floor)
+                sparse.add(messageId);
+        }
+        envelope.setAcks(floor, sparse.stream().mapToInt(Integer::intValue).toArray());
+        envelope.authenticateAcks(nodeId, envelope.isMac() ? sessionKeys.get(nodeId) : null);
+
+        if (!unacked.isEmpty())
+            scheduleAckFlush(nodeId);
+        return true;
+    }
+
+    /*
+     * Messages to a replica are authenticated with a MAC under their session key. Messages are
+     * never forwarded as proofs, justifications are quorum certificates of the votes signed in
+     * PREPAREs and ROUND_CHANGEs.
+     */
+    private boolean usesMac(int nodeId) {
+        return sessionKeys != null && nodes.containsKey(nodeId);
+    }
+
+    private AuthedMessage authenticate(int nodeId, Message data) throws Exception {
+        if (usesMac(nodeId))
+            return new AuthedMessage(data, sessionKeys.get(nodeId));
+        return new AuthedMessage(data);
+    }
+
+    private void flushAcks(int nodeId) {
+        ackFlushes.remove(nodeId);
+        if (unackedMessages.get(nodeId).isEmpty())
+            return;
+
+        try {
+            // Older processes only read the message ID of an ACK
+            Message ack = new Message(config.getId(), Message.Type.ACK);
+            ack.setMessageId(receivedMessages.get(nodeId).getFloor());
+            AuthedMessage authed = authenticate(nodeId, ack);
+            if (!attachAcks(nodeId, authed))
+                return;
+
+            // ACK is sent without needing for another ACK, a lost ACK is
+            // sent again once the sender retransmits the message
+            InetSocketAddress address = ackAddresses.get(nodeId);
+            unreliableSend(address.getAddress(), address.getPort(), codec.encode(authed));
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, MessageFormat.format("{0} - Failed to send ACK to {1}", config.getId(), nodeId));
+        }
+    }
+
+    /*
+     * Number of messages sent to a node that are still waiting for an ACK
+     */
+    public int getPendingCount(int nodeId) {
+        return retransmissions.getPendingCount(nodeId);
+    }
+
+    /*
+     * Number of messages to a node waiting for room in its in-flight window
+     */
+    public int getQueuedCount(int nodeId) {
+        PeerSendQueue queue = sendQueues.get(nodeId);
+        return queue == null ? 0 : queue.getQueuedCount();
+    }
+
+    /*
+     * Number of messages to a node discarded by the drop oldest policy
+     */
+    public long getDroppedCount(int nodeId) {
+        PeerSendQueue queue = sendQueues.get(nodeId);
+        return queue == null ? 0 : queue.getDroppedCount();
     }
 
     private boolean isValidTimestamp(int id, int minDifference, Timestamp messageTimestamp) {
@@ -113,12 +349,56 @@ public class APL implements Link {
      * Broadcasts a message to all nodes in the network
      *
      * @param data The message to be broadcasted
+     *
+     * @throws HDSSException (SendQueueFull) if the queue of a node is full under the fail fast
+     * policy, the message is still sent to every other node
      */
     public void broadcast(Message data) {
-        Gson gson = new Gson();
-        nodes.forEach((destId, dest) -> send(destId, gson.fromJson(gson.toJson(data), data.getClass())));
+        AuthedMessage authed = null;
+        try {
+            // Signed once, every node gets the same signed message under its own message ID
+            // (messages authenticated with MACs get one per node)
+            if (!usesMac(config.getId()))
+                authed = new AuthedMessage(data);
+        } catch (Exception e) { // TODO
+            e.printStackTrace();
+            return;
+        }
+
+        HDSSException overflow = null;
+        for (int destId : nodes.keySet()) {
+            try {
+                send(destId, authed != null ? authed : authenticate(destId, data));
+            } catch (HDSSException e) {
+                overflow = e;
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, MessageFormat.format("{0} - Failed to authenticate {1} message to {2}", config.getId(), data.getType(), destId));
+            }
+        }
+        if (overflow != null)
+            throw overflow;
+    }
+
+    public Map<Integer, CompletableFuture<Void>> broadcastAsync(Message data) {
+        Map<Integer, CompletableFuture<Void>> delivered = new HashMap<>();
+        AuthedMessage authed = null;
+        try {
+            if (!usesMac(config.getId()))
+                authed = new AuthedMessage(data);
+        } catch (Exception e) {
+            nodes.keySet().forEach((destId) -> delivered.put(destId, CompletableFuture.failedFuture(e)));
+            return delivered;
+        }
+
+        for (int destId : nodes.keySet()) {
+            try {
+                delivered.put(destId, send(destId, authed != null ? authed : authenticate(destId, data)));
+            } catch (Exception e) {
+                delivered.put(destId, CompletableFuture.failedFuture(e));
+            }
+        }
+        return delivered;
     }
-   
 
     /*
      * Sends a message to a specific node with guarantee of delivery
@@ -126,63 +406,142 @@ public class APL implements Link {
      * @param nodeId The node identifier
      *
      * @param data The message to be sent
+     *
+     * @throws HDSSException (SendQueueFull) if the queue of the node is full under the fail fast policy
      */
     public void send(int nodeId, Message data) {
+        AuthedMessage authed;
+        try {
+            if (getProcess(nodeId) == null)
+                throw new HDSSException(ErrorMessage.NoSuchNode);
 
-        // Spawn a new thread to send the message
-        // To avoid blocking while waiting for ACK
-        new Thread(() -> {
-            try {
-                ProcessConfig node = nodes.get(nodeId);
-
-                if (node == null)
-                    node = clients.get(nodeId);
-                if (node == null)
-                    throw new HDSSException(ErrorMessage.NoSuchNode);
-
-                data.setMessageId(messageCounter.getAndIncrement());
-
-                // If the message is not ACK, it will be resent
-                InetAddress destAddress = InetAddress.getByName(node.getHostname());
-                int destPort = node.getPort();
-                int count = 1;
-                int messageId = data.getMessageId();
-                int sleepTime = BASE_SLEEP_TIME;
+            authed = authenticate(nodeId, data);
+        } catch (Exception e) { // TODO
+            e.printStackTrace();
+            return;
+        }
+        send(nodeId, authed);
+    }
 
-                // Send message to local queue instead of using network if destination in self
-                if (nodeId == this.config.getId()) {
-                    this.localhostQueue.add(new AuthedMessage(data));
+    public CompletableFuture<Void> sendAsync(int nodeId, Message data) {
+        try {
+            if (getProcess(nodeId) == null)
+                throw new HDSSException(ErrorMessage.NoSuchNode);
 
-                    LOGGER.log(Level.INFO,
-                            MessageFormat.format("{0} - Message {1} (locally) sent to {2}:{3} successfully",
-                                    config.getId(), data.getType(), destAddress, destPort));
+            return send(nodeId, authenticate(nodeId, data));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 
-                    return;
-                }
+    /*
+     * Sends an already signed message to a specific node with guarantee of delivery
+     *
+     * @param nodeId The node identifier
+     *
+     * @param authed The signed message, sent under the next message ID of the node
+     *
+     * @return Future completed once the node acknowledges the message
+     */
+    private CompletableFuture<Void> send(int nodeId, AuthedMessage authed) {
+        // Send message to local queue instead of using network if destination in self
+        if (nodeId == this.config.getId()) {
+            AuthedMessage envelope = authed.withMessageId(messageCounters.get(nodeId).getAndIncrement());
+            // Same pipeline as the network, without taking a slot (the sender must never wait on receive)
+            this.pipeline.add(new Pending(CompletableFuture.supplyAsync(() -> verify(new Received(envelope, null)), VERIFIERS), null));
+
+            LOGGER.log(Level.INFO, MessageFormat.format("{0} - Message {1} (locally) sent to {2}:{3} successfully",
+                    config.getId(), envelope.getType(), config.getHostname(), config.getPort()));
+            return CompletableFuture.completedFuture(null);
+        }
 
-                for (;;) {
-                    LOGGER.log(Level.INFO, MessageFormat.format(
-                            "{0} - Sending {1} message to {2}:{3} with message ID {4} - Attempt #{5}", config.getId(),
-                            data.getType(), destAddress, destPort, messageId, count++));
+        PeerSendQueue queue = sendQueues.get(nodeId);
+        if (queue == null)
+            return CompletableFuture.failedFuture(new HDSSException(ErrorMessage.NoSuchNode));
+        return queue.submit(() -> transmit(nodeId, authed));
+    }
 
-                    unreliableSend(destAddress, destPort, data);
+    /*
+     * Transmits a message, taken from the send queue of the node, until it is acknowledged
+     *
+     * @return Future completed once the message is acknowledged
+     */
+    private CompletableFuture<Void> transmit(int nodeId, AuthedMessage authed) {
+        try {
+            ProcessConfig node = getProcess(nodeId);
+            InetAddress destAddress = InetAddress.getByName(node.getHostname());
+            int destPort = node.getPort();
+            // IDs are taken in transmission order, messages dropped from the queue leave no gaps
+            int messageId = messageCounters.get(nodeId).getAndIncrement();
+            AuthedMessage envelope = authed.withMessageId(messageId);
+
+            // Carries the pending ACKs of the destination, sparing it a standalone ACK
+            attachAcks(nodeId, envelope);
+
+            // Encoded once, every attempt sends the same bytes
+            byte[] frame = codec.encode(envelope);
+
+            // The scheduler resends (using exponential back-off) until
+            // receive sees the corresponding ACK
+            AtomicInteger count = new AtomicInteger(1);
+            CompletableFuture<Void> delivered = retransmissions.schedule(nodeId, messageId, BASE_SLEEP_TIME, () -> {
+                LOGGER.log(Level.INFO, MessageFormat.format(
+                        "{0} - Sending {1} message to {2}:{3} with message ID {4} - Attempt #{5}", config.getId(),
+                        envelope.getType(), destAddress, destPort, messageId, count.getAndIncrement()));
+
+                unreliableSend(destAddress, destPort, frame);
+            });
+            delivered.thenRun(() -> LOGGER.log(Level.INFO, MessageFormat.format("{0} - Message {1} sent to {2}:{3} successfully",
+                    config.getId(), envelope.getType(), destAddress, destPort)));
+            return delivered;
+        } catch (Exception e) { // TODO
+            e.printStackTrace();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 
-                    // Wait (using exponential back-off), then look for ACK
-                    Thread.sleep(sleepTime);
+    /*
+     * Received message after the parallel stages (decode and verify), waiting to be dispatched
+     */
+    private static class Received {
+        private final InetSocketAddress source;
+        private AuthedMessage authed;
+        // Header of the data
+        private Message message;
+        // Data as its full type (not set for ACKs)
+        private Message typed;
+        // Malformed or badly signed message, dropped
+        private Exception error;
+        // Failed verification of the nested data, raised once the message is marked as received
+        private Exception payloadError;
+
+        private Received(AuthedMessage authed, InetSocketAddress source) {
+            this.authed = authed;
+            this.source = source;
+        }
 
-                    // Receive method will set receivedAcks when sees corresponding ACK
-                    if (receivedAcks.contains(messageId))
-                        break;
+        private boolean isLocal() {
+            return source == null;
+        }
+    }
 
-                    sleepTime <<= 1;
-                }
+    /*
+     * Frame in the pipeline, decoded and verified by the verifiers
+     */
+    private static class Pending {
+        private final CompletableFuture<Received> future;
+        // Null for messages sent to this process
+        private final InetSocketAddress source;
+
+        private Pending(CompletableFuture<Received> future, InetSocketAddress source) {
+            this.future = future;
+            this.source = source;
+        }
+    }
 
-                LOGGER.log(Level.INFO, MessageFormat.format("{0} - Message {1} sent to {2}:{3} successfully",
-                        config.getId(), data.getType(), destAddress, destPort));
-            } catch (Exception e) { // TODO
-                e.printStackTrace();
-            }
-        }).start();
+    private ProcessConfig getProcess(int id) {
+        ProcessConfig process = nodes.get(id);
+        return process != null ? process : clients.get(id);
     }
 
     /*
@@ -197,131 +556,328 @@ public class APL implements Link {
      * @param data The message to be sent
      */
     public void unreliableSend(InetAddress hostname, int port, Message data) {
-        new Thread(() -> {
+        tasks.execute(() -> {
             try {
-                byte[] buf = new Gson().toJson(new AuthedMessage(data)).getBytes();
-                DatagramPacket packet = new DatagramPacket(buf, buf.length, hostname, port);
-                socket.send(packet);
+                unreliableSend(hostname, port, codec.encode(new AuthedMessage(data)));
             } catch (Exception e) {
                 // TODO : for now, surpress exceptions :/
                 //e.printStackTrace();
                 //throw new HDSSException(ErrorMessage.SocketSendingError);
             }
-        }).start();
+        });
+    }
+
+    /*
+     * Sends an encoded frame without guarantee of delivery, possibly sharing a datagram
+     * with other frames to the same destination
+     */
+    private void unreliableSend(InetAddress hostname, int port, byte[] frame) {
+        try {
+            batcher.send(frame, new InetSocketAddress(hostname, port));
+        } catch (Exception e) {
+            // TODO : for now, surpress exceptions :/
+            //throw new HDSSException(ErrorMessage.SocketSendingError);
+        }
     }
 
     /*
      * Receives a message from any node in the network (blocking)
+     *
+     * Messages go through a pipeline: a reader thread reads the datagrams, the verifiers decode
+     * and verify the frames in parallel and this method dispatches them (duplicates, ACKs,
+     * timestamps) one at a time in arrival order. Standalone binary ACKs are applied by the
+     * reader and never returned.
      */
     public Message receive() {
+        startReader();
         Message message = null;
-        AuthedMessage authed = null;
-        String serialized = "";
-        Boolean local = false;
-        DatagramPacket response = null;
 
         while (message == null) {
+            Pending pending;
             try {
-                if (this.localhostQueue.size() > 0) {
-                    authed = this.localhostQueue.poll();
-                    local = true; 
-                    this.receivedAcks.add(authed.getMessageId());
-                } else {
-                    byte[] buf = new byte[65535];
-                    response = new DatagramPacket(buf, buf.length);
-
-                    socket.receive(response);
-
-                    byte[] buffer = Arrays.copyOfRange(response.getData(), 0, response.getLength());
-                    serialized = new String(buffer);
-                    authed = new Gson().fromJson(serialized, AuthedMessage.class);
-                }
-                
+                pending = pipeline.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            if (pending.source != null)
+                pipelineSlots.release();
+
+            Received received;
+            try {
+                received = pending.future.join();
+            } catch (CompletionException e) {
+                // Failed outside the checks of the verifiers (e.g. an Error), only this frame is dropped
+                LOGGER.log(Level.WARNING, MessageFormat.format("{0} - Dropped frame from {1}: {2}",
+                        config.getId(), pending.source, e.getCause()));
+                continue;
+            }
+
+            try {
+                message = dispatch(received);
+            } catch (Exception e) {
+                message = null;
+            }
+        }
+        return message;
+    }
+
+    /*
+     * Parallel stage: decodes and verifies the signature of a received message, then of its
+     * nested data. Only reads the configuration of the link.
+     */
+    private Received verify(Received received) {
+        try {
+            AuthedMessage authed = received.authed;
+            if (authed.isMac()) {
+                // Only replicas sharing a session key with this one send MACs
+                if (sessionKeys == null || !nodes.containsKey(authed.getSenderId()))
+                    throw new HDSSException(ErrorMessage.InvalidMessageWrongMac);
+                authed.verifyMac(sessionKeys.get(authed.getSenderId()));
+            } else {
                 authed.verify();
+            }
+
+            // Only ACKs authenticated by the sender for this process are applied, a copy of the
+            // message may carry others
+            if (authed.hasAcks() && !authed.isAckAuthentic(config.getId(), authed.isMac() ? sessionKeys.get(authed.getSenderId()) : null)) {
+                LOGGER.log(Level.WARNING, MessageFormat.format("{0} - Dropped unauthenticated ACKs from {1}", config.getId(), authed.getSenderId()));
+                authed.clearAcks();
+            }
+
+            Message message = authed.getDataAsMessage();
+            received.message = message;
+            if (message.getType().equals(Message.Type.ACK))
+                return received;
+
+            // It's not an ACK -> Deserialize for the correct type
+            int senderId = message.getSenderId();
+            if (ProcessConfigBuilder.isClient(senderId) || ProcessConfigBuilder.isClient(config.getId())) { // If a client sent this message, turn it into a ClientMessage 
+                received.typed = authed.getDataAs(ClientMessage.class);
+            } else {
+                received.typed = authed.getDataAs(this.messageClass);
+            }
+
+            if (received.typed instanceof ConsensusMessage consensusMessage) {
+                try {
+                    consensusMessage.verify();
+                } catch (Exception e) {
+                    received.payloadError = e;
+                }
+            }
+        } catch (Exception e) {
+            received.error = e;
+        }
+        return received;
+    }
 
-                message = authed.getDataAsMessage();
+    /*
+     * Sequential stage: handles a verified message in arrival order
+     *
+     * @return The message to deliver, null if it is only relevant to the link
+     */
+    private Message dispatch(Received received) throws Exception {
+        AuthedMessage authed = received.authed;
+        boolean local = received.isLocal();
+        if (local)
+            this.receivedAcks.get(config.getId()).add(authed.getMessageId());
+        if (received.error != null)
+            throw received.error;
+
+        Message message = received.message;
+        int senderId = message.getSenderId();
+        // Message ID chosen by the sender for this link, not covered by the signature
+        int messageId = authed.getMessageId();
+
+        LOGGER.log(Level.INFO, MessageFormat.format("Received message [{0}] from {1}: {2}", messageId, message.getSenderId(), message.getType()));
+
+        boolean isClient = false;
+        if (clients.containsKey(senderId))
+            isClient = true;
+        else if (!nodes.containsKey(senderId))
+            throw new HDSSException(ErrorMessage.NoSuchNode);
+
+        // Cumulative ACK of the messages sent to the sender, carried by any message
+        if (authed.hasAcks()) {
+            ackAll(senderId, authed.getAckFloor(), authed.getAcks());
+            authed.clearAcks();
+        }
+
+        // Handle ACKS, since it's possible to receive multiple acks from the same
+        // message. An ACK without authenticated ACK fields acknowledges nothing, its message ID
+        // isn't authenticated
+        if (message.getType().equals(Message.Type.ACK))
+            return message;
+
+        //To avoid DoS attacks we check if timestamp is within valid window 
+        if (!isValidTimestamp(authed.getSenderId(), isClient ? 500 : 0, new Timestamp(System.currentTimeMillis()))) {
+            LOGGER.log(Level.WARNING, "Received message with invalid timestamp from " + message.getSenderId());
+            throw new Exception();
+        }
 
-                int senderId = message.getSenderId();
-                int messageId = message.getMessageId();
+        message = received.typed;
 
-                LOGGER.log(Level.INFO, MessageFormat.format("Received message [{0}] from {1}: {2}", messageId, message.getSenderId(), message.getType()));
+        boolean isRepeated = !receivedMessages.get(message.getSenderId()).add(messageId);
+        Type originalType = message.getType();
+        // Message already received (add returns false if already exists) => Discard
+        if (isRepeated) {
+            message.setType(Message.Type.IGNORE);
+        }
 
-                boolean isClient = false;
-                if (clients.containsKey(senderId))
-                    isClient = true;
-                else if (!nodes.containsKey(senderId))
-                    throw new HDSSException(ErrorMessage.NoSuchNode);
+        // Repeated messages are acknowledged again, their ACK may have been lost
+        if (!local)
+            scheduleAck(senderId, messageId, received.source);
 
-                // Handle ACKS, since it's possible to receive multiple acks from the same
-                // message
-                if (message.getType().equals(Message.Type.ACK)) {
-                    receivedAcks.add(messageId);
+        switch (message.getType()) {
+            case CHECK_BALANCE, TRANSFER -> {
+                message = authed; // Important! For client requests, the AuthMessage is retured in order to preserve the MAC signature
+            }
+            case ACK, RESPONSE_BALANCE, RESPONSE_TRANSFER -> {}
+           
+            case IGNORE -> {
+                if (!originalType.equals(Type.COMMIT))
                     return message;
-                }
+            }
+            default -> {
+                // Verified by the parallel stage
+                ConsensusMessage consensusMessage = (ConsensusMessage) message;
+                if (received.payloadError != null)
+                    throw received.payloadError;
+
+                if (consensusMessage.getReplyTo() == config.getId())
+                    acknowledge(consensusMessage.getSenderId(), consensusMessage.getReplyToMessageId());
+
+                message = authed; // Every consensus message is returned as the authed version
+            }
+        }
+        return message;
+    }
 
-                //To avoid DoS attacks we check if timestamp is within valid window 
-                if (!isValidTimestamp(authed.getSenderId(), isClient ? 500 : 0, new Timestamp(System.currentTimeMillis()))) {
-                    LOGGER.log(Level.WARNING, "Received message with invalid timestamp from " + message.getSenderId());
-                    throw new Exception();
+    public synchronized void onReceive(Consumer<Message> handler, Executor executor) {
+        this.receiveHandler = handler;
+        this.receiveExecutor = executor;
+        if (receiver != null)
+            return;
+
+        receiver = new Thread(() -> {
+            while (true) {
+                Message message = receive();
+                Consumer<Message> messageHandler = receiveHandler;
+                try {
+                    receiveExecutor.execute(() -> messageHandler.accept(message));
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, MessageFormat.format("{0} - Handler failed on {1} message from {2}",
+                            config.getId(), message.getType(), message.getSenderId()));
                 }
+            }
+        }, "link-receiver-" + config.getId());
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    private synchronized void startReader() {
+        if (reader != null)
+            return;
 
-                // It's not an ACK -> Deserialize for the correct type
-                if (ProcessConfigBuilder.isClient(senderId) || ProcessConfigBuilder.isClient(config.getId())) { // If a client sent this message, turn it into a ClientMessage 
-                    message = authed.getDataAs(ClientMessage.class);
-                } else {
-                    message = authed.getDataAs(this.messageClass);
+        reader = new Thread(() -> {
+            while (channel.isOpen()) {
+                try {
+                    readDatagram();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    // Lost datagram, its sender retransmits it
                 }
+            }
+        }, "apl-reader-" + config.getId());
+        reader.setDaemon(true);
+        reader.start();
+    }
 
-                boolean isRepeated = !receivedMessages.get(message.getSenderId()).add(messageId);
-                Type originalType = message.getType();
-                // Message already received (add returns false if already exists) => Discard
-                if (isRepeated) {
-                    message.setType(Message.Type.IGNORE);
+    /*
+     * Reads one datagram (blocking) and hands each frame it carries to the verifiers
+     * Malformed frames are dropped without affecting the others. In a batch with a malformed
+     * length, the frames before it are still handed over, the ones after it are lost (their
+     * senders retransmit them).
+     *
+     * Standalone binary ACKs are applied here, decoded in place from the pooled buffer, only the
+     * other frames are copied out of it, each handed to the verifiers as soon as it's unpacked
+     */
+    private void readDatagram() throws IOException, InterruptedException {
+        ByteBuffer buffer = buffers.acquire();
+        try {
+            InetSocketAddress source = (InetSocketAddress) channel.receive(buffer);
+            buffer.flip();
+            DatagramBatcher.unpack(buffer, (frame) -> {
+                if (BinaryCodec.isAck(frame)) {
+                    receiveAck(frame, source);
+                    return;
                 }
 
-                switch (message.getType()) {
-                    case CHECK_BALANCE, TRANSFER -> {
-                        message = authed; // Important! For client requests, the AuthMessage is retured in order to preserve the MAC signature
-                    }
-                    case ACK, RESPONSE_BALANCE, RESPONSE_TRANSFER -> {}
-                   
-                    case IGNORE -> {
-                        if (!originalType.equals(Type.COMMIT))
-                            return message;
-                    }
-                    default -> {
-                        ConsensusMessage consensusMessage = (ConsensusMessage) message;
-                        try {
-                            consensusMessage.verify();
-                        } catch (Exception e ) {
-                            throw e;
-                        }
-
-                        if (consensusMessage.getReplyTo() == config.getId())
-                            receivedAcks.add(consensusMessage.getReplyToMessageId());
-
-                        message = authed; // Every consensus message is returned as the authed version
-                    }
+                try {
+                    pipelineSlots.acquire();
+                } catch (InterruptedException e) {
+                    // Reader stopping, the frame is dropped
+                    Thread.currentThread().interrupt();
+                    return;
                 }
+                byte[] bytes = new byte[frame.remaining()];
+                frame.get(bytes);
+                pipeline.add(new Pending(CompletableFuture.supplyAsync(() -> decode(bytes, source), VERIFIERS), source));
+            });
+        } finally {
+            buffers.release(buffer);
+        }
+
+        if (Thread.interrupted())
+            throw new InterruptedException();
+    }
+
+    /*
+     * Applies a standalone ACK read from the network, decoded from the receive buffer on the
+     * reader thread. Only its ACK fields matter and they carry their own authentication (the ACK
+     * tag), checked here when it's a MAC and by a verifier when it's a signature. These ACKs
+     * aren't returned by receive.
+     */
+    private void receiveAck(ByteBuffer frame, InetSocketAddress source) {
+        AuthedMessage ack;
+        try {
+            ack = MessageCodec.BINARY.decode(frame);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, MessageFormat.format("{0} - Dropped malformed frame from {1}", config.getId(), source));
+            return;
+        }
+        if (!ack.hasAcks() || getProcess(ack.getSenderId()) == null)
+            return;
 
-                if (!local) {
-                    InetAddress address = InetAddress.getByName(response.getAddress().getHostAddress());
-                    int port = response.getPort();
+        if (ack.isMac())
+            applyAck(ack);
+        else
+            VERIFIERS.execute(() -> applyAck(ack));
+    }
 
-                    Message responseMessage = new Message(this.config.getId(), Message.Type.ACK);
-                    responseMessage.setMessageId(messageId);
+    private void applyAck(AuthedMessage ack) {
+        int senderId = ack.getSenderId();
+        // Only replicas sharing a session key with this one send MACs
+        if (ack.isMac() && (sessionKeys == null || !nodes.containsKey(senderId)))
+            return;
 
-                    // ACK is sent without needing for another ACK because
-                    // we're assuming an eventually synchronous network
-                    // Even if a node receives the message multiple times,
-                    // it will discard duplicates
-                    unreliableSend(address, port, responseMessage);
-                }
-            } catch (Exception e ) {
-                message = null;
-            }
+        if (ack.isAckAuthentic(config.getId(), ack.isMac() ? sessionKeys.get(senderId) : null))
+            ackAll(senderId, ack.getAckFloor(), ack.getAcks());
+        else
+            LOGGER.log(Level.WARNING, MessageFormat.format("{0} - Dropped unauthenticated ACKs from {1}", config.getId(), senderId));
+    }
+
+    private Received decode(byte[] frame, InetSocketAddress source) {
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        try {
+            return verify(new Received(MessageCodec.detect(buffer).decode(buffer), source));
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, MessageFormat.format("{0} - Dropped malformed frame from {1}", config.getId(), source));
+            Received received = new Received(null, source);
+            received.error = e;
+            return received;
         }
-        return message;
     }
 
     public ProcessConfig getConfig() {
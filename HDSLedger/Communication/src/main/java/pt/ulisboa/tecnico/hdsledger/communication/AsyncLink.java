@@ -0,0 +1,42 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import pt.ulisboa.tecnico.hdsledger.communication.messages.Message;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/*
+ * Link reporting the delivery of each send and pushing received messages to a handler
+ */
+public interface AsyncLink extends Link {
+
+    /*
+     * Sends a message to a specific node with guarantee of delivery
+     *
+     * @return Future completed once the node acknowledges the message, completed exceptionally
+     * (HDSSException) if the message can't be sent or is dropped from the send queue
+     */
+    public CompletableFuture<Void> sendAsync(int nodeId, Message data);
+
+    /*
+     * Broadcasts a message to all nodes in the network
+     *
+     * @return Node identifier -> Future completed once that node acknowledges the message
+     */
+    public Map<Integer, CompletableFuture<Void>> broadcastAsync(Message data);
+
+    /*
+     * Delivers every received message to the handler, run by the executor
+     * Once a handler is set receive() must not be called, a new handler replaces the previous one
+     */
+    public void onReceive(Consumer<Message> handler, Executor executor);
+
+    /*
+     * Delivers every received message to the handler, run by the thread receiving the messages
+     */
+    public default void onReceive(Consumer<Message> handler) {
+        onReceive(handler, Runnable::run);
+    }
+}
@@ -0,0 +1,58 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Pool of direct byte buffers reused across datagram receives
+ */
+public class BufferPool {
+
+    // Largest UDP payload
+    public static final int DATAGRAM_SIZE = 65535;
+    public static final int DEFAULT_POOL_SIZE = 16;
+
+    private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final int bufferSize;
+    private final int maxPooled;
+    // Number of buffers currently in the queue
+    private final AtomicInteger pooled = new AtomicInteger(0);
+
+    public BufferPool() {
+        this(DATAGRAM_SIZE, DEFAULT_POOL_SIZE);
+    }
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /*
+     * Returns a cleared buffer, allocating one only if the pool is empty
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null)
+            return ByteBuffer.allocateDirect(bufferSize);
+
+        pooled.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /*
+     * Gives a buffer back to the pool, buffers beyond the pool size are dropped
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize)
+            return;
+
+        if (pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            return;
+        }
+        buffers.add(buffer);
+    }
+}
@@ -0,0 +1,121 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import pt.ulisboa.tecnico.hdsledger.communication.messages.AuthedMessage;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/*
+ * Threads verifying signatures, shared by the receive pipeline of every link and the quorum
+ * checks of the services (one thread per core)
+ */
+public class CryptoPool {
+
+    private static final AtomicInteger count = new AtomicInteger(0);
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), (runnable) -> {
+                Thread thread = new CryptoThread(runnable, "crypto-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private static class CryptoThread extends Thread {
+        private CryptoThread(Runnable runnable, String name) {
+            super(runnable, name);
+        }
+    }
+
+    private CryptoPool() {
+    }
+
+    public static ExecutorService getExecutor() {
+        return EXECUTOR;
+    }
+
+    /*
+     * Verifies the messages in parallel until quorumSize of them are valid
+     *
+     * Returns as soon as the quorum is reached or can no longer be reached, the verifications not
+     * started by then are skipped. Called from a crypto thread (which would wait on its own pool)
+     * the messages are verified in order.
+     */
+    public static boolean verifyQuorum(List<AuthedMessage> messages, int quorumSize) {
+        return verifyQuorum(messages, CryptoPool::isValid, quorumSize);
+    }
+
+    /*
+     * Same as verifyQuorum(messages, quorumSize) for items checked by isValid (e.g. the votes of a
+     * quorum certificate)
+     */
+    public static <T> boolean verifyQuorum(List<T> messages, Predicate<T> isValid, int quorumSize) {
+        if (messages == null || messages.size() < quorumSize)
+            return false;
+        if (quorumSize <= 0)
+            return true;
+        if (Thread.currentThread() instanceof CryptoThread)
+            return verifyInOrder(messages, isValid, quorumSize);
+
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        AtomicInteger valid = new AtomicInteger(0);
+        AtomicInteger invalid = new AtomicInteger(0);
+        AtomicBoolean done = new AtomicBoolean(false);
+        // Invalid messages after which the quorum can't be reached
+        int tolerated = messages.size() - quorumSize;
+
+        for (T message : messages) {
+            EXECUTOR.execute(() -> {
+                if (done.get())
+                    return;
+                if (test(isValid, message)) {
+                    if (valid.incrementAndGet() >= quorumSize && done.compareAndSet(false, true))
+                        result.complete(true);
+                } else if (invalid.incrementAndGet() > tolerated && done.compareAndSet(false, true)) {
+                    result.complete(false);
+                }
+            });
+        }
+
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+
+    private static <T> boolean verifyInOrder(List<T> messages, Predicate<T> isValid, int quorumSize) {
+        int valid = 0;
+        for (T message : messages) {
+            if (test(isValid, message) && ++valid >= quorumSize)
+                return true;
+        }
+        return false;
+    }
+
+    // A check that fails counts as invalid, the quorum is still decided
+    private static <T> boolean test(Predicate<T> isValid, T message) {
+        try {
+            return isValid.test(message);
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static boolean isValid(AuthedMessage message) {
+        try {
+            message.verify();
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/*
+ * Coalesces the frames sent to the same peer into a single datagram
+ *
+ * A frame waits at most the linger time before its batch is sent, a batch is sent right away
+ * once the next frame would not fit in the size budget. A batch with a single frame is sent as
+ * the frame itself, otherwise the datagram is MAGIC, VERSION and each frame prefixed by its
+ * length (unsigned short).
+ */
+public class DatagramBatcher {
+
+    // First byte of a batch datagram (frames start with '{' or BinaryCodec.MAGIC)
+    public static final byte MAGIC = (byte) 0xB2;
+    public static final int VERSION = 1;
+    // Largest UDP payload over IPv4
+    public static final int MAX_DATAGRAM_SIZE = 65507;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 8192;
+    // Maximum time a frame waits for others (ms), 0 sends every frame on its own
+    public static final int DEFAULT_LINGER = 1;
+
+    private static final int HEADER_SIZE = 2;
+    private static final int LENGTH_SIZE = 2;
+
+    private final DatagramChannel channel;
+    private final int maxBatchSize;
+    private final long lingerNanos;
+    // Destination -> Frames waiting to be sent
+    private final Map<SocketAddress, Batch> batches = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+    // Number of datagrams handed to the channel
+    private final AtomicLong datagrams = new AtomicLong(0);
+
+    private static class Batch {
+        private final SocketAddress destination;
+        private final List<byte[]> frames = new ArrayList<>();
+        private int size = HEADER_SIZE;
+        private boolean scheduled = false;
+
+        private Batch(SocketAddress destination) {
+            this.destination = destination;
+        }
+
+        private ByteBuffer drain() {
+            if (frames.isEmpty())
+                return null;
+
+            ByteBuffer datagram;
+            if (frames.size() == 1) {
+                datagram = ByteBuffer.wrap(frames.get(0));
+            } else {
+                datagram = ByteBuffer.allocate(size);
+                datagram.put(MAGIC);
+                datagram.put((byte) VERSION);
+                for (byte[] frame : frames) {
+                    datagram.putShort((short) frame.length);
+                    datagram.put(frame);
+                }
+                datagram.flip();
+            }
+
+            frames.clear();
+            size = HEADER_SIZE;
+            return datagram;
+        }
+    }
+
+    public DatagramBatcher(DatagramChannel channel) {
+        this(channel, DEFAULT_MAX_BATCH_SIZE, DEFAULT_LINGER);
+    }
+
+    public DatagramBatcher(DatagramChannel channel, int maxBatchSize, int linger) {
+        this.channel = channel;
+        this.maxBatchSize = Math.min(maxBatchSize, MAX_DATAGRAM_SIZE);
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(linger);
+        this.timer = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "datagram-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /*
+     * Queues a frame to a destination, the frame is sent within the linger time
+     */
+    public void send(byte[] frame, SocketAddress destination) {
+        // Batching disabled or frame too large to share a datagram
+        if (lingerNanos == 0 || HEADER_SIZE + LENGTH_SIZE + frame.length > maxBatchSize) {
+            write(ByteBuffer.wrap(frame), destination);
+            return;
+        }
+
+        Batch batch = batches.computeIfAbsent(destination, Batch::new);
+        ByteBuffer full = null;
+        synchronized (batch) {
+            if (batch.size + LENGTH_SIZE + frame.length > maxBatchSize)
+                full = batch.drain();
+
+            batch.frames.add(frame);
+            batch.size += LENGTH_SIZE + frame.length;
+
+            if (!batch.scheduled) {
+                batch.scheduled = true;
+                timer.schedule(() -> flush(batch), lingerNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        if (full != null)
+            write(full, destination);
+    }
+
+    public long getDatagramCount() {
+        return datagrams.get();
+    }
+
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    /*
+     * Splits a received datagram into its frames
+     *
+     * @param datagram The datagram between its position and limit
+     *
+     * @param frames Receives each frame between the position and limit of a buffer, as soon as
+     * it's read
+     *
+     * @throws IOException If the batch is malformed, once the frames before the malformed one
+     * were handed out (the ones after it can't be delimited)
+     */
+    public static void unpack(ByteBuffer datagram, Consumer<ByteBuffer> frames) throws IOException {
+        if (!datagram.hasRemaining() || datagram.get(datagram.position()) != MAGIC) {
+            frames.accept(datagram);
+            return;
+        }
+
+        if (datagram.remaining() < HEADER_SIZE)
+            throw new IOException("Malformed batch");
+
+        datagram.get();
+        int version = datagram.get();
+        if (version != VERSION)
+            throw new IOException(MessageFormat.format("Unsupported batch version {0}", version));
+
+        while (datagram.hasRemaining()) {
+            if (datagram.remaining() < LENGTH_SIZE)
+                throw new IOException("Malformed batch");
+
+            int length = datagram.getShort() & 0xFFFF;
+            if (length > datagram.remaining())
+                throw new IOException("Malformed batch");
+
+            frames.accept(datagram.slice(datagram.position(), length));
+            datagram.position(datagram.position() + length);
+        }
+    }
+
+    private void flush(Batch batch) {
+        ByteBuffer datagram;
+        synchronized (batch) {
+            batch.scheduled = false;
+            datagram = batch.drain();
+        }
+
+        if (datagram != null)
+            write(datagram, batch.destination);
+    }
+
+    private void write(ByteBuffer datagram, SocketAddress destination) {
+        datagrams.incrementAndGet();
+        try {
+            channel.send(datagram, destination);
+        } catch (IOException e) {
+            // Lost like any other datagram, reliable sends are retransmitted
+        }
+    }
+}
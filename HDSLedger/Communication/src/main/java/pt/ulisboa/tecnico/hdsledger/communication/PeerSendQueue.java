@@ -0,0 +1,163 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import pt.ulisboa.tecnico.hdsledger.utilities.ErrorMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.HDSSException;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/*
+ * Outbound queue of the reliable sends to a single destination
+ *
+ * At most window sends are in flight (transmitted and not yet acknowledged), the others wait
+ * in the queue. Once the queue holds capacity sends, the overflow policy decides what happens
+ * to a new one. By default the caller is told (fail fast): the consensus layer relies on every
+ * message sent reaching a correct node, so discarding queued ones is only done on request, and
+ * waiting would stall the sender for good on a crashed node.
+ */
+public class PeerSendQueue {
+
+    // Sends in flight to a destination
+    public static final int DEFAULT_WINDOW = 64;
+    // Sends waiting for the window to a destination
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    public enum OverflowPolicy {
+        // Caller waits until the queue has room
+        BLOCK,
+        // Oldest waiting send is discarded, breaking the delivery guarantee (opt-in)
+        DROP_OLDEST,
+        // Caller gets an HDSSException (SendQueueFull)
+        FAIL_FAST;
+
+        /*
+         * Policy selected by the "sendOverflow" field of the system configuration (fail_fast by default)
+         */
+        public static OverflowPolicy forName(String name) {
+            if (name == null)
+                return FAIL_FAST;
+            try {
+                return OverflowPolicy.valueOf(name.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new HDSSException(ErrorMessage.UnknownOverflowPolicy);
+            }
+        }
+    }
+
+    private final int window;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    // Sends waiting for the window
+    private final Deque<QueuedSend> waiting = new ArrayDeque<>();
+    private int inFlight = 0;
+    private long dropped = 0;
+
+    private static class QueuedSend {
+        // Transmits the message and returns a future completed on its ACK
+        private final Supplier<CompletableFuture<Void>> transmit;
+        private final CompletableFuture<Void> delivered = new CompletableFuture<>();
+
+        private QueuedSend(Supplier<CompletableFuture<Void>> transmit) {
+            this.transmit = transmit;
+        }
+    }
+
+    public PeerSendQueue() {
+        this(DEFAULT_WINDOW, DEFAULT_CAPACITY, OverflowPolicy.FAIL_FAST);
+    }
+
+    public PeerSendQueue(int window, int capacity, OverflowPolicy policy) {
+        this.window = Math.max(1, window);
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+    }
+
+    /*
+     * Transmits a send now if the window allows it, queues it otherwise
+     *
+     * @param transmit Transmits the message and returns a future completed once it is acknowledged
+     *
+     * @return Future completed once the message is acknowledged, or completed exceptionally
+     * with an HDSSException (SendDropped) if the drop oldest policy discards it
+     */
+    public CompletableFuture<Void> submit(Supplier<CompletableFuture<Void>> transmit) {
+        QueuedSend send = new QueuedSend(transmit);
+        CompletableFuture<Void> delivered = send.delivered;
+        synchronized (this) {
+            if (inFlight < window && waiting.isEmpty()) {
+                inFlight++;
+            } else {
+                while (waiting.size() >= capacity) {
+                    switch (policy) {
+                        case FAIL_FAST -> throw new HDSSException(ErrorMessage.SendQueueFull);
+                        case DROP_OLDEST -> {
+                            waiting.poll().delivered.completeExceptionally(new HDSSException(ErrorMessage.SendDropped));
+                            dropped++;
+                        }
+                        case BLOCK -> {
+                            try {
+                                wait();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                throw new HDSSException(ErrorMessage.SendQueueFull);
+                            }
+                        }
+                    }
+                }
+                waiting.add(send);
+                send = null;
+            }
+        }
+
+        if (send != null)
+            dispatch(send);
+        return delivered;
+    }
+
+    public synchronized int getQueuedCount() {
+        return waiting.size();
+    }
+
+    public synchronized int getInFlightCount() {
+        return inFlight;
+    }
+
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    private void dispatch(QueuedSend send) {
+        CompletableFuture<Void> acknowledged;
+        try {
+            acknowledged = send.transmit.get();
+        } catch (RuntimeException e) {
+            acknowledged = CompletableFuture.failedFuture(e);
+        }
+        acknowledged.whenComplete((result, error) -> {
+            release();
+            if (error != null)
+                send.delivered.completeExceptionally(error);
+            else
+                send.delivered.complete(null);
+        });
+    }
+
+    /*
+     * A send left the window, the next waiting one takes its place
+     */
+    private void release() {
+        QueuedSend next;
+        synchronized (this) {
+            inFlight--;
+            next = waiting.poll();
+            if (next != null)
+                inFlight++;
+            notifyAll();
+        }
+
+        if (next != null)
+            dispatch(next);
+    }
+}
@@ -0,0 +1,265 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Retransmission scheduler shared by every reliable send of a link
+ *
+ * Pending sends are kept in a hashed timer wheel advanced by a single ticker thread,
+ * due retransmissions are handed to a small fixed pool of workers. A pending send is
+ * retransmitted with exponential back-off until it is acknowledged.
+ */
+public class RetransmissionScheduler {
+
+    // Duration of a wheel tick (ms)
+    public static final int DEFAULT_TICK_DURATION = 10;
+    // Number of slots in the wheel (must be a power of two)
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+    // Number of threads performing retransmissions
+    public static final int DEFAULT_WORKERS = 2;
+    // Upper bound for the back-off between two attempts (ms)
+    public static final int MAX_BACKOFF = 10000;
+
+    private final long tickNanos;
+    private final int mask;
+    // Wheel slots, only touched by the ticker thread
+    private final Queue<PendingSend>[] wheel;
+    // Sends waiting to be placed on the wheel
+    private final Queue<PendingSend> incoming = new ConcurrentLinkedQueue<>();
+    // Destination -> Message ID -> Pending send
+    private final Map<Integer, Map<Integer, PendingSend>> pending = new ConcurrentHashMap<>();
+    // Number of entries currently on the wheel (ticker thread only)
+    private int wheelEntries = 0;
+    // Current tick of the wheel (ticker thread only)
+    private long tick = 0;
+    private final Executor workers;
+    private final Thread ticker;
+    private volatile boolean running = true;
+    private volatile boolean idle = false;
+
+    private static class PendingSend {
+        private final int destination;
+        private final int messageId;
+        private final Runnable transmit;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private int delay;
+        private long remainingRounds;
+
+        private PendingSend(int destination, int messageId, int delay, Runnable transmit) {
+            this.destination = destination;
+            this.messageId = messageId;
+            this.delay = delay;
+            this.transmit = transmit;
+        }
+    }
+
+    public RetransmissionScheduler() {
+        this(DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE, DEFAULT_WORKERS);
+    }
+
+    public RetransmissionScheduler(int tickDuration, int wheelSize, int workers) {
+        this(tickDuration, wheelSize, newWorkers(workers), true);
+    }
+
+    /*
+     * @param workers Performs the retransmissions
+     *
+     * @param ticking Whether a ticker thread advances the wheel in real time, otherwise it's only
+     * advanced by advance() (for deterministic tests)
+     */
+    @SuppressWarnings("unchecked")
+    RetransmissionScheduler(int tickDuration, int wheelSize, Executor workers, boolean ticking) {
+        if (Integer.bitCount(wheelSize) != 1)
+            throw new IllegalArgumentException("Wheel size must be a power of two");
+
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+        this.mask = wheelSize - 1;
+        this.wheel = new Queue[wheelSize];
+        for (int i = 0; i < wheelSize; i++)
+            this.wheel[i] = new ArrayDeque<>();
+
+        this.workers = workers;
+
+        this.ticker = ticking ? new Thread(this::run, "retransmission-ticker") : null;
+        if (ticking) {
+            this.ticker.setDaemon(true);
+            this.ticker.start();
+        }
+    }
+
+    private static ExecutorService newWorkers(int workers) {
+        AtomicInteger workerCount = new AtomicInteger(0);
+        return Executors.newFixedThreadPool(workers, (runnable) -> {
+            Thread thread = new Thread(runnable, "retransmission-worker-" + workerCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /*
+     * Transmits a message and keeps retransmitting it until acknowledged
+     *
+     * @param destination The destination process identifier
+     *
+     * @param messageId The message identifier the ACK will refer to
+     *
+     * @param baseDelay Time to wait for an ACK before the first retransmission (ms)
+     *
+     * @param transmit Performs one (unreliable) transmission of the message
+     *
+     * @return Future completed once the message is acknowledged
+     */
+    public CompletableFuture<Void> schedule(int destination, int messageId, int baseDelay, Runnable transmit) {
+        PendingSend send = new PendingSend(destination, messageId, baseDelay, transmit);
+        pending.computeIfAbsent(destination, (id) -> new ConcurrentHashMap<>()).put(messageId, send);
+
+        // First attempt is done by the caller, retransmissions by the workers
+        transmit.run();
+
+        incoming.add(send);
+        if (idle)
+            LockSupport.unpark(ticker);
+
+        return send.future;
+    }
+
+    /*
+     * Marks a message as delivered, stopping its retransmissions
+     */
+    public void acknowledge(int destination, int messageId) {
+        Map<Integer, PendingSend> sends = pending.get(destination);
+        if (sends == null)
+            return;
+
+        PendingSend send = sends.remove(messageId);
+        if (send != null)
+            send.future.complete(null);
+    }
+
+    /*
+     * Marks every message sent to a destination with an ID up to (and including) floor as delivered
+     */
+    public void acknowledgeUpTo(int destination, int floor) {
+        Map<Integer, PendingSend> sends = pending.get(destination);
+        if (sends == null)
+            return;
+
+        sends.keySet().forEach((messageId) -> {
+            if (messageId <= floor)
+                acknowledge(destination, messageId);
+        });
+    }
+
+    /*
+     * Marks a message as delivered regardless of its destination
+     */
+    public void acknowledge(int messageId) {
+        pending.keySet().forEach((destination) -> acknowledge(destination, messageId));
+    }
+
+    public int getPendingCount(int destination) {
+        Map<Integer, PendingSend> sends = pending.get(destination);
+        return sends == null ? 0 : sends.size();
+    }
+
+    public int getPendingCount() {
+        return pending.values().stream().mapToInt(Map::size).sum();
+    }
+
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(ticker);
+        if (workers instanceof ExecutorService pool)
+            pool.shutdownNow();
+    }
+
+    /*
+     * Advances the wheel by one tick, placing the new sends and retransmitting the due ones
+     */
+    void advance() {
+        tick++;
+        placeIncoming(tick);
+        expire(tick);
+    }
+
+    private void run() {
+        long start = System.nanoTime();
+
+        while (running) {
+            // Nothing to retransmit, wait for the next schedule
+            if (wheelEntries == 0 && incoming.isEmpty()) {
+                idle = true;
+                if (incoming.isEmpty())
+                    LockSupport.park(this);
+                idle = false;
+                start = System.nanoTime();
+                tick = 0;
+                continue;
+            }
+
+            long sleep = start + (tick + 1) * tickNanos - System.nanoTime();
+            if (sleep > 0)
+                LockSupport.parkNanos(this, sleep);
+            if (System.nanoTime() - start < (tick + 1) * tickNanos)
+                continue;
+
+            advance();
+        }
+    }
+
+    private void place(PendingSend send, long tick) {
+        long ticks = Math.max(1, TimeUnit.MILLISECONDS.toNanos(send.delay) / tickNanos);
+        send.remainingRounds = (ticks - 1) / wheel.length;
+        wheel[(int) ((tick + ticks) & mask)].add(send);
+        wheelEntries++;
+    }
+
+    private void placeIncoming(long tick) {
+        PendingSend send;
+        while ((send = incoming.poll()) != null) {
+            if (!send.future.isDone())
+                place(send, tick - 1);
+        }
+    }
+
+    private void expire(long tick) {
+        Queue<PendingSend> slot = wheel[(int) (tick & mask)];
+        int size = slot.size();
+
+        for (int i = 0; i < size; i++) {
+            PendingSend send = slot.poll();
+            wheelEntries--;
+
+            // Acknowledged meanwhile, drop it
+            if (send.future.isDone())
+                continue;
+
+            if (send.remainingRounds > 0) {
+                send.remainingRounds--;
+                slot.add(send);
+                wheelEntries++;
+                continue;
+            }
+
+            workers.execute(() -> {
+                if (!send.future.isDone())
+                    send.transmit.run();
+            });
+
+            // Exponential back-off
+            send.delay = Math.min(send.delay << 1, MAX_BACKOFF);
+            place(send, tick);
+        }
+    }
+}
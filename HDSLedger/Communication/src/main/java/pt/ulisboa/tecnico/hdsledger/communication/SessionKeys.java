@@ -0,0 +1,64 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import pt.ulisboa.tecnico.hdsledger.utilities.ErrorMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.HDSSException;
+import pt.ulisboa.tecnico.hdsledger.utilities.KeyGetter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.KeyAgreement;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/*
+ * HMAC keys shared by a replica with each other replica
+ *
+ * The key of a pair is SHA-256 over the X25519 agreement of their key agreement pairs and both
+ * IDs, so each side derives the same key without exchanging messages.
+ */
+public class SessionKeys {
+
+    private static final byte[] LABEL = "hdsledger session key".getBytes(StandardCharsets.UTF_8);
+
+    private final int self;
+    // Replica ID -> Key shared with it
+    private final Map<Integer, SecretKey> keys = new ConcurrentHashMap<>();
+
+    /*
+     * Derives the keys shared with every peer
+     */
+    public SessionKeys(int self, Collection<Integer> peers) {
+        this.self = self;
+        peers.forEach(this::get);
+    }
+
+    /*
+     * @throws HDSSException (KeysNotFound) if the agreement keys of the peer can't be read
+     */
+    public SecretKey get(int peer) {
+        return keys.computeIfAbsent(peer, this::derive);
+    }
+
+    private SecretKey derive(int peer) {
+        try {
+            KeyAgreement agreement = KeyAgreement.getInstance("X25519");
+            agreement.init(KeyGetter.getAgreementPair(self).getPrivate());
+            agreement.doPhase(KeyGetter.getAgreementPair(peer).getPublic(), true);
+
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(LABEL);
+            digest.update(ByteBuffer.allocate(8).putInt(Math.min(self, peer)).putInt(Math.max(self, peer)).array());
+            digest.update(agreement.generateSecret());
+            return new SecretKeySpec(digest.digest(), "HmacSHA256");
+        } catch (HDSSException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new HDSSException(ErrorMessage.KeysNotFound);
+        }
+    }
+}
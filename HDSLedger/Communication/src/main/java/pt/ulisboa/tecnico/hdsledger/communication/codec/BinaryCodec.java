@@ -0,0 +1,596 @@
+package pt.ulisboa.tecnico.hdsledger.communication.codec;
+
+import com.google.gson.Gson;
+
+import pt.ulisboa.tecnico.hdsledger.communication.messages.*;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.consensus.*;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.ledger.*;
+import pt.ulisboa.tecnico.hdsledger.utilities.Transaction;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/*
+ * Compact binary wire format
+ *
+ * Frame: MAGIC, VERSION, then the AuthedMessage fields in a fixed order followed by the cumulative
+ * ACK carried by the frame (absent in version 1 frames). Votes of consensus messages and quorum
+ * certificates are absent in version 1 and 2 frames, request digests in version 1 to 3 frames
+ * (where every consensus message carries its request in full) and the authentication of the ACK
+ * in version 1 to 4 frames (whose ACKs are ignored). Integers are varints, strings and
+ * byte arrays are length prefixed, Base64 keys and signatures travel as raw bytes and a key
+ * already written in the same frame is replaced by a reference to it.
+ *
+ * The JSON strings nested inside messages (data, the consensus and ledger payloads, the client
+ * request) are written field by field instead of as escaped text. Signatures cover the JSON in
+ * data, so a nested value is only written field by field when Gson serializes the decoded value
+ * back to exactly the same string, otherwise the original string is sent as is.
+ */
+public class BinaryCodec implements MessageCodec {
+
+    // First byte of a binary frame, a JSON frame always starts with '{'
+    public static final byte MAGIC = (byte) 0xB1;
+    // Wire format version, bumped on incompatible changes
+    public static final int VERSION = 5;
+    // Oldest version still decoded
+    public static final int MIN_VERSION = 1;
+
+    private static final Gson GSON = new Gson();
+    private static final Message.Type[] TYPES = Message.Type.values();
+
+    // Encodings of a nullable nested value
+    private static final int NULL = 0;
+    private static final int OPAQUE = 1;
+    private static final int STRUCT = 2;
+    private static final int REFERENCE = 3;
+
+    // Piggyback list markers (the list size is written shifted by LIST_OFFSET)
+    private static final int NO_PIGGYBACK = 0;
+    private static final int EMPTY_PIGGYBACK = 1;
+    private static final int LIST_OFFSET = 2;
+
+    /*
+     * Field by field encoding of a class that is otherwise nested as JSON
+     */
+    private static class Struct<T> {
+        private final Class<T> type;
+        private final BiConsumer<WireWriter, T> writer;
+        private final Function<WireReader, T> reader;
+
+        private Struct(Class<T> type, BiConsumer<WireWriter, T> writer, Function<WireReader, T> reader) {
+            this.type = type;
+            this.writer = writer;
+            this.reader = reader;
+        }
+    }
+
+    private static final Struct<Transaction> TRANSACTION = new Struct<>(Transaction.class,
+            (out, t) -> {
+                writeBase64(out, t.getSource());
+                writeBase64(out, t.getDestination());
+                out.writeVarInt(t.getAmount());
+                out.writeBoolean(t.isCheckBalance());
+            },
+            (in) -> {
+                String source = readBase64(in);
+                String destination = readBase64(in);
+                int amount = in.readVarInt();
+                if (!in.readBoolean())
+                    return new Transaction(source, destination, amount);
+
+                Transaction t = new Transaction(source);
+                t.setDestination(destination);
+                t.setAmount(amount);
+                return t;
+            });
+
+    private static final Struct<PrePrepareMessage> PRE_PREPARE = new Struct<>(PrePrepareMessage.class,
+            (out, m) -> writeJson(out, m.getValue(), TRANSACTION),
+            (in) -> new PrePrepareMessage(readJson(in, TRANSACTION)));
+
+    private static final Struct<PrepareMessage> PREPARE = new Struct<>(PrepareMessage.class,
+            (out, m) -> writeJson(out, m.getValue(), TRANSACTION),
+            (in) -> new PrepareMessage(readJson(in, TRANSACTION)));
+
+    private static final Struct<CommitMessage> COMMIT = new Struct<>(CommitMessage.class,
+            (out, m) -> writeJson(out, m.getValue(), TRANSACTION),
+            (in) -> new CommitMessage(readJson(in, TRANSACTION)));
+
+    private static final Struct<RoundChangeMessage> ROUND_CHANGE = new Struct<>(RoundChangeMessage.class,
+            (out, m) -> {
+                out.writeVarInt(m.getPreparedRound());
+                writeJson(out, m.getValue(), TRANSACTION);
+            },
+            (in) -> {
+                int preparedRound = in.readVarInt();
+                return new RoundChangeMessage(preparedRound, readJson(in, TRANSACTION));
+            });
+
+    private static final Struct<TransferMessage> TRANSFER = new Struct<>(TransferMessage.class,
+            (out, m) -> {
+                writeBase64(out, m.getSource());
+                writeBase64(out, m.getDestination());
+                out.writeVarInt(m.getAmount());
+            },
+            (in) -> {
+                String source = readBase64(in);
+                String destination = readBase64(in);
+                return new TransferMessage(source, destination, in.readVarInt());
+            });
+
+    private static final Struct<CheckBalanceMessage> CHECK_BALANCE = new Struct<>(CheckBalanceMessage.class,
+            (out, m) -> writeBase64(out, m.getAccountPubKey()),
+            (in) -> new CheckBalanceMessage(readBase64(in)));
+
+    private static final Struct<BalanceResponseMessage> BALANCE_RESPONSE = new Struct<>(BalanceResponseMessage.class,
+            (out, m) -> out.writeVarInt(m.getBalance()),
+            (in) -> new BalanceResponseMessage(in.readVarInt()));
+
+    private static final Struct<TransferResponseMessage> TRANSFER_RESPONSE = new Struct<>(TransferResponseMessage.class,
+            (out, m) -> out.writeBoolean(m.wasSuccessful()),
+            (in) -> new TransferResponseMessage(in.readBoolean()));
+
+    private static final Struct<AuthedMessage> AUTHED = new Struct<>(AuthedMessage.class,
+            BinaryCodec::writeAuthed,
+            BinaryCodec::readAuthed);
+
+    private static final Struct<Message> MESSAGE = new Struct<>(Message.class,
+            BinaryCodec::writeHeader,
+            (in) -> {
+                Message m = new Message(in.readVarInt(), readType(in));
+                readHeader(in, m);
+                return m;
+            });
+
+    private static final Struct<ClientMessage> CLIENT_MESSAGE = new Struct<>(ClientMessage.class,
+            (out, m) -> {
+                writeHeader(out, m);
+                out.writeVarInt(m.getRequestId());
+                writeJson(out, m.getMessage(), clientPayload(m.getType()));
+            },
+            (in) -> {
+                int senderId = in.readVarInt();
+                Message.Type type = readType(in);
+                ClientMessage m = new ClientMessage(senderId, type, 0);
+                readHeader(in, m);
+                m.setRequestId(in.readVarInt());
+                m.setMessage(readJson(in, clientPayload(type)));
+                return m;
+            });
+
+    private static final Struct<ConsensusMessage> CONSENSUS_MESSAGE = new Struct<>(ConsensusMessage.class,
+            (out, m) -> {
+                writeHeader(out, m);
+                out.writeVarInt(m.getConsensusInstance());
+                out.writeVarInt(m.getRound());
+                out.writeVarInt(m.getReplyTo());
+                out.writeVarInt(m.getReplyToMessageId());
+                out.writeVarInt(m.getClientId());
+                writeJson(out, m.getMessage(), consensusPayload(m.getType()));
+                writeJson(out, m.getSerializedClientMessage(), AUTHED);
+                writeBase64(out, m.getVote());
+                writeBase64(out, m.getRequestDigest());
+            },
+            (in) -> {
+                int senderId = in.readVarInt();
+                Message.Type type = readType(in);
+                ConsensusMessage m = new ConsensusMessage(senderId, type);
+                readHeader(in, m);
+                m.setConsensusInstance(in.readVarInt());
+                m.setRound(in.readVarInt());
+                m.setReplyTo(in.readVarInt());
+                m.setReplyToMessageId(in.readVarInt());
+                m.setClientId(in.readVarInt());
+                m.setMessage(readJson(in, consensusPayload(type)));
+                m.setSerializedClientMessage(readJson(in, AUTHED));
+                if (in.getVersion() >= 3)
+                    m.setVote(readBase64(in));
+                if (in.getVersion() >= 4)
+                    m.setRequestDigest(readBase64(in));
+                return m;
+            });
+
+    @Override
+    public byte[] encode(AuthedMessage message) {
+        try {
+            WireWriter out = new WireWriter();
+            out.writeByte(MAGIC);
+            out.writeByte(VERSION);
+            writeAuthed(out, message);
+            writeAcks(out, message);
+            return out.toByteArray();
+        } catch (RuntimeException e) {
+            // Message the format can't represent (e.g. missing fields), every codec decodes JSON frames
+            return JSON.encode(message);
+        }
+    }
+
+    /*
+     * Whether a binary frame is a standalone ACK, told from its header (magic, version, then the
+     * type of the message) without decoding it
+     */
+    public static boolean isAck(ByteBuffer frame) {
+        int position = frame.position();
+        return frame.remaining() > 2 && frame.get(position) == MAGIC
+                && frame.get(position + 2) == Message.Type.ACK.ordinal() + 1;
+    }
+
+    @Override
+    public AuthedMessage decode(ByteBuffer buffer) throws IOException {
+        try {
+            WireReader in = new WireReader(buffer);
+            if (in.readByte() != (MAGIC & 0xFF))
+                throw new IOException("Not a binary frame");
+
+            int version = in.readByte();
+            if (version < MIN_VERSION || version > VERSION)
+                throw new IOException(MessageFormat.format("Unsupported wire format version {0}", version));
+
+            in.setVersion(version);
+            AuthedMessage message = readAuthed(in);
+            if (version >= 2)
+                readAcks(in, message);
+            return message;
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed binary frame", e);
+        }
+    }
+
+    private static void writeAcks(WireWriter out, AuthedMessage m) {
+        out.writeBoolean(m.hasAcks());
+        if (!m.hasAcks())
+            return;
+
+        out.writeVarInt(m.getAckFloor());
+        int[] acks = m.getAcks();
+        out.writeUnsignedVarInt(acks.length);
+        for (int messageId : acks)
+            out.writeVarInt(messageId);
+        writeBase64(out, m.getAckTag());
+    }
+
+    private static void readAcks(WireReader in, AuthedMessage m) {
+        if (!in.readBoolean())
+            return;
+
+        int floor = in.readVarInt();
+        int count = in.readUnsignedVarInt();
+        // Each ID takes at least one byte
+        if (count > in.remaining())
+            throw new IllegalArgumentException("Length exceeds the frame");
+
+        int[] acks = new int[count];
+        for (int i = 0; i < acks.length; i++)
+            acks[i] = in.readVarInt();
+        m.setAcks(floor, acks);
+        if (in.getVersion() >= 5)
+            m.setAckTag(readBase64(in));
+    }
+
+    private static void writeAuthed(WireWriter out, AuthedMessage m) {
+        writeType(out, m.getType());
+        out.writeVarInt(m.getSenderId());
+        out.writeVarInt(m.getMessageId());
+        writeBase64(out, m.getSignature());
+        writeBase64(out, m.getKey());
+        out.writeString(m.getHostname());
+        out.writeVarInt(m.getPortOrNull());
+        out.writeString(m.getTimeStamp());
+        writeJson(out, m.getData(), dataStruct(m.getType()));
+        writePiggyback(out, m.getSerializedPiggyback());
+    }
+
+    private static AuthedMessage readAuthed(WireReader in) {
+        Message.Type type = readType(in);
+        int senderId = in.readVarInt();
+        int messageId = in.readVarInt();
+        String signature = readBase64(in);
+        String key = readBase64(in);
+        String hostname = in.readString();
+        int port = in.readVarInt();
+        String timeStamp = in.readString();
+
+        // Data is decoded by hand to keep the decoded message around for getDataAs
+        Message decoded = null;
+        String data;
+        int encoding = in.readByte();
+        switch (encoding) {
+            case NULL -> data = null;
+            case OPAQUE -> data = in.readString();
+            case STRUCT -> {
+                decoded = dataStruct(type).reader.apply(in);
+                data = GSON.toJson(decoded);
+            }
+            default -> throw new IllegalArgumentException("Unknown encoding " + encoding);
+        }
+
+        AuthedMessage m = new AuthedMessage(senderId, type, data, signature, key, hostname, port, timeStamp);
+        m.setMessageId(messageId);
+        m.setSerializedPiggyback(readPiggyback(in));
+        if (decoded != null)
+            m.setDataDecoder(new DecodedData(decoded));
+        return m;
+    }
+
+    private static void writeHeader(WireWriter out, Message m) {
+        out.writeVarInt(m.getSenderId());
+        writeType(out, m.getType());
+        out.writeVarInt(m.getMessageId());
+        out.writeString(m.getSerializedPiggyback());
+    }
+
+    // Sender and type are read before building the message
+    private static void readHeader(WireReader in, Message m) {
+        m.setMessageId(in.readVarInt());
+        m.setSerializedPiggyback(in.readString());
+    }
+
+    private static void writePiggyback(WireWriter out, String piggyback) {
+        if (piggyback == null) {
+            out.writeUnsignedVarInt(NO_PIGGYBACK);
+            return;
+        }
+
+        Piggyback decoded = Piggyback.fromJson(piggyback);
+        List<AuthedMessage> messages = decoded.getMessages();
+        if (messages == null) {
+            out.writeUnsignedVarInt(EMPTY_PIGGYBACK);
+        } else {
+            out.writeUnsignedVarInt(messages.size() + LIST_OFFSET);
+            messages.forEach((message) -> writeAuthed(out, message));
+        }
+        writeCertificate(out, decoded.getCertificate());
+    }
+
+    private static String readPiggyback(WireReader in) {
+        int marker = in.readUnsignedVarInt();
+        if (marker == NO_PIGGYBACK)
+            return null;
+
+        List<AuthedMessage> messages = null;
+        if (marker != EMPTY_PIGGYBACK) {
+            messages = new ArrayList<>();
+            for (int i = 0; i < marker - LIST_OFFSET; i++)
+                messages.add(readAuthed(in));
+        }
+        QuorumCertificate certificate = in.getVersion() >= 3 ? readCertificate(in, 0) : null;
+        return new Piggyback(messages, certificate).toJson();
+    }
+
+    /*
+     * Votes are written as signer, prepared round, value digest and signature, the signatures as
+     * raw bytes. Certificates nested deeper than QuorumCertificate.MAX_NESTING are rejected
+     * before reading them.
+     */
+    private static void writeCertificate(WireWriter out, QuorumCertificate certificate) {
+        out.writeBoolean(certificate != null);
+        if (certificate == null)
+            return;
+
+        writeType(out, certificate.getType());
+        out.writeVarInt(certificate.getConsensusInstance());
+        out.writeVarInt(certificate.getRound());
+        writeBase64(out, certificate.getValueDigest());
+        List<QuorumCertificate.Vote> votes = certificate.getVotes();
+        out.writeUnsignedVarInt(votes == null ? 0 : votes.size() + 1);
+        if (votes != null) {
+            for (QuorumCertificate.Vote vote : votes) {
+                out.writeVarInt(vote.getSigner());
+                out.writeVarInt(vote.getPreparedRound());
+                writeBase64(out, vote.getValueDigest());
+                writeBase64(out, vote.getSignature());
+            }
+        }
+        writeCertificate(out, certificate.getPrepared());
+    }
+
+    private static QuorumCertificate readCertificate(WireReader in, int nesting) {
+        if (!in.readBoolean())
+            return null;
+        if (nesting > QuorumCertificate.MAX_NESTING)
+            throw new IllegalArgumentException("Certificate nested too deep");
+
+        Message.Type type = readType(in);
+        int consensusInstance = in.readVarInt();
+        int round = in.readVarInt();
+        String valueDigest = readBase64(in);
+        int count = in.readUnsignedVarInt() - 1;
+        // Each vote takes at least four bytes
+        if (count > in.remaining() / 4)
+            throw new IllegalArgumentException("Length exceeds the frame");
+
+        List<QuorumCertificate.Vote> votes = null;
+        if (count >= 0) {
+            votes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+                votes.add(new QuorumCertificate.Vote(in.readVarInt(), in.readVarInt(), readBase64(in), readBase64(in)));
+        }
+        return new QuorumCertificate(type, consensusInstance, round, valueDigest, votes, readCertificate(in, nesting + 1));
+    }
+
+    /*
+     * Writes a nested JSON string, field by field when it reproduces the exact string
+     */
+    private static <T> void writeJson(WireWriter out, String json, Struct<T> struct) {
+        if (json == null) {
+            out.writeByte(NULL);
+            return;
+        }
+
+        if (struct != null) {
+            int mark = out.size();
+            try {
+                T value = GSON.fromJson(json, struct.type);
+                if (value != null && GSON.toJson(value).equals(json)) {
+                    out.writeByte(STRUCT);
+                    struct.writer.accept(out, value);
+                    return;
+                }
+            } catch (RuntimeException e) {
+                out.truncate(mark);
+            }
+        }
+
+        out.writeByte(OPAQUE);
+        out.writeString(json);
+    }
+
+    private static String readJson(WireReader in, Struct<?> struct) {
+        int encoding = in.readByte();
+        if (encoding == NULL)
+            return null;
+        if (encoding == OPAQUE)
+            return in.readString();
+        if (encoding == STRUCT && struct != null)
+            return GSON.toJson(struct.reader.apply(in));
+        throw new IllegalArgumentException("Unknown encoding " + encoding);
+    }
+
+    private static void writeBase64(WireWriter out, String value) {
+        if (value == null) {
+            out.writeByte(NULL);
+            return;
+        }
+
+        int index = out.indexOfShared(value);
+        if (index >= 0) {
+            out.writeByte(REFERENCE);
+            out.writeUnsignedVarInt(index);
+            return;
+        }
+
+        try {
+            byte[] raw = Base64.getDecoder().decode(value);
+            if (Base64.getEncoder().encodeToString(raw).equals(value)) {
+                out.share(value);
+                out.writeByte(STRUCT);
+                out.writeBytes(raw);
+                return;
+            }
+        } catch (IllegalArgumentException e) {
+            // Not Base64, sent as a string
+        }
+        out.writeByte(OPAQUE);
+        out.writeString(value);
+    }
+
+    private static String readBase64(WireReader in) {
+        int encoding = in.readByte();
+        return switch (encoding) {
+            case NULL -> null;
+            case OPAQUE -> in.readString();
+            case STRUCT -> {
+                String value = Base64.getEncoder().encodeToString(in.readBytes());
+                in.share(value);
+                yield value;
+            }
+            case REFERENCE -> in.getShared(in.readUnsignedVarInt());
+            default -> throw new IllegalArgumentException("Unknown encoding " + encoding);
+        };
+    }
+
+    private static void writeType(WireWriter out, Message.Type type) {
+        out.writeUnsignedVarInt(type == null ? 0 : type.ordinal() + 1);
+    }
+
+    private static Message.Type readType(WireReader in) {
+        int value = in.readUnsignedVarInt();
+        if (value == 0)
+            return null;
+        if (value > TYPES.length)
+            throw new IllegalArgumentException("Unknown message type " + value);
+        return TYPES[value - 1];
+    }
+
+    /*
+     * Class of the message in data, given the type of the AuthedMessage
+     */
+    private static Struct<? extends Message> dataStruct(Message.Type type) {
+        if (type == null)
+            return MESSAGE;
+
+        return switch (type) {
+            case PRE_PREPARE, PREPARE, COMMIT, ROUND_CHANGE, FETCH, FETCH_REPLY -> CONSENSUS_MESSAGE;
+            case TRANSFER, CHECK_BALANCE, RESPONSE_BALANCE, RESPONSE_TRANSFER -> CLIENT_MESSAGE;
+            default -> MESSAGE;
+        };
+    }
+
+    private static Struct<?> consensusPayload(Message.Type type) {
+        if (type == null)
+            return null;
+
+        return switch (type) {
+            case PRE_PREPARE -> PRE_PREPARE;
+            case PREPARE -> PREPARE;
+            case COMMIT -> COMMIT;
+            case ROUND_CHANGE -> ROUND_CHANGE;
+            default -> null;
+        };
+    }
+
+    private static Struct<?> clientPayload(Message.Type type) {
+        if (type == null)
+            return null;
+
+        return switch (type) {
+            case TRANSFER -> TRANSFER;
+            case CHECK_BALANCE -> CHECK_BALANCE;
+            case RESPONSE_BALANCE -> BALANCE_RESPONSE;
+            case RESPONSE_TRANSFER -> TRANSFER_RESPONSE;
+            default -> null;
+        };
+    }
+
+    /*
+     * Copies of the message decoded from data, so getDataAs doesn't parse the JSON again
+     */
+    private static class DecodedData implements AuthedMessage.DataDecoder {
+        private final Message decoded;
+
+        private DecodedData(Message decoded) {
+            this.decoded = decoded;
+        }
+
+        @Override
+        public <T extends Message> T decode(Class<T> messageClass) {
+            Message copy;
+            if (messageClass == Message.class) {
+                copy = copyHeader(new Message(decoded.getSenderId(), decoded.getType()));
+            } else if (messageClass != decoded.getClass()) {
+                return null;
+            } else if (decoded instanceof ClientMessage client) {
+                ClientMessage m = copyHeader(new ClientMessage(client.getSenderId(), client.getType(), client.getRequestId()));
+                m.setMessage(client.getMessage());
+                copy = m;
+            } else if (decoded instanceof ConsensusMessage consensus) {
+                ConsensusMessage m = copyHeader(new ConsensusMessage(consensus.getSenderId(), consensus.getType()));
+                m.setConsensusInstance(consensus.getConsensusInstance());
+                m.setRound(consensus.getRound());
+                m.setReplyTo(consensus.getReplyTo());
+                m.setReplyToMessageId(consensus.getReplyToMessageId());
+                m.setClientId(consensus.getClientId());
+                m.setMessage(consensus.getMessage());
+                m.setSerializedClientMessage(consensus.getSerializedClientMessage());
+                m.setVote(consensus.getVote());
+                m.setRequestDigest(consensus.getRequestDigest());
+                copy = m;
+            } else {
+                return null;
+            }
+            return messageClass.cast(copy);
+        }
+
+        private <M extends Message> M copyHeader(M m) {
+            m.setMessageId(decoded.getMessageId());
+            m.setSerializedPiggyback(decoded.getSerializedPiggyback());
+            return m;
+        }
+    }
+}
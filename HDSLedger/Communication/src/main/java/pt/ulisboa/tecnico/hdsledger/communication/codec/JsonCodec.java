@@ -0,0 +1,53 @@
+package pt.ulisboa.tecnico.hdsledger.communication.codec;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import pt.ulisboa.tecnico.hdsledger.communication.messages.AuthedMessage;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Original wire format, the Gson serialization of the AuthedMessage in UTF-8
+ */
+public class JsonCodec implements MessageCodec {
+
+    private static final Gson GSON = new Gson();
+    // Largest UDP payload
+    private static final int MAX_FRAME = 65535;
+    // Per thread decoder and character buffer, frames are decoded without intermediate copies
+    private static final ThreadLocal<CharsetDecoder> DECODER = ThreadLocal.withInitial(StandardCharsets.UTF_8::newDecoder);
+    private static final ThreadLocal<CharBuffer> CHARS = ThreadLocal.withInitial(() -> CharBuffer.allocate(MAX_FRAME));
+
+    @Override
+    public byte[] encode(AuthedMessage message) {
+        return GSON.toJson(message).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public AuthedMessage decode(ByteBuffer buffer) throws IOException {
+        CharsetDecoder decoder = DECODER.get().reset();
+        CharBuffer chars = CHARS.get().clear();
+        if (buffer.remaining() > chars.capacity()) {
+            chars = CharBuffer.allocate(buffer.remaining());
+        }
+
+        CoderResult result = decoder.decode(buffer, chars, true);
+        if (result.isError())
+            result.throwException();
+        decoder.flush(chars);
+        chars.flip();
+
+        try {
+            return GSON.fromJson(new CharArrayReader(chars.array(), 0, chars.limit()), AuthedMessage.class);
+        } catch (JsonParseException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package pt.ulisboa.tecnico.hdsledger.communication.codec;
+
+import pt.ulisboa.tecnico.hdsledger.communication.messages.AuthedMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.ErrorMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.HDSSException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/*
+ * Turns authenticated messages into datagram payloads and back
+ *
+ * Every codec must decode frames produced by any other codec (see detect), so processes
+ * using different codecs can still talk to each other.
+ */
+public interface MessageCodec {
+
+    MessageCodec JSON = new JsonCodec();
+    MessageCodec BINARY = new BinaryCodec();
+
+    byte[] encode(AuthedMessage message);
+
+    /*
+     * Decodes the frame between the buffer position and limit
+     */
+    AuthedMessage decode(ByteBuffer buffer) throws IOException;
+
+    /*
+     * Codec selected by the "codec" field of the system configuration (json by default)
+     */
+    static MessageCodec forName(String name) {
+        if (name == null || name.equalsIgnoreCase("json"))
+            return JSON;
+        if (name.equalsIgnoreCase("binary"))
+            return BINARY;
+        throw new HDSSException(ErrorMessage.UnknownCodec);
+    }
+
+    /*
+     * Codec able to decode a received frame
+     */
+    static MessageCodec detect(ByteBuffer buffer) {
+        if (buffer.hasRemaining() && buffer.get(buffer.position()) == BinaryCodec.MAGIC)
+            return BINARY;
+        return JSON;
+    }
+}
@@ -0,0 +1,104 @@
+package pt.ulisboa.tecnico.hdsledger.communication.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Reads the primitives written by WireWriter
+ *
+ * Malformed input raises an IllegalArgumentException or a BufferUnderflowException
+ */
+class WireReader {
+
+    private final ByteBuffer buffer;
+    // Values shared so far, in the order they were written
+    private final List<String> shared = new ArrayList<>();
+    // Wire format version of the frame, fields added by later versions are absent
+    private int version = BinaryCodec.VERSION;
+
+    WireReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    void setVersion(int version) {
+        this.version = version;
+    }
+
+    int readByte() {
+        return buffer.get() & 0xFF;
+    }
+
+    boolean readBoolean() {
+        return readByte() != 0;
+    }
+
+    int readUnsignedVarInt() {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    int readVarInt() {
+        int value = readUnsignedVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    byte[] readBytes() {
+        return readRaw(readUnsignedVarInt());
+    }
+
+    String readString() {
+        int length = readUnsignedVarInt() - 1;
+        if (length < 0)
+            return null;
+
+        if (buffer.hasArray()) {
+            checkLength(length);
+            String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+            return value;
+        }
+        return new String(readRaw(length), StandardCharsets.UTF_8);
+    }
+
+    void share(String value) {
+        shared.add(value);
+    }
+
+    String getShared(int index) {
+        if (index < 0 || index >= shared.size())
+            throw new IllegalArgumentException("Unknown shared value " + index);
+        return shared.get(index);
+    }
+
+    boolean hasRemaining() {
+        return buffer.hasRemaining();
+    }
+
+    int remaining() {
+        return buffer.remaining();
+    }
+
+    private byte[] readRaw(int length) {
+        checkLength(length);
+        byte[] value = new byte[length];
+        buffer.get(value);
+        return value;
+    }
+
+    private void checkLength(int length) {
+        if (length < 0 || length > buffer.remaining())
+            throw new IllegalArgumentException("Length exceeds the frame");
+    }
+}
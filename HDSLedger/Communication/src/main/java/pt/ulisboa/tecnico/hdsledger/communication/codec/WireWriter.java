@@ -0,0 +1,112 @@
+package pt.ulisboa.tecnico.hdsledger.communication.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Growable byte array with the primitives of the binary wire format
+ *
+ * Integers are zigzag varints, byte arrays and strings are prefixed by their length,
+ * nullable values use a length of 0 for null and length + 1 otherwise. Values registered with
+ * share can later be written as their index in the frame (keys repeat several times per message).
+ */
+class WireWriter {
+
+    private byte[] bytes;
+    private int size = 0;
+    // Shared values and the offset at which each was written
+    private final List<String> shared = new ArrayList<>();
+    private final List<Integer> sharedOffsets = new ArrayList<>();
+
+    WireWriter() {
+        this(512);
+    }
+
+    WireWriter(int capacity) {
+        this.bytes = new byte[capacity];
+    }
+
+    void writeByte(int value) {
+        ensure(1);
+        bytes[size++] = (byte) value;
+    }
+
+    void writeBoolean(boolean value) {
+        writeByte(value ? 1 : 0);
+    }
+
+    void writeUnsignedVarInt(int value) {
+        ensure(5);
+        while ((value & ~0x7F) != 0) {
+            bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[size++] = (byte) value;
+    }
+
+    void writeVarInt(int value) {
+        writeUnsignedVarInt((value << 1) ^ (value >> 31));
+    }
+
+    void writeRaw(byte[] value, int offset, int length) {
+        ensure(length);
+        System.arraycopy(value, offset, bytes, size, length);
+        size += length;
+    }
+
+    void writeBytes(byte[] value) {
+        writeUnsignedVarInt(value.length);
+        writeRaw(value, 0, value.length);
+    }
+
+    void writeString(String value) {
+        if (value == null) {
+            writeUnsignedVarInt(0);
+            return;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        writeUnsignedVarInt(utf8.length + 1);
+        writeRaw(utf8, 0, utf8.length);
+    }
+
+    /*
+     * Index of a value previously shared in this frame, -1 if none
+     */
+    int indexOfShared(String value) {
+        return shared.indexOf(value);
+    }
+
+    /*
+     * Registers a value that is about to be written at the current offset
+     */
+    void share(String value) {
+        shared.add(value);
+        sharedOffsets.add(size);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /*
+     * Discards everything written after size (including shared values)
+     */
+    void truncate(int size) {
+        this.size = size;
+        while (!sharedOffsets.isEmpty() && sharedOffsets.get(sharedOffsets.size() - 1) >= size) {
+            sharedOffsets.remove(sharedOffsets.size() - 1);
+            shared.remove(shared.size() - 1);
+        }
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > bytes.length)
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length << 1, size + extra));
+    }
+}
@@ -11,6 +11,7 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import pt.ulisboa.tecnico.hdsledger.utilities.*;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.io.BufferedReader;
 import java.io.FileInputStream;
@@ -27,6 +28,7 @@ import java.util.Arrays;
 import com.google.gson.Gson;
 
 public class AuthedMessage extends Message {
+    private static final Gson GSON = new Gson();
     private String data; // Json Message
 
     private String signature;
@@ -34,6 +36,36 @@ public class AuthedMessage extends Message {
     private String hostname;
     private String timeStamp;
     private Integer port;
+    // Cumulative ACK of the messages received from the destination, not covered by the signature
+    private Integer ackFloor;
+    private int[] acks;
+    // MAC or signature of the sender over the message ID and ACK fields, for the destination
+    private String ackTag;
+    // Builds data without parsing its JSON, set by the wire codec that decoded this message
+    private transient DataDecoder dataDecoder;
+    // Signature or MAC already checked by the link that received this message
+    private transient boolean authenticated = false;
+    // SHA-256 of the signed content and signature, computed on first use
+    private transient ByteBuffer digest;
+    // Signatures verified by this process, copies of a verified message skip the check
+    private static final VerificationCache VERIFIED = new VerificationCache(4096);
+    private static final byte[] ACK_LABEL = "hdsledger acks".getBytes(StandardCharsets.UTF_8);
+    // HMAC instances are not thread safe, one per thread
+    private static final ThreadLocal<Mac> HMAC = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance("HmacSHA256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    /*
+     * Builds the message carried in data from an already decoded form
+     */
+    public interface DataDecoder {
+        // Returns null if the requested class can't be built
+        <T extends Message> T decode(Class<T> messageClass);
+    }
 
     private static String serializeToBase64(Serializable object) throws IOException {
       ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -44,63 +76,145 @@ public class AuthedMessage extends Message {
     }
 
     public AuthedMessage(Message data) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, InvalidKeySpecException, IOException, IllegalBlockSizeException, BadPaddingException, Exception { // TODO : Exception
+        this(data, (SecretKey) null);
+    }
+
+    /*
+     * Authenticated by an HMAC under the session key shared with the destination instead of a
+     * signature (if sessionKey is not null). Such a message carries no key and fails verify(),
+     * only its destination can authenticate it, so it must never be forwarded as a proof.
+     */
+    public AuthedMessage(Message data, SecretKey sessionKey) throws Exception {
         super(data.getSenderId(), data.getType()); 
-        
-        // Transfer piggyback messages to this message;
-        this.setPiggyback(data.getPiggyback());
+        this.setMessageId(data.getMessageId());
+
+        // Transfer piggyback messages (or certificate) to this message, they are not signed
+        String piggyback = data.getSerializedPiggyback();
+        this.setSerializedPiggyback(piggyback);
         data.clearPiggyback();
 
         ProcessConfig author = ProcessConfigBuilder.fromId(data.getSenderId());
-        KeyPair keyPair = KeyGetter.getPair(author);
 
-        Cipher encryptCipher = Cipher.getInstance("RSA");
-        encryptCipher.init(Cipher.ENCRYPT_MODE, keyPair.getPrivate());
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-
-        this.key = Base64.getEncoder().encodeToString(keyPair.getPublic().getEncoded());
-        this.data = new Gson().toJson(data);
+        this.data = GSON.toJson(data);
+        data.setSerializedPiggyback(piggyback);
         this.hostname = author.getHostname();
         this.port = author.getPort();
         this.timeStamp = new Date().toString();
-        byte[] rawDigest = digest.digest((this.data + this.timeStamp).getBytes());
-        this.signature = Base64.getEncoder().encodeToString(encryptCipher.doFinal(rawDigest));
+        if (sessionKey != null) {
+            this.signature = Base64.getEncoder().encodeToString(mac(sessionKey));
+            return;
+        }
+
+        KeyPair keyPair = KeyGetter.getPair(author);
+        this.key = KeyGetter.getKeyId(data.getSenderId());
+        byte[] signed = SignatureScheme.forKey(keyPair.getPrivate()).sign(keyPair.getPrivate(), (this.data + this.timeStamp).getBytes());
+        this.signature = Base64.getEncoder().encodeToString(signed);
     }
 
+    /*
+     * Rebuilds a message decoded from the wire, the signature is kept as received
+     */
+    public AuthedMessage(int senderId, Type type, String data, String signature, String key, String hostname, Integer port, String timeStamp) {
+        super(senderId, type);
+        this.data = data;
+        this.signature = signature;
+        this.key = key;
+        this.hostname = hostname;
+        this.port = port;
+        this.timeStamp = timeStamp;
+    }
+
+    // The key is carried as a key ID, a full key is accepted too
     public boolean isKeyCorrect() throws Exception {
-            PublicKey senderPublicKey = KeyGetter.getPublic(this.getSenderId());
-            String senderPublicKeyBase64 = Base64.getEncoder().encodeToString(senderPublicKey.getEncoded());
-            return senderPublicKeyBase64.equals(this.key);
+            return KeyGetter.getKeyId(this.getSenderId()).equals(KeyGetter.toKeyId(this.key));
     }
     public boolean isSignatureCorrect() throws Exception { 
             PublicKey senderPublicKey = KeyGetter.getPublic(this.getSenderId());
-            Cipher decryptCipher = Cipher.getInstance("RSA");
-            decryptCipher.init(Cipher.DECRYPT_MODE, senderPublicKey);
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return SignatureScheme.forKey(senderPublicKey).verify(senderPublicKey, (this.data + this.timeStamp).getBytes(), Base64.getDecoder().decode(this.signature));
+    }
 
-            byte[] decryptedSignature = decryptCipher.doFinal(Base64.getDecoder().decode(this.signature));
-            byte[] rawDigest = digest.digest((this.data + this.timeStamp).getBytes());
+    /*
+     * Authenticated by a MAC rather than a signature
+     */
+    public boolean isMac() {
+        return this.key == null && this.signature != null;
+    }
+
+    /*
+     * Checks the MAC of a message authenticated under a session key
+     *
+     * @throws HDSSException (InvalidMessageWrongMac) if the MAC doesn't match
+     */
+    public void verifyMac(SecretKey sessionKey) {
+        try {
+            if (!isMac() || !MessageDigest.isEqual(mac(sessionKey), Base64.getDecoder().decode(this.signature)))
+                throw new Exception();
+        } catch (Exception e) {
+            throw new HDSSException(ErrorMessage.InvalidMessageWrongMac);
+        }
+        this.authenticated = true;
+    }
 
-            return Arrays.toString(decryptedSignature).equals(Arrays.toString(rawDigest));
+    private byte[] mac(SecretKey sessionKey) throws InvalidKeyException {
+        Mac mac = HMAC.get();
+        mac.init(sessionKey);
+        return mac.doFinal((this.data + this.timeStamp).getBytes());
     }
 
+    /*
+     * Checks the key and signature, unless the link receiving this message already authenticated it
+     */
     @Override
     public void verify() throws Exception {
+        if (this.authenticated)
+            return;
         try {
             if (!this.isKeyCorrect())
                 throw new Exception();
         } catch (Exception e) {
             throw new HDSSException(ErrorMessage.InvalidMessageWrongKey);
         }
+        // The key is checked every time, the cache only remembers that it signed this content
+        if (!VERIFIED.contains(this)) {
+            try {
+                if (!this.isSignatureCorrect())
+                    throw new Exception();
+            } catch (Exception e) {
+                throw new HDSSException(ErrorMessage.InvalidMessageWrongSignature);
+            }
+            VERIFIED.add(this);
+        }
+        this.authenticated = true;
+    }
+
+    /*
+     * SHA-256 of the sender, key, data, timestamp and signature, identifies this signed message
+     * whatever link or piggyback carried it
+     *
+     * @return null if the message isn't signed
+     */
+    ByteBuffer digest() {
+        if (this.digest != null)
+            return this.digest;
+        if (this.key == null || this.signature == null || this.data == null || this.timeStamp == null)
+            return null;
         try {
-            if (!this.isSignatureCorrect())
-                throw new Exception();
-        } catch (Exception e) {
-            throw new HDSSException(ErrorMessage.InvalidMessageWrongSignature);
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(ByteBuffer.allocate(4).putInt(getSenderId()).array());
+            for (String field : new String[] { this.key, this.data, this.timeStamp, this.signature }) {
+                byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+                sha.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+                sha.update(bytes);
+            }
+            this.digest = ByteBuffer.wrap(sha.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
+        return this.digest;
     }
 
     public String toJson() {
-        return new Gson().toJson(this);
+        return GSON.toJson(this);
     }
 
     public String getSignature() {
@@ -131,10 +245,133 @@ public class AuthedMessage extends Message {
         return this.getDataAs(Message.class);
     }
 
+    /*
+     * Same signed message under another message ID, message IDs are not covered by the signature
+     */
+    public AuthedMessage withMessageId(int messageId) {
+        AuthedMessage copy = new AuthedMessage(getSenderId(), getType(), data, signature, key, hostname, port, timeStamp);
+        copy.setMessageId(messageId);
+        copy.setSerializedPiggyback(getSerializedPiggyback());
+        copy.digest = this.digest;
+        copy.dataDecoder = this.dataDecoder;
+        return copy;
+    }
+
+    /*
+     * Acknowledges every message ID up to (and including) floor and each ID in acks, to be
+     * authenticated for the destination before sending
+     */
+    public void setAcks(int floor, int[] acks) {
+        this.ackFloor = floor;
+        this.acks = acks;
+        this.ackTag = null;
+    }
+
+    public void clearAcks() {
+        this.ackFloor = null;
+        this.acks = null;
+        this.ackTag = null;
+    }
+
+    /*
+     * Authenticates the message ID and ACK fields for the destination, under the session key
+     * shared with it if this message is authenticated by MAC, signed by the sender otherwise
+     *
+     * The signature (or MAC) of the message doesn't cover them: without this a copy of the
+     * message with a higher ACK floor would cancel the retransmissions of messages never received.
+     */
+    public void authenticateAcks(int destination, SecretKey sessionKey) throws Exception {
+        byte[] content = ackContent(destination);
+        if (sessionKey != null) {
+            Mac mac = HMAC.get();
+            mac.init(sessionKey);
+            this.ackTag = Base64.getEncoder().encodeToString(mac.doFinal(content));
+            return;
+        }
+
+        KeyPair keyPair = KeyGetter.getPair(getSenderId());
+        this.ackTag = Base64.getEncoder().encodeToString(SignatureScheme.forKey(keyPair.getPrivate()).sign(keyPair.getPrivate(), content));
+    }
+
+    /*
+     * Checks that the sender authenticated the message ID and ACK fields for the destination
+     *
+     * @param sessionKey Key shared with the sender if this message is authenticated by MAC, null otherwise
+     */
+    public boolean isAckAuthentic(int destination, SecretKey sessionKey) {
+        if (this.ackFloor == null || this.ackTag == null)
+            return false;
+        try {
+            byte[] content = ackContent(destination);
+            byte[] tag = Base64.getDecoder().decode(this.ackTag);
+            if (sessionKey != null) {
+                Mac mac = HMAC.get();
+                mac.init(sessionKey);
+                return MessageDigest.isEqual(mac.doFinal(content), tag);
+            }
+
+            PublicKey senderPublicKey = KeyGetter.getPublic(getSenderId());
+            return SignatureScheme.forKey(senderPublicKey).verify(senderPublicKey, content, tag);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private byte[] ackContent(int destination) {
+        int[] acks = getAcks();
+        return ByteBuffer.allocate(ACK_LABEL.length + 20 + 4 * acks.length)
+                .put(ACK_LABEL)
+                .putInt(getSenderId())
+                .putInt(destination)
+                .putInt(getMessageId())
+                .putInt(this.ackFloor)
+                .putInt(acks.length)
+                .put(toBytes(acks))
+                .array();
+    }
+
+    private static byte[] toBytes(int[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 * values.length);
+        for (int value : values)
+            buffer.putInt(value);
+        return buffer.array();
+    }
+
+    public String getAckTag() {
+        return this.ackTag;
+    }
+
+    public void setAckTag(String ackTag) {
+        this.ackTag = ackTag;
+    }
+
+    public boolean hasAcks() {
+        return this.ackFloor != null;
+    }
+
+    public int getAckFloor() {
+        return this.ackFloor;
+    }
+
+    public int[] getAcks() {
+        return this.acks == null ? new int[0] : this.acks;
+    }
+
+    public Integer getPortOrNull() {
+        return this.port;
+    }
+
+    public void setDataDecoder(DataDecoder dataDecoder) {
+        this.dataDecoder = dataDecoder;
+    }
+
     public <T extends Message> T getDataAs(Class<T> messageClass) {
-        T m = new Gson().fromJson(this.data, messageClass);
-        // Append piggyback messages
-        m.setPiggyback(this.getPiggyback());
+        T m = this.dataDecoder == null ? null : this.dataDecoder.decode(messageClass);
+        if (m == null)
+            m = GSON.fromJson(this.data, messageClass);
+        // Append piggyback messages (or certificate) and the message ID of this link
+        m.setSerializedPiggyback(this.getSerializedPiggyback());
+        m.setMessageId(this.getMessageId());
         return m;
     }
 }
@@ -0,0 +1,24 @@
+package pt.ulisboa.tecnico.hdsledger.communication.messages;
+
+import java.util.List;
+
+/*
+ * Client requests proposed together, decided by one consensus instance
+ *
+ * Signed by the node that gathered them and referenced by digest like a single client request.
+ * The value proposed for it is the Block of the transactions of its requests, in order.
+ */
+public class BlockMessage extends Message {
+
+    // Client requests, in the order they are applied
+    private List<AuthedMessage> requests;
+
+    public BlockMessage(int senderId, List<AuthedMessage> requests) {
+        super(senderId, Type.BLOCK);
+        this.requests = requests;
+    }
+
+    public List<AuthedMessage> getRequests() {
+        return requests;
+    }
+}
@@ -6,6 +6,7 @@ import com.google.gson.Gson;
 import java.util.Base64;
 
 public class ClientMessage extends Message {
+    private static final Gson GSON = new Gson();
     
     private String message;
     // ID of the request made by the client
@@ -34,34 +35,34 @@ public class ClientMessage extends Message {
     }
 
     public CheckBalanceMessage deserializeCheckBalanceMessage() {
-        return new Gson().fromJson(this.message, CheckBalanceMessage.class);
+        return GSON.fromJson(this.message, CheckBalanceMessage.class);
     }
 
     public TransferMessage deserializeTransferMessage() {
-        return new Gson().fromJson(this.message, TransferMessage.class);
+        return GSON.fromJson(this.message, TransferMessage.class);
     }
 
     public BalanceResponseMessage deserializeBalanceResponseMessage() {
-        return new Gson().fromJson(this.message, BalanceResponseMessage.class);
+        return GSON.fromJson(this.message, BalanceResponseMessage.class);
     }
 
     public TransferResponseMessage deserializeTransferResponseMessage() {
-        return new Gson().fromJson(this.message, TransferResponseMessage.class);
+        return GSON.fromJson(this.message, TransferResponseMessage.class);
     }
 
     @Override
     public void verify() throws Exception {
-        String publicKey = Base64.getEncoder().encodeToString(KeyGetter.getPublic(this.getSenderId()).getEncoded());
+        String publicKey = KeyGetter.getKeyId(this.getSenderId());
 
         switch (this.getType()) {
             case TRANSFER -> {
                 TransferMessage message = deserializeTransferMessage();
-                if (!publicKey.equals(message.getSource()))
+                if (!publicKey.equals(KeyGetter.toKeyId(message.getSource())))
                     throw new Exception("Author must be source");
             }
             case CHECK_BALANCE -> {
                 CheckBalanceMessage message = deserializeCheckBalanceMessage();
-                if (!publicKey.equals(message.getAccountPubKey()))
+                if (!publicKey.equals(KeyGetter.toKeyId(message.getAccountPubKey())))
                     throw new Exception("Author must be source");
             }
             
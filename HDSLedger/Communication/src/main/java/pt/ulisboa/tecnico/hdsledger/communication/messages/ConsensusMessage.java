@@ -2,10 +2,22 @@ package pt.ulisboa.tecnico.hdsledger.communication.messages;
 
 import pt.ulisboa.tecnico.hdsledger.communication.messages.consensus.*;
 import pt.ulisboa.tecnico.hdsledger.communication.messages.ledger.*;
+import pt.ulisboa.tecnico.hdsledger.utilities.Block;
+import pt.ulisboa.tecnico.hdsledger.utilities.ErrorMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.HDSSException;
+import pt.ulisboa.tecnico.hdsledger.utilities.KeyGetter;
 import pt.ulisboa.tecnico.hdsledger.utilities.Transaction;
 import com.google.gson.Gson;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
 public class ConsensusMessage extends Message {
+    private static final Gson GSON = new Gson();
+    // Client requests that passed ClientMessage.verify()
+    private static final VerificationCache REQUESTS = new VerificationCache(1024);
 
     // Consensus instance
     private int consensusInstance;
@@ -17,30 +29,48 @@ public class ConsensusMessage extends Message {
     private int replyToMessageId;
     // Message (PREPREPARE, PREPARE, COMMIT)
     private String message;
-    // AuthedMessage of ClientMessage of the original request
+    // AuthedMessage of ClientMessage of the original request, or of BlockMessage of a block of requests (PRE_PREPARE, FETCH_REPLY)
     private String clientMessage;
+    // Digest of the original request, the other consensus messages carry only this
+    private String requestDigest;
     // Client ID
     private int clientId;
+    // Signature of the sender collected into quorum certificates (PREPARE, ROUND_CHANGE)
+    private String vote;
 
+    /*
+     * Only a PRE_PREPARE (or FETCH_REPLY) carries the request itself, the other types its digest
+     */
     public ConsensusMessage(int senderId, Type type, AuthedMessage clientMessage) {
         super(senderId, type);
-        this.clientMessage = clientMessage.toJson();
+        this.requestDigest = requestDigest(clientMessage);
+        if (type == Type.PRE_PREPARE || type == Type.FETCH_REPLY)
+            this.clientMessage = clientMessage.toJson();
+    }
+
+    public ConsensusMessage(int senderId, Type type, String requestDigest) {
+        super(senderId, type);
+        this.requestDigest = requestDigest;
+    }
+
+    public ConsensusMessage(int senderId, Type type) {
+        super(senderId, type);
     }
 
     public PrePrepareMessage deserializePrePrepareMessage() {
-        return new Gson().fromJson(this.message, PrePrepareMessage.class);
+        return GSON.fromJson(this.message, PrePrepareMessage.class);
     }
 
     public PrepareMessage deserializePrepareMessage() {
-        return new Gson().fromJson(this.message, PrepareMessage.class);
+        return GSON.fromJson(this.message, PrepareMessage.class);
     }
 
     public CommitMessage deserializeCommitMessage() {
-        return new Gson().fromJson(this.message, CommitMessage.class);
+        return GSON.fromJson(this.message, CommitMessage.class);
     }
 
     public RoundChangeMessage deserializeRoundChangeMessage() {
-        return new Gson().fromJson(this.message, RoundChangeMessage.class);
+        return GSON.fromJson(this.message, RoundChangeMessage.class);
     }
     
     public String getMessage() {
@@ -91,91 +121,139 @@ public class ConsensusMessage extends Message {
         return this.clientId;
     }
 
+    public String getVote() {
+        return this.vote;
+    }
+
+    public void setVote(String vote) {
+        this.vote = vote;
+    }
+
+    /*
+     * @return null if this message only carries the digest of the request
+     */
     public AuthedMessage getClientMessage() {
-        return new Gson().fromJson(this.clientMessage, AuthedMessage.class);
+        return GSON.fromJson(this.clientMessage, AuthedMessage.class);
+    }
+
+    public String getRequestDigest() {
+        // Messages of older versions carry every request in full
+        if (this.requestDigest == null && this.clientMessage != null)
+            this.requestDigest = requestDigest(getClientMessage());
+        return this.requestDigest;
+    }
+
+    public void setRequestDigest(String requestDigest) {
+        this.requestDigest = requestDigest;
+    }
+
+    /*
+     * SHA-256 of the signed content and signature of a client request (Base64)
+     *
+     * @return null if the request isn't signed
+     */
+    public static String requestDigest(AuthedMessage request) {
+        ByteBuffer digest = request.digest();
+        if (digest == null)
+            return null;
+        byte[] bytes = new byte[digest.remaining()];
+        digest.duplicate().get(bytes);
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+
+    public String getSerializedClientMessage() {
+        return this.clientMessage;
+    }
+
+    public void setSerializedClientMessage(String clientMessage) {
+        this.clientMessage = clientMessage;
     }
 
+    /*
+     * Checks the vote of a PREPARE or ROUND_CHANGE and the request (or block of requests) carried
+     * by a PRE_PREPARE or FETCH_REPLY, the other messages only reference it by digest
+     */
     @Override
     public void verify() throws Exception {
-        if (getType() == Message.Type.ACK)
-            return;
+        switch (getType()) {
+            case PREPARE, ROUND_CHANGE -> {
+                if (!QuorumCertificate.isValidVote(this))
+                    throw new HDSSException(ErrorMessage.InvalidVote);
+                return;
+            }
+            case PRE_PREPARE, FETCH_REPLY -> {}
+            default -> {
+                return;
+            }
+        }
 
         AuthedMessage authedMessage = getClientMessage();
+        if (authedMessage == null || this.requestDigest != null && !this.requestDigest.equals(requestDigest(authedMessage)))
+            throw new HDSSException(ErrorMessage.InvalidRequestDigest);
+        authedMessage.verify();
+
+        // A block proposes the transactions of its requests, in order
+        if (authedMessage.getType() == Message.Type.BLOCK) {
+            List<AuthedMessage> requests = authedMessage.getDataAs(BlockMessage.class).getRequests();
+            if (requests == null || requests.isEmpty())
+                throw new HDSSException(ErrorMessage.InvalidBlock);
+
+            List<Transaction> transactions = new ArrayList<>();
+            for (AuthedMessage request : requests)
+                transactions.add(verifyRequest(request));
+
+            // A FETCH_REPLY only carries the block
+            if (this.getType() == Message.Type.PRE_PREPARE && !new Block(transactions).toJson().equals(deserializePrePrepareMessage().getValue()))
+                throw new HDSSException(ErrorMessage.InvalidBlock);
+            return;
+        }
+
+        Transaction transaction = verifyRequest(authedMessage);
+
+        // A FETCH_REPLY only carries the request
+        if (this.getType() != Message.Type.PRE_PREPARE)
+            return;
+
+        // Verify that the transaction being forwaded during consensus corresponds to the author's intended original transaction
+        if (!transaction.toJson().equals(deserializePrePrepareMessage().getValue()))
+            throw new Exception("Transaction is not the same");
+    }
+
+    /*
+     * Checks a client request and that its author owns the source account
+     *
+     * @return The transaction asked for
+     */
+    private static Transaction verifyRequest(AuthedMessage authedMessage) throws Exception {
         authedMessage.verify();
 
+        // The request is carried by the PRE_PREPARE of every round of its instance, checked once
         ClientMessage clientMessage = authedMessage.getDataAs(ClientMessage.class);
-        clientMessage.verify();
+        if (!REQUESTS.contains(authedMessage)) {
+            clientMessage.verify();
+            REQUESTS.add(authedMessage);
+        }
 
         switch (clientMessage.getType()) {
             case TRANSFER -> {
                 TransferMessage transferMessage = clientMessage.deserializeTransferMessage();
 
                 // Verify that the author of the request is the owner of the source account
-                if (!authedMessage.getKey().equals(transferMessage.getSource()))
+                if (!KeyGetter.toKeyId(authedMessage.getKey()).equals(KeyGetter.toKeyId(transferMessage.getSource())))
                     throw new Exception("Author is not source");
-
-                String value;
-                switch (this.getType()) {
-                    case PRE_PREPARE -> {
-                        PrePrepareMessage prePrepareMessage = deserializePrePrepareMessage();
-                        value = prePrepareMessage.getValue();
-                    }
-                    case PREPARE -> {
-                        PrepareMessage prepareMessage = deserializePrepareMessage();
-                        value = prepareMessage.getValue();
-                    }
-                    case COMMIT -> {
-                        CommitMessage commitMessage = deserializeCommitMessage();
-                        value = commitMessage.getValue();
-                    }
-                    case ROUND_CHANGE -> {
-                        return;
-                    }
-
-                    default -> throw new Exception("Invalid consensus message type");
-                }
-                
-                // Verify that the transaction being forwaded during consensus corresponds to the author's intended original transaction
-                Transaction transaction = new Transaction(transferMessage.getSource(), transferMessage.getDestination(), transferMessage.getAmount());
-
-                if (!transaction.toJson().equals(value))
-                    throw new Exception("Transaction is not the same");
+                return transferMessage.toTransaction();
             }
 
             case CHECK_BALANCE -> {
                 CheckBalanceMessage checkBalanceMessage = clientMessage.deserializeCheckBalanceMessage();
 
                 // Verify that the author of the request is the owner of the source account
-                if (!authedMessage.getKey().equals(checkBalanceMessage.getAccountPubKey()))
+                if (!KeyGetter.toKeyId(authedMessage.getKey()).equals(KeyGetter.toKeyId(checkBalanceMessage.getAccountPubKey())))
                     throw new Exception("Author is not source");
-
-                String value;
-                switch (this.getType()) {
-                    case PRE_PREPARE -> {
-                        PrePrepareMessage prePrepareMessage = deserializePrePrepareMessage();
-                        value = prePrepareMessage.getValue();
-                    }
-                    case PREPARE -> {
-                        PrepareMessage prepareMessage = deserializePrepareMessage();
-                        value = prepareMessage.getValue();
-                    }
-                    case COMMIT -> {
-                        CommitMessage commitMessage = deserializeCommitMessage();
-                        value = commitMessage.getValue();
-                    }
-                    case ROUND_CHANGE -> {
-                        return;
-                    }
-
-                    default -> throw new Exception("Invalid consensus message type");
-                }
-                
-                // Verify that the transaction being forwaded during consensus corresponds to the author's intended original transaction
-                Transaction transaction = new Transaction(checkBalanceMessage.getAccountPubKey());
-
-                if (!transaction.toJson().equals(value))
-                    throw new Exception("Transaction is not the same");
+                return checkBalanceMessage.toTransaction();
             }
+
+            default -> throw new HDSSException(ErrorMessage.InvalidClientRequest);
         }
     }
 }
@@ -7,6 +7,7 @@ import java.util.stream.Collectors;
 import com.google.gson.Gson;
 
 public class Message implements Serializable {
+    private static final Gson GSON = new Gson();
 
     // Sender identifier
     private int senderId;
@@ -18,7 +19,11 @@ public class Message implements Serializable {
     private String piggyback;
 
     public enum Type {
-        IGNORE, PRE_PREPARE, PREPARE, COMMIT, ACK, ROUND_CHANGE, TRANSFER, CHECK_BALANCE, RESPONSE_BALANCE, RESPONSE_TRANSFER; 
+        IGNORE, PRE_PREPARE, PREPARE, COMMIT, ACK, ROUND_CHANGE, TRANSFER, CHECK_BALANCE, RESPONSE_BALANCE, RESPONSE_TRANSFER,
+        // Request of a client request by its digest, and the reply carrying it
+        FETCH, FETCH_REPLY,
+        // Block of client requests decided by one consensus instance
+        BLOCK;
     }
 
     public Message(int senderId, Type type) {
@@ -51,11 +56,11 @@ public class Message implements Serializable {
     }
 
     public String toJson() {
-        return new Gson().toJson(this);
+        return GSON.toJson(this);
     }
 
     public static Message fromJson(String json) {
-        return new Gson().fromJson(json, Message.class);
+        return GSON.fromJson(json, Message.class);
     }
 
     public void verify() throws Exception {
@@ -75,4 +80,26 @@ public class Message implements Serializable {
             return null;
         return Piggyback.fromJson(this.piggyback).getMessages();
     }
+
+    /*
+     * Carries a quorum certificate, unsigned like the piggybacked messages (the certificate is
+     * proven by its votes)
+     */
+    public void setCertificate(QuorumCertificate certificate) {
+        this.piggyback = certificate == null ? null : new Piggyback(null, certificate).toJson();
+    }
+
+    public QuorumCertificate getCertificate() {
+        if (this.piggyback == null)
+            return null;
+        return Piggyback.fromJson(this.piggyback).getCertificate();
+    }
+
+    public String getSerializedPiggyback() {
+        return this.piggyback;
+    }
+
+    public void setSerializedPiggyback(String piggyback) {
+        this.piggyback = piggyback;
+    }
 }
@@ -5,7 +5,10 @@ import java.util.List;
 import com.google.gson.Gson;
 
 public class Piggyback {
+    private static final Gson GSON = new Gson();
     private List<AuthedMessage> messages;
+    // Justification of the message, proven by the votes it holds
+    private QuorumCertificate certificate;
 
     public Piggyback() {
         messages = null;
@@ -15,15 +18,24 @@ public class Piggyback {
         this.messages = messages;
     }
 
+    public Piggyback(List<AuthedMessage> messages, QuorumCertificate certificate) {
+        this.messages = messages;
+        this.certificate = certificate;
+    }
+
     public String toJson() {
-        return new Gson().toJson(this);
+        return GSON.toJson(this);
     }
 
     public List<AuthedMessage> getMessages() {
         return this.messages;
     }
 
+    public QuorumCertificate getCertificate() {
+        return this.certificate;
+    }
+
     public static Piggyback fromJson(String json) {
-        return new Gson().fromJson(json, Piggyback.class);
+        return GSON.fromJson(json, Piggyback.class);
     }
 }
@@ -0,0 +1,296 @@
+package pt.ulisboa.tecnico.hdsledger.communication.messages;
+
+import pt.ulisboa.tecnico.hdsledger.communication.CryptoPool;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.consensus.*;
+import pt.ulisboa.tecnico.hdsledger.utilities.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/*
+ * Proof that a quorum of nodes sent a PREPARE (prepare certificate) or a ROUND_CHANGE (round
+ * change certificate) in a round of a consensus instance
+ *
+ * Every PREPARE and ROUND_CHANGE carries a vote: its sender's signature over a canonical digest
+ * of the type, instance, round, prepared round and value digest (SHA-256 of the value). A
+ * certificate holds the instance, round and (prepare certificates) value digest once and, per
+ * node, only its ID, what it prepared (round change certificates) and its vote, instead of the
+ * full signed messages with the client request, key and timestamp of each.
+ *
+ * A round change certificate in which some node prepared a value also holds the prepare
+ * certificate of the highest prepared round. Certificates are never nested deeper than that, a
+ * deeper one is rejected while decoding it, before its nested certificates are read.
+ */
+public class QuorumCertificate {
+
+    private static final byte[] LABEL = "hdsledger vote".getBytes(StandardCharsets.UTF_8);
+
+    // Certificates a certificate is nested in at most (a prepare certificate in a round change one)
+    public static final int MAX_NESTING = 1;
+
+    // PREPARE or ROUND_CHANGE
+    private Message.Type type;
+    private int consensusInstance;
+    private int round;
+    // SHA-256 of the prepared value (Base64), prepare certificates
+    private String valueDigest;
+    private List<Vote> votes;
+    // Prepare certificate of the highest prepared round, round change certificates
+    @JsonAdapter(Prepared.class)
+    private QuorumCertificate prepared;
+
+    public static class Vote {
+        private int signer;
+        // Round and value digest prepared by the signer (-1 and null if none), round change votes
+        private int preparedRound;
+        private String valueDigest;
+        private String signature;
+
+        public Vote(int signer, int preparedRound, String valueDigest, String signature) {
+            this.signer = signer;
+            this.preparedRound = preparedRound;
+            this.valueDigest = valueDigest;
+            this.signature = signature;
+        }
+
+        public int getSigner() {
+            return signer;
+        }
+
+        public int getPreparedRound() {
+            return preparedRound;
+        }
+
+        public String getValueDigest() {
+            return valueDigest;
+        }
+
+        public String getSignature() {
+            return signature;
+        }
+    }
+
+    /*
+     * Reads the certificate nested in another one, rejecting it when nested deeper than
+     * MAX_NESTING before reading it, so a deeply nested certificate can't exhaust the stack
+     */
+    private static class Prepared implements TypeAdapterFactory {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            return (TypeAdapter<T>) new TypeAdapter<QuorumCertificate>() {
+                @Override
+                public void write(JsonWriter out, QuorumCertificate certificate) throws IOException {
+                    gson.getAdapter(QuorumCertificate.class).write(out, certificate);
+                }
+
+                @Override
+                public QuorumCertificate read(JsonReader in) throws IOException {
+                    // One prepared field in the path per level of nesting
+                    int nesting = in.getPath().split("\\.prepared", -1).length - 1;
+                    if (nesting > MAX_NESTING)
+                        throw new JsonParseException("Certificate nested too deep at " + in.getPath());
+                    return gson.getAdapter(QuorumCertificate.class).read(in);
+                }
+            };
+        }
+    }
+
+    public QuorumCertificate(Message.Type type, int consensusInstance, int round, String valueDigest, List<Vote> votes, QuorumCertificate prepared) {
+        this.type = type;
+        this.consensusInstance = consensusInstance;
+        this.round = round;
+        this.valueDigest = valueDigest;
+        this.votes = votes;
+        this.prepared = prepared;
+    }
+
+    /*
+     * Certificate of the PREPAREs of a round for a value, from the received messages
+     */
+    public static QuorumCertificate ofPrepares(int consensusInstance, int round, String value, Collection<ConsensusMessage> prepares) {
+        String valueDigest = digest(value);
+        List<Vote> votes = new ArrayList<>();
+        for (ConsensusMessage message : prepares) {
+            if (message.getVote() != null && value.equals(message.deserializePrepareMessage().getValue()))
+                votes.add(new Vote(message.getSenderId(), -1, null, message.getVote()));
+        }
+        return new QuorumCertificate(Message.Type.PREPARE, consensusInstance, round, valueDigest, votes, null);
+    }
+
+    /*
+     * Certificate of the ROUND_CHANGEs of a round, from the received messages, with the prepare
+     * certificate carried by the one of highest prepared round
+     */
+    public static QuorumCertificate ofRoundChanges(int consensusInstance, int round, Collection<AuthedMessage> roundChanges) {
+        List<Vote> votes = new ArrayList<>();
+        QuorumCertificate prepared = null;
+        int highest = -1;
+        for (AuthedMessage authed : roundChanges) {
+            ConsensusMessage message = authed.getDataAs(ConsensusMessage.class);
+            RoundChangeMessage roundChange = message.deserializeRoundChangeMessage();
+            if (message.getVote() == null)
+                continue;
+
+            votes.add(new Vote(message.getSenderId(), roundChange.getPreparedRound(), digest(roundChange.getValue()), message.getVote()));
+            QuorumCertificate certificate = message.getCertificate();
+            if (roundChange.getPreparedRound() > highest && certificate != null) {
+                highest = roundChange.getPreparedRound();
+                prepared = certificate;
+            }
+        }
+        return new QuorumCertificate(Message.Type.ROUND_CHANGE, consensusInstance, round, null, votes, prepared);
+    }
+
+    /*
+     * Vote of a PREPARE or ROUND_CHANGE, signed by its sender
+     */
+    public static String vote(ConsensusMessage message) throws Exception {
+        KeyPair pair = KeyGetter.getPair(message.getSenderId());
+        byte[] signed = SignatureScheme.forKey(pair.getPrivate()).sign(pair.getPrivate(), canonical(message));
+        return Base64.getEncoder().encodeToString(signed);
+    }
+
+    public static boolean isValidVote(ConsensusMessage message) {
+        return message.getVote() != null && isValidSignature(message.getSenderId(), canonical(message), message.getVote());
+    }
+
+    /*
+     * Checks the votes (a quorum of distinct nodes, verified in parallel) and, for a round change
+     * certificate in which some node prepared a value, the prepare certificate of the highest
+     * prepared round
+     */
+    public boolean isValid(int quorumSize) {
+        if (votes == null || type == null)
+            return false;
+
+        // One vote per node
+        Map<Integer, Vote> bySigner = new LinkedHashMap<>();
+        for (Vote vote : votes) {
+            if (vote != null && !ProcessConfigBuilder.isClient(vote.signer))
+                bySigner.putIfAbsent(vote.signer, vote);
+        }
+
+        switch (type) {
+            case PREPARE -> {
+                return valueDigest != null && CryptoPool.verifyQuorum(new ArrayList<>(bySigner.values()), this::verify, quorumSize);
+            }
+            case ROUND_CHANGE -> {
+                if (!CryptoPool.verifyQuorum(new ArrayList<>(bySigner.values()), this::verify, quorumSize))
+                    return false;
+
+                int highest = bySigner.values().stream().mapToInt(Vote::getPreparedRound).max().orElse(-1);
+                if (highest == -1)
+                    return true;
+                if (prepared == null || prepared.type != Message.Type.PREPARE || prepared.valueDigest == null
+                        || prepared.consensusInstance != consensusInstance || prepared.round != highest)
+                    return false;
+
+                // Some node voted for the highest prepared round and value, proven by the prepare certificate
+                return bySigner.values().stream().anyMatch((vote) -> vote.preparedRound == highest && prepared.valueDigest.equals(vote.valueDigest) && verify(vote))
+                        && prepared.isValid(quorumSize);
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    private boolean verify(Vote vote) {
+        String digest = type == Message.Type.PREPARE ? valueDigest : vote.valueDigest;
+        int preparedRound = type == Message.Type.PREPARE ? -1 : vote.preparedRound;
+        return isValidSignature(vote.signer, canonical(type, consensusInstance, round, preparedRound, digest), vote.signature);
+    }
+
+    private static boolean isValidSignature(int signer, byte[] canonical, String signature) {
+        try {
+            PublicKey key = KeyGetter.getPublic(signer);
+            return SignatureScheme.forKey(key).verify(key, canonical, Base64.getDecoder().decode(signature));
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static byte[] canonical(ConsensusMessage message) {
+        return switch (message.getType()) {
+            case PREPARE -> canonical(Message.Type.PREPARE, message.getConsensusInstance(), message.getRound(), -1,
+                    digest(message.deserializePrepareMessage().getValue()));
+            case ROUND_CHANGE -> {
+                RoundChangeMessage roundChange = message.deserializeRoundChangeMessage();
+                yield canonical(Message.Type.ROUND_CHANGE, message.getConsensusInstance(), message.getRound(),
+                        roundChange.getPreparedRound(), digest(roundChange.getValue()));
+            }
+            default -> throw new IllegalArgumentException("Only PREPAREs and ROUND_CHANGEs are voted");
+        };
+    }
+
+    private static byte[] canonical(Message.Type type, int consensusInstance, int round, int preparedRound, String valueDigest) {
+        byte[] value = valueDigest == null ? new byte[0] : Base64.getDecoder().decode(valueDigest);
+        return ByteBuffer.allocate(LABEL.length + 16 + value.length)
+                .put(LABEL)
+                .putInt(type.ordinal())
+                .putInt(consensusInstance)
+                .putInt(round)
+                .putInt(preparedRound)
+                .put(value)
+                .array();
+    }
+
+    /*
+     * SHA-256 of a value (Base64), null for no value
+     */
+    public static String digest(String value) {
+        if (value == null)
+            return null;
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public Message.Type getType() {
+        return type;
+    }
+
+    public int getConsensusInstance() {
+        return consensusInstance;
+    }
+
+    public int getRound() {
+        return round;
+    }
+
+    public String getValueDigest() {
+        return valueDigest;
+    }
+
+    public List<Vote> getVotes() {
+        return votes;
+    }
+
+    public QuorumCertificate getPrepared() {
+        return prepared;
+    }
+}
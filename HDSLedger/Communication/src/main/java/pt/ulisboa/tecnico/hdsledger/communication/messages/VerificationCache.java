@@ -0,0 +1,90 @@
+package pt.ulisboa.tecnico.hdsledger.communication.messages;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Bounded set of the AuthedMessages that passed a verification, least recently used evicted first
+ *
+ * Messages are identified by the SHA-256 digest of their signed content and signature (see
+ * AuthedMessage.digest()), a copy of a verified message (e.g. decoded again from a piggyback)
+ * hits the cache, a message differing in any signed byte doesn't. Only successes are kept.
+ *
+ * Split in segments by digest, each locked on its own, so that the parallel verification of the
+ * link doesn't serialize on the cache.
+ */
+public class VerificationCache {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private static class Segment extends LinkedHashMap<ByteBuffer, Boolean> {
+        private final int capacity;
+
+        private Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    /*
+     * @param capacity Messages kept (rounded up to a multiple of the segments)
+     */
+    public VerificationCache(int capacity) {
+        int perSegment = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment(perSegment);
+    }
+
+    public boolean contains(AuthedMessage message) {
+        ByteBuffer digest = message.digest();
+        if (digest == null)
+            return false;
+        Segment segment = segment(digest);
+        synchronized (segment) {
+            return segment.get(digest) != null;
+        }
+    }
+
+    /*
+     * Remembers a message that passed the verification
+     */
+    public void add(AuthedMessage message) {
+        ByteBuffer digest = message.digest();
+        if (digest == null)
+            return;
+        Segment segment = segment(digest);
+        synchronized (segment) {
+            segment.put(digest, Boolean.TRUE);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    private Segment segment(ByteBuffer digest) {
+        return segments[(digest.get(0) & 0xFF) % SEGMENTS];
+    }
+}
@@ -3,6 +3,7 @@ package pt.ulisboa.tecnico.hdsledger.communication.messages.consensus;
 import com.google.gson.Gson;
 
 public class PrePrepareMessage {
+    private static final Gson GSON = new Gson();
     
     // Value
     private String value;
@@ -16,6 +17,6 @@ public class PrePrepareMessage {
     }
 
     public String toJson() {
-        return new Gson().toJson(this);
+        return GSON.toJson(this);
     }
 }   
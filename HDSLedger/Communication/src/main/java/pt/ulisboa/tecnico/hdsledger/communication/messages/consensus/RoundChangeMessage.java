@@ -3,6 +3,7 @@ package pt.ulisboa.tecnico.hdsledger.communication.messages.consensus;
 import com.google.gson.Gson;
 
 public class RoundChangeMessage {
+    private static final Gson GSON = new Gson();
     
     // Value
     private String value;
@@ -22,7 +23,7 @@ public class RoundChangeMessage {
     }
 
     public String toJson() {
-        return new Gson().toJson(this);
+        return GSON.toJson(this);
     }
 }   
 
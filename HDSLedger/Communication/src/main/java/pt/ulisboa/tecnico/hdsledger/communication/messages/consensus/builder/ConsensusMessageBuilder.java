@@ -3,6 +3,9 @@ package pt.ulisboa.tecnico.hdsledger.communication.messages.consensus.builder;
 import pt.ulisboa.tecnico.hdsledger.communication.messages.ConsensusMessage;
 import pt.ulisboa.tecnico.hdsledger.communication.messages.Message;
 import pt.ulisboa.tecnico.hdsledger.communication.messages.AuthedMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.QuorumCertificate;
+import pt.ulisboa.tecnico.hdsledger.utilities.ErrorMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.HDSSException;
 
 public class ConsensusMessageBuilder {
     private final ConsensusMessage instance;
@@ -11,6 +14,13 @@ public class ConsensusMessageBuilder {
         instance = new ConsensusMessage(sender, type, clientMessage);
     }
 
+    /*
+     * Message referencing its client request by digest (any type but PRE_PREPARE and FETCH_REPLY)
+     */
+    public ConsensusMessageBuilder(int sender, Message.Type type, String requestDigest) {
+        instance = new ConsensusMessage(sender, type, requestDigest);
+    }
+
     public ConsensusMessageBuilder setMessage(String message) {
         instance.setMessage(message);
         return this;
@@ -40,7 +50,20 @@ public class ConsensusMessageBuilder {
         return this;
     }
 
+    /*
+     * PREPAREs and ROUND_CHANGEs are voted by their sender, so they can be collected into quorum
+     * certificates
+     */
     public ConsensusMessage build() {
+        if (instance.getType() == Message.Type.PREPARE || instance.getType() == Message.Type.ROUND_CHANGE) {
+            try {
+                instance.setVote(QuorumCertificate.vote(instance));
+            } catch (HDSSException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new HDSSException(ErrorMessage.KeysNotFound);
+            }
+        }
         return instance;
     }
 }
@@ -4,6 +4,7 @@ import java.io.Serializable;
 import com.google.gson.Gson;
 
 public class BalanceResponseMessage implements Serializable {
+    private static final Gson GSON = new Gson();
 
     private int balance;
 
@@ -20,6 +21,6 @@ public class BalanceResponseMessage implements Serializable {
     }
 
     public String toJson() {
-        return new Gson().toJson(this);
+        return GSON.toJson(this);
     }
 }
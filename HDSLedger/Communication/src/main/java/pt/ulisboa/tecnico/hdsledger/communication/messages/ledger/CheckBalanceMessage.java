@@ -1,9 +1,13 @@
 package pt.ulisboa.tecnico.hdsledger.communication.messages.ledger;
 
+import pt.ulisboa.tecnico.hdsledger.utilities.KeyGetter;
+import pt.ulisboa.tecnico.hdsledger.utilities.Transaction;
+
 import com.google.gson.Gson;
 import java.security.PublicKey;
 
 public class CheckBalanceMessage {
+    private static final Gson GSON = new Gson();
     private String accountPublicKey;
 
     // TODO : When to convert to string
@@ -19,7 +23,14 @@ public class CheckBalanceMessage {
         accountPublicKey = accountPublicKey;
     }
 
+    /*
+     * Transaction agreed on to read the balance, the account identified by key ID
+     */
+    public Transaction toTransaction() {
+        return new Transaction(KeyGetter.toKeyId(accountPublicKey));
+    }
+
     public String toJson() {
-        return new Gson().toJson(this);
+        return GSON.toJson(this);
     }
 }
@@ -1,8 +1,12 @@
 package pt.ulisboa.tecnico.hdsledger.communication.messages.ledger;
 
+import pt.ulisboa.tecnico.hdsledger.utilities.KeyGetter;
+import pt.ulisboa.tecnico.hdsledger.utilities.Transaction;
+
 import com.google.gson.Gson;
 
 public class TransferMessage {
+    private static final Gson GSON = new Gson();
 
     private String source;
     private String destination;
@@ -38,7 +42,14 @@ public class TransferMessage {
         this.amount = amount;
     }
 
+    /*
+     * Transaction appended to the ledger, accounts identified by key ID whichever form the client sent
+     */
+    public Transaction toTransaction() {
+        return new Transaction(KeyGetter.toKeyId(source), KeyGetter.toKeyId(destination), amount);
+    }
+
     public String toJson() {
-        return new Gson().toJson(this);
+        return GSON.toJson(this);
     }
 }
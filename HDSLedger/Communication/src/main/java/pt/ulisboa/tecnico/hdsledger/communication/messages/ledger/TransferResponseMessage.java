@@ -4,6 +4,7 @@ import java.io.Serializable;
 import com.google.gson.Gson;
 
 public class TransferResponseMessage implements Serializable {
+    private static final Gson GSON = new Gson();
 
     private boolean success;
 
@@ -16,6 +17,6 @@ public class TransferResponseMessage implements Serializable {
     }
 
     public String toJson() {
-        return new Gson().toJson(this);
+        return GSON.toJson(this);
     }
 }
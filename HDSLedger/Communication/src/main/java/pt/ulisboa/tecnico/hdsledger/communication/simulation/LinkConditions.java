@@ -0,0 +1,81 @@
+package pt.ulisboa.tecnico.hdsledger.communication.simulation;
+
+import java.util.Random;
+
+/*
+ * Behaviour of a simulated link in one direction
+ *
+ * Every probability is applied to each transmission attempt independently.
+ */
+public class LinkConditions {
+
+    // Delivered after a fixed 1 ms, never lost, duplicated or reordered
+    public static final LinkConditions PERFECT = new LinkConditions(LatencyDistribution.fixed(1), 0, 0, 0);
+
+    /*
+     * Virtual delay (ms) of a transmission
+     */
+    @FunctionalInterface
+    public interface LatencyDistribution {
+
+        long sample(Random random);
+
+        static LatencyDistribution fixed(long latency) {
+            return (random) -> latency;
+        }
+
+        /*
+         * Uniform between min and max (both inclusive)
+         */
+        static LatencyDistribution uniform(long min, long max) {
+            return (random) -> min + (long) (random.nextDouble() * (max - min + 1));
+        }
+
+        /*
+         * Exponential with the given mean, as seen on a congested path
+         */
+        static LatencyDistribution exponential(double mean) {
+            return (random) -> Math.round(-mean * Math.log(1 - random.nextDouble()));
+        }
+
+        /*
+         * Normal with the given mean and standard deviation, never below zero
+         */
+        static LatencyDistribution normal(double mean, double deviation) {
+            return (random) -> Math.max(0, Math.round(mean + deviation * random.nextGaussian()));
+        }
+    }
+
+    private final LatencyDistribution latency;
+    // Probability of an attempt being lost
+    private final double loss;
+    // Probability of an attempt being delivered twice
+    private final double duplication;
+    // Probability of an attempt being held back, letting later messages overtake it
+    private final double reordering;
+
+    public LinkConditions(LatencyDistribution latency, double loss, double duplication, double reordering) {
+        if (loss < 0 || loss >= 1 || duplication < 0 || duplication > 1 || reordering < 0 || reordering > 1)
+            throw new IllegalArgumentException("Loss must be in [0, 1[, duplication and reordering in [0, 1]");
+        this.latency = latency;
+        this.loss = loss;
+        this.duplication = duplication;
+        this.reordering = reordering;
+    }
+
+    public LatencyDistribution getLatency() {
+        return latency;
+    }
+
+    public double getLoss() {
+        return loss;
+    }
+
+    public double getDuplication() {
+        return duplication;
+    }
+
+    public double getReordering() {
+        return reordering;
+    }
+}
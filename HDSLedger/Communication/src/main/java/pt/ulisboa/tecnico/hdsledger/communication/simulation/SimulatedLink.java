@@ -0,0 +1,187 @@
+package pt.ulisboa.tecnico.hdsledger.communication.simulation;
+
+import pt.ulisboa.tecnico.hdsledger.communication.AsyncLink;
+import pt.ulisboa.tecnico.hdsledger.communication.codec.MessageCodec;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.*;
+import pt.ulisboa.tecnico.hdsledger.utilities.*;
+
+import java.nio.ByteBuffer;
+import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/*
+ * Link over a SimulatedNetwork, a drop-in replacement of the APL for tests
+ *
+ * Messages are signed and encoded as on the APL and received in the same form: the AuthedMessage
+ * for client requests and consensus messages, the typed message for responses. Duplicates are
+ * discarded by the receiver. Delivery is acknowledged by the network itself, no ACK messages
+ * are exchanged and the timestamp checks of the APL (real time) are not applied.
+ */
+public class SimulatedLink implements AsyncLink {
+
+    private static final CustomLogger LOGGER = new CustomLogger(SimulatedLink.class.getName());
+
+    private final SimulatedNetwork network;
+    private final ProcessConfig config;
+    // Nodes reached by broadcast
+    private final ProcessConfig[] nodes;
+    private final Class<? extends Message> messageClass;
+    private final MessageCodec codec;
+    // Destination -> Next message ID
+    private final Map<Integer, AtomicInteger> messageCounters = new ConcurrentHashMap<>();
+    // Sender -> Message IDs already received
+    private final Map<Integer, CollapsingSet> receivedMessages = new ConcurrentHashMap<>();
+    // Messages delivered by the network and not yet received
+    private final BlockingQueue<Message> inbox = new LinkedBlockingQueue<>();
+    // Set once receive is called, the network does not wait on links nobody reads
+    private volatile boolean reading = false;
+    private volatile Consumer<Message> receiveHandler;
+    private volatile Executor receiveExecutor;
+    private Thread receiver;
+
+    public SimulatedLink(SimulatedNetwork network, ProcessConfig self, ProcessConfig[] nodes, Class<? extends Message> messageClass) {
+        this(network, self, nodes, messageClass, MessageCodec.forName(ProcessConfigBuilder.getSystemConfig().getCodec()));
+    }
+
+    public SimulatedLink(SimulatedNetwork network, ProcessConfig self, ProcessConfig[] nodes, Class<? extends Message> messageClass, MessageCodec codec) {
+        this.network = network;
+        this.config = self;
+        this.nodes = nodes;
+        this.messageClass = messageClass;
+        this.codec = codec;
+        network.register(this);
+    }
+
+    public int getId() {
+        return config.getId();
+    }
+
+    public void broadcast(Message data) {
+        broadcastAsync(data);
+    }
+
+    public Map<Integer, CompletableFuture<Void>> broadcastAsync(Message data) {
+        Map<Integer, CompletableFuture<Void>> delivered = new HashMap<>();
+        network.beginSend();
+        try {
+            // Signed once for every node
+            AuthedMessage authed = new AuthedMessage(data);
+            for (ProcessConfig node : nodes)
+                delivered.put(node.getId(), send(node.getId(), authed));
+        } catch (Exception e) {
+            for (ProcessConfig node : nodes)
+                delivered.putIfAbsent(node.getId(), CompletableFuture.failedFuture(e));
+        } finally {
+            network.endSend();
+        }
+        return delivered;
+    }
+
+    public void send(int nodeId, Message data) {
+        sendAsync(nodeId, data);
+    }
+
+    public CompletableFuture<Void> sendAsync(int nodeId, Message data) {
+        network.beginSend();
+        try {
+            return send(nodeId, new AuthedMessage(data));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        } finally {
+            network.endSend();
+        }
+    }
+
+    private CompletableFuture<Void> send(int nodeId, AuthedMessage authed) {
+        if (!network.isRegistered(nodeId))
+            return CompletableFuture.failedFuture(new HDSSException(ErrorMessage.NoSuchNode));
+
+        int messageId = messageCounters.computeIfAbsent(nodeId, (id) -> new AtomicInteger(0)).getAndIncrement();
+        byte[] frame = codec.encode(authed.withMessageId(messageId));
+        return network.transmit(config.getId(), nodeId, messageId, frame);
+    }
+
+    public Message receive() {
+        reading = true;
+        try {
+            Message message = inbox.take();
+            network.touch();
+            return message;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    public synchronized void onReceive(Consumer<Message> handler, Executor executor) {
+        this.receiveHandler = handler;
+        this.receiveExecutor = executor;
+        if (receiver != null)
+            return;
+
+        receiver = new Thread(() -> {
+            while (true) {
+                Message message = receive();
+                if (message == null)
+                    return;
+                try {
+                    receiveExecutor.execute(() -> receiveHandler.accept(message));
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, MessageFormat.format("{0} - Handler failed on {1} message from {2}",
+                            config.getId(), message.getType(), message.getSenderId()));
+                }
+            }
+        }, "simulated-receiver-" + config.getId());
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    boolean hasPending() {
+        return reading && !inbox.isEmpty();
+    }
+
+    /*
+     * Called by the network with a copy of a frame sent to this process
+     * Verifies it as the APL does, duplicates and invalid messages are dropped
+     */
+    void deliver(int source, int messageId, byte[] frame) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(frame);
+            AuthedMessage authed = MessageCodec.detect(buffer).decode(buffer);
+            authed.verify();
+
+            // Signed by a process other than the one transmitting it
+            if (authed.getDataAsMessage().getSenderId() != source)
+                throw new Exception();
+            if (!receivedMessages.computeIfAbsent(source, (id) -> new CollapsingSet()).add(messageId))
+                return;
+
+            Message typed;
+            if (ProcessConfigBuilder.isClient(source) || ProcessConfigBuilder.isClient(config.getId()))
+                typed = authed.getDataAs(ClientMessage.class);
+            else
+                typed = authed.getDataAs(messageClass);
+
+            switch (typed.getType()) {
+                case RESPONSE_BALANCE, RESPONSE_TRANSFER -> inbox.add(typed);
+                case CHECK_BALANCE, TRANSFER -> inbox.add(authed);
+                default -> {
+                    if (typed instanceof ConsensusMessage consensusMessage)
+                        consensusMessage.verify();
+                    inbox.add(authed);
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, MessageFormat.format("{0} - Dropped message {1} from {2}", config.getId(), messageId, source));
+        }
+    }
+}
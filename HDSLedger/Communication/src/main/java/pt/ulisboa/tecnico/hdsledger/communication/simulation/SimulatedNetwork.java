@@ -0,0 +1,288 @@
+package pt.ulisboa.tecnico.hdsledger.communication.simulation;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * In memory network connecting SimulatedLinks of a single JVM under a virtual clock
+ *
+ * Transmissions are events ordered by their virtual delivery time. The clock jumps to the next
+ * event once the processes are quiet (no message waiting to be received, no send in progress
+ * and no activity for quietPeriod real milliseconds), so waiting on latency costs no real time.
+ *
+ * The fate of every transmission attempt (latency, loss, duplication, reordering) is drawn from
+ * a generator seeded by the network seed, the endpoints, the message ID and the attempt. The
+ * same seed replays the same network behaviour for the same messages, whatever the thread
+ * interleaving; the messages themselves only repeat if the processes send them in the same order.
+ *
+ * Lost attempts are retransmitted after retransmitTimeout virtual milliseconds (doubled on each
+ * attempt), the sender sees a message as delivered once the first copy reaches the destination.
+ */
+public class SimulatedNetwork {
+
+    // Virtual ms before a lost attempt is retransmitted
+    public static final int DEFAULT_RETRANSMIT_TIMEOUT = 200;
+    // Real ms without activity before the clock moves on
+    public static final int DEFAULT_QUIET_PERIOD = 2;
+    // Retransmission back-off stops doubling after this attempt
+    private static final int MAX_BACKOFF_ATTEMPT = 5;
+
+    private final long seed;
+    private final int quietPeriod;
+    private final int retransmitTimeout;
+    private final Thread clock;
+    private volatile LinkConditions defaultConditions = LinkConditions.PERFECT;
+    // Source << 32 | destination -> Conditions of that direction
+    private final Map<Long, LinkConditions> conditions = new ConcurrentHashMap<>();
+    // Process ID -> Link
+    private final Map<Integer, SimulatedLink> links = new ConcurrentHashMap<>();
+    // Pending transmissions, by delivery time then scheduling order
+    private final PriorityQueue<Event> events = new PriorityQueue<>(
+            Comparator.<Event>comparingLong((event) -> event.time).thenComparingLong((event) -> event.sequence));
+    // Virtual time (ms)
+    private long now = 0;
+    private long sequence = 0;
+    // Sends being signed and encoded
+    private int sending = 0;
+    // Real time (ns) of the last send or receive
+    private long lastActivity = System.nanoTime();
+    private long delivered = 0;
+    private long lost = 0;
+    private long duplicated = 0;
+
+    private static class Event {
+        private final long time;
+        private final long sequence;
+        private final Transmission transmission;
+        private final int attempt;
+        // Lost attempt, retransmitted when the event fires
+        private final boolean retransmit;
+
+        private Event(long time, long sequence, Transmission transmission, int attempt, boolean retransmit) {
+            this.time = time;
+            this.sequence = sequence;
+            this.transmission = transmission;
+            this.attempt = attempt;
+            this.retransmit = retransmit;
+        }
+    }
+
+    private static class Transmission {
+        private final int source;
+        private final int destination;
+        private final int messageId;
+        private final byte[] frame;
+        private final CompletableFuture<Void> delivered = new CompletableFuture<>();
+
+        private Transmission(int source, int destination, int messageId, byte[] frame) {
+            this.source = source;
+            this.destination = destination;
+            this.messageId = messageId;
+            this.frame = frame;
+        }
+    }
+
+    public SimulatedNetwork(long seed) {
+        this(seed, DEFAULT_QUIET_PERIOD, DEFAULT_RETRANSMIT_TIMEOUT);
+    }
+
+    public SimulatedNetwork(long seed, int quietPeriod, int retransmitTimeout) {
+        this.seed = seed;
+        this.quietPeriod = Math.max(1, quietPeriod);
+        this.retransmitTimeout = Math.max(1, retransmitTimeout);
+
+        this.clock = new Thread(this::run, "simulated-clock");
+        clock.setDaemon(true);
+        clock.start();
+    }
+
+    /*
+     * Stops the clock, pending transmissions are never delivered
+     */
+    public void shutdown() {
+        clock.interrupt();
+    }
+
+    /*
+     * Conditions of every direction without its own
+     */
+    public void setDefaultConditions(LinkConditions conditions) {
+        this.defaultConditions = conditions;
+    }
+
+    /*
+     * Conditions of the messages sent from source to destination
+     */
+    public void setConditions(int source, int destination, LinkConditions conditions) {
+        this.conditions.put(key(source, destination), conditions);
+    }
+
+    public LinkConditions getConditions(int source, int destination) {
+        return conditions.getOrDefault(key(source, destination), defaultConditions);
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /*
+     * Virtual time (ms) since the network was created
+     */
+    public synchronized long getTime() {
+        return now;
+    }
+
+    public synchronized long getDeliveredCount() {
+        return delivered;
+    }
+
+    public synchronized long getLostCount() {
+        return lost;
+    }
+
+    public synchronized long getDuplicatedCount() {
+        return duplicated;
+    }
+
+    void register(SimulatedLink link) {
+        links.put(link.getId(), link);
+    }
+
+    boolean isRegistered(int id) {
+        return links.containsKey(id);
+    }
+
+    /*
+     * A send started, the clock waits for it to be transmitted
+     */
+    synchronized void beginSend() {
+        sending++;
+        touch();
+    }
+
+    synchronized void endSend() {
+        sending--;
+        touch();
+    }
+
+    /*
+     * A process sent or received a message
+     */
+    synchronized void touch() {
+        lastActivity = System.nanoTime();
+        notifyAll();
+    }
+
+    /*
+     * Transmits a frame from source to destination until it gets there
+     *
+     * @return Future completed at the delivery of the first copy
+     */
+    synchronized CompletableFuture<Void> transmit(int source, int destination, int messageId, byte[] frame) {
+        Transmission transmission = new Transmission(source, destination, messageId, frame);
+        schedule(transmission, 0);
+        touch();
+        return transmission.delivered;
+    }
+
+    /*
+     * Draws the fate of an attempt and schedules its delivery or retransmission
+     */
+    private synchronized void schedule(Transmission transmission, int attempt) {
+        // Local messages skip the network
+        if (transmission.source == transmission.destination) {
+            events.add(new Event(now, sequence++, transmission, attempt, false));
+            return;
+        }
+
+        Random random = fate(transmission, attempt);
+        LinkConditions link = getConditions(transmission.source, transmission.destination);
+
+        if (random.nextDouble() < link.getLoss()) {
+            lost++;
+            long backoff = (long) retransmitTimeout << Math.min(attempt, MAX_BACKOFF_ATTEMPT);
+            events.add(new Event(now + backoff, sequence++, transmission, attempt, true));
+            return;
+        }
+
+        long latency = link.getLatency().sample(random);
+        // Held back past the messages sent within a latency after it
+        if (random.nextDouble() < link.getReordering())
+            latency += 1 + link.getLatency().sample(random);
+        events.add(new Event(now + latency, sequence++, transmission, attempt, false));
+
+        if (random.nextDouble() < link.getDuplication()) {
+            duplicated++;
+            events.add(new Event(now + link.getLatency().sample(random), sequence++, transmission, attempt, false));
+        }
+    }
+
+    private Random fate(Transmission transmission, int attempt) {
+        long hash = seed;
+        for (long value : new long[] { transmission.source, transmission.destination, transmission.messageId, attempt }) {
+            hash = (hash ^ value) * 0x9E3779B97F4A7C15L;
+            hash ^= hash >>> 32;
+        }
+        return new Random(hash);
+    }
+
+    /*
+     * Clock: waits for the processes to be quiet, then fires the events of the next instant
+     */
+    private void run() {
+        while (true) {
+            List<Event> due = new ArrayList<>();
+            synchronized (this) {
+                try {
+                    while (events.isEmpty() || !isQuiet())
+                        wait(quietPeriod);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                now = events.peek().time;
+                while (!events.isEmpty() && events.peek().time == now)
+                    due.add(events.poll());
+            }
+
+            for (Event event : due)
+                fire(event);
+        }
+    }
+
+    private boolean isQuiet() {
+        if (sending > 0 || System.nanoTime() - lastActivity < quietPeriod * 1_000_000L)
+            return false;
+        for (SimulatedLink link : links.values()) {
+            if (link.hasPending())
+                return false;
+        }
+        return true;
+    }
+
+    private void fire(Event event) {
+        Transmission transmission = event.transmission;
+        if (event.retransmit) {
+            schedule(transmission, event.attempt + 1);
+            return;
+        }
+
+        SimulatedLink destination = links.get(transmission.destination);
+        if (destination == null)
+            return;
+        synchronized (this) {
+            delivered++;
+        }
+        destination.deliver(transmission.source, transmission.messageId, transmission.frame);
+        transmission.delivered.complete(null);
+    }
+
+    private static long key(int source, int destination) {
+        return ((long) source << 32) | (destination & 0xFFFFFFFFL);
+    }
+}
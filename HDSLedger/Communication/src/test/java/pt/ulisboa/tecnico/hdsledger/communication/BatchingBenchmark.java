@@ -0,0 +1,89 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.text.MessageFormat;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Compares sending every frame in its own datagram with the DatagramBatcher
+ *
+ * Several senders push frames the size of a binary COMMIT to one receiver over loopback, as
+ * a node does when a consensus round fans out. Reports the number of datagrams and the frames
+ * delivered per second (frames dropped by the socket are not retransmitted here).
+ *
+ * Run from the Communication directory with:
+ *  mvn test-compile exec:java -Dexec.classpathScope=test \
+ *      -Dexec.mainClass=pt.ulisboa.tecnico.hdsledger.communication.BatchingBenchmark
+ */
+public class BatchingBenchmark {
+
+    private static final int FRAMES = 100_000;
+    private static final int SENDERS = 4;
+    private static final int FRAME_SIZE = 1235;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println(MessageFormat.format("{0} frames of {1} bytes from {2} threads", FRAMES, FRAME_SIZE, SENDERS));
+        run("unbatched", 0);
+        run("batched (1 ms linger)", DatagramBatcher.DEFAULT_LINGER);
+        System.exit(0);
+    }
+
+    private static void run(String name, int linger) throws Exception {
+        DatagramChannel receiver = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        DatagramChannel sender = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        receiver.setOption(StandardSocketOptions.SO_RCVBUF, 1 << 22);
+        DatagramBatcher batcher = new DatagramBatcher(sender, DatagramBatcher.DEFAULT_MAX_BATCH_SIZE, linger);
+
+        AtomicLong received = new AtomicLong(0);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread reader = new Thread(() -> {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BufferPool.DATAGRAM_SIZE);
+            try {
+                while (received.get() < FRAMES) {
+                    buffer.clear();
+                    receiver.receive(buffer);
+                    buffer.flip();
+                    DatagramBatcher.unpack(buffer, (frame) -> received.incrementAndGet());
+                }
+                done.countDown();
+            } catch (ClosedChannelException e) {
+                // Frames were lost, the run timed out
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        reader.start();
+
+        SocketAddress destination = receiver.getLocalAddress();
+        byte[] frame = new byte[FRAME_SIZE];
+        frame[0] = '{';
+        long start = System.nanoTime();
+        Thread[] senders = new Thread[SENDERS];
+        for (int i = 0; i < SENDERS; i++) {
+            senders[i] = new Thread(() -> {
+                for (int j = 0; j < FRAMES / SENDERS; j++)
+                    batcher.send(frame, destination);
+            });
+            senders[i].start();
+        }
+        for (Thread thread : senders)
+            thread.join();
+
+        done.await(5, TimeUnit.SECONDS);
+        long elapsed = System.nanoTime() - start;
+        receiver.close();
+        sender.close();
+        batcher.shutdown();
+
+        System.out.println(MessageFormat.format("{0}: {1} datagrams, {2} of {3} frames received, {4} frames/s",
+                name, batcher.getDatagramCount(), received.get(), FRAMES, received.get() * 1_000_000_000L / elapsed));
+    }
+}
@@ -0,0 +1,125 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import pt.ulisboa.tecnico.hdsledger.communication.codec.MessageCodec;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.*;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.consensus.*;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.consensus.builder.ConsensusMessageBuilder;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.ledger.*;
+import pt.ulisboa.tecnico.hdsledger.utilities.*;
+import pt.ulisboa.tecnico.hdsledger.keygenerator.KeyGenerator;
+
+import java.nio.ByteBuffer;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Compares the JSON and binary codecs: frame size per message type, and encode and decode
+ * throughput of a COMMIT
+ *
+ * Run from the Communication directory with:
+ *  mvn test-compile exec:java -Dexec.classpathScope=test \
+ *      -Dexec.mainClass=pt.ulisboa.tecnico.hdsledger.communication.CodecBenchmark
+ */
+public class CodecBenchmark {
+
+    private static final int WARMUP = 5000;
+    private static final int ITERATIONS = 20000;
+
+    public static void main(String[] args) throws Exception {
+        KeyGenerator.generateKeys("src/test/resources/conf1.json", "/tmp/test/keys");
+        String source = KeyGetter.getKeyId(1);
+        String destination = KeyGetter.getKeyId(2);
+        String value = new Transaction(source, destination, 25).toJson();
+
+        ClientMessage request = new ClientMessage(1, Message.Type.TRANSFER, 7);
+        request.setMessage(new TransferMessage(source, destination, 25).toJson());
+        AuthedMessage clientRequest = new AuthedMessage(request);
+
+        Map<String, AuthedMessage> messages = new LinkedHashMap<>();
+        messages.put("ACK", new AuthedMessage(new Message(1, Message.Type.ACK)));
+        messages.put("TRANSFER", clientRequest);
+        messages.put("PRE_PREPARE", new AuthedMessage(consensus(Message.Type.PRE_PREPARE, clientRequest, new PrePrepareMessage(value).toJson())));
+        messages.put("COMMIT", new AuthedMessage(consensus(Message.Type.COMMIT, clientRequest, new CommitMessage(value).toJson())));
+
+        List<AuthedMessage> justification = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            justification.add(new AuthedMessage(consensus(Message.Type.PREPARE, clientRequest, new PrepareMessage(value).toJson())));
+        ConsensusMessage roundChange = consensus(Message.Type.ROUND_CHANGE, clientRequest, new RoundChangeMessage(1, value).toJson());
+        roundChange.setPiggyback(justification);
+        messages.put("ROUND_CHANGE (3 piggybacked)", new AuthedMessage(roundChange));
+
+        // The same justification as a quorum certificate (votes of the two configured nodes and a repeated one)
+        List<ConsensusMessage> prepares = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            prepares.add(new ConsensusMessageBuilder(1 + i % 2, Message.Type.PREPARE, clientRequest)
+                    .setConsensusInstance(3)
+                    .setRound(1)
+                    .setMessage(new PrepareMessage(value).toJson())
+                    .build());
+        ConsensusMessage certified = new ConsensusMessageBuilder(2, Message.Type.ROUND_CHANGE, clientRequest)
+                .setConsensusInstance(3)
+                .setRound(2)
+                .setMessage(new RoundChangeMessage(1, value).toJson())
+                .build();
+        certified.setCertificate(QuorumCertificate.ofPrepares(3, 1, value, prepares));
+        messages.put("ROUND_CHANGE (certificate of 3)", new AuthedMessage(certified));
+
+        System.out.println("Frame size (bytes)");
+        messages.forEach((name, message) -> System.out.println(MessageFormat.format("  {0}: json {1}, binary {2}", name,
+                MessageCodec.JSON.encode(message).length, MessageCodec.BINARY.encode(message).length)));
+
+        AuthedMessage commit = messages.get("COMMIT");
+        System.out.println("COMMIT throughput (messages/s)");
+        for (MessageCodec codec : List.of(MessageCodec.JSON, MessageCodec.BINARY)) {
+            encode(codec, commit, WARMUP);
+            decode(codec, codec.encode(commit), WARMUP);
+            System.out.println(MessageFormat.format("  {0}: encode {1}, decode {2}", codec.getClass().getSimpleName(),
+                    encode(codec, commit, ITERATIONS), decode(codec, codec.encode(commit), ITERATIONS)));
+        }
+    }
+
+    private static ConsensusMessage consensus(Message.Type type, AuthedMessage clientRequest, String payload) {
+        ConsensusMessage message = new ConsensusMessage(2, type, clientRequest);
+        message.setConsensusInstance(3);
+        message.setRound(1);
+        message.setReplyTo(1);
+        message.setReplyToMessageId(42);
+        message.setClientId(1);
+        message.setMessage(payload);
+        return message;
+    }
+
+    private static long encode(MessageCodec codec, AuthedMessage message, int iterations) {
+        long bytes = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+            bytes += codec.encode(message).length;
+        long elapsed = System.nanoTime() - start;
+        if (bytes == 0)
+            throw new IllegalStateException();
+        return iterations * 1_000_000_000L / elapsed;
+    }
+
+    /*
+     * Decode up to the consensus message and the client request (or its digest), as done by
+     * APL.receive and NodeService
+     */
+    private static long decode(MessageCodec codec, byte[] frame, int iterations) throws Exception {
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            ByteBuffer buffer = ByteBuffer.wrap(frame);
+            AuthedMessage decoded = MessageCodec.detect(buffer).decode(buffer);
+            ConsensusMessage consensus = decoded.getDataAs(ConsensusMessage.class);
+            AuthedMessage request = consensus.getClientMessage();
+            checksum += request != null ? request.getDataAs(ClientMessage.class).getRequestId() : consensus.getRequestDigest().length();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (checksum == 0)
+            throw new IllegalStateException();
+        return iterations * 1_000_000_000L / elapsed;
+    }
+}
@@ -0,0 +1,353 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import pt.ulisboa.tecnico.hdsledger.communication.codec.*;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.*;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.consensus.*;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.consensus.builder.ConsensusMessageBuilder;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.ledger.*;
+import pt.ulisboa.tecnico.hdsledger.utilities.*;
+import pt.ulisboa.tecnico.hdsledger.keygenerator.KeyGenerator;
+
+import com.google.gson.JsonParseException;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.DisplayName;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class CodecTest {
+    private static String nodesConfigPath = "src/test/resources/";
+
+    private String source;
+    private String destination;
+
+    @BeforeAll
+    public void init() throws Exception {
+        KeyGenerator.generateKeys(nodesConfigPath + "conf1.json", "/tmp/test/keys");
+        source = KeyGetter.getKeyId(1);
+        destination = KeyGetter.getKeyId(2);
+    }
+
+    private AuthedMessage transferRequest() throws Exception {
+        ClientMessage request = new ClientMessage(1, Message.Type.TRANSFER, 7);
+        request.setMessage(new TransferMessage(source, destination, 25).toJson());
+        return new AuthedMessage(request);
+    }
+
+    private ConsensusMessage consensusMessage(Message.Type type, String payload) throws Exception {
+        ConsensusMessage message = new ConsensusMessage(2, type, transferRequest());
+        message.setConsensusInstance(3);
+        message.setRound(1);
+        message.setReplyTo(1);
+        message.setReplyToMessageId(42);
+        message.setClientId(1);
+        message.setMessage(payload);
+        message.setMessageId(11);
+        return message;
+    }
+
+    private AuthedMessage roundTrip(AuthedMessage message) throws IOException {
+        byte[] frame = MessageCodec.BINARY.encode(message);
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        assertSame(MessageCodec.BINARY, MessageCodec.detect(buffer));
+
+        AuthedMessage decoded = MessageCodec.detect(buffer).decode(buffer);
+        assertEquals(message.toJson(), decoded.toJson());
+        return decoded;
+    }
+
+    @Test
+    @DisplayName("Cumulative ACK round trip")
+    public void test_ack_round_trip() throws Exception {
+        AuthedMessage original = new AuthedMessage(new Message(2, Message.Type.ACK));
+        original.setAcks(4, new int[] { 6, 9 });
+        original.authenticateAcks(3, null);
+
+        AuthedMessage decoded = roundTrip(original);
+        assertTrue(decoded.isSignatureCorrect());
+        assertEquals(4, decoded.getAckFloor());
+        assertArrayEquals(new int[] { 6, 9 }, decoded.getAcks());
+        assertTrue(decoded.isAckAuthentic(3, null));
+        // Only for its destination
+        assertFalse(decoded.isAckAuthentic(4, null));
+
+        // A copy with a higher floor, or under another message ID, keeps a valid signature but not its ACK
+        decoded.setAcks(100, new int[] { 6, 9 });
+        decoded.setAckTag(original.getAckTag());
+        assertTrue(decoded.isSignatureCorrect());
+        assertFalse(decoded.isAckAuthentic(3, null));
+        AuthedMessage moved = original.withMessageId(original.getMessageId() + 1);
+        moved.setAcks(4, new int[] { 6, 9 });
+        moved.setAckTag(original.getAckTag());
+        assertFalse(moved.isAckAuthentic(3, null));
+
+        // Under the session key of a message authenticated by MAC
+        AuthedMessage mac = new AuthedMessage(new Message(1, Message.Type.ACK), new SessionKeys(1, Arrays.asList(2)).get(2));
+        mac.setAcks(4, new int[0]);
+        mac.authenticateAcks(2, new SessionKeys(1, Arrays.asList(2)).get(2));
+        assertTrue(roundTrip(mac).isAckAuthentic(2, new SessionKeys(2, Arrays.asList(1)).get(1)));
+        assertFalse(roundTrip(mac).isAckAuthentic(2, null));
+
+        ByteBuffer json = ByteBuffer.wrap(MessageCodec.JSON.encode(original));
+        assertEquals(original.toJson(), MessageCodec.detect(json).decode(json).toJson());
+    }
+
+    @Test
+    @DisplayName("Consensus message round trip")
+    public void test_consensus_round_trip() throws Exception {
+        String value = new Transaction(source, destination, 25).toJson();
+        ConsensusMessage original = consensusMessage(Message.Type.PRE_PREPARE, new PrePrepareMessage(value).toJson());
+
+        AuthedMessage decoded = roundTrip(new AuthedMessage(original));
+        assertTrue(decoded.isKeyCorrect());
+        assertTrue(decoded.isSignatureCorrect());
+
+        ConsensusMessage message = decoded.getDataAs(ConsensusMessage.class);
+        assertEquals(3, message.getConsensusInstance());
+        assertEquals(1, message.getRound());
+        assertEquals(1, message.getReplyTo());
+        assertEquals(42, message.getReplyToMessageId());
+        assertEquals(11, message.getMessageId());
+        assertEquals(value, message.deserializePrePrepareMessage().getValue());
+
+        TransferMessage transfer = message.getClientMessage().getDataAs(ClientMessage.class).deserializeTransferMessage();
+        assertEquals(source, transfer.getSource());
+        assertEquals(destination, transfer.getDestination());
+        assertEquals(25, transfer.getAmount());
+        message.verify();
+    }
+
+    @Test
+    @DisplayName("Every consensus payload round trip")
+    public void test_consensus_payloads() throws Exception {
+        String value = new Transaction(source, destination, 25).toJson();
+        String checkBalance = new Transaction(source).toJson();
+
+        roundTrip(new AuthedMessage(consensusMessage(Message.Type.PREPARE, new PrepareMessage(value).toJson())));
+        roundTrip(new AuthedMessage(consensusMessage(Message.Type.COMMIT, new CommitMessage(checkBalance).toJson())));
+        roundTrip(new AuthedMessage(consensusMessage(Message.Type.ROUND_CHANGE, new RoundChangeMessage(-1, null).toJson())));
+        roundTrip(new AuthedMessage(consensusMessage(Message.Type.ROUND_CHANGE, new RoundChangeMessage(2, value).toJson())));
+    }
+
+    @Test
+    @DisplayName("Client messages round trip")
+    public void test_client_round_trip() throws Exception {
+        roundTrip(transferRequest());
+
+        ClientMessage checkBalance = new ClientMessage(1, Message.Type.CHECK_BALANCE, 1);
+        checkBalance.setMessage(new CheckBalanceMessage(source).toJson());
+        roundTrip(new AuthedMessage(checkBalance));
+
+        ClientMessage balance = new ClientMessage(2, Message.Type.RESPONSE_BALANCE, 1);
+        balance.setMessage(new BalanceResponseMessage(-1).toJson());
+        AuthedMessage decoded = roundTrip(new AuthedMessage(balance));
+        assertEquals(-1, decoded.getDataAs(ClientMessage.class).deserializeBalanceResponseMessage().getBalance());
+
+        ClientMessage transfer = new ClientMessage(2, Message.Type.RESPONSE_TRANSFER, 1);
+        transfer.setMessage(new TransferResponseMessage(true).toJson());
+        decoded = roundTrip(new AuthedMessage(transfer));
+        assertTrue(decoded.getDataAs(ClientMessage.class).deserializeTransferResponseMessage().wasSuccessful());
+    }
+
+    @Test
+    @DisplayName("ACK and piggyback round trip")
+    public void test_piggyback_round_trip() throws Exception {
+        Message ack = new Message(1, Message.Type.ACK);
+        ack.setMessageId(5);
+        AuthedMessage decoded = roundTrip(new AuthedMessage(ack));
+        assertEquals(5, decoded.getDataAsMessage().getMessageId());
+
+        String value = new Transaction(source, destination, 25).toJson();
+        List<AuthedMessage> justification = List.of(
+                new AuthedMessage(consensusMessage(Message.Type.PREPARE, new PrepareMessage(value).toJson())),
+                new AuthedMessage(consensusMessage(Message.Type.PREPARE, new PrepareMessage(value).toJson())));
+
+        ConsensusMessage roundChange = consensusMessage(Message.Type.ROUND_CHANGE, new RoundChangeMessage(1, value).toJson());
+        roundChange.setPiggyback(justification);
+        decoded = roundTrip(new AuthedMessage(roundChange));
+
+        List<AuthedMessage> piggyback = decoded.getDataAs(ConsensusMessage.class).getPiggyback();
+        assertEquals(2, piggyback.size());
+        for (AuthedMessage message : piggyback)
+            assertTrue(message.isSignatureCorrect());
+    }
+
+    @Test
+    @DisplayName("Only PRE_PREPAREs carry the client request, the others its digest")
+    public void test_request_digest() throws Exception {
+        String value = new Transaction(source, destination, 25).toJson();
+        AuthedMessage request = transferRequest();
+        String digest = ConsensusMessage.requestDigest(request);
+
+        ConsensusMessage prePrepare = new ConsensusMessageBuilder(2, Message.Type.PRE_PREPARE, request)
+                .setConsensusInstance(3)
+                .setRound(1)
+                .setMessage(new PrePrepareMessage(value).toJson())
+                .build();
+        ConsensusMessage decoded = roundTrip(new AuthedMessage(prePrepare)).getDataAs(ConsensusMessage.class);
+        assertEquals(digest, decoded.getRequestDigest());
+        assertNotNull(decoded.getClientMessage());
+        decoded.verify();
+
+        // The request must match the digest
+        prePrepare.setRequestDigest(ConsensusMessage.requestDigest(new AuthedMessage(new ClientMessage(1, Message.Type.TRANSFER, 99))));
+        assertThrows(HDSSException.class, prePrepare::verify);
+
+        ConsensusMessage commit = new ConsensusMessageBuilder(2, Message.Type.COMMIT, request)
+                .setConsensusInstance(3)
+                .setRound(1)
+                .setMessage(new CommitMessage(value).toJson())
+                .build();
+        decoded = roundTrip(new AuthedMessage(commit)).getDataAs(ConsensusMessage.class);
+        assertEquals(digest, decoded.getRequestDigest());
+        assertNull(decoded.getClientMessage());
+        assertTrue(new BinaryCodec().encode(new AuthedMessage(commit)).length < new BinaryCodec().encode(new AuthedMessage(prePrepare)).length);
+
+        // Fetched by digest
+        ConsensusMessage fetch = new ConsensusMessageBuilder(1, Message.Type.FETCH, digest).build();
+        assertEquals(digest, roundTrip(new AuthedMessage(fetch)).getDataAs(ConsensusMessage.class).getRequestDigest());
+        ConsensusMessage reply = new ConsensusMessageBuilder(2, Message.Type.FETCH_REPLY, request).build();
+        decoded = roundTrip(new AuthedMessage(reply)).getDataAs(ConsensusMessage.class);
+        decoded.verify();
+        assertEquals(digest, ConsensusMessage.requestDigest(decoded.getClientMessage()));
+    }
+
+    @Test
+    @DisplayName("PRE_PREPARE of a block carries its requests, proposing their transactions in order")
+    public void test_block() throws Exception {
+        ClientMessage second = new ClientMessage(1, Message.Type.TRANSFER, 8);
+        second.setMessage(new TransferMessage(source, destination, 30).toJson());
+        List<AuthedMessage> requests = List.of(transferRequest(), new AuthedMessage(second));
+        AuthedMessage block = new AuthedMessage(new BlockMessage(2, requests));
+
+        String value = new Block(List.of(new Transaction(source, destination, 25), new Transaction(source, destination, 30))).toJson();
+        ConsensusMessage prePrepare = new ConsensusMessageBuilder(2, Message.Type.PRE_PREPARE, block)
+                .setConsensusInstance(3)
+                .setRound(1)
+                .setMessage(new PrePrepareMessage(value).toJson())
+                .build();
+        ConsensusMessage decoded = roundTrip(new AuthedMessage(prePrepare)).getDataAs(ConsensusMessage.class);
+        assertEquals(ConsensusMessage.requestDigest(block), decoded.getRequestDigest());
+        assertEquals(2, decoded.getClientMessage().getDataAs(BlockMessage.class).getRequests().size());
+        decoded.verify();
+
+        // The value must be the transactions of the requests, in order
+        String reordered = new Block(List.of(new Transaction(source, destination, 30), new Transaction(source, destination, 25))).toJson();
+        prePrepare.setMessage(new PrePrepareMessage(reordered).toJson());
+        assertThrows(HDSSException.class, prePrepare::verify);
+
+        // A block holds at least one request
+        ConsensusMessage empty = new ConsensusMessageBuilder(2, Message.Type.PRE_PREPARE, new AuthedMessage(new BlockMessage(2, List.of())))
+                .setMessage(new PrePrepareMessage(new Block(List.of()).toJson()).toJson())
+                .build();
+        assertThrows(HDSSException.class, empty::verify);
+    }
+
+    @Test
+    @DisplayName("Vote and quorum certificate round trip")
+    public void test_certificate_round_trip() throws Exception {
+        String value = new Transaction(source, destination, 25).toJson();
+        List<ConsensusMessage> prepares = new ArrayList<>();
+        for (int senderId = 1; senderId <= 2; senderId++) {
+            prepares.add(new ConsensusMessageBuilder(senderId, Message.Type.PREPARE, transferRequest())
+                    .setConsensusInstance(3)
+                    .setRound(1)
+                    .setMessage(new PrepareMessage(value).toJson())
+                    .build());
+        }
+
+        ConsensusMessage roundChange = new ConsensusMessageBuilder(2, Message.Type.ROUND_CHANGE, transferRequest())
+                .setConsensusInstance(3)
+                .setRound(2)
+                .setMessage(new RoundChangeMessage(1, value).toJson())
+                .build();
+        roundChange.setCertificate(QuorumCertificate.ofPrepares(3, 1, value, prepares));
+        AuthedMessage decoded = roundTrip(new AuthedMessage(roundChange));
+
+        ConsensusMessage message = decoded.getDataAs(ConsensusMessage.class);
+        assertTrue(QuorumCertificate.isValidVote(message));
+        assertEquals(2, message.getCertificate().getVotes().size());
+        assertTrue(message.getCertificate().isValid(2));
+    }
+
+    @Test
+    @DisplayName("Certificates nested deeper than a round change one are rejected")
+    public void test_nested_certificate() throws Exception {
+        QuorumCertificate leaf = new QuorumCertificate(Message.Type.PREPARE, 3, 1, null, null, null);
+        ConsensusMessage message = consensusMessage(Message.Type.ROUND_CHANGE, new RoundChangeMessage(1, null).toJson());
+        byte[] none = MessageCodec.BINARY.encode(new AuthedMessage(message));
+        message.setCertificate(leaf);
+        byte[] one = MessageCodec.BINARY.encode(new AuthedMessage(message));
+
+        // The frames differ in the certificate: absent (0) or present with no nested one (1 ... 0)
+        int start = 0;
+        while (none[start] == one[start])
+            start++;
+        int suffix = none.length - start - 1;
+        byte[] level = Arrays.copyOfRange(one, start, one.length - suffix - 1);
+
+        // One certificate nested in the next, about 60 KB of them
+        int depth = 60_000 / level.length;
+        ByteBuffer deep = ByteBuffer.allocate(none.length + depth * level.length);
+        deep.put(none, 0, start);
+        for (int i = 0; i < depth; i++)
+            deep.put(level);
+        deep.put(none, start, none.length - start);
+        assertThrows(IOException.class, () -> MessageCodec.BINARY.decode(ByteBuffer.wrap(deep.array())));
+
+        // A round change certificate holding a prepare certificate is still accepted
+        message.setCertificate(new QuorumCertificate(Message.Type.ROUND_CHANGE, 3, 2, null, null, leaf));
+        roundTrip(new AuthedMessage(message));
+        QuorumCertificate nested = new QuorumCertificate(Message.Type.ROUND_CHANGE, 3, 2, null, null,
+                new QuorumCertificate(Message.Type.ROUND_CHANGE, 3, 1, null, null, leaf));
+        message.setCertificate(nested);
+        byte[] twice = MessageCodec.BINARY.encode(new AuthedMessage(message));
+        assertThrows(IOException.class, () -> MessageCodec.BINARY.decode(ByteBuffer.wrap(twice)));
+
+        // Same for the JSON piggyback
+        String json = "{\"certificate\":" + "{\"prepared\":".repeat(depth) + "null" + "}".repeat(depth + 1);
+        assertThrows(JsonParseException.class, () -> Piggyback.fromJson(json));
+        assertNotNull(Piggyback.fromJson(new Piggyback(null, nested.getPrepared()).toJson()).getCertificate().getPrepared());
+        assertThrows(JsonParseException.class, () -> Piggyback.fromJson(new Piggyback(null, nested).toJson()));
+    }
+
+    @Test
+    @DisplayName("Values Gson can't reproduce are sent as is")
+    public void test_opaque_values() throws Exception {
+        ConsensusMessage message = consensusMessage(Message.Type.PREPARE, "{\"value\" : \"not a transaction\"}");
+        AuthedMessage decoded = roundTrip(new AuthedMessage(message));
+        assertTrue(decoded.isSignatureCorrect());
+        assertEquals(message.getMessage(), decoded.getDataAs(ConsensusMessage.class).getMessage());
+    }
+
+    @Test
+    @DisplayName("Binary frames are smaller and JSON frames are still accepted")
+    public void test_frames() throws Exception {
+        String value = new Transaction(source, destination, 25).toJson();
+        AuthedMessage message = new AuthedMessage(consensusMessage(Message.Type.COMMIT, new CommitMessage(value).toJson()));
+
+        byte[] json = MessageCodec.JSON.encode(message);
+        byte[] binary = MessageCodec.BINARY.encode(message);
+        assertTrue(binary.length < json.length / 2);
+
+        ByteBuffer buffer = ByteBuffer.wrap(json);
+        assertSame(MessageCodec.JSON, MessageCodec.detect(buffer));
+        assertEquals(message.toJson(), MessageCodec.detect(buffer).decode(buffer).toJson());
+
+        byte[] unknownVersion = binary.clone();
+        unknownVersion[1] = (byte) (BinaryCodec.VERSION + 1);
+        assertThrows(IOException.class, () -> MessageCodec.BINARY.decode(ByteBuffer.wrap(unknownVersion)));
+
+        byte[] truncated = Arrays.copyOf(binary, binary.length / 2);
+        assertThrows(IOException.class, () -> MessageCodec.BINARY.decode(ByteBuffer.wrap(truncated)));
+    }
+}
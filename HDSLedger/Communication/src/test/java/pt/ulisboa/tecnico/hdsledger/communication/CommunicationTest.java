@@ -1,6 +1,7 @@
 package pt.ulisboa.tecnico.hdsledger.communication;
 
 import pt.ulisboa.tecnico.hdsledger.communication.*;
+import pt.ulisboa.tecnico.hdsledger.communication.codec.MessageCodec;
 import pt.ulisboa.tecnico.hdsledger.communication.messages.*;
 import pt.ulisboa.tecnico.hdsledger.utilities.*;
 import pt.ulisboa.tecnico.hdsledger.keygenerator.KeyGenerator;
@@ -12,6 +13,16 @@ import org.junit.jupiter.api.TestInstance.Lifecycle;
 import org.junit.jupiter.api.TestInstance;
 import org.junit.jupiter.api.DisplayName;
 
+import com.google.gson.Gson;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
@@ -37,4 +48,163 @@ public class CommunicationTest {
         assertTrue(authed.isKeyCorrect());
         assertTrue(authed.isSignatureCorrect());
     }
-} 
+
+    @Test
+    @DisplayName("Broadcast signs once")
+    public void test_broadcast_signs_once() throws Exception {
+        KeyGenerator.generateKeys(nodesConfigPath + "conf1.json", "/tmp/test/keys");
+
+        ProcessConfig[] nodes = ProcessConfigBuilder.getNodeConfigs();
+        APL first = new APL(nodes[0], nodes[0].getPort(), nodes, new ProcessConfig[0], ConsensusMessage.class);
+        APL second = new APL(nodes[1], nodes[1].getPort(), nodes, new ProcessConfig[0], ConsensusMessage.class);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            for (int messageId = 0; messageId < 2; messageId++) {
+                first.broadcast(new ClientMessage(1, Message.Type.TRANSFER, messageId));
+
+                AuthedMessage local = (AuthedMessage) first.receive();
+                AuthedMessage remote = (AuthedMessage) second.receive();
+
+                // Same signature, message IDs counted per destination
+                assertEquals(local.getSignature(), remote.getSignature());
+                assertEquals(messageId, local.getMessageId());
+                assertEquals(messageId, remote.getMessageId());
+
+                // ACK from the second node stops the retransmissions
+                assertEquals(Message.Type.ACK, first.receive().getType());
+                assertEquals(0, first.getPendingCount(2));
+            }
+        });
+    }
+
+    @Test
+    @DisplayName("Cumulative ACKs")
+    public void test_cumulative_acks() throws Exception {
+        KeyGenerator.generateKeys(nodesConfigPath + "conf1.json", "/tmp/test/keys");
+
+        ProcessConfig[] nodes = nodesWithPortOffset(100);
+        APL first = new APL(nodes[0], nodes[0].getPort(), nodes, new ProcessConfig[0], ConsensusMessage.class);
+        APL second = new APL(nodes[1], nodes[1].getPort(), nodes, new ProcessConfig[0], ConsensusMessage.class);
+        int sends = 10;
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            for (int requestId = 0; requestId < sends; requestId++)
+                first.send(2, new ClientMessage(1, Message.Type.TRANSFER, requestId));
+            for (int requestId = 0; requestId < sends; requestId++)
+                assertEquals(Message.Type.TRANSFER, second.receive().getType());
+
+            // Every send is acknowledged by fewer ACK datagrams than sends
+            int acks = 0;
+            while (first.getPendingCount(2) > 0) {
+                assertEquals(Message.Type.ACK, first.receive().getType());
+                acks++;
+            }
+            assertTrue(acks < sends);
+        });
+    }
+
+    @Test
+    @DisplayName("Delivery futures and receive handler")
+    public void test_async_link() throws Exception {
+        KeyGenerator.generateKeys(nodesConfigPath + "conf1.json", "/tmp/test/keys");
+
+        ProcessConfig[] nodes = nodesWithPortOffset(200);
+        AsyncLink first = new APL(nodes[0], nodes[0].getPort(), nodes, new ProcessConfig[0], ConsensusMessage.class);
+        AsyncLink second = new APL(nodes[1], nodes[1].getPort(), nodes, new ProcessConfig[0], ConsensusMessage.class);
+
+        BlockingQueue<Message> received = new LinkedBlockingQueue<>();
+        first.onReceive((message) -> {});
+        second.onReceive(received::add);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            Map<Integer, CompletableFuture<Void>> delivered = first.broadcastAsync(new ClientMessage(1, Message.Type.TRANSFER, 0));
+
+            // Completed by the ACK of each node (locally right away)
+            CompletableFuture.allOf(delivered.values().toArray(CompletableFuture[]::new)).get();
+            assertEquals(Message.Type.TRANSFER, received.take().getType());
+
+            first.sendAsync(2, new ClientMessage(1, Message.Type.TRANSFER, 1)).get();
+            assertEquals(Message.Type.TRANSFER, received.take().getType());
+        });
+
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> first.sendAsync(7, new ClientMessage(1, Message.Type.TRANSFER, 2)).get());
+        assertEquals(ErrorMessage.NoSuchNode, ((HDSSException) e.getCause()).getErrorMessage());
+    }
+
+    @Test
+    @DisplayName("MAC authenticated replica links")
+    public void test_mac_links() throws Exception {
+        KeyGenerator.generateKeys(nodesConfigPath + "conf_mac.json", "/tmp/test/keys");
+
+        ProcessConfig[] nodes = nodesWithPortOffset(300);
+        APL first = new APL(nodes[0], nodes[0].getPort(), nodes, new ProcessConfig[0], ConsensusMessage.class);
+        APL second = new APL(nodes[1], nodes[1].getPort(), nodes, new ProcessConfig[0], ConsensusMessage.class);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            first.send(2, new ClientMessage(1, Message.Type.TRANSFER, 0));
+            AuthedMessage transfer = (AuthedMessage) second.receive();
+            assertEquals(Message.Type.TRANSFER, transfer.getType());
+            assertTrue(transfer.isMac());
+
+            // Broadcasts get a MAC per destination (locally under the key of the node with itself)
+            first.broadcast(new ClientMessage(1, Message.Type.TRANSFER, 1));
+            AuthedMessage local = (AuthedMessage) first.receive();
+            Message remote = second.receive();
+            // Retransmissions of the first TRANSFER are ignored
+            while (remote.getType().equals(Message.Type.IGNORE))
+                remote = second.receive();
+            assertTrue(local.isMac());
+            assertTrue(((AuthedMessage) remote).isMac());
+            assertNotEquals(local.getSignature(), ((AuthedMessage) remote).getSignature());
+        });
+
+        // Verifiable only by the holder of the session key, not by third parties
+        AuthedMessage forwarded = new AuthedMessage(new ClientMessage(1, Message.Type.TRANSFER, 1), new SessionKeys(1, Arrays.asList(2)).get(2));
+        assertThrows(HDSSException.class, forwarded::verify);
+        assertThrows(HDSSException.class, () -> forwarded.verifyMac(new SessionKeys(2, Arrays.asList(1)).get(2)));
+        forwarded.verifyMac(new SessionKeys(2, Arrays.asList(1)).get(1));
+    }
+
+    @Test
+    @DisplayName("Binary ACKs are applied by the reader, signed or with a MAC")
+    public void test_binary_acks() throws Exception {
+        int offset = 400;
+        for (String config : new String[] { "conf1.json", "conf_mac.json" }) {
+            KeyGenerator.generateKeys(nodesConfigPath + config, "/tmp/test/keys");
+
+            ProcessConfig[] nodes = nodesWithPortOffset(offset);
+            offset += 100;
+            APL first = new APL(nodes[0], nodes[0].getPort(), nodes, new ProcessConfig[0], ConsensusMessage.class,
+                    false, 200, new RetransmissionScheduler(), MessageCodec.BINARY);
+            APL second = new APL(nodes[1], nodes[1].getPort(), nodes, new ProcessConfig[0], ConsensusMessage.class,
+                    false, 200, new RetransmissionScheduler(), MessageCodec.BINARY);
+
+            BlockingQueue<Message> received = new LinkedBlockingQueue<>();
+            first.onReceive(received::add);
+
+            assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+                first.sendAsync(2, new ClientMessage(1, Message.Type.TRANSFER, 0));
+                assertEquals(Message.Type.TRANSFER, second.receive().getType());
+
+                // Acknowledged without the ACK going through receive
+                while (first.getPendingCount(2) > 0)
+                    Thread.sleep(10);
+                assertTrue(received.isEmpty());
+            });
+        }
+    }
+
+    /*
+     * Copies of the configured nodes on other ports, the links of the other tests stay open
+     */
+    private static ProcessConfig[] nodesWithPortOffset(int offset) {
+        Gson gson = new Gson();
+        ProcessConfig[] nodes = Arrays.stream(ProcessConfigBuilder.getNodeConfigs())
+                .map((node) -> gson.fromJson(gson.toJson(node), ProcessConfig.class))
+                .toArray(ProcessConfig[]::new);
+        for (ProcessConfig node : nodes)
+            node.setPort(node.getPort() + offset);
+        return nodes;
+    }
+}
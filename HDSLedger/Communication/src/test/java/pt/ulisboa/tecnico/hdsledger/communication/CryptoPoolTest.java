@@ -0,0 +1,46 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import pt.ulisboa.tecnico.hdsledger.communication.messages.*;
+import pt.ulisboa.tecnico.hdsledger.utilities.*;
+import pt.ulisboa.tecnico.hdsledger.keygenerator.KeyGenerator;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CryptoPoolTest {
+    private static String nodesConfigPath = "src/test/resources/";
+
+    @Test
+    @DisplayName("Quorum of valid signatures")
+    public void test_verify_quorum() throws Exception {
+        KeyGenerator.generateKeys(nodesConfigPath + "conf1.json", "/tmp/test/keys");
+
+        List<AuthedMessage> messages = new ArrayList<>();
+        for (int requestId = 0; requestId < 3; requestId++)
+            messages.add(new AuthedMessage(new ClientMessage(1 + requestId % 2, Message.Type.TRANSFER, requestId)));
+        messages.add(forged(messages.get(0)));
+
+        assertTrue(CryptoPool.verifyQuorum(messages, 3));
+        assertFalse(CryptoPool.verifyQuorum(messages, 4));
+        assertFalse(CryptoPool.verifyQuorum(messages.subList(0, 2), 3));
+        assertFalse(CryptoPool.verifyQuorum(null, 1));
+
+        // From a crypto thread, verified in order
+        assertTrue(CryptoPool.getExecutor().submit(() -> CryptoPool.verifyQuorum(messages, 3)).get());
+        assertFalse(CryptoPool.getExecutor().submit(() -> CryptoPool.verifyQuorum(messages, 4)).get());
+    }
+
+    /*
+     * Signature of the message over other data
+     */
+    private static AuthedMessage forged(AuthedMessage authed) {
+        return new AuthedMessage(authed.getSenderId(), authed.getType(),
+                new ClientMessage(authed.getSenderId(), Message.Type.TRANSFER, 99).toJson(), authed.getSignature(),
+                authed.getKey(), authed.getHostname(), authed.getPort(), authed.getTimeStamp());
+    }
+}
@@ -0,0 +1,129 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DatagramBatcherTest {
+
+    private DatagramChannel sender;
+    private DatagramChannel receiver;
+
+    @BeforeEach
+    public void open() throws Exception {
+        sender = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        receiver = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    @AfterEach
+    public void close() throws Exception {
+        sender.close();
+        receiver.close();
+    }
+
+    @Test
+    @DisplayName("Frames sent within the linger time share a datagram")
+    public void test_frames_share_datagram() throws Exception {
+        DatagramBatcher batcher = new DatagramBatcher(sender, 1024, 50);
+        SocketAddress destination = receiver.getLocalAddress();
+        List<byte[]> sent = List.of(frame(100, 1), frame(200, 2), frame(300, 3));
+        sent.forEach((frame) -> batcher.send(frame, destination));
+
+        List<byte[]> received = receive();
+
+        assertEquals(1, batcher.getDatagramCount());
+        assertEquals(sent.size(), received.size());
+        for (int i = 0; i < sent.size(); i++)
+            assertArrayEquals(sent.get(i), received.get(i));
+        batcher.shutdown();
+    }
+
+    @Test
+    @DisplayName("Full batches and oversized frames are sent right away")
+    public void test_size_budget() throws Exception {
+        DatagramBatcher batcher = new DatagramBatcher(sender, 512, 60_000);
+        byte[] first = frame(300, 1);
+        byte[] second = frame(300, 2);
+        byte[] large = frame(1000, 3);
+
+        batcher.send(first, receiver.getLocalAddress());
+        batcher.send(large, receiver.getLocalAddress());
+        batcher.send(second, receiver.getLocalAddress());
+
+        // Oversized frame is not delayed, a single frame is sent as is
+        List<byte[]> received = receive();
+        assertEquals(1, received.size());
+        assertArrayEquals(large, received.get(0));
+
+        // Second frame does not fit with the first one
+        received = receive();
+        assertEquals(1, received.size());
+        assertArrayEquals(first, received.get(0));
+        assertEquals(2, batcher.getDatagramCount());
+        batcher.shutdown();
+    }
+
+    @Test
+    @DisplayName("Truncated batches are rejected")
+    public void test_truncated_batch() throws Exception {
+        ByteBuffer batch = ByteBuffer.allocate(8);
+        batch.put(DatagramBatcher.MAGIC).put((byte) DatagramBatcher.VERSION).putShort((short) 10).put(new byte[4]).flip();
+
+        assertThrows(java.io.IOException.class, () -> DatagramBatcher.unpack(batch, (frame) -> {}));
+    }
+
+    @Test
+    @DisplayName("Frames before a truncated trailing frame are still handed out")
+    public void test_truncated_trailing_frame() throws Exception {
+        byte[] first = frame(3, 1);
+        byte[] second = frame(2, 2);
+        ByteBuffer batch = ByteBuffer.allocate(16);
+        batch.put(DatagramBatcher.MAGIC).put((byte) DatagramBatcher.VERSION)
+                .putShort((short) first.length).put(first)
+                .putShort((short) second.length).put(second)
+                .putShort((short) 10).put(new byte[3]).flip();
+
+        List<byte[]> frames = new ArrayList<>();
+        assertThrows(java.io.IOException.class, () -> DatagramBatcher.unpack(batch, (frame) -> {
+            byte[] bytes = new byte[frame.remaining()];
+            frame.get(bytes);
+            frames.add(bytes);
+        }));
+        assertEquals(2, frames.size());
+        assertArrayEquals(first, frames.get(0));
+        assertArrayEquals(second, frames.get(1));
+    }
+
+    private List<byte[]> receive() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(BufferPool.DATAGRAM_SIZE);
+        receiver.receive(buffer);
+        buffer.flip();
+
+        List<byte[]> frames = new ArrayList<>();
+        DatagramBatcher.unpack(buffer, (frame) -> {
+            byte[] bytes = new byte[frame.remaining()];
+            frame.get(bytes);
+            frames.add(bytes);
+        });
+        return frames;
+    }
+
+    private static byte[] frame(int length, int seed) {
+        byte[] frame = new byte[length];
+        for (int i = 0; i < length; i++)
+            frame[i] = (byte) ('{' + seed + i);
+        frame[0] = '{';
+        return frame;
+    }
+}
@@ -0,0 +1,59 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import pt.ulisboa.tecnico.hdsledger.communication.messages.*;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.ledger.*;
+import pt.ulisboa.tecnico.hdsledger.utilities.*;
+import pt.ulisboa.tecnico.hdsledger.keygenerator.KeyGenerator;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KeyIdTest {
+    private static String nodesConfigPath = "src/test/resources/";
+
+    @Test
+    @DisplayName("Key IDs and full keys identify the same account")
+    public void test_key_ids() throws Exception {
+        KeyGenerator.generateKeys(nodesConfigPath + "conf1.json", "/tmp/test/keys");
+
+        String keyId = KeyGetter.getKeyId(1);
+        String encoded = KeyGetter.getEncodedPublic(1);
+        assertEquals(32, Base64.getDecoder().decode(keyId).length);
+        assertEquals(keyId, KeyGetter.keyId(KeyGetter.getPublic(1)));
+        assertEquals(keyId, KeyGetter.toKeyId(encoded));
+        assertEquals(keyId, KeyGetter.toKeyId(keyId));
+
+        // Resolved from the keystore
+        assertEquals(1, KeyGetter.getId(keyId));
+        assertEquals(KeyGetter.getPublic(1), KeyGetter.fromString(keyId));
+        assertEquals(KeyGetter.getPublic(1), KeyGetter.fromString(encoded));
+        assertThrows(HDSSException.class, () -> KeyGetter.fromString(Base64.getEncoder().encodeToString(new byte[32])));
+
+        // Transfers name the accounts either way, the ledger keeps key IDs
+        Transaction transaction = new TransferMessage(encoded, KeyGetter.getEncodedPublic(2), 5).toTransaction();
+        assertEquals(new TransferMessage(keyId, KeyGetter.getKeyId(2), 5).toTransaction(), transaction);
+        assertEquals(keyId, transaction.getSource());
+    }
+
+    @Test
+    @DisplayName("Messages carry the key ID, full keys still verify")
+    public void test_message_key() throws Exception {
+        KeyGenerator.generateKeys(nodesConfigPath + "conf1.json", "/tmp/test/keys");
+
+        AuthedMessage authed = new AuthedMessage(new ClientMessage(1, Message.Type.TRANSFER, 0));
+        assertEquals(KeyGetter.getKeyId(1), authed.getKey());
+        authed.verify();
+
+        AuthedMessage fullKey = new AuthedMessage(authed.getSenderId(), authed.getType(), authed.getData(),
+                authed.getSignature(), KeyGetter.getEncodedPublic(1), authed.getHostname(), authed.getPort(), authed.getTimeStamp());
+        fullKey.verify();
+
+        AuthedMessage otherKey = new AuthedMessage(authed.getSenderId(), authed.getType(), authed.getData(),
+                authed.getSignature(), KeyGetter.getKeyId(2), authed.getHostname(), authed.getPort(), authed.getTimeStamp());
+        assertThrows(HDSSException.class, otherKey::verify);
+    }
+}
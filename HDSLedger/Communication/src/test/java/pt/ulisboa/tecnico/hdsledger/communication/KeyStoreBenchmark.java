@@ -0,0 +1,77 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import pt.ulisboa.tecnico.hdsledger.communication.messages.*;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.ledger.*;
+import pt.ulisboa.tecnico.hdsledger.utilities.*;
+import pt.ulisboa.tecnico.hdsledger.keygenerator.KeyGenerator;
+
+import java.text.MessageFormat;
+
+/*
+ * Per message cost of the key lookups, reading the key files on every call (the previous
+ * KeyGetter, approximated by a reload before each message) or from the in memory keystore
+ *
+ * The reload costs one read per message, the previous KeyGetter read the files on every lookup
+ * (four for a signed and verified TRANSFER), so the disk figures are a lower bound.
+ *
+ * Measures a lookup of a key pair and the signing and verification of a client TRANSFER
+ * (AuthedMessage construction, verify and ClientMessage.verify).
+ *
+ * Run from the Communication directory with:
+ *  mvn test-compile exec:java -Dexec.classpathScope=test \
+ *      -Dexec.mainClass=pt.ulisboa.tecnico.hdsledger.communication.KeyStoreBenchmark
+ */
+public class KeyStoreBenchmark {
+
+    private static final int LOOKUPS = 20000;
+    private static final int MESSAGES = 2000;
+
+    public static void main(String[] args) throws Exception {
+        KeyGenerator.generateKeys("src/test/resources/conf1.json", "/tmp/test/keys");
+        ClientMessage request = new ClientMessage(1, Message.Type.TRANSFER, 7);
+        request.setMessage(new TransferMessage(KeyGetter.getEncodedPublic(1), KeyGetter.getEncodedPublic(2), 25).toJson());
+
+        // Warm up both paths
+        lookups(LOOKUPS / 10, true);
+        lookups(LOOKUPS / 10, false);
+        messages(request, MESSAGES / 10, true);
+        messages(request, MESSAGES / 10, false);
+
+        System.out.println(MessageFormat.format("key pair lookup, from disk: {0} ns", lookups(LOOKUPS, true)));
+        System.out.println(MessageFormat.format("key pair lookup, keystore: {0} ns", lookups(LOOKUPS, false)));
+        System.out.println(MessageFormat.format("sign and verify, from disk: {0} us", messages(request, MESSAGES, true) / 1000));
+        System.out.println(MessageFormat.format("sign and verify, keystore: {0} us", messages(request, MESSAGES, false) / 1000));
+    }
+
+    /*
+     * @return Mean nanoseconds per lookup
+     */
+    private static long lookups(int count, boolean fromDisk) throws Exception {
+        long elapsed = 0;
+        for (int i = 0; i < count; i++) {
+            if (fromDisk)
+                KeyGetter.reload();
+            long start = System.nanoTime();
+            KeyGetter.getPair(1 + i % 2);
+            elapsed += System.nanoTime() - start;
+        }
+        return elapsed / count;
+    }
+
+    /*
+     * @return Mean nanoseconds per message
+     */
+    private static long messages(ClientMessage request, int count, boolean fromDisk) throws Exception {
+        long elapsed = 0;
+        for (int i = 0; i < count; i++) {
+            if (fromDisk)
+                KeyGetter.reload();
+            long start = System.nanoTime();
+            AuthedMessage authed = new AuthedMessage(request);
+            authed.verify();
+            authed.getDataAs(ClientMessage.class).verify();
+            elapsed += System.nanoTime() - start;
+        }
+        return elapsed / count;
+    }
+}
@@ -0,0 +1,118 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import pt.ulisboa.tecnico.hdsledger.communication.PeerSendQueue.OverflowPolicy;
+import pt.ulisboa.tecnico.hdsledger.utilities.ErrorMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.HDSSException;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PeerSendQueueTest {
+
+    // Futures of the dispatched sends, in dispatch order
+    private final List<CompletableFuture<Void>> dispatched = new ArrayList<>();
+    // Tags of the dispatched sends
+    private final List<Integer> tags = new ArrayList<>();
+
+    private void submit(PeerSendQueue queue, int tag) {
+        queue.submit(() -> {
+            CompletableFuture<Void> delivered = new CompletableFuture<>();
+            synchronized (dispatched) {
+                dispatched.add(delivered);
+                tags.add(tag);
+            }
+            return delivered;
+        });
+    }
+
+    private void acknowledge(int index) {
+        CompletableFuture<Void> delivered;
+        synchronized (dispatched) {
+            delivered = dispatched.get(index);
+        }
+        delivered.complete(null);
+    }
+
+    @Test
+    @DisplayName("Window bounds the sends in flight")
+    public void test_window() {
+        PeerSendQueue queue = new PeerSendQueue(2, 10, OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 5; i++)
+            submit(queue, i);
+
+        assertEquals(List.of(0, 1), tags);
+        assertEquals(2, queue.getInFlightCount());
+        assertEquals(3, queue.getQueuedCount());
+
+        // Each ACK lets the next waiting send through, in order
+        acknowledge(0);
+        acknowledge(1);
+        assertEquals(List.of(0, 1, 2, 3), tags);
+        assertEquals(1, queue.getQueuedCount());
+    }
+
+    @Test
+    @DisplayName("Drop oldest keeps the most recent sends")
+    public void test_drop_oldest() {
+        PeerSendQueue queue = new PeerSendQueue(1, 2, OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 5; i++)
+            submit(queue, i);
+
+        assertEquals(2, queue.getQueuedCount());
+        assertEquals(2, queue.getDroppedCount());
+
+        acknowledge(0);
+        acknowledge(1);
+        assertEquals(List.of(0, 3, 4), tags);
+    }
+
+    @Test
+    @DisplayName("Fail fast rejects sends to a full queue")
+    public void test_fail_fast() {
+        PeerSendQueue queue = new PeerSendQueue(1, 1, OverflowPolicy.FAIL_FAST);
+        submit(queue, 0);
+        submit(queue, 1);
+
+        HDSSException e = assertThrows(HDSSException.class, () -> submit(queue, 2));
+        assertEquals(ErrorMessage.SendQueueFull, e.getErrorMessage());
+        assertEquals(1, queue.getQueuedCount());
+    }
+
+    @Test
+    @DisplayName("Unless configured otherwise, sends are never discarded")
+    public void test_default_policy() {
+        assertEquals(OverflowPolicy.FAIL_FAST, OverflowPolicy.forName(null));
+        assertEquals(OverflowPolicy.DROP_OLDEST, OverflowPolicy.forName("drop_oldest"));
+    }
+
+    @Test
+    @DisplayName("Block waits for room in the queue")
+    public void test_block() throws Exception {
+        PeerSendQueue queue = new PeerSendQueue(1, 1, OverflowPolicy.BLOCK);
+        submit(queue, 0);
+        submit(queue, 1);
+
+        CountDownLatch submitted = new CountDownLatch(1);
+        Thread blocked = new Thread(() -> {
+            submit(queue, 2);
+            submitted.countDown();
+        });
+        blocked.start();
+
+        assertFalse(submitted.await(200, TimeUnit.MILLISECONDS));
+
+        acknowledge(0);
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> submitted.await());
+        assertEquals(List.of(0, 1), tags);
+        assertEquals(1, queue.getQueuedCount());
+    }
+}
@@ -0,0 +1,72 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import pt.ulisboa.tecnico.hdsledger.communication.messages.*;
+import pt.ulisboa.tecnico.hdsledger.utilities.*;
+import pt.ulisboa.tecnico.hdsledger.keygenerator.KeyGenerator;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Time to validate a justification of 2f+1 signed messages of distinct nodes, in order on the
+ * calling thread (the previous isValidQuorum) or across the crypto pool
+ *
+ * Every round uses messages never verified before, as a justification received from the
+ * network, so the verification cache doesn't hide the signature checks.
+ *
+ * Run from the Communication directory with:
+ *  mvn test-compile exec:java -Dexec.classpathScope=test \
+ *      -Dexec.mainClass=pt.ulisboa.tecnico.hdsledger.communication.QuorumBenchmark
+ */
+public class QuorumBenchmark {
+
+    private static final int ROUNDS = 200;
+
+    public static void main(String[] args) throws Exception {
+        KeyGenerator.generateKeys("../Tests/src/test/resources/config_many_nodes.json", "/tmp/test/keys");
+        int nodes = ProcessConfigBuilder.getNodeConfigs().length;
+        int quorumSize = ProcessConfigBuilder.getQuorumSize();
+
+        // Warm up both paths
+        run(ROUNDS / 10, nodes, quorumSize, false);
+        run(ROUNDS / 10, nodes, quorumSize, true);
+
+        System.out.println(MessageFormat.format("{0} cores, quorum of {1} out of {2} nodes",
+                Runtime.getRuntime().availableProcessors(), quorumSize, nodes));
+        System.out.println(MessageFormat.format("in order: {0} us", run(ROUNDS, nodes, quorumSize, false) / 1000));
+        System.out.println(MessageFormat.format("crypto pool: {0} us", run(ROUNDS, nodes, quorumSize, true) / 1000));
+    }
+
+    /*
+     * @return Mean nanoseconds per justification
+     */
+    private static long run(int rounds, int nodes, int quorumSize, boolean parallel) throws Exception {
+        long elapsed = 0;
+        for (int round = 0; round < rounds; round++) {
+            List<AuthedMessage> justification = new ArrayList<>();
+            for (int id = 1; id <= quorumSize; id++)
+                justification.add(new AuthedMessage(new ClientMessage(id, Message.Type.TRANSFER, round * nodes + id)));
+
+            long start = System.nanoTime();
+            boolean valid = parallel ? CryptoPool.verifyQuorum(justification, quorumSize) : inOrder(justification, quorumSize);
+            elapsed += System.nanoTime() - start;
+            if (!valid)
+                throw new IllegalStateException("Invalid justification");
+        }
+        return elapsed / rounds;
+    }
+
+    private static boolean inOrder(List<AuthedMessage> messages, int quorumSize) {
+        int valid = 0;
+        for (AuthedMessage message : messages) {
+            try {
+                message.verify();
+                valid++;
+            } catch (Exception e) {
+                continue;
+            }
+        }
+        return valid >= quorumSize;
+    }
+}
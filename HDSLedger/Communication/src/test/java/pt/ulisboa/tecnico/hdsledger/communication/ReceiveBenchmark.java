@@ -0,0 +1,126 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import pt.ulisboa.tecnico.hdsledger.communication.codec.MessageCodec;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.*;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.consensus.*;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.ledger.*;
+import pt.ulisboa.tecnico.hdsledger.utilities.*;
+import pt.ulisboa.tecnico.hdsledger.keygenerator.KeyGenerator;
+
+import com.google.gson.Gson;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Receive throughput of a link flooded with signed COMMIT messages
+ *
+ * Compares decoding and verifying every frame on a single thread (the previous receive path)
+ * with APL.receive, which decodes and verifies on one thread per core.
+ *
+ * Run from the Communication directory with:
+ *  mvn test-compile exec:java -Dexec.classpathScope=test \
+ *      -Dexec.mainClass=pt.ulisboa.tecnico.hdsledger.communication.ReceiveBenchmark
+ */
+public class ReceiveBenchmark {
+
+    private static final int MESSAGES = 20000;
+    // Frames sent and not yet received, kept within the socket receive buffer
+    private static final int MAX_OUTSTANDING = 100;
+
+    public static void main(String[] args) throws Exception {
+        KeyGenerator.generateKeys("src/test/resources/conf1.json", "/tmp/test/keys");
+        String source = KeyGetter.getKeyId(1);
+        String destination = KeyGetter.getKeyId(2);
+        String value = new Transaction(source, destination, 25).toJson();
+
+        ClientMessage request = new ClientMessage(1, Message.Type.TRANSFER, 7);
+        request.setMessage(new TransferMessage(source, destination, 25).toJson());
+        ConsensusMessage commit = new ConsensusMessage(1, Message.Type.COMMIT, new AuthedMessage(request));
+        commit.setConsensusInstance(3);
+        commit.setRound(1);
+        commit.setClientId(1);
+        commit.setMessage(new CommitMessage(value).toJson());
+        AuthedMessage authed = new AuthedMessage(commit);
+
+        List<byte[]> frames = new ArrayList<>();
+        for (int messageId = 0; messageId < MESSAGES; messageId++)
+            frames.add(MessageCodec.BINARY.encode(authed.withMessageId(messageId)));
+
+        System.out.println(MessageFormat.format("{0} COMMIT messages, {1} cores", MESSAGES, Runtime.getRuntime().availableProcessors()));
+        System.out.println(MessageFormat.format("single thread: {0} messages/s", serial(frames)));
+        System.out.println(MessageFormat.format("pipeline: {0} messages/s", pipeline(frames)));
+        System.exit(0);
+    }
+
+    private static long serial(List<byte[]> frames) throws Exception {
+        long start = System.nanoTime();
+        for (byte[] frame : frames) {
+            ByteBuffer buffer = ByteBuffer.wrap(frame);
+            AuthedMessage received = MessageCodec.detect(buffer).decode(buffer);
+            received.verify();
+            received.getDataAsMessage();
+            received.getDataAs(ConsensusMessage.class).verify();
+        }
+        return frames.size() * 1_000_000_000L / (System.nanoTime() - start);
+    }
+
+    private static long pipeline(List<byte[]> frames) throws Exception {
+        // Receiving node on its own port, the sender is a plain channel
+        Gson gson = new Gson();
+        ProcessConfig[] nodes = Arrays.stream(ProcessConfigBuilder.getNodeConfigs())
+                .map((node) -> gson.fromJson(gson.toJson(node), ProcessConfig.class))
+                .toArray(ProcessConfig[]::new);
+        for (ProcessConfig node : nodes)
+            node.setPort(node.getPort() + 300);
+        APL link = new APL(nodes[1], nodes[1].getPort(), nodes, new ProcessConfig[0], ConsensusMessage.class);
+
+        DatagramChannel sender = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        InetSocketAddress destination = new InetSocketAddress(InetAddress.getByName(nodes[1].getHostname()), nodes[1].getPort());
+
+        AtomicInteger received = new AtomicInteger(0);
+        Thread consumer = new Thread(() -> {
+            while (true) {
+                if (link.receive() != null)
+                    received.incrementAndGet();
+            }
+        });
+        consumer.setDaemon(true);
+        consumer.start();
+
+        long start = System.nanoTime();
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 0; i < frames.size(); i++) {
+                    // Lost frames never arrive, gives up waiting for them after a while
+                    long deadline = System.nanoTime() + 10_000_000L;
+                    while (i - received.get() > MAX_OUTSTANDING && System.nanoTime() < deadline)
+                        Thread.onSpinWait();
+                    sender.send(ByteBuffer.wrap(frames.get(i)), destination);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        producer.start();
+
+        // Stops once every frame is received or nothing arrives for a second (lost datagrams)
+        long end = System.nanoTime();
+        int last = -1;
+        while (received.get() < frames.size() && received.get() != last) {
+            last = received.get();
+            end = System.nanoTime();
+            Thread.sleep(1000);
+        }
+        if (received.get() == frames.size())
+            end = System.nanoTime();
+        return received.get() * 1_000_000_000L / (end - start);
+    }
+}
@@ -0,0 +1,167 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import pt.ulisboa.tecnico.hdsledger.utilities.CollapsingSet;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/*
+ * Compares the thread-per-send retransmission loop with the RetransmissionScheduler
+ *
+ * A simulated peer acknowledges each transmission after a random round trip time, a fraction
+ * of the peers is down and never acknowledges. Reports the peak number of live threads and the
+ * latency between a send and the moment it is known to be delivered.
+ *
+ * Run with:
+ *  mvn -pl Communication test-compile exec:java -Dexec.classpathScope=test \
+ *      -Dexec.mainClass=pt.ulisboa.tecnico.hdsledger.communication.RetransmissionBenchmark
+ */
+public class RetransmissionBenchmark {
+
+    private static final int SENDS = 5000;
+    private static final int PEERS = 7;
+    private static final int DOWN_PEERS = 2;
+    private static final int BASE_SLEEP_TIME = 200;
+    private static final int MAX_RTT = 20;
+
+    /*
+     * Reliable send strategy under test
+     */
+    private interface Strategy {
+        void send(int peer, int messageId, Runnable transmit, IntConsumer onDelivered);
+
+        void ack(int peer, int messageId);
+
+        void shutdown();
+    }
+
+    /*
+     * Original APL.send: one thread per message sleeping with exponential back-off
+     */
+    private static class ThreadPerSend implements Strategy {
+        private final CollapsingSet receivedAcks = new CollapsingSet();
+        private final List<Thread> threads = new ArrayList<>();
+
+        @Override
+        public void send(int peer, int messageId, Runnable transmit, IntConsumer onDelivered) {
+            Thread thread = new Thread(() -> {
+                int sleepTime = BASE_SLEEP_TIME;
+                try {
+                    for (;;) {
+                        transmit.run();
+                        Thread.sleep(sleepTime);
+                        if (receivedAcks.contains(messageId))
+                            break;
+                        sleepTime = Math.min(sleepTime << 1, RetransmissionScheduler.MAX_BACKOFF);
+                    }
+                    onDelivered.accept(messageId);
+                } catch (InterruptedException e) {
+                    // Benchmark finished
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+
+        @Override
+        public void ack(int peer, int messageId) {
+            receivedAcks.add(messageId);
+        }
+
+        @Override
+        public void shutdown() {
+            threads.forEach(Thread::interrupt);
+        }
+    }
+
+    private static class Scheduled implements Strategy {
+        private final RetransmissionScheduler scheduler = new RetransmissionScheduler();
+
+        @Override
+        public void send(int peer, int messageId, Runnable transmit, IntConsumer onDelivered) {
+            scheduler.schedule(peer, messageId, BASE_SLEEP_TIME, transmit)
+                    .thenRun(() -> onDelivered.accept(messageId));
+        }
+
+        @Override
+        public void ack(int peer, int messageId) {
+            scheduler.acknowledge(peer, messageId);
+        }
+
+        @Override
+        public void shutdown() {
+            scheduler.shutdown();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println(MessageFormat.format("{0} sends to {1} peers ({2} down)", SENDS, PEERS, DOWN_PEERS));
+        run("thread per send", new ThreadPerSend());
+        run("scheduler", new Scheduled());
+        System.exit(0);
+    }
+
+    private static void run(String name, Strategy strategy) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        ScheduledExecutorService network = Executors.newSingleThreadScheduledExecutor();
+        Random random = new Random(42);
+
+        long[] sentAt = new long[SENDS];
+        long[] latency = new long[SENDS];
+        CountDownLatch delivered = new CountDownLatch(SENDS - SENDS * DOWN_PEERS / PEERS);
+        AtomicInteger peakThreads = new AtomicInteger(threads.getThreadCount());
+
+        Thread monitor = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                peakThreads.accumulateAndGet(threads.getThreadCount(), Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        monitor.start();
+
+        IntConsumer onDelivered = (messageId) -> {
+            latency[messageId] = System.nanoTime() - sentAt[messageId];
+            delivered.countDown();
+        };
+
+        for (int messageId = 0; messageId < SENDS; messageId++) {
+            int id = messageId;
+            int peer = messageId % PEERS;
+            int rtt = 1 + random.nextInt(MAX_RTT);
+
+            sentAt[id] = System.nanoTime();
+            strategy.send(peer, id, () -> {
+                // Peers that are down never acknowledge
+                if (peer >= DOWN_PEERS)
+                    network.schedule(() -> strategy.ack(peer, id), rtt, TimeUnit.MILLISECONDS);
+            }, onDelivered);
+        }
+
+        delivered.await(30, TimeUnit.SECONDS);
+        monitor.interrupt();
+        network.shutdownNow();
+        strategy.shutdown();
+
+        long[] sorted = Arrays.stream(latency).filter((l) -> l > 0).sorted().toArray();
+        System.out.println(MessageFormat.format("{0}: peak threads {1}, p50 {2} ms, p99 {3} ms",
+                name, peakThreads.get(),
+                sorted[sorted.length / 2] / 1_000_000.0,
+                sorted[(int) (sorted.length * 0.99)] / 1_000_000.0));
+    }
+}
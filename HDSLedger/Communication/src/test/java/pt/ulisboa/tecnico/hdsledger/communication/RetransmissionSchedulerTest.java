@@ -0,0 +1,99 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RetransmissionSchedulerTest {
+
+    // Ticks the wheel was advanced by
+    private long now = 0;
+    // Ticks at which the message was transmitted
+    private final List<Long> transmissions = new ArrayList<>();
+
+    /*
+     * Scheduler without a ticker thread, retransmitting on the thread advancing it
+     */
+    private static RetransmissionScheduler scheduler(int tickDuration, int wheelSize) {
+        return new RetransmissionScheduler(tickDuration, wheelSize, Runnable::run, false);
+    }
+
+    private CompletableFuture<Void> schedule(RetransmissionScheduler scheduler, int messageId, int baseDelay) {
+        return scheduler.schedule(1, messageId, baseDelay, () -> transmissions.add(now));
+    }
+
+    private void advance(RetransmissionScheduler scheduler, int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            now++;
+            scheduler.advance();
+        }
+    }
+
+    @Test
+    @DisplayName("Acknowledged sends stop being retransmitted")
+    public void test_cancel_on_ack() {
+        RetransmissionScheduler scheduler = scheduler(10, 8);
+        CompletableFuture<Void> delivered = schedule(scheduler, 1, 30);
+        assertEquals(List.of(0L), transmissions);
+
+        advance(scheduler, 2);
+        assertEquals(List.of(0L), transmissions);
+        advance(scheduler, 1);
+        assertEquals(List.of(0L, 3L), transmissions);
+
+        scheduler.acknowledge(1, 1);
+        assertTrue(delivered.isDone());
+        assertEquals(0, scheduler.getPendingCount());
+
+        // Dropped from the wheel, past its next back-off and a full turn
+        advance(scheduler, 64);
+        assertEquals(List.of(0L, 3L), transmissions);
+
+        // Cumulative ACKs cancel only the sends up to the floor
+        CompletableFuture<Void> first = schedule(scheduler, 2, 10);
+        CompletableFuture<Void> second = schedule(scheduler, 3, 10);
+        scheduler.acknowledgeUpTo(1, 2);
+        assertTrue(first.isDone());
+        assertFalse(second.isDone());
+        transmissions.clear();
+        advance(scheduler, 1);
+        assertEquals(List.of(now), transmissions);
+    }
+
+    @Test
+    @DisplayName("Back-off doubles up to MAX_BACKOFF")
+    public void test_backoff_cap() {
+        // One tick per second, the cap is 10 ticks
+        RetransmissionScheduler scheduler = scheduler(1000, 4);
+        schedule(scheduler, 1, 1000);
+
+        advance(scheduler, 45);
+        // Back-off of 1, 2, 4, 8 ticks then capped at 10
+        assertEquals(List.of(0L, 1L, 3L, 7L, 15L, 25L, 35L, 45L), transmissions);
+    }
+
+    @Test
+    @DisplayName("Delays longer than a turn of the wheel wrap around it")
+    public void test_wheel_wraparound() {
+        // 100 ticks for the first retransmission, 12 turns and a half of the wheel
+        RetransmissionScheduler scheduler = scheduler(10, 8);
+        schedule(scheduler, 1, 1000);
+
+        // Passes the slot of the send 12 times before it's due
+        advance(scheduler, 99);
+        assertEquals(List.of(0L), transmissions);
+        advance(scheduler, 1);
+        assertEquals(List.of(0L, 100L), transmissions);
+
+        // Next after 200 ticks, landing on the same slot again
+        advance(scheduler, 199);
+        assertEquals(List.of(0L, 100L), transmissions);
+        advance(scheduler, 1);
+        assertEquals(List.of(0L, 100L, 300L), transmissions);
+    }
+}
@@ -0,0 +1,47 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import pt.ulisboa.tecnico.hdsledger.utilities.SignatureScheme;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.text.MessageFormat;
+
+/*
+ * Signing and verification throughput of each signature scheme over a message the size of a
+ * COMMIT (the data and timestamp covered by the signature of an AuthedMessage)
+ *
+ * Run from the Communication directory with:
+ *  mvn test-compile exec:java -Dexec.classpathScope=test \
+ *      -Dexec.mainClass=pt.ulisboa.tecnico.hdsledger.communication.SignatureBenchmark
+ */
+public class SignatureBenchmark {
+
+    private static final int WARMUP = 5000;
+    private static final int ITERATIONS = 3000;
+
+    public static void main(String[] args) throws Exception {
+        byte[] data = new String(new char[1200]).replace('\0', 'x').getBytes(StandardCharsets.UTF_8);
+
+        for (SignatureScheme scheme : SignatureScheme.values()) {
+            KeyPair pair = scheme.generateKeyPair();
+            byte[] signed = scheme.sign(pair.getPrivate(), data);
+            for (int i = 0; i < WARMUP; i++) {
+                scheme.sign(pair.getPrivate(), data);
+                scheme.verify(pair.getPublic(), data, signed);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++)
+                scheme.sign(pair.getPrivate(), data);
+            long signing = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++)
+                scheme.verify(pair.getPublic(), data, signed);
+            long verifying = System.nanoTime() - start;
+
+            System.out.println(MessageFormat.format("{0}: {1} signatures/s, {2} verifications/s, {3} byte signatures",
+                    scheme, ITERATIONS * 1_000_000_000L / signing, ITERATIONS * 1_000_000_000L / verifying, signed.length));
+        }
+    }
+}
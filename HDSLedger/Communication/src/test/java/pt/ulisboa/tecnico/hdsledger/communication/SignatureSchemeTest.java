@@ -0,0 +1,51 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import pt.ulisboa.tecnico.hdsledger.utilities.*;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SignatureSchemeTest {
+
+    @Test
+    @DisplayName("Every scheme verifies its signatures and rejects tampered data")
+    public void test_sign_verify() throws Exception {
+        byte[] data = "{\"type\":\"COMMIT\"}".getBytes(StandardCharsets.UTF_8);
+        byte[] tampered = "{\"type\":\"COMMIT\" }".getBytes(StandardCharsets.UTF_8);
+
+        for (SignatureScheme scheme : SignatureScheme.values()) {
+            KeyPair pair = scheme.generateKeyPair();
+            byte[] signed = scheme.sign(pair.getPrivate(), data);
+
+            assertTrue(scheme.verify(pair.getPublic(), data, signed), scheme.name());
+            assertFalse(scheme.verify(pair.getPublic(), tampered, signed), scheme.name());
+            assertEquals(scheme, SignatureScheme.forKey(pair.getPublic()));
+        }
+    }
+
+    @Test
+    @DisplayName("Encoded keys of any scheme are decoded")
+    public void test_decode_keys() throws Exception {
+        for (SignatureScheme scheme : SignatureScheme.values()) {
+            KeyPair pair = scheme.generateKeyPair();
+
+            assertEquals(pair.getPublic(), SignatureScheme.decodePublic(pair.getPublic().getEncoded()));
+            assertEquals(pair.getPrivate(), SignatureScheme.decodePrivate(pair.getPrivate().getEncoded()));
+        }
+    }
+
+    @Test
+    @DisplayName("Scheme names")
+    public void test_for_name() {
+        assertEquals(SignatureScheme.RSA, SignatureScheme.forName(null));
+        assertEquals(SignatureScheme.ED25519, SignatureScheme.forName("Ed25519"));
+
+        HDSSException e = assertThrows(HDSSException.class, () -> SignatureScheme.forName("dsa"));
+        assertEquals(ErrorMessage.UnknownSignatureScheme, e.getErrorMessage());
+    }
+}
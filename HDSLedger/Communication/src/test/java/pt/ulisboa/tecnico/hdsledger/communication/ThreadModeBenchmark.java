@@ -0,0 +1,73 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import pt.ulisboa.tecnico.hdsledger.utilities.ThreadMode;
+
+import java.lang.management.ManagementFactory;
+import java.text.MessageFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Concurrent client requests, each on a thread of the mode blocked on its quorum of responses
+ * (completed after a round trip, as the retransmission back-off or the f + 1 replies would)
+ *
+ * Without virtual threads in the runtime (JDK 17) both modes run on platform threads.
+ *
+ * Run from the Communication directory with:
+ *  mvn test-compile exec:java -Dexec.classpathScope=test \
+ *      -Dexec.mainClass=pt.ulisboa.tecnico.hdsledger.communication.ThreadModeBenchmark
+ */
+public class ThreadModeBenchmark {
+
+    private static final int REQUESTS = 10_000;
+    // Time (ms) a request waits for its quorum
+    private static final int ROUND_TRIP = 200;
+
+    // Completes the quorums
+    private static final ScheduledExecutorService RESPONSES = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+        Thread thread = new Thread(runnable, "responses");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public static void main(String[] args) throws Exception {
+        // Warm up both modes
+        run(ThreadMode.PLATFORM, REQUESTS / 10);
+        run(ThreadMode.VIRTUAL, REQUESTS / 10);
+
+        System.out.println(MessageFormat.format("{0} cores, {1} requests waiting {2} ms, virtual threads {3}",
+                Runtime.getRuntime().availableProcessors(), REQUESTS, ROUND_TRIP,
+                ThreadMode.isVirtualSupported() ? "supported" : "not supported (platform threads)"));
+        for (ThreadMode mode : ThreadMode.values()) {
+            ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+            long elapsed = run(mode, REQUESTS);
+            System.out.println(MessageFormat.format("{0}: {1} ms, {2} requests/s, peak of {3} platform threads", mode,
+                    elapsed / 1_000_000, (long) (REQUESTS / (elapsed / 1e9)), ManagementFactory.getThreadMXBean().getPeakThreadCount()));
+        }
+        System.exit(0);
+    }
+
+    /*
+     * @return Nanoseconds until every request has its quorum
+     */
+    private static long run(ThreadMode mode, int requests) throws Exception {
+        Executor executor = mode.perTask("request");
+        CountDownLatch done = new CountDownLatch(requests);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            executor.execute(() -> {
+                CompletableFuture<Void> quorum = new CompletableFuture<>();
+                RESPONSES.schedule(() -> quorum.complete(null), ROUND_TRIP, TimeUnit.MILLISECONDS);
+                quorum.join();
+                done.countDown();
+            });
+        }
+        done.await();
+        return System.nanoTime() - start;
+    }
+}
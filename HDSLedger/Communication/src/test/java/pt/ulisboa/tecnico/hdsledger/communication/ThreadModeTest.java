@@ -0,0 +1,33 @@
+package pt.ulisboa.tecnico.hdsledger.communication;
+
+import pt.ulisboa.tecnico.hdsledger.utilities.*;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ThreadModeTest {
+
+    @Test
+    @DisplayName("Tasks run on threads of each mode")
+    public void test_thread_modes() throws Exception {
+        assertEquals(ThreadMode.PLATFORM, ThreadMode.forName(null));
+        assertEquals(ThreadMode.VIRTUAL, ThreadMode.forName("virtual"));
+        assertThrows(HDSSException.class, () -> ThreadMode.forName("green"));
+
+        Thread platform = ThreadMode.PLATFORM.newThread("platform", () -> {});
+        assertTrue(platform.isDaemon());
+        assertEquals("platform", platform.getName());
+
+        // Virtual where the runtime has them, platform otherwise
+        for (ThreadMode mode : ThreadMode.values()) {
+            CompletableFuture<String> ran = new CompletableFuture<>();
+            mode.perTask("task").execute(() -> ran.complete(Thread.currentThread().getName()));
+            assertEquals("task-0", ran.get(5, TimeUnit.SECONDS));
+        }
+    }
+}
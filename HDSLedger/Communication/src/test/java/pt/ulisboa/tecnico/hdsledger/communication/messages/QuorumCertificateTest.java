@@ -0,0 +1,90 @@
+package pt.ulisboa.tecnico.hdsledger.communication.messages;
+
+import pt.ulisboa.tecnico.hdsledger.communication.messages.consensus.*;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.consensus.builder.ConsensusMessageBuilder;
+import pt.ulisboa.tecnico.hdsledger.utilities.*;
+import pt.ulisboa.tecnico.hdsledger.keygenerator.KeyGenerator;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QuorumCertificateTest {
+    private static String nodesConfigPath = "src/test/resources/";
+
+    private static final String VALUE = "value";
+
+    @Test
+    @DisplayName("Prepare certificate")
+    public void test_prepare_certificate() throws Exception {
+        KeyGenerator.generateKeys(nodesConfigPath + "conf1.json", "/tmp/test/keys");
+
+        List<ConsensusMessage> prepares = List.of(prepare(1, VALUE), prepare(2, VALUE));
+        prepares.forEach((message) -> assertTrue(QuorumCertificate.isValidVote(message)));
+
+        QuorumCertificate certificate = QuorumCertificate.ofPrepares(3, 1, VALUE, prepares);
+        assertTrue(certificate.isValid(2));
+        assertFalse(certificate.isValid(3));
+
+        // A node counts once
+        List<ConsensusMessage> repeated = List.of(prepare(1, VALUE), prepare(1, VALUE));
+        assertFalse(QuorumCertificate.ofPrepares(3, 1, VALUE, repeated).isValid(2));
+
+        // Votes for another value are left out, votes don't move to another round
+        assertFalse(QuorumCertificate.ofPrepares(3, 1, VALUE, List.of(prepare(1, VALUE), prepare(2, "other"))).isValid(2));
+        QuorumCertificate moved = new QuorumCertificate(Message.Type.PREPARE, 3, 2, certificate.getValueDigest(), certificate.getVotes(), null);
+        assertFalse(moved.isValid(2));
+    }
+
+    @Test
+    @DisplayName("Round change certificate")
+    public void test_round_change_certificate() throws Exception {
+        KeyGenerator.generateKeys(nodesConfigPath + "conf1.json", "/tmp/test/keys");
+
+        QuorumCertificate prepared = QuorumCertificate.ofPrepares(3, 1, VALUE, List.of(prepare(1, VALUE), prepare(2, VALUE)));
+
+        // Nobody prepared
+        assertTrue(QuorumCertificate.ofRoundChanges(3, 2, List.of(roundChange(1, -1, null, null), roundChange(2, -1, null, null))).isValid(2));
+
+        // The highest prepared round is proven by its prepare certificate
+        List<AuthedMessage> roundChanges = List.of(roundChange(1, -1, null, null), roundChange(2, 1, VALUE, prepared));
+        QuorumCertificate certificate = QuorumCertificate.ofRoundChanges(3, 2, roundChanges);
+        assertTrue(certificate.isValid(2));
+        assertNotNull(certificate.getPrepared());
+
+        // Without it, or with one for another value, it isn't
+        assertFalse(QuorumCertificate.ofRoundChanges(3, 2, List.of(roundChange(1, -1, null, null), roundChange(2, 1, VALUE, null))).isValid(2));
+        QuorumCertificate other = QuorumCertificate.ofPrepares(3, 1, "other", List.of(prepare(1, "other"), prepare(2, "other")));
+        assertFalse(QuorumCertificate.ofRoundChanges(3, 2, List.of(roundChange(1, -1, null, null), roundChange(2, 1, VALUE, other))).isValid(2));
+    }
+
+    private static ConsensusMessage prepare(int senderId, String value) {
+        return new ConsensusMessageBuilder(senderId, Message.Type.PREPARE, request())
+                .setConsensusInstance(3)
+                .setRound(1)
+                .setMessage(new PrepareMessage(value).toJson())
+                .build();
+    }
+
+    private static AuthedMessage roundChange(int senderId, int preparedRound, String value, QuorumCertificate prepared) throws Exception {
+        ConsensusMessage message = new ConsensusMessageBuilder(senderId, Message.Type.ROUND_CHANGE, request())
+                .setConsensusInstance(3)
+                .setRound(2)
+                .setMessage(new RoundChangeMessage(preparedRound, value).toJson())
+                .build();
+        message.setCertificate(prepared);
+        return new AuthedMessage(message);
+    }
+
+    private static AuthedMessage request() {
+        try {
+            return new AuthedMessage(new ClientMessage(1, Message.Type.TRANSFER, 0));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
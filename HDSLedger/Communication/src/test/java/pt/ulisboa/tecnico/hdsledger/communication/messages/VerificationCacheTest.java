@@ -0,0 +1,52 @@
+package pt.ulisboa.tecnico.hdsledger.communication.messages;
+
+import pt.ulisboa.tecnico.hdsledger.utilities.*;
+import pt.ulisboa.tecnico.hdsledger.keygenerator.KeyGenerator;
+
+import com.google.gson.Gson;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VerificationCacheTest {
+    private static String nodesConfigPath = "src/test/resources/";
+
+    @Test
+    @DisplayName("Copies hit, altered messages miss")
+    public void test_copies_hit() throws Exception {
+        KeyGenerator.generateKeys(nodesConfigPath + "conf1.json", "/tmp/test/keys");
+
+        VerificationCache cache = new VerificationCache(64);
+        AuthedMessage authed = new AuthedMessage(new ClientMessage(1, Message.Type.TRANSFER, 0));
+        cache.add(authed);
+
+        // Decoded again (e.g. from a piggyback) or under another message ID
+        assertTrue(cache.contains(new Gson().fromJson(authed.toJson(), AuthedMessage.class)));
+        assertTrue(cache.contains(authed.withMessageId(7)));
+
+        // Same signature over other data
+        AuthedMessage forged = new AuthedMessage(authed.getSenderId(), authed.getType(),
+                new ClientMessage(1, Message.Type.TRANSFER, 1).toJson(), authed.getSignature(),
+                authed.getKey(), authed.getHostname(), authed.getPort(), authed.getTimeStamp());
+        assertFalse(cache.contains(forged));
+        assertThrows(HDSSException.class, forged::verify);
+    }
+
+    @Test
+    @DisplayName("Least recently used evicted")
+    public void test_bounded() throws Exception {
+        KeyGenerator.generateKeys(nodesConfigPath + "conf1.json", "/tmp/test/keys");
+
+        // One message per segment at most
+        VerificationCache cache = new VerificationCache(16);
+        AuthedMessage first = new AuthedMessage(new ClientMessage(1, Message.Type.TRANSFER, 0));
+        cache.add(first);
+        for (int requestId = 1; requestId <= 200; requestId++)
+            cache.add(new AuthedMessage(new ClientMessage(1, Message.Type.TRANSFER, requestId)));
+
+        assertTrue(cache.size() <= 16);
+        assertFalse(cache.contains(first));
+    }
+}
@@ -0,0 +1,103 @@
+package pt.ulisboa.tecnico.hdsledger.communication.simulation;
+
+import pt.ulisboa.tecnico.hdsledger.communication.messages.*;
+import pt.ulisboa.tecnico.hdsledger.communication.simulation.LinkConditions.LatencyDistribution;
+import pt.ulisboa.tecnico.hdsledger.utilities.*;
+import pt.ulisboa.tecnico.hdsledger.keygenerator.KeyGenerator;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SimulatedNetworkTest {
+    private static String nodesConfigPath = "src/test/resources/";
+
+    private static final int SENDS = 30;
+
+    @Test
+    @DisplayName("Same seed replays the same deliveries")
+    public void test_deterministic_replay() throws Exception {
+        KeyGenerator.generateKeys(nodesConfigPath + "conf1.json", "/tmp/test/keys");
+
+        assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+            List<String> first = run(5);
+            assertEquals(first, run(5));
+            assertNotEquals(first, run(6));
+        });
+    }
+
+    @Test
+    @DisplayName("Lost and duplicated messages are delivered once")
+    public void test_exactly_once() throws Exception {
+        KeyGenerator.generateKeys(nodesConfigPath + "conf1.json", "/tmp/test/keys");
+
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            SimulatedNetwork network = unreliableNetwork(9);
+            List<Integer> received = new ArrayList<>();
+            send(network, received, new ArrayList<>());
+
+            List<Integer> sorted = new ArrayList<>(received);
+            Collections.sort(sorted);
+            assertEquals(SENDS, received.size());
+            assertEquals(SENDS, sorted.stream().distinct().count());
+            // Reordered by the network
+            assertNotEquals(sorted, received);
+            assertTrue(network.getLostCount() > 0);
+            assertTrue(network.getDuplicatedCount() > 0);
+        });
+    }
+
+    /*
+     * Request ID and virtual arrival time of every message, in arrival order
+     */
+    private List<String> run(long seed) throws Exception {
+        List<String> arrivals = new ArrayList<>();
+        send(unreliableNetwork(seed), new ArrayList<>(), arrivals);
+        return arrivals;
+    }
+
+    private SimulatedNetwork unreliableNetwork(long seed) {
+        SimulatedNetwork network = new SimulatedNetwork(seed, 20, SimulatedNetwork.DEFAULT_RETRANSMIT_TIMEOUT);
+        network.setDefaultConditions(new LinkConditions(LatencyDistribution.uniform(1, 30), 0.3, 0.3, 0.3));
+        return network;
+    }
+
+    private void send(SimulatedNetwork network, List<Integer> received, List<String> arrivals) throws Exception {
+        ProcessConfig[] nodes = ProcessConfigBuilder.getNodeConfigs();
+        SimulatedLink first = new SimulatedLink(network, nodes[0], nodes, ConsensusMessage.class);
+        SimulatedLink second = new SimulatedLink(network, nodes[1], nodes, ConsensusMessage.class);
+
+        second.onReceive((message) -> {
+            int requestId = ((AuthedMessage) message).getDataAs(ClientMessage.class).getRequestId();
+            synchronized (received) {
+                received.add(requestId);
+                arrivals.add(requestId + "@" + network.getTime());
+            }
+        });
+
+        // Every send is made before the clock moves, however slow the first ones are
+        List<CompletableFuture<Void>> delivered = new ArrayList<>();
+        network.beginSend();
+        for (int requestId = 0; requestId < SENDS; requestId++)
+            delivered.add(first.sendAsync(2, new ClientMessage(1, Message.Type.TRANSFER, requestId)));
+        network.endSend();
+        CompletableFuture.allOf(delivered.toArray(CompletableFuture[]::new)).join();
+
+        // The last delivery is handed to the handler before the clock moves on
+        while (true) {
+            synchronized (received) {
+                if (received.size() == SENDS)
+                    break;
+            }
+            Thread.sleep(10);
+        }
+        network.shutdown();
+    }
+}
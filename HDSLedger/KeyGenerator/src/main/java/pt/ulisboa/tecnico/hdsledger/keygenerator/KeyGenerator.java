@@ -42,18 +42,21 @@ public class KeyGenerator {
         String folderName = config.getHostname() + ":" + config.getPort() + "/";
         Files.createDirectories(Paths.get(outputDir + "/" + folderName));
 
-        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
-        generator.initialize(2048);
-        KeyPair pair = generator.generateKeyPair();
+        // Keys of the scheme selected by the configuration
+        writePair(SignatureScheme.configured().generateKeyPair(), outputDir + "/" + folderName, "");
+        // Key agreement pair, session keys between replicas are derived from it
+        writePair(KeyPairGenerator.getInstance("X25519").generateKeyPair(), outputDir + "/" + folderName, "agreement_");
+    }
 
+    private static void writePair(KeyPair pair, String folder, String prefix) throws Exception {
         PrivateKey privateKey = pair.getPrivate();
         PublicKey publicKey = pair.getPublic();
 
-        FileOutputStream publicKeyStream = new FileOutputStream(outputDir + "/" + folderName + "public.key");
+        FileOutputStream publicKeyStream = new FileOutputStream(folder + prefix + "public.key");
         publicKeyStream.write(Base64.getEncoder().encodeToString(publicKey.getEncoded()).getBytes());
         publicKeyStream.close();
 
-        FileOutputStream privateKeyStream = new FileOutputStream(outputDir + "/" + folderName + "private.key");
+        FileOutputStream privateKeyStream = new FileOutputStream(folder + prefix + "private.key");
         privateKeyStream.write(Base64.getEncoder().encodeToString(privateKey.getEncoded()).getBytes());
         privateKeyStream.close();
     }
@@ -75,5 +78,8 @@ public class KeyGenerator {
         for (ProcessConfig config : systemConfig.getClients()) {
             generateKey(config, outputDir);
         }
+
+        // Keys in memory are now outdated
+        KeyGetter.reload();
     }
 }
@@ -24,49 +24,58 @@ public class Node {
     private int id;
 
     public Node(int id) throws Exception {
-        // Create configuration instances
-        SystemConfig systemConfig = ProcessConfigBuilder.getSystemConfig();
-        ProcessConfig[] nodeConfigs = systemConfig.getNodes();
-        ProcessConfig[] clientConfigs = systemConfig.getClients();
+        this(id, createLink(id));
+    }
 
-        ProcessConfig nodeConfig = Arrays.stream(nodeConfigs).filter(c -> c.getId() == id).findAny().get();
+    public Node(int id, List<Pair<FunctionCall, Behaviour>> behaviours) throws Exception {
+        this(id, createLink(id), behaviours);
+    }
 
-        LOGGER.log(Level.INFO, MessageFormat.format("{0} - Running at {1}:{2};", nodeConfig.getId(), nodeConfig.getHostname(), nodeConfig.getPort()));
+    /*
+     * Node communicating over the given link instead of its own APL (e.g. a SimulatedLink)
+     */
+    public Node(int id, Link linkToNodes) throws Exception {
+        SystemConfig systemConfig = ProcessConfigBuilder.getSystemConfig();
+        ProcessConfig nodeConfig = getConfig(id);
 
-        LOGGER.log(Level.INFO, MessageFormat.format("Config path is: {0}", ProcessConfigBuilder.getPath()));
-        LOGGER.log(Level.INFO, MessageFormat.format("Key path is:    {0}", KeyGetter.getKeyDirectory()));
+        this.id = id;
+        // Services that implement listen from UDPService
+        this.service = new NodeService(linkToNodes, nodeConfig, systemConfig);
+    }
 
-        Link linkToNodes = new APL(nodeConfig, nodeConfig.getPort(), nodeConfigs, clientConfigs, ConsensusMessage.class);
+    public Node(int id, Link linkToNodes, List<Pair<FunctionCall, Behaviour>> behaviours) throws Exception {
+        SystemConfig systemConfig = ProcessConfigBuilder.getSystemConfig();
+        ProcessConfig nodeConfig = getConfig(id);
 
         this.id = id;
         // Services that implement listen from UDPService
-        this.service = new NodeService(linkToNodes, nodeConfig, systemConfig);
+        ByzantineService byzantineService = new ByzantineService(linkToNodes, nodeConfig, systemConfig);
+
+        for (Pair<FunctionCall, Behaviour> behaviour : behaviours) {
+            byzantineService.addBehaviour(behaviour);
+        }
+
+        this.service = byzantineService;
     }
 
-    public Node(int id, List<Pair<FunctionCall, Behaviour>> behaviours) throws Exception {
+    private static ProcessConfig getConfig(int id) {
+        return Arrays.stream(ProcessConfigBuilder.getSystemConfig().getNodes()).filter(c -> c.getId() == id).findAny().get();
+    }
+
+    private static Link createLink(int id) {
         // Create configuration instances
         SystemConfig systemConfig = ProcessConfigBuilder.getSystemConfig();
         ProcessConfig[] nodeConfigs = systemConfig.getNodes();
         ProcessConfig[] clientConfigs = systemConfig.getClients();
 
-        ProcessConfig nodeConfig = Arrays.stream(nodeConfigs).filter(c -> c.getId() == id).findAny().get();
+        ProcessConfig nodeConfig = getConfig(id);
 
         LOGGER.log(Level.INFO, MessageFormat.format("{0} - Running at {1}:{2};", nodeConfig.getId(), nodeConfig.getHostname(), nodeConfig.getPort()));
 
         LOGGER.log(Level.INFO, MessageFormat.format("Config path is: {0}", ProcessConfigBuilder.getPath()));
         LOGGER.log(Level.INFO, MessageFormat.format("Key path is:    {0}", KeyGetter.getKeyDirectory()));
 
-        Link linkToNodes = new APL(nodeConfig, nodeConfig.getPort(), nodeConfigs, clientConfigs, ConsensusMessage.class);
-
-        this.id = id;
-        // Services that implement listen from UDPService
-        ByzantineService byzantineService = new ByzantineService(linkToNodes, nodeConfig, systemConfig);
-
-        for (Pair<FunctionCall, Behaviour> behaviour : behaviours) {
-            byzantineService.addBehaviour(behaviour);
-        }
-
-        this.service = byzantineService;
+        return new APL(nodeConfig, nodeConfig.getPort(), nodeConfigs, clientConfigs, ConsensusMessage.class);
     }
 
     public List<Transaction> getLedger() {
@@ -96,6 +105,9 @@ public class Node {
                 ProcessConfigBuilder.setPath("src/main/resources/" + args[1]);
             }
 
+            // Every key is read once, before the first message
+            KeyGetter.load();
+
             Node self = new Node(id);
             self.listen();
         } catch (Exception e) {
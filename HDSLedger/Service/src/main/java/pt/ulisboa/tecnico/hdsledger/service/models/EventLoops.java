@@ -0,0 +1,105 @@
+package pt.ulisboa.tecnico.hdsledger.service.models;
+
+import java.text.MessageFormat;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import pt.ulisboa.tecnico.hdsledger.utilities.CustomLogger;
+import pt.ulisboa.tecnico.hdsledger.utilities.ThreadMode;
+
+/*
+ * Fixed set of event loop threads, each running the tasks of its mailbox in order
+ *
+ * Tasks are routed by key (e.g. the consensus instance of a message), so the tasks of a key run
+ * one at a time and in the order they were dispatched. Dispatching never waits: the thread
+ * receiving the messages also processes the ACKs a task sending with the block overflow policy
+ * waits for, so pushing back on it would deadlock, and dropping a task would lose a message the
+ * link already acknowledged. Mailboxes are unbounded, one backed up past the warning size is
+ * logged.
+ */
+public class EventLoops {
+
+    private static final CustomLogger LOGGER = new CustomLogger(EventLoops.class.getName());
+
+    public static final int DEFAULT_MAILBOX_WARNING = 1024;
+
+    private final String name;
+    private final BlockingQueue<Runnable>[] mailboxes;
+    // Mailbox past the warning size, logged once until it drains below it
+    private final AtomicBoolean[] backedUp;
+    private final int mailboxWarning;
+
+    public EventLoops(String name) {
+        this(name, Runtime.getRuntime().availableProcessors(), DEFAULT_MAILBOX_WARNING, ThreadMode.PLATFORM);
+    }
+
+    /*
+     * @param name Prefix of the names of the threads
+     *
+     * @param loops Number of event loop threads
+     *
+     * @param mailboxWarning Number of tasks waiting in the mailbox of a thread past which it's logged
+     *
+     * @param mode Kind of the event loop threads
+     */
+    @SuppressWarnings("unchecked")
+    public EventLoops(String name, int loops, int mailboxWarning, ThreadMode mode) {
+        this.name = name;
+        this.mailboxes = new BlockingQueue[Math.max(1, loops)];
+        this.backedUp = new AtomicBoolean[mailboxes.length];
+        this.mailboxWarning = Math.max(1, mailboxWarning);
+        for (int i = 0; i < mailboxes.length; i++) {
+            BlockingQueue<Runnable> mailbox = new LinkedBlockingQueue<>();
+            mailboxes[i] = mailbox;
+            backedUp[i] = new AtomicBoolean(false);
+            mode.newThread(name + "-" + i, () -> run(mailbox)).start();
+        }
+    }
+
+    /*
+     * Queues a task on the event loop of its key, without waiting
+     */
+    public void dispatch(int key, Runnable task) {
+        int loop = Math.floorMod(key, mailboxes.length);
+        mailboxes[loop].add(task);
+
+        int pending = mailboxes[loop].size();
+        if (pending <= mailboxWarning)
+            backedUp[loop].set(false);
+        else if (backedUp[loop].compareAndSet(false, true))
+            LOGGER.log(Level.WARNING, MessageFormat.format("{0}-{1} - {2} tasks waiting in the mailbox", name, loop, pending));
+    }
+
+    public int getLoops() {
+        return mailboxes.length;
+    }
+
+    /*
+     * Tasks waiting in every mailbox
+     */
+    public int getPending() {
+        int pending = 0;
+        for (BlockingQueue<Runnable> mailbox : mailboxes)
+            pending += mailbox.size();
+        return pending;
+    }
+
+    private static void run(BlockingQueue<Runnable> mailbox) {
+        while (true) {
+            Runnable task;
+            try {
+                task = mailbox.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            // A failing task doesn't stop the loop
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Event loop task failed: " + e);
+            }
+        }
+    }
+}
@@ -2,26 +2,37 @@ package pt.ulisboa.tecnico.hdsledger.service.models;
 
 
 import pt.ulisboa.tecnico.hdsledger.communication.messages.consensus.CommitMessage;
-import pt.ulisboa.tecnico.hdsledger.communication.messages.AuthedMessage;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 public class InstanceInfo {
 
+    // Runs the timers of every instance, their tasks must not block
+    private static final ScheduledExecutorService TIMERS = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+        Thread thread = new Thread(runnable, "instance-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private int clientId = 0;
-    private AuthedMessage clientMessage;
+    // Digest of the client request (or block of requests), the request itself is in the RequestStore
+    // Only set by a justified PRE_PREPARE, or by a quorum of PREPAREs or COMMITs for the value
+    private String requestDigest;
     private int currentRound = 1;
     private int preparedRound = -1;
     private String preparedValue = null; 
     private CommitMessage commitMessage;
     private String inputValue;
     private int committedRound = -1;
-    private Timer timer = new Timer();
+    // Periodic task of the timer, null if stopped
+    private ScheduledFuture<?> timer;
 
-    public InstanceInfo(String inputValue, int clientId, AuthedMessage clientMessage) {
+    public InstanceInfo(String inputValue, int clientId, String requestDigest) {
         this.inputValue = inputValue;
         this.clientId = clientId;
-        this.clientMessage = clientMessage;
+        this.requestDigest = requestDigest;
     }
 
     public int getCurrentRound() {
@@ -37,22 +48,17 @@ public class InstanceInfo {
     }
 
     /*
-     * Sets the timer for a periodic task
+     * Sets the timer for a periodic task, replacing the previous one
      */
-    public void setTimer(Runnable task, long delay) {
-        TimerTask t = new TimerTask() {
-            @Override
-            public void run() {
-                task.run();
-            }
-        };
-        this.timer.schedule(t, delay, delay); 
+    public synchronized void setTimer(Runnable task, long delay) {
+        stopTimer();
+        this.timer = TIMERS.scheduleWithFixedDelay(task, delay, delay, TimeUnit.MILLISECONDS);
     }
 
-    public void stopTimer() {
-        this.timer.cancel();
-        this.timer.purge();
-        this.timer = new Timer();
+    public synchronized void stopTimer() {
+        if (this.timer != null)
+            this.timer.cancel(false);
+        this.timer = null;
     }
 
     public void setPreparedRound(int preparedRound) {
@@ -95,7 +101,21 @@ public class InstanceInfo {
         return this.clientId;
     }
 
-    public AuthedMessage getClientMessage() {
-        return this.clientMessage;
+    public String getRequestDigest() {
+        return this.requestDigest;
+    }
+
+    public void setRequestDigest(String requestDigest) {
+        this.requestDigest = requestDigest;
+    }
+
+    /*
+     * Binds the instance to the value and request proposed by a justified PRE_PREPARE, replacing
+     * any local input
+     */
+    public void bind(String inputValue, int clientId, String requestDigest) {
+        this.inputValue = inputValue;
+        this.clientId = clientId;
+        this.requestDigest = requestDigest;
     }
 }
@@ -0,0 +1,36 @@
+package pt.ulisboa.tecnico.hdsledger.service.models;
+
+/*
+ * Locks of the consensus instances, striped: each instance maps to one of a fixed set of locks
+ *
+ * The state of an instance (its InstanceInfo and the messages of its rounds) is only handled
+ * under its lock, messages of one instance one at a time and of different instances in parallel.
+ * Consecutive instances map to different stripes, the instances in flight rarely share one.
+ */
+public class InstanceLocks {
+
+    public static final int DEFAULT_STRIPES = 64;
+
+    private final Object[] stripes;
+
+    public InstanceLocks() {
+        this(DEFAULT_STRIPES);
+    }
+
+    public InstanceLocks(int stripes) {
+        this.stripes = new Object[Math.max(1, stripes)];
+        for (int i = 0; i < this.stripes.length; i++)
+            this.stripes[i] = new Object();
+    }
+
+    /*
+     * Lock of a consensus instance
+     */
+    public Object of(int consensusInstance) {
+        return stripes[Math.floorMod(consensusInstance, stripes.length)];
+    }
+
+    public int getStripes() {
+        return stripes.length;
+    }
+}
@@ -1,109 +1,244 @@
 package pt.ulisboa.tecnico.hdsledger.service.models;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.stream.Collectors;
 import java.util.concurrent.ConcurrentHashMap;
-import pt.ulisboa.tecnico.hdsledger.communication.messages.consensus.CommitMessage;
 import pt.ulisboa.tecnico.hdsledger.communication.messages.consensus.RoundChangeMessage;
-import pt.ulisboa.tecnico.hdsledger.communication.messages.consensus.PrepareMessage;
 import pt.ulisboa.tecnico.hdsledger.communication.messages.ConsensusMessage;
 import pt.ulisboa.tecnico.hdsledger.communication.messages.Message;
 import pt.ulisboa.tecnico.hdsledger.communication.messages.AuthedMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.QuorumCertificate;
 import pt.ulisboa.tecnico.hdsledger.utilities.*;
 
+/*
+ * Consensus messages of one type (PREPARE, COMMIT or ROUND_CHANGE) received per instance and round
+ *
+ * Each message is decoded once, when added, into an entry kept next to the signed original:
+ * readers take the sender, rounds, value and certificate from the entries and never parse the
+ * messages again.
+ *
+ * Each round keeps a tally per value digest and request digest of the senders (bitset) that sent
+ * them, updated as messages are added: a message replacing an earlier one of its sender moves the
+ * sender to the tally of its new value. A quorum is for a value and the request it came from, so
+ * the request decided is the one a quorum sent and not that of any single message. The quorum is
+ * tracked as tallies change, quorum checks don't go through the messages.
+ */
 public class MessageBucket {
 
     private static final CustomLogger LOGGER = new CustomLogger(MessageBucket.class.getName());
-    // Instance -> Round -> Sender ID -> Consensus message
-    private final Map<Integer, Map<Integer, Map<Integer, AuthedMessage>>> bucket = new ConcurrentHashMap<>();
+    // Instance -> Round -> Sender ID -> Entry of its consensus message
+    private final Map<Integer, Map<Integer, Map<Integer, Entry>>> bucket = new ConcurrentHashMap<>();
+    // Instance -> Round -> Tallies of the values sent in the round
+    private final Map<Integer, Map<Integer, Tallies>> tallies = new ConcurrentHashMap<>();
+
+    /*
+     * Consensus message decoded when added to the bucket
+     */
+    public static class Entry {
+        private final AuthedMessage authed;
+        private final ConsensusMessage message;
+        private final int sender;
+        private final int round;
+        // Round prepared by the sender, ROUND_CHANGEs (-1 otherwise or if none)
+        private final int preparedRound;
+        // Value voted for, null if none
+        private final String value;
+        // SHA-256 of the value (Base64), null if none
+        private final String valueDigest;
+        // Digest of the client request (or block of requests) the value came from
+        private final String requestDigest;
+        // Prepare certificate carried by a ROUND_CHANGE, null if none
+        private final QuorumCertificate certificate;
+
+        private Entry(AuthedMessage authed) {
+            this.authed = authed;
+            this.message = authed.getDataAs(ConsensusMessage.class);
+            this.sender = message.getSenderId();
+            this.round = message.getRound();
+
+            switch (message.getType()) {
+                case PREPARE -> {
+                    this.preparedRound = -1;
+                    this.value = message.deserializePrepareMessage().getValue();
+                    this.certificate = null;
+                }
+                case COMMIT -> {
+                    this.preparedRound = -1;
+                    this.value = message.deserializeCommitMessage().getValue();
+                    this.certificate = null;
+                }
+                case ROUND_CHANGE -> {
+                    RoundChangeMessage roundChange = message.deserializeRoundChangeMessage();
+                    this.preparedRound = roundChange.getPreparedRound();
+                    this.value = roundChange.getValue();
+                    this.certificate = message.getCertificate();
+                }
+                default -> {
+                    this.preparedRound = -1;
+                    this.value = null;
+                    this.certificate = null;
+                }
+            }
+            this.valueDigest = QuorumCertificate.digest(value);
+            this.requestDigest = message.getRequestDigest();
+        }
+
+        public AuthedMessage getAuthed() {
+            return authed;
+        }
+
+        public ConsensusMessage getMessage() {
+            return message;
+        }
+
+        public int getSender() {
+            return sender;
+        }
+
+        public int getRound() {
+            return round;
+        }
+
+        public int getPreparedRound() {
+            return preparedRound;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public String getValueDigest() {
+            return valueDigest;
+        }
+
+        public String getRequestDigest() {
+            return requestDigest;
+        }
+
+        public QuorumCertificate getCertificate() {
+            return certificate;
+        }
+    }
+
+    /*
+     * Senders of a value, from a request, in a round
+     */
+    private static class Tally {
+        private final String value;
+        private final String requestDigest;
+        private final BitSet senders = new BitSet();
+
+        private Tally(String value, String requestDigest) {
+            this.value = value;
+            this.requestDigest = requestDigest;
+        }
+    }
+
+    /*
+     * Tallies of a round, guarding the entries of the round so both change together
+     */
+    private static class Tallies {
+        // Sender ID -> Entry, the round of the bucket
+        private final Map<Integer, Entry> entries;
+        // Sender ID -> Tally of the value it sent
+        private final Map<Integer, Tally> votes = new HashMap<>();
+        // Value digest and request digest -> Tally
+        private final Map<String, Tally> byDigest = new HashMap<>();
+        // Tally reaching the quorum size, null if none
+        private Tally quorum;
+
+        private Tallies(Map<Integer, Entry> entries) {
+            this.entries = entries;
+        }
+
+        private synchronized void add(Entry entry, int quorumSize) {
+            int sender = entry.sender;
+            entries.put(sender, entry);
+
+            Tally previous = votes.remove(sender);
+            if (previous != null) {
+                previous.senders.clear(sender);
+                if (previous == quorum && previous.senders.cardinality() < quorumSize)
+                    quorum = null;
+            }
+            // Messages without a value (e.g. ROUND_CHANGEs of nodes that prepared nothing) aren't votes
+            if (entry.value == null)
+                return;
+
+            Tally tally = byDigest.computeIfAbsent(entry.valueDigest + "/" + entry.requestDigest, (key) -> new Tally(entry.value, entry.requestDigest));
+            tally.senders.set(sender);
+            votes.put(sender, tally);
+            if (quorum == null && tally.senders.cardinality() >= quorumSize)
+                quorum = tally;
+        }
+
+        private synchronized Optional<Pair<String, List<Entry>>> quorum() {
+            if (quorum == null)
+                return Optional.empty();
+            List<Entry> senders = new ArrayList<>();
+            for (int sender = quorum.senders.nextSetBit(0); sender >= 0; sender = quorum.senders.nextSetBit(sender + 1))
+                senders.add(entries.get(sender));
+            return Optional.of(new Pair<>(quorum.value, senders));
+        }
+
+        private synchronized Optional<Pair<String, String>> quorumValue() {
+            return quorum == null ? Optional.empty() : Optional.of(new Pair<>(quorum.value, quorum.requestDigest));
+        }
+    }
 
     public MessageBucket() {}
 
     /*
-     * Add a message to the bucket
-     * 
+     * Add a message to the bucket, replacing the one of its sender in its round
+     *
      * @param AuthedMessage
-     * 
+     *
      * @param message
      */
     public void addMessage(AuthedMessage authed) {
-        ConsensusMessage message = authed.getDataAs(ConsensusMessage.class);
+        Entry entry = new Entry(authed);
+        int consensusInstance = entry.message.getConsensusInstance();
+        int round = entry.round;
 
-        int consensusInstance = message.getConsensusInstance();
-        int round = message.getRound();
+        Map<Integer, Entry> entries = bucket.computeIfAbsent(consensusInstance, (key) -> new ConcurrentHashMap<>())
+                .computeIfAbsent(round, (key) -> new ConcurrentHashMap<>());
+        Tallies roundTallies = tallies.computeIfAbsent(consensusInstance, (key) -> new ConcurrentHashMap<>())
+                .computeIfAbsent(round, (key) -> new Tallies(entries));
+        roundTallies.add(entry, ProcessConfigBuilder.getQuorumSize());
+    }
 
-        bucket.putIfAbsent(consensusInstance, new ConcurrentHashMap<>());
-        bucket.get(consensusInstance).putIfAbsent(round, new ConcurrentHashMap<>());
-        bucket.get(consensusInstance).get(round).put(message.getSenderId(), authed);
+    private Tallies tallies(int instance, int round) {
+        Map<Integer, Tallies> rounds = tallies.get(instance);
+        return rounds == null ? null : rounds.get(round);
     }
 
     /*
      * Returns a pair of : <Value, PreparedMessages>
      */
-    public Optional<Pair<String, List<AuthedMessage>>> getPrepareQuorum(int instance, int round) {
-        HashMap<String, List<AuthedMessage>> values = new HashMap<>();
-
-        bucket.get(instance).get(round).values().forEach((authed) -> {
-            // Here we can assume that every message put on the bucket is well constructed 
-            ConsensusMessage message = authed.getDataAs(ConsensusMessage.class);
-            PrepareMessage prepareMessage = message.deserializePrepareMessage();
-            String value = prepareMessage.getValue();
-            values.putIfAbsent(value, new ArrayList<>());
-            values.get(value).add(authed);
-        });
-
-        // Only one value (if any, thus the optional) will have a frequency
-        // greater than or equal to the quorum size
-        return values.entrySet().stream()
-            .filter((Map.Entry<String, List<AuthedMessage>> entry) ->
-                 entry.getValue().size() >= ProcessConfigBuilder.getQuorumSize())
-            .map((Map.Entry<String, List<AuthedMessage>> entry) -> 
-                new Pair<String, List<AuthedMessage>>(entry))
-            .findFirst();
+    public Optional<Pair<String, List<Entry>>> getPrepareQuorum(int instance, int round) {
+        Tallies roundTallies = tallies(instance, round);
+        return roundTallies == null ? Optional.empty() : roundTallies.quorum();
     }
 
-    public Optional<String> hasValidPrepareQuorum(int instance, int round) {
-        // Create mapping of value to frequency
-        HashMap<String, Integer> frequency = new HashMap<>();
-        bucket.get(instance).get(round).values().forEach((authed) -> {
-            ConsensusMessage message = authed.getDataAs(ConsensusMessage.class);
-
-            PrepareMessage prepareMessage = message.deserializePrepareMessage();
-            String value = prepareMessage.getValue();
-            frequency.put(value, frequency.getOrDefault(value, 0) + 1);
-        });
-
-        // Only one value (if any, thus the optional) will have a frequency
-        // greater than or equal to the quorum size
-        return frequency.entrySet().stream().filter((Map.Entry<String, Integer> entry) -> {
-            return entry.getValue() >= ProcessConfigBuilder.getQuorumSize();
-        }).map((Map.Entry<String, Integer> entry) -> {
-            return entry.getKey();
-        }).findFirst();
+    /*
+     * Returns a pair of : <Value, Request digest>
+     */
+    public Optional<Pair<String, String>> hasValidPrepareQuorum(int instance, int round) {
+        Tallies roundTallies = tallies(instance, round);
+        return roundTallies == null ? Optional.empty() : roundTallies.quorumValue();
     }
 
-    public Optional<String> hasValidCommitQuorum(int instance, int round) {
-        // Create mapping of value to frequency
-        HashMap<String, Integer> frequency = new HashMap<>();
-        bucket.get(instance).get(round).values().forEach((authed) -> {
-            ConsensusMessage message = authed.getDataAs(ConsensusMessage.class);
-
-            CommitMessage commitMessage = message.deserializeCommitMessage();
-            String value = commitMessage.getValue();
-            frequency.put(value, frequency.getOrDefault(value, 0) + 1);
-        });
-
-        // Only one value (if any, thus the optional) will have a frequency
-        // greater than or equal to the quorum size
-        return frequency.entrySet().stream().filter((Map.Entry<String, Integer> entry) -> {
-            return entry.getValue() >= ProcessConfigBuilder.getQuorumSize();
-        }).map((Map.Entry<String, Integer> entry) -> {
-            return entry.getKey();
-        }).findFirst();
+    /*
+     * Returns a pair of : <Value, Request digest>
+     */
+    public Optional<Pair<String, String>> hasValidCommitQuorum(int instance, int round) {
+        Tallies roundTallies = tallies(instance, round);
+        return roundTallies == null ? Optional.empty() : roundTallies.quorumValue();
     }
 
     /*
@@ -129,33 +264,29 @@ public class MessageBucket {
                 }
             }
         };
-        
-        if (count >= ProcessConfigBuilder.getMaxFaulty() + 1) 
+
+        if (count >= ProcessConfigBuilder.getMaxFaulty() + 1)
             return r_min;
-        else 
+        else
             return Optional.empty();
     }
 
     /*
      * Qrc <- <ROUND-CHANGE, di, round, pr, pv>
      */
-    public Optional<List<AuthedMessage>> hasValidRoundChangeQuorum(int instance, int round, int preparedRound, String preparedValue) {
+    public Optional<List<Entry>> hasValidRoundChangeQuorum(int instance, int round, int preparedRound, String preparedValue) {
         // If there are no messages for this instance, trivially there is no Quorum
-        if (bucket.get(instance) == null)
+        if (bucket.get(instance) == null || bucket.get(instance).get(round) == null)
             return Optional.empty();
 
-        Map<Integer, AuthedMessage> messages = bucket.get(instance).get(round);
+        List<Entry> quorum = new ArrayList<>();
 
-        List<AuthedMessage> quorum = new ArrayList<>();
-
-        for (Map.Entry<Integer, AuthedMessage> entry : messages.entrySet()) {
-            ConsensusMessage message = entry.getValue().getDataAs(ConsensusMessage.class);
-            RoundChangeMessage roundChangeMessage = message.deserializeRoundChangeMessage();
-            if (roundChangeMessage.getPreparedRound() == preparedRound && roundChangeMessage.getValue() == preparedValue)
-                quorum.add(entry.getValue());
+        for (Entry entry : bucket.get(instance).get(round).values()) {
+            if (entry.preparedRound == preparedRound && Objects.equals(entry.value, preparedValue))
+                quorum.add(entry);
         }
 
-        if (quorum.size() >= ProcessConfigBuilder.getQuorumSize()) 
+        if (quorum.size() >= ProcessConfigBuilder.getQuorumSize())
             return Optional.of(quorum);
         else
             return Optional.empty();
@@ -164,7 +295,7 @@ public class MessageBucket {
     /*
      * Qrc <- <ROUND-CHANGE, di, round, pr, pv>
      */
-    public Optional<List<AuthedMessage>> hasValidRoundChangeQuorum(int instance, int round) {
+    public Optional<List<Entry>> hasValidRoundChangeQuorum(int instance, int round) {
         // If there are no messages for this instance, trivially there is no Quorum
         if (bucket.get(instance) == null)
             return Optional.empty();
@@ -172,26 +303,57 @@ public class MessageBucket {
         if (bucket.get(instance).get(round) == null)
             return Optional.empty();
 
-        List<AuthedMessage> messages = bucket.get(instance).get(round).values().stream().collect(Collectors.toList());
-        
-        if (messages == null)
-            return Optional.empty();
+        List<Entry> entries = new ArrayList<>(bucket.get(instance).get(round).values());
 
-        if (messages.size() >= ProcessConfigBuilder.getQuorumSize()) 
-            return Optional.of(messages);
+        if (entries.size() >= ProcessConfigBuilder.getQuorumSize())
+            return Optional.of(entries);
         else
             return Optional.empty();
     }
 
     public Map<Integer, ConsensusMessage> getMessages(int instance, int round) {
-        Map<Integer, AuthedMessage> authedMessages = bucket.get(instance).get(round);
-        // Create mapping of value to frequency
+        Map<Integer, Entry> entries = bucket.get(instance).get(round);
         Map<Integer, ConsensusMessage> messages = new HashMap<>();
-        
-        for (Map.Entry<Integer, AuthedMessage> entry : authedMessages.entrySet()) {
-            messages.put(entry.getKey(), entry.getValue().getDataAs(ConsensusMessage.class));
+
+        for (Map.Entry<Integer, Entry> entry : entries.entrySet()) {
+            messages.put(entry.getKey(), entry.getValue().message);
         }
 
         return messages;
     }
+
+    /*
+     * Certificate of the PREPAREs of a round for a value, as QuorumCertificate.ofPrepares, from
+     * the entries
+     */
+    public static QuorumCertificate prepareCertificate(int instance, int round, String value, List<Entry> prepares) {
+        String valueDigest = QuorumCertificate.digest(value);
+        List<QuorumCertificate.Vote> votes = new ArrayList<>();
+        for (Entry entry : prepares) {
+            if (entry.message.getVote() != null && Objects.equals(valueDigest, entry.valueDigest))
+                votes.add(new QuorumCertificate.Vote(entry.sender, -1, null, entry.message.getVote()));
+        }
+        return new QuorumCertificate(Message.Type.PREPARE, instance, round, valueDigest, votes, null);
+    }
+
+    /*
+     * Certificate of the ROUND_CHANGEs of a round, as QuorumCertificate.ofRoundChanges, from the
+     * entries
+     */
+    public static QuorumCertificate roundChangeCertificate(int instance, int round, List<Entry> roundChanges) {
+        List<QuorumCertificate.Vote> votes = new ArrayList<>();
+        QuorumCertificate prepared = null;
+        int highest = -1;
+        for (Entry entry : roundChanges) {
+            if (entry.message.getVote() == null)
+                continue;
+
+            votes.add(new QuorumCertificate.Vote(entry.sender, entry.preparedRound, entry.valueDigest, entry.message.getVote()));
+            if (entry.preparedRound > highest && entry.certificate != null) {
+                highest = entry.preparedRound;
+                prepared = entry.certificate;
+            }
+        }
+        return new QuorumCertificate(Message.Type.ROUND_CHANGE, instance, round, null, votes, prepared);
+    }
 }
@@ -0,0 +1,139 @@
+package pt.ulisboa.tecnico.hdsledger.service.models;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import pt.ulisboa.tecnico.hdsledger.utilities.CustomLogger;
+
+/*
+ * Consensus instances in flight and the ordered application of their decisions
+ *
+ * Up to window instances past the last applied one are proposed at once, the proposals of later
+ * instances wait until enough earlier ones are applied. Decisions may arrive in any order: each
+ * is buffered until every earlier instance is applied, then applied by the thread that filled the
+ * gap, one decision at a time and strictly in instance order.
+ *
+ * Proposals and applications run outside the lock of the pipeline, they may take the locks of
+ * the service.
+ *
+ * An application that fails still counts as applied: the decision is final and every correct
+ * node applies the same one, so retrying would fail again and holding the instance back would
+ * stall every later one. The failure is logged and counted.
+ */
+public class Pipeline {
+
+    private static final CustomLogger LOGGER = new CustomLogger(Pipeline.class.getName());
+
+    public static final int DEFAULT_WINDOW = 16;
+
+    private final int window;
+    // Last applied consensus instance
+    private int lastApplied = 0;
+    // A thread is applying decisions
+    private boolean applying = false;
+    // Consensus instance -> Application of its decision, waiting for the earlier instances
+    private final Map<Integer, Runnable> decided = new HashMap<>();
+    // Consensus instance -> Proposal waiting for the window
+    private final TreeMap<Integer, Runnable> proposals = new TreeMap<>();
+    // Instances whose application failed
+    private int failed = 0;
+
+    public Pipeline() {
+        this(DEFAULT_WINDOW);
+    }
+
+    /*
+     * @param window Maximum number of instances in flight past the last applied one
+     */
+    public Pipeline(int window) {
+        this.window = Math.max(1, window);
+    }
+
+    /*
+     * Runs the proposal of an instance now if it's within the window, otherwise once it is
+     */
+    public void propose(int instance, Runnable proposal) {
+        synchronized (this) {
+            if (instance > lastApplied + window) {
+                proposals.put(instance, proposal);
+                return;
+            }
+        }
+        proposal.run();
+    }
+
+    /*
+     * Applies the decision of an instance once every earlier instance is applied
+     * Decisions of an instance already decided are ignored
+     */
+    public void decide(int instance, Runnable application) {
+        synchronized (this) {
+            if (instance <= lastApplied || decided.putIfAbsent(instance, application) != null)
+                return;
+            // The thread applying will reach this instance
+            if (applying)
+                return;
+            applying = true;
+        }
+        drain();
+    }
+
+    private void drain() {
+        while (true) {
+            Runnable next;
+            synchronized (this) {
+                next = decided.remove(lastApplied + 1);
+                if (next == null) {
+                    applying = false;
+                    return;
+                }
+            }
+
+            // A failing application doesn't stall the instances after it, it's applied all the same
+            boolean success = true;
+            try {
+                next.run();
+            } catch (RuntimeException e) {
+                success = false;
+                LOGGER.log(Level.SEVERE, MessageFormat.format("Failed to apply the decision of consensus instance {0}: {1}",
+                        getLastApplied() + 1, e));
+            }
+
+            List<Runnable> released = new ArrayList<>();
+            synchronized (this) {
+                lastApplied++;
+                if (!success)
+                    failed++;
+                while (!proposals.isEmpty() && proposals.firstKey() <= lastApplied + window)
+                    released.add(proposals.pollFirstEntry().getValue());
+            }
+            released.forEach(Runnable::run);
+        }
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    public synchronized int getLastApplied() {
+        return lastApplied;
+    }
+
+    /*
+     * Instances counted as applied although their application failed
+     */
+    public synchronized int getFailed() {
+        return failed;
+    }
+
+    /*
+     * Decided instances waiting for an earlier one
+     */
+    public synchronized int getBuffered() {
+        return decided.size();
+    }
+}
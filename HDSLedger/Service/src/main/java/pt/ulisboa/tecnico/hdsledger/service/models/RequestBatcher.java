@@ -0,0 +1,166 @@
+package pt.ulisboa.tecnico.hdsledger.service.models;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.AuthedMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.CustomLogger;
+
+/*
+ * Client requests waiting to be proposed in a block
+ *
+ * A block of the oldest requests is cut once maxSize requests wait or the oldest one has waited
+ * maxDelay, whichever comes first, and handed to the proposer outside the lock of the batcher.
+ * Requests proposed by another node or decided are removed without being cut.
+ *
+ * A batcher that doesn't cut (nodes other than the leader) only hands over the oldest requests,
+ * up to maxSize, once the oldest has waited maxDelay. They keep waiting, until removed, and are
+ * handed over again after another maxDelay.
+ */
+public class RequestBatcher {
+
+    private static final CustomLogger LOGGER = new CustomLogger(RequestBatcher.class.getName());
+
+    public static final int DEFAULT_SIZE = 1;
+    public static final int DEFAULT_DELAY = 10;
+
+    private final int maxSize;
+    private final long maxDelay;
+    // Requests handed over are removed
+    private final boolean cuts;
+    private final Consumer<List<AuthedMessage>> proposer;
+    private final Timer timer = new Timer(true);
+    // Request digest -> Request waiting, in arrival order
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+    // A cut of the oldest request is scheduled
+    private boolean scheduled = false;
+
+    private static class Pending {
+        private final AuthedMessage request;
+        private final long since;
+
+        private Pending(AuthedMessage request, long since) {
+            this.request = request;
+            this.since = since;
+        }
+    }
+
+    /*
+     * @param maxSize Maximum number of requests in a block
+     *
+     * @param maxDelay Maximum time (ms) a request waits for a block
+     *
+     * @param proposer Starts the consensus instance of a block
+     */
+    public RequestBatcher(int maxSize, long maxDelay, Consumer<List<AuthedMessage>> proposer) {
+        this(maxSize, maxDelay, true, proposer);
+    }
+
+    /*
+     * @param cuts False to only hand over the requests waiting past maxDelay, which keep waiting
+     */
+    public RequestBatcher(int maxSize, long maxDelay, boolean cuts, Consumer<List<AuthedMessage>> proposer) {
+        this.maxSize = Math.max(1, maxSize);
+        this.maxDelay = Math.max(0, maxDelay);
+        this.cuts = cuts;
+        this.proposer = proposer;
+    }
+
+    /*
+     * Adds a verified client request, cutting a block if it fills one
+     */
+    public void add(String digest, AuthedMessage request) {
+        List<AuthedMessage> block = null;
+        synchronized (this) {
+            if (digest == null || pending.containsKey(digest))
+                return;
+            pending.put(digest, new Pending(request, System.currentTimeMillis()));
+            if (cuts && pending.size() >= maxSize)
+                block = cut();
+            schedule();
+        }
+        propose(block);
+    }
+
+    /*
+     * Removes requests proposed or decided elsewhere
+     */
+    public synchronized void remove(Collection<String> digests) {
+        pending.keySet().removeAll(digests);
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    // Oldest requests, up to a block
+    private List<AuthedMessage> cut() {
+        List<AuthedMessage> block = new ArrayList<>();
+        Iterator<Pending> iterator = pending.values().iterator();
+        while (iterator.hasNext() && block.size() < maxSize) {
+            block.add(iterator.next().request);
+            iterator.remove();
+        }
+        return block;
+    }
+
+    // Oldest requests, up to a block, waiting again from now
+    private List<AuthedMessage> stale() {
+        List<String> digests = new ArrayList<>();
+        Iterator<String> iterator = pending.keySet().iterator();
+        while (iterator.hasNext() && digests.size() < maxSize)
+            digests.add(iterator.next());
+
+        long now = System.currentTimeMillis();
+        List<AuthedMessage> block = new ArrayList<>();
+        for (String digest : digests) {
+            AuthedMessage request = pending.remove(digest).request;
+            pending.put(digest, new Pending(request, now));
+            block.add(request);
+        }
+        return block;
+    }
+
+    // Cut once the oldest request has waited maxDelay
+    private void schedule() {
+        if (scheduled || pending.isEmpty())
+            return;
+        scheduled = true;
+        long oldest = pending.values().iterator().next().since;
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                expire();
+            }
+        }, Math.max(0, oldest + maxDelay - System.currentTimeMillis()));
+    }
+
+    private void expire() {
+        List<AuthedMessage> block = null;
+        synchronized (this) {
+            scheduled = false;
+            if (!pending.isEmpty() && pending.values().iterator().next().since + maxDelay <= System.currentTimeMillis())
+                block = cuts ? cut() : stale();
+            schedule();
+        }
+        propose(block);
+    }
+
+    private void propose(List<AuthedMessage> block) {
+        if (block == null || block.isEmpty())
+            return;
+        // A failing proposal doesn't stop the timer of the batcher
+        try {
+            proposer.accept(block);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Failed to propose a block of " + block.size() + " requests: " + e);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package pt.ulisboa.tecnico.hdsledger.service.models;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.AuthedMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.ConsensusMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.CustomLogger;
+import pt.ulisboa.tecnico.hdsledger.utilities.ErrorMessage;
+import pt.ulisboa.tecnico.hdsledger.utilities.HDSSException;
+
+/*
+ * Client requests (and blocks of requests) known to this node, indexed by request digest
+ *
+ * Only PRE_PREPAREs carry the client request, the other consensus messages its digest. Requests
+ * are kept here when received from the client, in a PRE_PREPARE or fetched from another node.
+ * Actions that need a request not known yet wait for it and run, each as a task of the executor,
+ * once it's added.
+ *
+ * Requests are evicted once the instance deciding them is applied, only the latest ones decided
+ * are kept to answer the FETCHes of nodes behind. The digests waited for are bounded, past the
+ * bound the actions of the one waited for the longest are dropped.
+ */
+public class RequestStore {
+
+    private static final CustomLogger LOGGER = new CustomLogger(RequestStore.class.getName());
+
+    // Requests decided kept for FETCHes
+    public static final int DEFAULT_RETAINED = 1024;
+    // Digests waited for at once
+    public static final int DEFAULT_MAX_WAITING = 1024;
+    // SHA-256
+    private static final int DIGEST_LENGTH = 32;
+
+    // Request digest -> Client request, not decided yet
+    private final Map<String, AuthedMessage> requests = new HashMap<>();
+    // Request digest -> Client request decided, the latest ones
+    private final Map<String, AuthedMessage> decided;
+    // Request digest -> Actions waiting for the request, the oldest first
+    private final Map<String, List<Runnable>> waiting;
+    // Runs the actions of a request added
+    private final Executor actionExecutor;
+
+    /*
+     * @param actionExecutor Runs the actions waiting for a request, off the thread adding it
+     */
+    public RequestStore(Executor actionExecutor) {
+        this(actionExecutor, DEFAULT_RETAINED, DEFAULT_MAX_WAITING);
+    }
+
+    /*
+     * @param retained Requests decided kept to answer FETCHes
+     *
+     * @param maxWaiting Digests waited for at once
+     */
+    public RequestStore(Executor actionExecutor, int retained, int maxWaiting) {
+        this.actionExecutor = actionExecutor;
+        this.decided = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, AuthedMessage> eldest) {
+                return size() > retained;
+            }
+        };
+        this.waiting = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<Runnable>> eldest) {
+                if (size() <= maxWaiting)
+                    return false;
+                LOGGER.log(Level.WARNING, MessageFormat.format("Dropped {0} actions waiting for request {1}",
+                        eldest.getValue().size(), eldest.getKey()));
+                return true;
+            }
+        };
+    }
+
+    /*
+     * Adds a verified client request and runs the actions waiting for it
+     *
+     * @return The request digest, null if the request isn't signed
+     */
+    public String add(AuthedMessage request) {
+        String digest = ConsensusMessage.requestDigest(request);
+        if (digest == null)
+            return null;
+
+        List<Runnable> actions;
+        synchronized (this) {
+            // Late PRE_PREPAREs and FETCH_REPLYs of requests already decided
+            if (!decided.containsKey(digest))
+                requests.putIfAbsent(digest, request);
+            actions = waiting.remove(digest);
+        }
+        if (actions != null)
+            actions.forEach(actionExecutor::execute);
+        return digest;
+    }
+
+    public synchronized AuthedMessage get(String digest) {
+        if (digest == null)
+            return null;
+        AuthedMessage request = requests.get(digest);
+        return request != null ? request : decided.get(digest);
+    }
+
+    /*
+     * Returns the request if known, otherwise action runs once it's added
+     *
+     * @return null if the request isn't known yet (and must be fetched)
+     *
+     * @throws HDSSException If the digest isn't one of a request
+     */
+    public synchronized AuthedMessage getOrWait(String digest, Runnable action) {
+        if (!isDigest(digest))
+            throw new HDSSException(ErrorMessage.InvalidRequestDigest);
+
+        AuthedMessage request = get(digest);
+        if (request == null)
+            waiting.computeIfAbsent(digest, (key) -> new ArrayList<>()).add(action);
+        return request;
+    }
+
+    /*
+     * Evicts a request once the instance deciding it is applied, keeping it among the latest
+     * decided ones, and drops the actions still waiting for it
+     */
+    public synchronized void evict(String digest) {
+        if (digest == null)
+            return;
+        AuthedMessage request = requests.remove(digest);
+        if (request != null)
+            decided.put(digest, request);
+        waiting.remove(digest);
+    }
+
+    /*
+     * Requests known and not decided
+     */
+    public synchronized int size() {
+        return requests.size();
+    }
+
+    /*
+     * Digests waited for
+     */
+    public synchronized int getWaiting() {
+        return waiting.size();
+    }
+
+    private static boolean isDigest(String digest) {
+        if (digest == null)
+            return false;
+        try {
+            return Base64.getDecoder().decode(digest).length == DIGEST_LENGTH;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
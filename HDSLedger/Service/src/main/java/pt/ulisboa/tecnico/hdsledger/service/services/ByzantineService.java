@@ -27,6 +27,7 @@ public class ByzantineService extends NodeService {
         RESPOND_IMMEDIATELY,
         DUPLICATE_REPLY,
         CHANGE_DATA,
+        PRE_PREPARE_TO_QUORUM,
         DO_NOTHING
     }
 
@@ -114,10 +115,10 @@ public class ByzantineService extends NodeService {
                     clientMessage.setMessage(transferMessage.toJson());
     
                     AuthedMessage authed = new AuthedMessage(clientMessage);
-                    InstanceInfo existingConsensus = this.instanceInfo.put(localConsensusInstance, new InstanceInfo(transaction.toJson(), source, authed));
+                    InstanceInfo existingConsensus = this.instanceInfo.put(localConsensusInstance, new InstanceInfo(transaction.toJson(), source, requests.add(authed)));
 
                     InstanceInfo instance = this.instanceInfo.get(localConsensusInstance);
-                    this.link.broadcast(this.createConsensusMessage(transaction.toJson(), localConsensusInstance, instance.getCurrentRound(), instance.getClientId(), authed));
+                    broadcast(this.createConsensusMessage(transaction.toJson(), localConsensusInstance, instance.getCurrentRound(), instance.getClientId(), authed));
 
                     return false;
                 }
@@ -183,6 +184,24 @@ public class ByzantineService extends NodeService {
                     return false;
                 }
 
+                case PRE_PREPARE_TO_QUORUM -> {
+                    assert(args.function == FunctionCall.START_CONSENSUS);
+                    System.out.println("Sending PRE-PREPARE to all but one node");
+
+                    int localConsensusInstance = this.consensusInstance.incrementAndGet();
+                    String requestDigest = requests.add(args.message);
+                    this.instanceInfo.put(localConsensusInstance, new InstanceInfo(args.value, args.clientId, requestDigest));
+
+                    // The last node only learns the request digest from the PREPAREs and COMMITs
+                    ConsensusMessage m = this.createConsensusMessage(args.value, localConsensusInstance, 1, args.clientId, args.message);
+                    int excluded = nodesConfig[nodesConfig.length - 1].getId();
+                    for (ProcessConfig node : nodesConfig) {
+                        if (node.getId() != excluded)
+                            send(node.getId(), m);
+                    }
+                    return false;
+                }
+
                 case DO_NOTHING -> {
                     return false;
                 }
@@ -216,11 +235,11 @@ public class ByzantineService extends NodeService {
                     prepareMessages.addMessage(authed);
 
                     // Set instance values
-                    this.instanceInfo.putIfAbsent(consensusInstance, new InstanceInfo(value, message.getClientId(), message.getClientMessage()));
+                    this.instanceInfo.computeIfAbsent(consensusInstance, (key) -> new InstanceInfo(value, message.getClientId(), message.getRequestDigest()));
                     InstanceInfo instance = this.instanceInfo.get(consensusInstance);
                     
 
-                    ConsensusMessage m = new ConsensusMessageBuilder(config.getId(), Message.Type.COMMIT, message.getClientMessage())
+                    ConsensusMessage m = new ConsensusMessageBuilder(config.getId(), Message.Type.COMMIT, message.getRequestDigest())
                             .setConsensusInstance(consensusInstance)
                             .setRound(round)
                             .setClientId(message.getClientId())
@@ -229,7 +248,7 @@ public class ByzantineService extends NodeService {
                             .setMessage(instance.getCommitMessage().toJson())
                             .build();
 
-                    link.send(senderId, m);
+                    send(senderId, m);
                   
 
                     return false;
@@ -282,31 +301,31 @@ public class ByzantineService extends NodeService {
     }
 
     @Override
-    public synchronized void startConsensus(String value, int clientId, AuthedMessage clientMessage) {
+    public void startConsensus(String value, int clientId, AuthedMessage clientMessage) {
         if (doBehavioursAtFunc(new Args(FunctionCall.START_CONSENSUS, value, clientId, clientMessage)))
             super.startConsensus(value, clientId, clientMessage);
     }
 
     @Override
-    public synchronized void uponPrepare(AuthedMessage message) {
+    public void uponPrepare(AuthedMessage message) {
         if (doBehavioursAtFunc(new Args(FunctionCall.UPON_PREPARE, message)))
             super.uponPrepare(message);
     }
 
     @Override
-    public synchronized void uponPrePrepare(AuthedMessage message) {
+    public void uponPrePrepare(AuthedMessage message) {
         if (doBehavioursAtFunc(new Args(FunctionCall.UPON_PREPREPARE, message)))
             super.uponPrePrepare(message);
     }
 
     @Override
-    public synchronized void uponCommit(AuthedMessage message) {
+    public void uponCommit(AuthedMessage message) {
         if (doBehavioursAtFunc(new Args(FunctionCall.UPON_COMMIT, message)))
         super.uponCommit(message);
     }
 
     @Override
-    public synchronized void uponRoundChange(AuthedMessage message) {
+    public void uponRoundChange(AuthedMessage message) {
         if (doBehavioursAtFunc(new Args(FunctionCall.UPON_ROUNDCHANGE, message)))
             super.uponRoundChange(message);
     }
@@ -319,7 +338,7 @@ public class ByzantineService extends NodeService {
     }
     
     @Override
-    public synchronized void uponTransfer(AuthedMessage message) {
+    public void uponTransfer(AuthedMessage message) {
         if (doBehavioursAtFunc(new Args(FunctionCall.UPON_TRANSFER, message)))
             super.uponTransfer(message);
     }
@@ -9,7 +9,6 @@ import java.text.MessageFormat;
 
 import java.util.Base64;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -58,20 +57,44 @@ public class NodeService implements UDPService {
     protected final Map<Integer, InstanceInfo> instanceInfo = new ConcurrentHashMap<>();
     // Current consensus instance
     protected final AtomicInteger consensusInstance = new AtomicInteger(0);
-    // Last decided consensus instance
-    protected final AtomicInteger lastDecidedConsensusInstance = new AtomicInteger(0);
+    // Instances in flight, decisions applied in instance order
+    protected final Pipeline pipeline;
     // Ledger 
     protected ArrayList<Transaction> ledger = new ArrayList<Transaction>();
     // ClientId -> RequestId | Last client request that has been answered 
     protected Map<Integer, Integer> clientRequests = new ConcurrentHashMap<>();
 
     protected Map<PublicKey, Account> accounts = new ConcurrentHashMap<>();
+    // Client requests referenced by the consensus messages
+    protected final RequestStore requests;
+    // Client requests waiting for a block, null if each request has its own instance
+    protected final RequestBatcher batcher;
+    // Consensus instance -> Lock of its state, messages of different instances are handled in parallel
+    protected final InstanceLocks locks = new InstanceLocks();
+    // Lock of the admission of client requests (deduplication and allocation of instances)
+    protected final Object admission = new Object();
+    // Threads of the event loops and deferred actions
+    protected final ThreadMode threadMode;
 
     public NodeService(Link link, ProcessConfig config, SystemConfig systemConfig) {
 
         this.link = link;
         this.config = config;
         this.nodesConfig = systemConfig.getNodes();
+        this.threadMode = ThreadMode.forName(systemConfig.getThreads());
+        this.requests = new RequestStore(threadMode.perTask("node-" + config.getId() + "-actions"));
+        this.pipeline = new Pipeline(systemConfig.getPipelineWindow() != null ? systemConfig.getPipelineWindow() : Pipeline.DEFAULT_WINDOW);
+
+        int blockSize = systemConfig.getBlockSize() != null ? systemConfig.getBlockSize() : RequestBatcher.DEFAULT_SIZE;
+        int blockDelay = systemConfig.getBlockDelay() != null ? systemConfig.getBlockDelay() : RequestBatcher.DEFAULT_DELAY;
+        if (blockSize <= 1) {
+            this.batcher = null;
+        } else if (this.isLeader(1)) {
+            this.batcher = new RequestBatcher(blockSize, blockDelay, this::startBlock);
+        } else {
+            // Only the leader cuts blocks, requests it didn't propose in time change the round
+            this.batcher = new RequestBatcher(blockSize, ROUNDCHANGE_TIMEOUT, false, this::awaitBlock);
+        }
 
         // Create accounts for each Node 
         for (ProcessConfig nodeConf : systemConfig.getNodes()) {
@@ -137,61 +160,55 @@ public class NodeService implements UDPService {
         instanceInfo.stopTimer();
 
         instanceInfo.setTimer(() -> {
-            synchronized (instanceInfo) {
+            ConsensusMessage consensusMessage;
+            synchronized (locks.of(consensusInstance)) {
                 instanceInfo.setCurrentRound(instanceInfo.getCurrentRound() + 1);
-            }
 
-            RoundChangeMessage roundChangeMessage = new RoundChangeMessage(instanceInfo.getPreparedRound(), instanceInfo.getPreparedValue());
+                RoundChangeMessage roundChangeMessage = new RoundChangeMessage(instanceInfo.getPreparedRound(), instanceInfo.getPreparedValue());
 
-            ConsensusMessage consensusMessage = new ConsensusMessageBuilder(config.getId(), Message.Type.ROUND_CHANGE, instanceInfo.getClientMessage())
-                    .setConsensusInstance(consensusInstance)
-                    .setRound(instanceInfo.getCurrentRound())
-                    .setMessage(roundChangeMessage.toJson())
-                    .build();
+                consensusMessage = new ConsensusMessageBuilder(config.getId(), Message.Type.ROUND_CHANGE, instanceInfo.getRequestDigest())
+                        .setConsensusInstance(consensusInstance)
+                        .setRound(instanceInfo.getCurrentRound())
+                        .setMessage(roundChangeMessage.toJson())
+                        .build();
 
-            List<AuthedMessage> justification = getRoundChangeJustification(consensusMessage);
-            consensusMessage.setPiggyback(justification);
+                QuorumCertificate justification = getRoundChangeJustification(consensusMessage);
+                consensusMessage.setCertificate(justification);
+            }
             // Broadcast ROUND_CHANGE
-            this.link.broadcast(consensusMessage);
+            broadcast(consensusMessage);
         }, ROUNDCHANGE_TIMEOUT);
     }
 
-    public boolean isValidQuorum(List<AuthedMessage> messages) {
-        int countValid = 0;
-        for (AuthedMessage message : messages){
-            try {
-                message.verify();
-                countValid += 1;
-            } catch (Exception e) {
-                continue;
-            }
-        }
-
-        return countValid >= ProcessConfigBuilder.getQuorumSize();
-    }
-
-    public List<AuthedMessage> getPrePrepareJustification(int instance, int round) {
-        Optional<List<AuthedMessage>> quorum = roundChangeMessages.hasValidRoundChangeQuorum(instance, round);
+    /*
+     * Certificate of the quorum of ROUND_CHANGEs of the round, with the prepare certificate of the
+     * highest prepared round among them
+     */
+    public QuorumCertificate getPrePrepareJustification(int instance, int round) {
+        Optional<List<MessageBucket.Entry>> quorum = roundChangeMessages.hasValidRoundChangeQuorum(instance, round);
         if (quorum.isPresent())
-            return quorum.get();
+            return MessageBucket.roundChangeCertificate(instance, round, quorum.get());
 
         return null;
     }
 
-    public List<AuthedMessage> getRoundChangeJustification(ConsensusMessage message) {
+    /*
+     * Certificate of the quorum of PREPAREs of the prepared round and value
+     */
+    public QuorumCertificate getRoundChangeJustification(ConsensusMessage message) {
         RoundChangeMessage roundChangeMessage = message.deserializeRoundChangeMessage();
 
         if (roundChangeMessage.getPreparedRound() == -1 || roundChangeMessage.getValue() == null)
             return null;
 
-        Optional<Pair<String, List<AuthedMessage>>> quorum = prepareMessages.getPrepareQuorum(message.getConsensusInstance(), roundChangeMessage.getPreparedRound());
+        Optional<Pair<String, List<MessageBucket.Entry>>> quorum = prepareMessages.getPrepareQuorum(message.getConsensusInstance(), roundChangeMessage.getPreparedRound());
         if (!quorum.isPresent())
             return null;
 
-        Pair<String, List<AuthedMessage>> p = quorum.get();
+        Pair<String, List<MessageBucket.Entry>> p = quorum.get();
         if (!p.getFirst().equals(roundChangeMessage.getValue()))
             return null;
-        return p.getSecond();
+        return MessageBucket.prepareCertificate(message.getConsensusInstance(), roundChangeMessage.getPreparedRound(), p.getFirst(), p.getSecond());
     }
 
     public ConsensusMessage createConsensusMessage(String value, int instance, int round, int clientId, AuthedMessage clientMessage) {
@@ -199,14 +216,14 @@ public class NodeService implements UDPService {
 
         InstanceInfo instanceInfo = this.instanceInfo.get(instance);
 
-        List<AuthedMessage> justification = getPrePrepareJustification(instance, round);
+        QuorumCertificate justification = getPrePrepareJustification(instance, round);
         ConsensusMessage consensusMessage = new ConsensusMessageBuilder(config.getId(), Message.Type.PRE_PREPARE, clientMessage)
                 .setConsensusInstance(instance)
                 .setRound(round)
                 .setClientId(clientId)
                 .setMessage(prePrepareMessage.toJson())
                 .build();
-        consensusMessage.setPiggyback(justification);
+        consensusMessage.setCertificate(justification);
         return consensusMessage;
     }
 
@@ -252,43 +269,211 @@ public class NodeService implements UDPService {
      *
      * @param inputValue Value to value agreed upon
      */
-    public synchronized void startConsensus(String value, int clientId, AuthedMessage clientMessage) {
+    public void startConsensus(String value, int clientId, AuthedMessage clientMessage) {
         try {
             verify(clientMessage);
         } catch (Exception e) {
             return; 
         }
         
-        // If this client request has already been decided, ignore
-        if (clientMessage.getDataAs(ClientMessage.class).getRequestId() <= clientRequests.get(clientId)) {
-            return;
+        synchronized (admission) {
+            // If this client request has already been decided, ignore
+            if (clientMessage.getDataAs(ClientMessage.class).getRequestId() <= clientRequests.get(clientId)) {
+                return;
+            }
+
+            String requestDigest = requests.add(clientMessage);
+
+            // Decided in a block with other requests
+            if (this.batcher != null) {
+                this.batcher.add(requestDigest, clientMessage);
+                return;
+            }
+
+            // Set initial consensus values
+            int localConsensusInstance = this.consensusInstance.incrementAndGet();
+
+            InstanceInfo existingConsensus = this.instanceInfo.put(localConsensusInstance, new InstanceInfo(value, clientId, requestDigest));
+
+            // If startConsensus was already called for a given round
+            if (existingConsensus != null) {
+                LOGGER.log(Level.INFO, MessageFormat.format("{0} - Node already started consensus for instance {1}",
+                        config.getId(), localConsensusInstance));
+                return;
+            }
+
+            InstanceInfo instance = this.instanceInfo.get(localConsensusInstance);
+            // Started once the instance is within the window of instances in flight
+            this.pipeline.propose(localConsensusInstance, () -> {
+                // Leader broadcasts PRE-PREPARE message
+                if (this.isLeader(1)) {
+                   LOGGER.log(Level.INFO,
+                        MessageFormat.format("{0} - Node is leader, sending PRE-PREPARE message", config.getId()));
+                    broadcast(this.createConsensusMessage(value, localConsensusInstance, instance.getCurrentRound(), instance.getClientId(), clientMessage));
+                } else {
+                    LOGGER.log(Level.INFO,
+                            MessageFormat.format("{0} - Node is not leader, waiting for PRE-PREPARE message", config.getId()));
+                }
+
+                // Set timer with task to perform upon timeout
+                setTimer(instance, localConsensusInstance);
+            });
+        }
+    }
+
+    /*
+     * Start an instance of consensus for a block of client requests
+     * Called by the batcher of the leader, with the blocks it gathers
+     *
+     * @param block Verified client requests, in the order they are applied
+     */
+    protected void startBlock(List<AuthedMessage> block) {
+        synchronized (admission) {
+            List<AuthedMessage> pending = undecided(block);
+            if (pending.isEmpty())
+                return;
+
+            AuthedMessage blockMessage = blockOf(pending);
+            if (blockMessage == null)
+                return;
+            String value = new Block(pending.stream().map(NodeService::transactionOf).collect(Collectors.toList())).toJson();
+            String blockDigest = requests.add(blockMessage);
+
+            // Set initial consensus values, a block has no single client
+            int localConsensusInstance = this.consensusInstance.incrementAndGet();
+
+            InstanceInfo existingConsensus = this.instanceInfo.putIfAbsent(localConsensusInstance, new InstanceInfo(value, 0, blockDigest));
+            if (existingConsensus != null) {
+                LOGGER.log(Level.INFO, MessageFormat.format("{0} - Node already started consensus for instance {1}",
+                        config.getId(), localConsensusInstance));
+                return;
+            }
+
+            InstanceInfo instance = this.instanceInfo.get(localConsensusInstance);
+            // Started once the instance is within the window of instances in flight
+            this.pipeline.propose(localConsensusInstance, () -> {
+                if (this.isLeader(1)) {
+                    LOGGER.log(Level.INFO,
+                            MessageFormat.format("{0} - Node is leader, sending PRE-PREPARE message for a block of {1} requests",
+                                    config.getId(), pending.size()));
+                    broadcast(this.createConsensusMessage(value, localConsensusInstance, instance.getCurrentRound(), 0, blockMessage));
+                }
+
+                // Set timer with task to perform upon timeout
+                setTimer(instance, localConsensusInstance);
+            });
         }
+    }
 
-        // Set initial consensus values
-        int localConsensusInstance = this.consensusInstance.incrementAndGet();
+    /*
+     * Changes the round of the first undecided instance, called by the batcher of the nodes other
+     * than the leader with the requests the leader didn't propose within the round change timeout
+     *
+     * Only the leader cuts blocks and numbers their instances: a block cut here could take the
+     * number of a block of the leader still on its way. The requests wait for the instance the
+     * leader stalls on, as the input of this node should it lead one of the next rounds, until a
+     * justified PRE_PREPARE replaces them.
+     *
+     * @param stale Verified client requests, the oldest first
+     */
+    protected void awaitBlock(List<AuthedMessage> stale) {
+        synchronized (admission) {
+            List<AuthedMessage> pending = undecided(stale);
+            if (pending.isEmpty())
+                return;
 
-        InstanceInfo existingConsensus = this.instanceInfo.put(localConsensusInstance, new InstanceInfo(value, clientId, clientMessage));
+            int frontier = firstUndecided();
+            synchronized (locks.of(frontier)) {
+                // The instance may only have PREPAREs
+                InstanceInfo instance = this.instanceInfo.computeIfAbsent(frontier, (key) -> new InstanceInfo(null, 0, null));
+                // Proposed (its timer runs since the PRE_PREPARE), or already changing round
+                if (instance.getInputValue() != null || instance.getCommittedRound() != -1)
+                    return;
+
+                if (instance.getRequestDigest() != null) {
+                    // Prepared from PREPAREs alone, the value keeps its request
+                    instance.setInputValue(instance.getPreparedValue());
+                } else {
+                    AuthedMessage blockMessage = blockOf(pending);
+                    if (blockMessage == null)
+                        return;
+                    String value = new Block(pending.stream().map(NodeService::transactionOf).collect(Collectors.toList())).toJson();
+                    instance.bind(value, 0, requests.add(blockMessage));
+                }
 
-        // If startConsensus was already called for a given round
-        if (existingConsensus != null) {
-            LOGGER.log(Level.INFO, MessageFormat.format("{0} - Node already started consensus for instance {1}",
-                    config.getId(), localConsensusInstance));
-            return;
+                LOGGER.log(Level.INFO, MessageFormat.format(
+                        "{0} - {1} requests not proposed in time, changing round of Consensus Instance {2}",
+                        config.getId(), pending.size(), frontier));
+                setTimer(instance, frontier);
+            }
         }
+    }
 
-        InstanceInfo instance = this.instanceInfo.get(localConsensusInstance);
-        // Leader broadcasts PRE-PREPARE message
-        if (this.isLeader(1)) {
-           LOGGER.log(Level.INFO,
-                MessageFormat.format("{0} - Node is leader, sending PRE-PREPARE message", config.getId()));
-            this.link.broadcast(this.createConsensusMessage(value, localConsensusInstance, instance.getCurrentRound(), instance.getClientId(), clientMessage));
-        } else {
-            LOGGER.log(Level.INFO,
-                    MessageFormat.format("{0} - Node is not leader, waiting for PRE-PREPARE message", config.getId()));
+    /*
+     * First instance not decided here
+     */
+    private int firstUndecided() {
+        int instance = this.pipeline.getLastApplied() + 1;
+        while (this.instanceInfo.containsKey(instance) && this.instanceInfo.get(instance).getCommittedRound() != -1)
+            instance++;
+        return instance;
+    }
+
+    /*
+     * Requests not decided yet, in order
+     */
+    private List<AuthedMessage> undecided(List<AuthedMessage> block) {
+        return block.stream()
+                .filter((request) -> {
+                    ClientMessage clientMessage = request.getDataAs(ClientMessage.class);
+                    return clientMessage.getRequestId() > clientRequests.get(clientMessage.getSenderId());
+                })
+                .collect(Collectors.toList());
+    }
+
+    /*
+     * Block of verified client requests signed by this node, null if it can't be signed
+     */
+    private AuthedMessage blockOf(List<AuthedMessage> requests) {
+        try {
+            return new AuthedMessage(new BlockMessage(config.getId(), requests));
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, MessageFormat.format("{0} - Failed to sign a block: {1}", config.getId(), e));
+            return null;
         }
+    }
 
-        // Set timer with task to perform upon timeout
-        setTimer(instance, localConsensusInstance);
+    /*
+     * Transaction asked for by a verified client request
+     */
+    private static Transaction transactionOf(AuthedMessage request) {
+        ClientMessage clientMessage = request.getDataAs(ClientMessage.class);
+        if (clientMessage.getType() == Message.Type.CHECK_BALANCE)
+            return clientMessage.deserializeCheckBalanceMessage().toTransaction();
+        return clientMessage.deserializeTransferMessage().toTransaction();
+    }
+
+    /*
+     * The value is the one proposed for the client request, or the block of the transactions of
+     * its requests in order
+     */
+    private static boolean proposes(AuthedMessage request, String value) {
+        if (request.getType() != Message.Type.BLOCK)
+            return transactionOf(request).toJson().equals(value);
+
+        List<Transaction> transactions = new ArrayList<>();
+        for (AuthedMessage blockRequest : request.getDataAs(BlockMessage.class).getRequests())
+            transactions.add(transactionOf(blockRequest));
+        return new Block(transactions).toJson().equals(value);
+    }
+
+    /*
+     * Digests of the requests of a block
+     */
+    private static List<String> requestDigests(AuthedMessage block) {
+        return block.getDataAs(BlockMessage.class).getRequests().stream()
+                .map(ConsensusMessage::requestDigest)
+                .collect(Collectors.toList());
     }
 
     /*
@@ -297,7 +482,7 @@ public class NodeService implements UDPService {
      *
      * @param message Message to be handled
      */
-    public synchronized void uponPrePrepare(AuthedMessage authed) {
+    public void uponPrePrepare(AuthedMessage authed) {
         try {
             verify(authed);
         } catch (Exception e) {
@@ -306,65 +491,82 @@ public class NodeService implements UDPService {
 
         ConsensusMessage message = authed.getDataAs(ConsensusMessage.class);
 
-        ClientMessage clientMessage = message.getClientMessage().getDataAs(ClientMessage.class);
-        // If this client request has already been decided, ignore
-        if (clientMessage.getRequestId()< clientRequests.get(clientMessage.getSenderId())) {
-            return;
-        }
-
-        int consensusInstance = message.getConsensusInstance();
-        int round = message.getRound();
-        int senderId = message.getSenderId();
-        int senderMessageId = message.getMessageId();
+        // Verified above, only the state of the instance is handled under its lock
+        synchronized (locks.of(message.getConsensusInstance())) {
+            // Only PRE_PREPAREs carry the client request (or block of requests), verified with the message
+            AuthedMessage request = message.getClientMessage();
+            requests.add(request);
+
+            if (request.getType() == Message.Type.BLOCK) {
+                // The requests of the block are proposed, they no longer wait for a block of this node
+                if (this.batcher != null) {
+                    this.batcher.remove(requestDigests(request));
+                    this.consensusInstance.accumulateAndGet(message.getConsensusInstance(), Math::max);
+                }
+            } else {
+                ClientMessage clientMessage = request.getDataAs(ClientMessage.class);
+                // If this client request has already been decided, ignore
+                if (clientMessage.getRequestId()< clientRequests.get(clientMessage.getSenderId())) {
+                    return;
+                }
+            }
 
-        PrePrepareMessage prePrepareMessage = message.deserializePrePrepareMessage();
+            int consensusInstance = message.getConsensusInstance();
+            int round = message.getRound();
+            int senderId = message.getSenderId();
+            int senderMessageId = message.getMessageId();
 
-        String value = prePrepareMessage.getValue();
+            PrePrepareMessage prePrepareMessage = message.deserializePrePrepareMessage();
 
-        LOGGER.log(Level.INFO,
-                MessageFormat.format(
-                        "{0} - Received PRE-PREPARE message from {1} Consensus Instance {2}, Round {3}",
-                        config.getId(), senderId, consensusInstance, round));
+            String value = prePrepareMessage.getValue();
 
-        // Verify if pre-prepare was sent by leader
-        if (!ProcessConfigBuilder.isLeader(senderId, round))
-            return;
+            LOGGER.log(Level.INFO,
+                    MessageFormat.format(
+                            "{0} - Received PRE-PREPARE message from {1} Consensus Instance {2}, Round {3}",
+                            config.getId(), senderId, consensusInstance, round));
 
-        InstanceInfo instanceInfo = new InstanceInfo(value, message.getClientId(), message.getClientMessage());
+            // Verify if pre-prepare was sent by leader
+            if (!ProcessConfigBuilder.isLeader(senderId, round))
+                return;
 
-        // Set instance value
-        this.instanceInfo.putIfAbsent(consensusInstance, instanceInfo);
+            // Set instance value
+            this.instanceInfo.computeIfAbsent(consensusInstance, (key) -> new InstanceInfo(value, message.getClientId(), message.getRequestDigest()));
 
-        if (!justifyPrePrepare(authed))
-            return;
+            if (!justifyPrePrepare(authed))
+                return;
 
-        instanceInfo = this.instanceInfo.get(consensusInstance);
-        // Set timer with task to perform upon timeout
-        setTimer(instanceInfo, consensusInstance);
+            // The instance proposes the value and request of the justified PRE_PREPARE, whatever
+            // was set before it (local input, or nothing if only PREPAREs were received)
+            InstanceInfo instanceInfo = this.instanceInfo.get(consensusInstance);
+            if (instanceInfo.getCommittedRound() == -1)
+                instanceInfo.bind(value, message.getClientId(), message.getRequestDigest());
+            // Set timer with task to perform upon timeout
+            setTimer(instanceInfo, consensusInstance);
 
-        // Within an instance of the algorithm, each upon rule is triggered at most once
-        // for any round r
-        receivedPrePrepare.putIfAbsent(consensusInstance, new ConcurrentHashMap<>());
-        if (receivedPrePrepare.get(consensusInstance).put(round, true) != null) {
-            LOGGER.log(Level.INFO,
-                    MessageFormat.format(
-                            "{0} - Already received PRE-PREPARE message for Consensus Instance {1}, Round {2}, "
-                                    + "replying again to make sure it reaches the initial sender",
-                            config.getId(), consensusInstance, round));
-        }
+            // Within an instance of the algorithm, each upon rule is triggered at most once
+            // for any round r
+            receivedPrePrepare.putIfAbsent(consensusInstance, new ConcurrentHashMap<>());
+            if (receivedPrePrepare.get(consensusInstance).put(round, true) != null) {
+                LOGGER.log(Level.INFO,
+                        MessageFormat.format(
+                                "{0} - Already received PRE-PREPARE message for Consensus Instance {1}, Round {2}, "
+                                        + "replying again to make sure it reaches the initial sender",
+                                config.getId(), consensusInstance, round));
+            }
 
-        PrepareMessage prepareMessage = new PrepareMessage(prePrepareMessage.getValue());
+            PrepareMessage prepareMessage = new PrepareMessage(prePrepareMessage.getValue());
 
-        ConsensusMessage consensusMessage = new ConsensusMessageBuilder(config.getId(), Message.Type.PREPARE, message.getClientMessage())
-                .setConsensusInstance(consensusInstance)
-                .setRound(round)
-                .setClientId(message.getClientId())
-                .setMessage(prepareMessage.toJson())
-                .setReplyTo(senderId)
-                .setReplyToMessageId(senderMessageId)
-                .build();
+            ConsensusMessage consensusMessage = new ConsensusMessageBuilder(config.getId(), Message.Type.PREPARE, message.getRequestDigest())
+                    .setConsensusInstance(consensusInstance)
+                    .setRound(round)
+                    .setClientId(message.getClientId())
+                    .setMessage(prepareMessage.toJson())
+                    .setReplyTo(senderId)
+                    .setReplyToMessageId(senderMessageId)
+                    .build();
 
-        this.link.broadcast(consensusMessage);
+            broadcast(consensusMessage);
+        }
     }
 
     /*
@@ -372,7 +574,7 @@ public class NodeService implements UDPService {
      *
      * @param message Message to be handled
      */
-    public synchronized void uponPrepare(AuthedMessage authed) {
+    public void uponPrepare(AuthedMessage authed) {
         try {
             verify(authed);
         } catch (Exception e) {
@@ -381,71 +583,71 @@ public class NodeService implements UDPService {
 
         ConsensusMessage message = authed.getDataAs(ConsensusMessage.class);
 
-        int consensusInstance = message.getConsensusInstance();
-        int round = message.getRound();
-        int senderId = message.getSenderId();
-
-        PrepareMessage prepareMessage = message.deserializePrepareMessage();
+        synchronized (locks.of(message.getConsensusInstance())) {
+            int consensusInstance = message.getConsensusInstance();
+            int round = message.getRound();
+            int senderId = message.getSenderId();
 
-        String value = prepareMessage.getValue();
+            PrepareMessage prepareMessage = message.deserializePrepareMessage();
 
-        LOGGER.log(Level.INFO,
-                MessageFormat.format(
-                        "{0} - Received PREPARE message from {1}: Consensus Instance {2}, Round {3}",
-                        config.getId(), senderId, consensusInstance, round));
+            String value = prepareMessage.getValue();
 
-        // Doesn't add duplicate messages
-        prepareMessages.addMessage(authed);
-
-        // Set instance values
-        this.instanceInfo.putIfAbsent(consensusInstance, new InstanceInfo(value, message.getClientId(), message.getClientMessage()));
-        InstanceInfo instance = this.instanceInfo.get(consensusInstance);
-        
-        // Within an instance of the algorithm, each upon rule is triggered at most once
-        // for any round r
-        // Late prepare (consensus already ended for other nodes) only reply to him (as
-        // an ACK)
-        if (instance.getCommittedRound() != -1) {
             LOGGER.log(Level.INFO,
                     MessageFormat.format(
-                            "{0} - Already received PREPARE message for Consensus Instance {1}, Round {2}, "
-                                    + "replying again to make sure it reaches the initial sender",
-                            config.getId(), consensusInstance, round));
+                            "{0} - Received PREPARE message from {1}: Consensus Instance {2}, Round {3}",
+                            config.getId(), senderId, consensusInstance, round));
 
-            ConsensusMessage m = new ConsensusMessageBuilder(config.getId(), Message.Type.COMMIT, message.getClientMessage())
-                    .setConsensusInstance(consensusInstance)
-                    .setRound(round)
-                    .setClientId(message.getClientId())
-                    .setReplyTo(senderId)
-                    .setReplyToMessageId(message.getMessageId())
-                    .setMessage(instance.getCommitMessage().toJson())
-                    .build();
+            // Doesn't add duplicate messages
+            prepareMessages.addMessage(authed);
 
-            link.send(senderId, m);
-            return;
-        }
+            // The request of the instance is set by its PRE_PREPARE or a quorum, never by a PREPARE
+            InstanceInfo instance = this.instanceInfo.computeIfAbsent(consensusInstance, (key) -> new InstanceInfo(null, 0, null));
+        
+            // Within an instance of the algorithm, each upon rule is triggered at most once
+            // for any round r
+            // Late prepare (consensus already ended for other nodes) only reply to him (as
+            // an ACK)
+            if (instance.getCommittedRound() != -1) {
+                LOGGER.log(Level.INFO,
+                        MessageFormat.format(
+                                "{0} - Already received PREPARE message for Consensus Instance {1}, Round {2}, "
+                                        + "replying again to make sure it reaches the initial sender",
+                                config.getId(), consensusInstance, round));
 
-        // Find value with valid quorum
-        Optional<String> preparedValue = prepareMessages.hasValidPrepareQuorum(consensusInstance, round);
-        if (preparedValue.isPresent() && instance.getPreparedRound() < round) {
-            instance.setPreparedValue(preparedValue.get());
-            instance.setPreparedRound(round);
+                ConsensusMessage m = new ConsensusMessageBuilder(config.getId(), Message.Type.COMMIT, instance.getRequestDigest())
+                        .setConsensusInstance(consensusInstance)
+                        .setRound(round)
+                        .setClientId(instance.getClientId())
+                        .setReplyTo(senderId)
+                        .setReplyToMessageId(message.getMessageId())
+                        .setMessage(instance.getCommitMessage().toJson())
+                        .build();
 
-            // Must reply to prepare message senders
-            Collection<ConsensusMessage> sendersMessage = prepareMessages.getMessages(consensusInstance, round)
-                    .values();
+                send(senderId, m);
+                return;
+            }
 
-            CommitMessage c = new CommitMessage(preparedValue.get());
-            instance.setCommitMessage(c);
-            //instance.setCommittedRound(round);
+            // Find value with valid quorum, and the request a quorum prepared it from
+            Optional<Pair<String, String>> prepared = prepareMessages.hasValidPrepareQuorum(consensusInstance, round);
+            if (prepared.isPresent() && instance.getPreparedRound() < round) {
+                String preparedValue = prepared.get().getFirst();
+                instance.setPreparedValue(preparedValue);
+                instance.setPreparedRound(round);
+                // Round changes carry the request of the prepared value
+                instance.setRequestDigest(prepared.get().getSecond());
 
-            ConsensusMessage m = new ConsensusMessageBuilder(config.getId(), Message.Type.COMMIT, sendersMessage.iterator().next().getClientMessage())
-                    .setConsensusInstance(consensusInstance)
-                    .setRound(round)
-                    .setClientId(instance.getClientId())
-                    .setMessage(c.toJson())
-                    .build();
-            link.broadcast(m);
+                CommitMessage c = new CommitMessage(preparedValue);
+                instance.setCommitMessage(c);
+                //instance.setCommittedRound(round);
+
+                ConsensusMessage m = new ConsensusMessageBuilder(config.getId(), Message.Type.COMMIT, prepared.get().getSecond())
+                        .setConsensusInstance(consensusInstance)
+                        .setRound(round)
+                        .setClientId(instance.getClientId())
+                        .setMessage(c.toJson())
+                        .build();
+                broadcast(m);
+            }
         }
     }
 
@@ -456,7 +658,7 @@ public class NodeService implements UDPService {
 
         newMessage.setMessage(ledgerResponseMessage.toJson());
 
-        this.link.send(clientId, newMessage);
+        send(clientId, newMessage);
     }
 
     protected void balanceReply(int balance, int clientId, int requestId) {
@@ -465,7 +667,7 @@ public class NodeService implements UDPService {
 
         newMessage.setMessage(balanceResponseMessage.toJson());
 
-        this.link.send(clientId, newMessage);
+        send(clientId, newMessage);
     }
 
 
@@ -491,8 +693,8 @@ public class NodeService implements UDPService {
                         config.getId(), message.getSenderId(), consensusInstance, round));
 
         InstanceInfo instance = this.instanceInfo.get(consensusInstance);
-        Optional<String> commitValue;
-        synchronized (commitMessages) {
+        Optional<Pair<String, String>> commitValue;
+        synchronized (locks.of(consensusInstance)) {
             commitMessages.addMessage(authed);
 
             if (instance == null) {
@@ -517,91 +719,140 @@ public class NodeService implements UDPService {
         }
 
         if (commitValue.isPresent() && instance.getCommittedRound() < round) {
+            String value = commitValue.get().getFirst();
+            // The request a quorum committed the value from, not the one of this COMMIT
+            String requestDigest = commitValue.get().getSecond();
+
+            // The request is needed to answer the client, decided once it's known
+            AuthedMessage request;
+            try {
+                request = requests.getOrWait(requestDigest, () -> uponCommit(authed));
+            } catch (HDSSException e) {
+                LOGGER.log(Level.SEVERE, MessageFormat.format(
+                        "{0} - Committed request of Consensus Instance {1}, Round {2} has an invalid digest",
+                        config.getId(), consensusInstance, round));
+                return;
+            }
+            if (request == null) {
+                fetch(requestDigest);
+                return;
+            }
+
+            if (!proposes(request, value)) {
+                LOGGER.log(Level.SEVERE, MessageFormat.format(
+                        "{0} - Committed value of Consensus Instance {1}, Round {2} is not the one of request {3}",
+                        config.getId(), consensusInstance, round, requestDigest));
+                return;
+            }
 
             instance = this.instanceInfo.get(consensusInstance);
-            instance.setCommittedRound(round);
-            instance.setCommitMessage(message.deserializeCommitMessage());
+            // Commits waiting for the same request resume together, only one decides
+            synchronized (locks.of(consensusInstance)) {
+                if (instance.getCommittedRound() >= round)
+                    return;
+                instance.setCommittedRound(round);
+                instance.setRequestDigest(requestDigest);
+            }
+            instance.setCommitMessage(new CommitMessage(value));
             instance.stopTimer();
 
-            String value = commitValue.get();
+            InstanceInfo decided = instance;
+            // Blocks started here follow the instances decided
+            if (this.batcher != null)
+                this.consensusInstance.accumulateAndGet(consensusInstance, Math::max);
 
-            // Only start a consensus instance if the last one was decided
-            // We need to be sure that the previous value has been decided
-            while (lastDecidedConsensusInstance.get() < consensusInstance - 1) {
-                LOGGER.log(Level.INFO, "Last consensus hasn't finished");
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
+            LOGGER.log(Level.INFO,
+                    MessageFormat.format(
+                            "{0} - Decided on Consensus Instance {1}, Round {2}, Successful? {3}",
+                            config.getId(), consensusInstance, round, true));
 
-            int requestId = message.getClientMessage().getDataAs(ClientMessage.class).getRequestId();
-            boolean success = false; // If transfer
-            int balance = -1; // If check balance
-            boolean isCheckBalance = false;
-
-            // Append value to the ledger (must be synchronized to be thread-safe)
-            synchronized(ledger) {
-                // Increment size of ledger to accommodate current instance
-                ledger.ensureCapacity(consensusInstance);
-                while (ledger.size() <= consensusInstance - 1) {
-                    ledger.add(new Transaction());
-                }
-                
-                // Verify that the request that has been processed hasn't been decided before
-                synchronized(clientRequests) {
-                    if (requestId > clientRequests.get(instance.getClientId())) {
-                        Transaction transaction = Transaction.fromJson(value);
-                        isCheckBalance = transaction.isCheckBalance();
-                        // UGLY SOLUTION TO DISTINGUISH BETWEEN THE TWO REQUESTS
-                        // LAST MINUTE CHANGE, WOULD NEED REFACTORING
-                        if (!isCheckBalance) {
-                            // Append the transaction to the ledger and apply it
-                            success = applyTransaction(transaction, ProcessConfigBuilder.getLeader(instance.getCommittedRound()));
-                            if (success) {
-                                ledger.set(consensusInstance - 1, transaction);
-                                // Update the last decided request
-                                clientRequests.put(instance.getClientId(), requestId);
-                            }
-                        } else {
-                            try {
-                                PublicKey publicKey = KeyGetter.fromString(transaction.getSource());
-                                balance = accounts.get(publicKey).getBalance();
-                            } catch (Exception e) {
-                                // TODO : Shouldnt get here
-                            }
+            // Applied once every earlier instance is
+            pipeline.decide(consensusInstance, () -> apply(consensusInstance, decided, value, request));
+        }
+    }
+
+    /*
+     * Applies the decided value of a consensus instance to the ledger and answers the clients
+     * Called by the pipeline in instance order, once every earlier instance is applied
+     *
+     * @param request Client request, or block of requests, decided
+     */
+    protected void apply(int consensusInstance, InstanceInfo instance, String value, AuthedMessage request) {
+        int leader = ProcessConfigBuilder.getLeader(instance.getCommittedRound());
+
+        if (request.getType() != Message.Type.BLOCK) {
+            ClientMessage clientMessage = request.getDataAs(ClientMessage.class);
+            apply(consensusInstance, Transaction.fromJson(value), clientMessage.getSenderId(), clientMessage.getRequestId(), leader);
+            requests.evict(ConsensusMessage.requestDigest(request));
+            return;
+        }
+
+        // The transactions of a block are applied in order, each answered to its client
+        List<AuthedMessage> block = request.getDataAs(BlockMessage.class).getRequests();
+        List<Transaction> transactions = Block.fromJson(value).getTransactions();
+        for (int i = 0; i < Math.min(block.size(), transactions.size()); i++) {
+            ClientMessage clientMessage = block.get(i).getDataAs(ClientMessage.class);
+            apply(consensusInstance, transactions.get(i), clientMessage.getSenderId(), clientMessage.getRequestId(), leader);
+        }
+
+        List<String> digests = requestDigests(request);
+        if (this.batcher != null)
+            this.batcher.remove(digests);
+        // The requests of the block were also kept on their own when received from their clients
+        digests.forEach(requests::evict);
+        requests.evict(ConsensusMessage.requestDigest(request));
+    }
+
+    private void apply(int consensusInstance, Transaction transaction, int clientId, int requestId, int leader) {
+        boolean success = false; // If transfer
+        int balance = -1; // If check balance
+        boolean isCheckBalance = false;
+
+        // Append value to the ledger (must be synchronized to be thread-safe)
+        synchronized(ledger) {
+            // Verify that the request that has been processed hasn't been decided before
+            synchronized(clientRequests) {
+                if (requestId > clientRequests.get(clientId)) {
+                    isCheckBalance = transaction.isCheckBalance();
+                    // UGLY SOLUTION TO DISTINGUISH BETWEEN THE TWO REQUESTS
+                    // LAST MINUTE CHANGE, WOULD NEED REFACTORING
+                    if (!isCheckBalance) {
+                        // Apply the transaction
+                        success = applyTransaction(transaction, leader);
+                        if (success) {
+                            // Update the last decided request
+                            clientRequests.put(clientId, requestId);
                         }
                     } else {
-                        System.out.println(MessageFormat.format("{0}[{1}] - Request {2} was already decided", config.getId(), consensusInstance, requestId));
-                        // If this request has been decided before, simply put an empty Transaction on the ledger
-                        Transaction transaction = new Transaction();
-                        ledger.set(consensusInstance - 1, transaction);
+                        try {
+                            PublicKey publicKey = KeyGetter.fromString(transaction.getSource());
+                            balance = accounts.get(publicKey).getBalance();
+                        } catch (Exception e) {
+                            // TODO : Shouldnt get here
+                        }
                     }
+                } else {
+                    System.out.println(MessageFormat.format("{0}[{1}] - Request {2} was already decided", config.getId(), consensusInstance, requestId));
                 }
-                
-                LOGGER.log(Level.INFO,
-                    MessageFormat.format(
-                            "{0} - Current Ledger: {1}",
-                            config.getId(), ledger));
             }
 
-            lastDecidedConsensusInstance.getAndIncrement();
+            // Every decided request takes a slot, empty unless its transaction was applied
+            ledger.add(success ? transaction : new Transaction());
 
             LOGGER.log(Level.INFO,
-                    MessageFormat.format(
-                            "{0} - Decided on Consensus Instance {1}, Round {2}, Successful? {3}",
-                            config.getId(), consensusInstance, round, true));
+                MessageFormat.format(
+                        "{0} - Current Ledger: {1}",
+                        config.getId(), ledger));
+        }
 
-            if (!isCheckBalance) {
-                ledgerReply(success, instance.getClientId(), message.getClientMessage().getDataAs(ClientMessage.class).getRequestId());
-            } else {
-                balanceReply(balance, instance.getClientId(), message.getClientMessage().getDataAs(ClientMessage.class).getRequestId());
-            }
+        if (!isCheckBalance) {
+            ledgerReply(success, clientId, requestId);
+        } else {
+            balanceReply(balance, clientId, requestId);
         }
     }
 
-    public synchronized void uponRoundChange(AuthedMessage authed) {
+    public void uponRoundChange(AuthedMessage authed) {
         try {
             verify(authed);
         } catch (Exception e) {
@@ -610,125 +861,131 @@ public class NodeService implements UDPService {
 
         ConsensusMessage message = authed.getDataAs(ConsensusMessage.class);
 
-        int consensusInstance = message.getConsensusInstance();
-        int round = message.getRound();
+        synchronized (locks.of(message.getConsensusInstance())) {
+            int consensusInstance = message.getConsensusInstance();
+            int round = message.getRound();
 
-        LOGGER.log(Level.INFO,
-                MessageFormat.format("{0} - Received ROUND_CHANGE message from {1}: Consensus Instance {2}, Round {3}",
-                        config.getId(), message.getSenderId(), consensusInstance, round));
+            LOGGER.log(Level.INFO,
+                    MessageFormat.format("{0} - Received ROUND_CHANGE message from {1}: Consensus Instance {2}, Round {3}",
+                            config.getId(), message.getSenderId(), consensusInstance, round));
 
-        roundChangeMessages.addMessage(authed);
+            roundChangeMessages.addMessage(authed);
 
-        InstanceInfo instance = this.instanceInfo.get(consensusInstance);
+            InstanceInfo instance = this.instanceInfo.get(consensusInstance);
 
-        if (instance == null) {
-            LOGGER.log(Level.SEVERE, MessageFormat.format(
-                    "{0} - CRITICAL: Received ROUND_CHANGE message from {1}: Consensus Instance {2}, Round {3} BUT NO INSTANCE INFO",
-                    config.getId(), message.getSenderId(), consensusInstance, round));
-            return;
-        }
+            if (instance == null) {
+                LOGGER.log(Level.SEVERE, MessageFormat.format(
+                        "{0} - CRITICAL: Received ROUND_CHANGE message from {1}: Consensus Instance {2}, Round {3} BUT NO INSTANCE INFO",
+                        config.getId(), message.getSenderId(), consensusInstance, round));
+                return;
+            }
 
-        if (instance.getCommittedRound() != -1) {
-            CommitMessage c = new CommitMessage(instance.getCommitMessage().getValue());
-            instance.setCommitMessage(c);
+            if (instance.getCommittedRound() != -1) {
+                CommitMessage c = new CommitMessage(instance.getCommitMessage().getValue());
+                instance.setCommitMessage(c);
 
-            ConsensusMessage m = new ConsensusMessageBuilder(config.getId(), Message.Type.COMMIT, instance.getClientMessage())
-                    .setConsensusInstance(consensusInstance)
-                    .setRound(round)
-                    .setClientId(instance.getClientId())
-                    .setReplyTo(message.getSenderId())
-                    .setReplyToMessageId(message.getMessageId())
-                    .setMessage(c.toJson())
-                    .build();
+                ConsensusMessage m = new ConsensusMessageBuilder(config.getId(), Message.Type.COMMIT, instance.getRequestDigest())
+                        .setConsensusInstance(consensusInstance)
+                        .setRound(round)
+                        .setClientId(instance.getClientId())
+                        .setReplyTo(message.getSenderId())
+                        .setReplyToMessageId(message.getMessageId())
+                        .setMessage(c.toJson())
+                        .build();
 
-            link.send(message.getSenderId(), m);
-            return;
-        }
+                send(message.getSenderId(), m);
+                return;
+            }
 
-        // Check for f+1 messages with rj > ri
-        int ri = instance.getCurrentRound(); // ri following the paper's nomenclature
-        Optional<Integer> r_min = roundChangeMessages.hasValidRoundChangeFp1(consensusInstance, ri); 
+            // Check for f+1 messages with rj > ri
+            int ri = instance.getCurrentRound(); // ri following the paper's nomenclature
+            Optional<Integer> r_min = roundChangeMessages.hasValidRoundChangeFp1(consensusInstance, ri); 
         
-        if (r_min.isPresent()) {
-            instance.setCurrentRound(r_min.get());
-            //roundChangeMessages.purgeLowerRounds(consensusInstance, r_min.get());
+            if (r_min.isPresent()) {
+                instance.setCurrentRound(r_min.get());
+                //roundChangeMessages.purgeLowerRounds(consensusInstance, r_min.get());
         
-            RoundChangeMessage roundChangeMessage = new RoundChangeMessage(instance.getPreparedRound(), instance.getPreparedValue());
+                RoundChangeMessage roundChangeMessage = new RoundChangeMessage(instance.getPreparedRound(), instance.getPreparedValue());
 
-            ConsensusMessage newMessage = new ConsensusMessageBuilder(config.getId(), Message.Type.ROUND_CHANGE, instance.getClientMessage())
-                .setConsensusInstance(consensusInstance)
-                .setMessage(roundChangeMessage.toJson())
-                .setRound(r_min.get())
-                .setClientId(instance.getClientId())
-                .build();
-            setTimer(instance, consensusInstance);
+                ConsensusMessage newMessage = new ConsensusMessageBuilder(config.getId(), Message.Type.ROUND_CHANGE, instance.getRequestDigest())
+                    .setConsensusInstance(consensusInstance)
+                    .setMessage(roundChangeMessage.toJson())
+                    .setRound(r_min.get())
+                    .setClientId(instance.getClientId())
+                    .build();
+                setTimer(instance, consensusInstance);
 
-            List<AuthedMessage> justification = getRoundChangeJustification(newMessage);
-            newMessage.setPiggyback(justification);
-            this.link.broadcast(newMessage);
-        }
+                QuorumCertificate justification = getRoundChangeJustification(newMessage);
+                newMessage.setCertificate(justification);
+                broadcast(newMessage);
+            }
 
-        // upon Receiving a quorum Qrc of valid <ROUND-CHANGE, di, ri,_,_> ...
-        Optional<List<AuthedMessage>> qrc = roundChangeMessages.hasValidRoundChangeQuorum(consensusInstance, ri);
+            // upon Receiving a quorum Qrc of valid <ROUND-CHANGE, di, ri,_,_> ...
+            Optional<List<MessageBucket.Entry>> qrc = roundChangeMessages.hasValidRoundChangeQuorum(consensusInstance, ri);
 
-        if (qrc.isPresent()) {
-            List<AuthedMessage> quorum = qrc.get();
+            if (qrc.isPresent()) {
+                List<MessageBucket.Entry> quorum = qrc.get();
 
-            try {
-                if (this.isLeader(ri) && justifyRoundChange(consensusInstance, quorum)) {
-                    Optional<Pair<Integer, String>> highest = highestPrepared(quorum);
+                try {
+                    if (this.isLeader(ri) && justifyRoundChange(consensusInstance, MessageBucket.roundChangeCertificate(consensusInstance, ri, quorum))) {
+                        Optional<Pair<Integer, String>> highest = highestPrepared(quorum);
                     
-                    String value;
-                    if (highest.isPresent()) {
-                        value = highest.get().getSecond();
-                    } else {
-                        value = instance.getInputValue();
-                    }
+                        String value;
+                        String requestDigest;
+                        if (highest.isPresent()) {
+                            value = highest.get().getSecond();
+                            // The request of the highest prepared value, as sent by a node that prepared it
+                            requestDigest = quorum.stream()
+                                    .filter((entry) -> entry.getPreparedRound() == highest.get().getFirst() && value.equals(entry.getValue()))
+                                    .map(MessageBucket.Entry::getRequestDigest)
+                                    .findFirst().orElse(instance.getRequestDigest());
+                        } else {
+                            value = instance.getInputValue();
+                            requestDigest = instance.getRequestDigest();
+                        }
 
-                    PrePrepareMessage prePrepareMessage = new PrePrepareMessage(value);
+                        // Nothing to propose (only PREPAREs of the instance were received)
+                        if (value == null || requestDigest == null)
+                            return;
 
-                    List<AuthedMessage> justification = getPrePrepareJustification(consensusInstance, ri);
+                        // The PRE_PREPARE carries the request, proposed once it's known
+                        AuthedMessage request = requests.getOrWait(requestDigest, () -> uponRoundChange(authed));
+                        if (request == null) {
+                            fetch(requestDigest);
+                            return;
+                        }
 
-                    ConsensusMessage newMessage = new ConsensusMessageBuilder(config.getId(), Message.Type.PRE_PREPARE, instance.getClientMessage())
-                        .setConsensusInstance(consensusInstance)
-                        .setMessage(prePrepareMessage.toJson())
-                        .setRound(ri)
-                        .setClientId(instance.getClientId())
-                        .build();
-                    newMessage.setPiggyback(justification);
-                    this.link.broadcast(newMessage);
+                        PrePrepareMessage prePrepareMessage = new PrePrepareMessage(value);
+
+                        QuorumCertificate justification = getPrePrepareJustification(consensusInstance, ri);
+
+                        ConsensusMessage newMessage = new ConsensusMessageBuilder(config.getId(), Message.Type.PRE_PREPARE, request)
+                            .setConsensusInstance(consensusInstance)
+                            .setMessage(prePrepareMessage.toJson())
+                            .setRound(ri)
+                            .setClientId(instance.getClientId())
+                            .build();
+                        newMessage.setCertificate(justification);
+                        broadcast(newMessage);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace(); // TODO
                 }
-            } catch (Exception e) {
-                e.printStackTrace(); // TODO
             }
         }
     }
 
-    public boolean justifyRoundChange(int instance, List<AuthedMessage> quorum) throws Exception {
-        if (quorum == null)
+    /*
+     * A quorum of nodes changed to the round and, if any of them prepared a value, a quorum
+     * prepared the highest prepared round and value among them
+     */
+    public boolean justifyRoundChange(int instance, QuorumCertificate certificate) throws Exception {
+        if (certificate == null)
             throw new Exception("Invalid quorum");
 
-        InstanceInfo instanceInfo = this.instanceInfo.get(instance);
-        int preparedRound = instanceInfo.getPreparedRound();
-        String preparedValue = instanceInfo.getPreparedValue();
-
-        if (!quorum.stream()
-            .map((message) -> message.getDataAs(ConsensusMessage.class).deserializeRoundChangeMessage())
-            .filter((message) -> message.getPreparedRound() != -1)
-            .findAny()
-            .isPresent()) {
-            return true;
-        }
-
-        Optional<Pair<Integer, String>> highest = highestPrepared(quorum);
-        if (highest.isPresent()) {
-            return quorum.stream().filter((authed) -> {
-                RoundChangeMessage roundChangeMessage = authed.getDataAs(ConsensusMessage.class).deserializeRoundChangeMessage();
-
-                return roundChangeMessage.getPreparedRound() == highest.get().getFirst() && roundChangeMessage.getValue().equals(highest.get().getSecond()) && isValidQuorum(authed.getPiggyback());
-            }).findAny().isPresent();
-        }
-        return false;
+        return certificate.getType() == Message.Type.ROUND_CHANGE
+                && certificate.getConsensusInstance() == instance
+                && certificate.isValid(ProcessConfigBuilder.getQuorumSize());
     }
 
     public boolean justifyPrePrepare(AuthedMessage authedMessage) {
@@ -746,7 +1003,10 @@ public class NodeService implements UDPService {
         if (round < instanceInfo.getCurrentRound())
             return false;
 
-        List<AuthedMessage> justification = authedMessage.getPiggyback();
+        QuorumCertificate justification = authedMessage.getCertificate();
+        // Justified by the round changes to this round
+        if (justification != null && justification.getRound() != round)
+            return false;
 
         try {
             return justifyRoundChange(instance, justification);
@@ -756,33 +1016,69 @@ public class NodeService implements UDPService {
         }
     }
 
-    public Optional<Pair<Integer, String>> highestPrepared(List<AuthedMessage> quorum) {
+    public Optional<Pair<Integer, String>> highestPrepared(List<MessageBucket.Entry> quorum) {
         Optional<Integer> highest = Optional.empty();
         Optional<String> value = Optional.empty();
         
-        for (AuthedMessage authed : quorum) {
-            ConsensusMessage message = authed.getDataAs(ConsensusMessage.class);
-            RoundChangeMessage roundChangeMessage = message.deserializeRoundChangeMessage();
-
+        for (MessageBucket.Entry entry : quorum) {
             if (highest.isPresent()) {
-                if (roundChangeMessage.getPreparedRound() >= highest.get()) {
-                    highest = Optional.of(roundChangeMessage.getPreparedRound());
-                    value = Optional.of(roundChangeMessage.getValue());
+                if (entry.getPreparedRound() >= highest.get()) {
+                    highest = Optional.of(entry.getPreparedRound());
+                    value = Optional.of(entry.getValue());
                 }
             } else {
-                if (roundChangeMessage.getPreparedRound() == -1) {
+                if (entry.getPreparedRound() == -1) {
                     return Optional.empty();
                 }
 
-                highest = Optional.of(roundChangeMessage.getPreparedRound());
-                value = Optional.of(roundChangeMessage.getValue());
+                highest = Optional.of(entry.getPreparedRound());
+                value = Optional.of(entry.getValue());
             }
         }
 
         return Optional.of(new Pair<>(highest.get(), value.get()));
     }
 
-    public synchronized void uponTransfer(AuthedMessage message) {
+    /*
+     * Asks the other nodes for a client request only known by its digest
+     */
+    protected void fetch(String requestDigest) {
+        LOGGER.log(Level.INFO, MessageFormat.format("{0} - Fetching client request {1}", config.getId(), requestDigest));
+
+        ConsensusMessage m = new ConsensusMessageBuilder(config.getId(), Message.Type.FETCH, requestDigest).build();
+        broadcast(m);
+    }
+
+    /*
+     * Replies with a client request if known
+     */
+    public void uponFetch(AuthedMessage authed) {
+        ConsensusMessage message = authed.getDataAs(ConsensusMessage.class);
+        AuthedMessage request = requests.get(message.getRequestDigest());
+        if (request == null || message.getSenderId() == config.getId())
+            return;
+
+        ConsensusMessage m = new ConsensusMessageBuilder(config.getId(), Message.Type.FETCH_REPLY, request)
+                .setReplyTo(message.getSenderId())
+                .setReplyToMessageId(message.getMessageId())
+                .build();
+        send(message.getSenderId(), m);
+    }
+
+    /*
+     * Keeps a fetched client request (verified against its digest), resuming what waited for it
+     */
+    public void uponFetchReply(AuthedMessage authed) {
+        try {
+            verify(authed);
+        } catch (Exception e) {
+            return;
+        }
+
+        requests.add(authed.getDataAs(ConsensusMessage.class).getClientMessage());
+    }
+
+    public void uponTransfer(AuthedMessage message) {
         ClientMessage clientMessage = null;
 
         // Check message validity
@@ -795,18 +1091,18 @@ public class NodeService implements UDPService {
             TransferResponseMessage ledgerResponseMessage = new TransferResponseMessage(false);
             ClientMessage newMessage = new ClientMessage(config.getId(), Message.Type.RESPONSE_TRANSFER, clientMessage != null ? clientMessage.getRequestId() : 0);
             newMessage.setMessage(ledgerResponseMessage.toJson());
-            this.link.send(message.getSenderId(), newMessage);
+            send(message.getSenderId(), newMessage);
             return;
         }
 
         TransferMessage transferMessage = clientMessage.deserializeTransferMessage();
 
-        Transaction transaction = new Transaction(transferMessage.getSource(), transferMessage.getDestination(), transferMessage.getAmount());
+        Transaction transaction = transferMessage.toTransaction();
 
         startConsensus(transaction.toJson(), clientMessage.getSenderId(), message);
     }
 
-    public synchronized void uponCheckBalance(AuthedMessage message) {
+    public void uponCheckBalance(AuthedMessage message) {
         ClientMessage clientMessage = null;
 
         // Check message validity
@@ -819,13 +1115,13 @@ public class NodeService implements UDPService {
             BalanceResponseMessage ledgerResponseMessage = new BalanceResponseMessage(-1);
             ClientMessage newMessage = new ClientMessage(config.getId(), Message.Type.RESPONSE_BALANCE, clientMessage != null ? clientMessage.getRequestId() : 0);
             newMessage.setMessage(ledgerResponseMessage.toJson());
-            this.link.send(message.getSenderId(), newMessage);
+            send(message.getSenderId(), newMessage);
             return;
         }
 
         try {
             CheckBalanceMessage checkBalanceMessage = clientMessage.deserializeCheckBalanceMessage();
-            Transaction transaction = new Transaction(checkBalanceMessage.getAccountPubKey());
+            Transaction transaction = checkBalanceMessage.toTransaction();
 
             startConsensus(transaction.toJson(), clientMessage.getSenderId(), message);
         } catch (Exception e) {
@@ -833,59 +1129,124 @@ public class NodeService implements UDPService {
         }
     }
 
+    /*
+     * Broadcasts a message through the link. A node whose send queue is full (fail fast overflow
+     * policy) doesn't get it, which is logged and otherwise handled like a message to a crashed
+     * node, every other node still gets it.
+     */
+    protected void broadcast(Message message) {
+        try {
+            link.broadcast(message);
+        } catch (HDSSException e) {
+            LOGGER.log(Level.WARNING, MessageFormat.format("{0} - {1} message not sent to every node: {2}",
+                    config.getId(), message.getType(), e.getMessage()));
+        }
+    }
+
+    /*
+     * Sends a message through the link, a full send queue of the destination is logged
+     */
+    protected void send(int nodeId, Message message) {
+        try {
+            link.send(nodeId, message);
+        } catch (HDSSException e) {
+            LOGGER.log(Level.WARNING, MessageFormat.format("{0} - {1} message not sent to {2}: {3}",
+                    config.getId(), message.getType(), nodeId, e.getMessage()));
+        }
+    }
+
     @Override
     public void listen() {
         this.ready();
         try {
+            SystemConfig systemConfig = ProcessConfigBuilder.getSystemConfig();
+            EventLoops eventLoops = new EventLoops("node-" + config.getId(),
+                    systemConfig.getEventLoops() != null ? systemConfig.getEventLoops() : Runtime.getRuntime().availableProcessors(),
+                    systemConfig.getMailboxWarning() != null ? systemConfig.getMailboxWarning() : EventLoops.DEFAULT_MAILBOX_WARNING,
+                    threadMode);
+
             // Thread to listen on every request
             new Thread(() -> {
-                try {
-                    while (true) {
-                        Message message = link.receive();
-                        
-                        // Separate thread to handle each message
-                        new Thread(() -> {
-                            switch (message.getType()) {
-
-                                case PRE_PREPARE ->
-                                    uponPrePrepare((AuthedMessage) message);
-                                case PREPARE ->
-                                    uponPrepare((AuthedMessage) message);
-                                case COMMIT ->
-                                    uponCommit((AuthedMessage) message);
-                                case ACK ->
-                                    LOGGER.log(Level.INFO, MessageFormat.format("{0} - Received ACK message from {1}",
-                                            config.getId(), message.getSenderId()));
-                                case IGNORE ->
-                                    LOGGER.log(Level.INFO,
-                                            MessageFormat.format("{0} - Received IGNORE message from {1}",
-                                                    config.getId(), message.getSenderId()));
-                                case ROUND_CHANGE -> {
-                                    uponRoundChange((AuthedMessage) message);
-                                }
-
-                                case TRANSFER -> {
-                                    uponTransfer((AuthedMessage) message);
-                                }
-
-                                case CHECK_BALANCE -> {
-                                    uponCheckBalance((AuthedMessage) message);
-                                }
-                                default ->
-                                    LOGGER.log(Level.INFO,
-                                            MessageFormat.format("{0} - Received unknown message from {1}",
-                                                    config.getId(), message.getSenderId()));
-
-                            }
-
-                        }).start();
+                while (true) {
+                    Message message = link.receive();
+                    // Interrupted
+                    if (message == null)
+                        return;
+
+                    // A message failing to dispatch is dropped, the thread keeps receiving
+                    try {
+                        switch (message.getType()) {
+                            case ACK ->
+                                LOGGER.log(Level.INFO, MessageFormat.format("{0} - Received ACK message from {1}",
+                                        config.getId(), message.getSenderId()));
+                            case IGNORE ->
+                                LOGGER.log(Level.INFO,
+                                        MessageFormat.format("{0} - Received IGNORE message from {1}",
+                                                config.getId(), message.getSenderId()));
+                            // Handled by the event loop of its consensus instance (or sender)
+                            default ->
+                                eventLoops.dispatch(routingKey(message), () -> handle(message));
+                        }
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.WARNING, MessageFormat.format("{0} - Failed to dispatch {1} message from {2}: {3}",
+                                config.getId(), message.getType(), message.getSenderId(), e));
                     }
-                } catch (Exception e) {
-                    //e.printStackTrace();
                 }
             }).start();
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
+
+    /*
+     * Consensus instance of a consensus message, sender of any other message
+     */
+    private int routingKey(Message message) {
+        switch (message.getType()) {
+            case PRE_PREPARE, PREPARE, COMMIT, ROUND_CHANGE -> {
+                try {
+                    return ((AuthedMessage) message).getDataAs(ConsensusMessage.class).getConsensusInstance();
+                } catch (RuntimeException e) {
+                    // Malformed, rejected by its handler
+                    return message.getSenderId();
+                }
+            }
+            default -> {
+                return message.getSenderId();
+            }
+        }
+    }
+
+    private void handle(Message message) {
+        switch (message.getType()) {
+
+            case PRE_PREPARE ->
+                uponPrePrepare((AuthedMessage) message);
+            case PREPARE ->
+                uponPrepare((AuthedMessage) message);
+            case COMMIT ->
+                uponCommit((AuthedMessage) message);
+            case ROUND_CHANGE -> {
+                uponRoundChange((AuthedMessage) message);
+            }
+
+            case TRANSFER -> {
+                uponTransfer((AuthedMessage) message);
+            }
+
+            case CHECK_BALANCE -> {
+                uponCheckBalance((AuthedMessage) message);
+            }
+
+            case FETCH ->
+                uponFetch((AuthedMessage) message);
+            case FETCH_REPLY ->
+                uponFetchReply((AuthedMessage) message);
+            default ->
+                LOGGER.log(Level.INFO,
+                        MessageFormat.format("{0} - Received unknown message from {1}",
+                                config.getId(), message.getSenderId()));
+
+        }
+    }
 }
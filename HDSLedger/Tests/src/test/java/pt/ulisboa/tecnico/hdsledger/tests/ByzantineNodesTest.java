@@ -2,8 +2,10 @@ package pt.ulisboa.tecnico.hdsledger.tests;
 
 import pt.ulisboa.tecnico.hdsledger.client.ClientLibrary;
 import pt.ulisboa.tecnico.hdsledger.utilities.*;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.ClientMessage;
 import pt.ulisboa.tecnico.hdsledger.communication.messages.ConsensusMessage;
 import pt.ulisboa.tecnico.hdsledger.communication.messages.Message;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.ledger.TransferMessage;
 import pt.ulisboa.tecnico.hdsledger.service.Node;
 import pt.ulisboa.tecnico.hdsledger.service.services.ByzantineService.FunctionCall;
 import pt.ulisboa.tecnico.hdsledger.service.services.ByzantineService.Behaviour;
@@ -489,4 +491,67 @@ public class ByzantineNodesTest {
         assertTrue(Util.checkBalance(5, Account.INITIAL_BALANCE - 500 - Transaction.FEE, system.getNodes()));
         assertTrue(Util.checkBalance(7, Account.INITIAL_BALANCE + 500, system.getNodes()));
     }
-} 
+
+    @Test
+    @DisplayName("Node that missed the PRE-PREPARE fetches the client request")
+    public void test_node_fetches_request() throws Exception {
+        Map<Integer, List<Pair<FunctionCall, Behaviour>>> byzantineNodes = new HashMap<>();
+
+        List<Pair<FunctionCall, Behaviour>> behaviours = new ArrayList<>();
+        behaviours.add(new Pair<>(FunctionCall.START_CONSENSUS, Behaviour.PRE_PREPARE_TO_QUORUM));
+        byzantineNodes.put(ProcessConfigBuilder.getLeader(1), behaviours);
+
+        HDSSystem system = new HDSSystem(nodesConfigPath + "config33.json", "/tmp/test/keys/", byzantineNodes);
+
+        int sourceId = 5;
+        int destinationId = 6;
+        PublicKey sourcePublicKey = KeyGetter.getPublic(sourceId);
+        PublicKey destinationPublicKey = KeyGetter.getPublic(destinationId);
+
+        // Only the leader receives the request
+        ClientLibrary client = system.getClients().get(sourceId);
+        TransferMessage req = new TransferMessage(KeyGetter.keyId(sourcePublicKey), KeyGetter.keyId(destinationPublicKey), 500);
+        ClientMessage clientReq = new ClientMessage(sourceId, Message.Type.TRANSFER, 0);
+        clientReq.setMessage(req.toJson());
+        client.getLink().send(ProcessConfigBuilder.getLeader(1), clientReq);
+        assertTrue(client.listenTransferMessages());
+
+        List<Transaction> ledger = new ArrayList<>();
+        ledger.add(new Transaction(sourcePublicKey, destinationPublicKey, 500));
+
+        // The node left out decides too, once it fetched the request
+        Node excluded = system.getNodes().get(ProcessConfigBuilder.getSystemConfig().getNodes()[3].getId());
+        for (int i = 0; i < 50 && !Util.trimLedger(excluded.getLedger()).equals(ledger); i++)
+            Thread.sleep(100);
+        assertEquals(ledger, Util.trimLedger(excluded.getLedger()));
+        assertTrue(Util.checkLedger(ledger, system.getNodes()));
+    }
+
+    @Test
+    @DisplayName("Leader doesn't propose a block of requests")
+    public void test_leader_ignores_block() throws Exception {
+        Map<Integer, List<Pair<FunctionCall, Behaviour>>> byzantineNodes = new HashMap<>();
+
+        List<Pair<FunctionCall, Behaviour>> behaviours = new ArrayList<>();
+        behaviours.add(new Pair<>(FunctionCall.START_CONSENSUS, Behaviour.DO_NOTHING));
+        byzantineNodes.put(ProcessConfigBuilder.getLeader(1), behaviours);
+
+        HDSSystem system = new HDSSystem(nodesConfigPath + "config36.json", "/tmp/test/keys/", byzantineNodes);
+
+        int sourceId = 5;
+        int destinationId = 6;
+        PublicKey sourcePublicKey = KeyGetter.getPublic(sourceId);
+        PublicKey destinationPublicKey = KeyGetter.getPublic(destinationId);
+
+        // The request times out at the other nodes into a round change, the next leader proposes it in a block
+        boolean success = system.getClients().get(sourceId).transfer(sourcePublicKey, destinationPublicKey, 500);
+
+        List<Transaction> ledger = new ArrayList<>();
+        ledger.add(new Transaction(sourcePublicKey, destinationPublicKey, 500));
+
+        assertTrue(success);
+        assertTrue(Util.checkLedger(ledger, system.getNodes()));
+        assertTrue(Util.checkBalance(5, Account.INITIAL_BALANCE - 500 - Transaction.FEE, system.getNodes()));
+        assertTrue(Util.checkBalance(6, Account.INITIAL_BALANCE + 500, system.getNodes()));
+    }
+}
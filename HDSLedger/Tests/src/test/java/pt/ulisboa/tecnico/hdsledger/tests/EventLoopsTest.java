@@ -0,0 +1,60 @@
+package pt.ulisboa.tecnico.hdsledger.tests;
+
+import pt.ulisboa.tecnico.hdsledger.communication.PeerSendQueue;
+import pt.ulisboa.tecnico.hdsledger.service.models.EventLoops;
+import pt.ulisboa.tecnico.hdsledger.utilities.ThreadMode;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EventLoopsTest {
+
+    @Test
+    @DisplayName("Receiver keeps dispatching while a loop waits on a full send queue under the block policy")
+    public void test_full_mailbox_block_policy() throws Exception {
+        EventLoops loops = new EventLoops("test", 1, 2, ThreadMode.PLATFORM);
+        // One message in flight and one waiting, further sends wait for an ACK
+        PeerSendQueue queue = new PeerSendQueue(1, 1, PeerSendQueue.OverflowPolicy.BLOCK);
+        // Messages sent by the handlers, acknowledged by the receiver
+        List<CompletableFuture<Void>> inFlight = new ArrayList<>();
+        int messages = 10;
+        CountDownLatch handled = new CountDownLatch(messages);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            // Receiver: dispatches every message, past the mailbox warning size, while the loop
+            // waits on the send queue, then acknowledges what the handlers sent
+            for (int i = 0; i < messages; i++) {
+                loops.dispatch(0, () -> {
+                    queue.submit(() -> {
+                        CompletableFuture<Void> delivered = new CompletableFuture<>();
+                        synchronized (inFlight) {
+                            inFlight.add(delivered);
+                        }
+                        return delivered;
+                    });
+                    handled.countDown();
+                });
+            }
+            assertTrue(loops.getPending() > 2);
+
+            while (!handled.await(10, TimeUnit.MILLISECONDS)) {
+                // An ACK lets the queue transmit the next message, added to the list
+                List<CompletableFuture<Void>> acknowledged;
+                synchronized (inFlight) {
+                    acknowledged = new ArrayList<>(inFlight);
+                    inFlight.clear();
+                }
+                acknowledged.forEach((delivered) -> delivered.complete(null));
+            }
+        });
+    }
+}
@@ -5,6 +5,10 @@ import pt.ulisboa.tecnico.hdsledger.service.services.ByzantineService;
 import pt.ulisboa.tecnico.hdsledger.service.services.ByzantineService.FunctionCall;
 import pt.ulisboa.tecnico.hdsledger.service.services.ByzantineService.Behaviour;
 import pt.ulisboa.tecnico.hdsledger.client.ClientLibrary;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.ClientMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.ConsensusMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.simulation.SimulatedLink;
+import pt.ulisboa.tecnico.hdsledger.communication.simulation.SimulatedNetwork;
 import pt.ulisboa.tecnico.hdsledger.utilities.*;
 import pt.ulisboa.tecnico.hdsledger.keygenerator.KeyGenerator;
 
@@ -19,6 +23,13 @@ public class HDSSystem {
     private Map<Integer, ClientLibrary> clients = new ConcurrentHashMap();
 
     public HDSSystem(String configPath, String keyDirectory, Map<Integer, List<Pair<FunctionCall, Behaviour>>> byzantineNodes) throws Exception {
+        this(configPath, keyDirectory, byzantineNodes, null);
+    }
+
+    /*
+     * System whose processes communicate over the simulated network (UDP if null)
+     */
+    public HDSSystem(String configPath, String keyDirectory, Map<Integer, List<Pair<FunctionCall, Behaviour>>> byzantineNodes, SimulatedNetwork network) throws Exception {
         KeyGenerator.generateKeys(configPath, keyDirectory);
 
         this.systemConfig = ProcessConfigBuilder.getSystemConfig();
@@ -26,7 +37,10 @@ public class HDSSystem {
         for (ProcessConfig conf : this.systemConfig.getNodes()) {
             List<Pair<FunctionCall, Behaviour>> byzantineBehaviour = byzantineNodes.get(conf.getId());
             Node node;
-            if (byzantineBehaviour != null) 
+            if (network != null) {
+                SimulatedLink link = new SimulatedLink(network, conf, this.systemConfig.getNodes(), ConsensusMessage.class);
+                node = byzantineBehaviour != null ? new Node(conf.getId(), link, byzantineBehaviour) : new Node(conf.getId(), link);
+            } else if (byzantineBehaviour != null) 
                 node = new Node(conf.getId(), byzantineBehaviour);
             else
                 node = new Node(conf.getId());
@@ -35,7 +49,10 @@ public class HDSSystem {
         }
 
         for (ProcessConfig conf : this.systemConfig.getClients()) {
-            clients.put(conf.getId(), new ClientLibrary(conf.getId()));
+            if (network != null)
+                clients.put(conf.getId(), new ClientLibrary(conf.getId(), new SimulatedLink(network, conf, this.systemConfig.getNodes(), ClientMessage.class)));
+            else
+                clients.put(conf.getId(), new ClientLibrary(conf.getId()));
         }
     }
 
@@ -43,6 +60,10 @@ public class HDSSystem {
         this(configPath, keyDirectory, new HashMap<>());
     }
 
+    public HDSSystem(String configPath, String keyDirectory, SimulatedNetwork network) throws Exception {
+        this(configPath, keyDirectory, new HashMap<>(), network);
+    }
+
     public Map<Integer, Node> getNodes() {
         return this.nodes;
     }
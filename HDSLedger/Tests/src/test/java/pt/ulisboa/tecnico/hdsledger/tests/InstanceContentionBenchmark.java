@@ -0,0 +1,133 @@
+package pt.ulisboa.tecnico.hdsledger.tests;
+
+import pt.ulisboa.tecnico.hdsledger.communication.Link;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.*;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.consensus.PrepareMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.consensus.builder.ConsensusMessageBuilder;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.ledger.TransferMessage;
+import pt.ulisboa.tecnico.hdsledger.keygenerator.KeyGenerator;
+import pt.ulisboa.tecnico.hdsledger.service.services.NodeService;
+import pt.ulisboa.tecnico.hdsledger.utilities.*;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * PREPAREs of many concurrent consensus instances handled by one node, each on its own thread as
+ * the service listener does, under the lock of their instance or under a lock of the whole
+ * service (the previous synchronized handlers, signature checks included)
+ *
+ * Every run uses messages never verified before, so the verification cache doesn't hide the
+ * signature checks. The speedup is bounded by the cores available.
+ *
+ * Run from the Tests directory with:
+ *  mvn test-compile exec:java -Dexec.classpathScope=test \
+ *      -Dexec.mainClass=pt.ulisboa.tecnico.hdsledger.tests.InstanceContentionBenchmark
+ */
+public class InstanceContentionBenchmark {
+
+    private static final int INSTANCES = 256;
+    private static final int THREADS = 16;
+    // Instances handled by earlier runs
+    private static final AtomicInteger HANDLED = new AtomicInteger(0);
+
+    // Sends nothing, only the handling of the messages is measured
+    private static class NullLink implements Link {
+        public void broadcast(Message data) {
+        }
+
+        public void send(int nodeId, Message data) {
+        }
+
+        public Message receive() {
+            return null;
+        }
+    }
+
+    // Handlers synchronized on the whole service
+    private static class ServiceWideLock extends NodeService {
+        private ServiceWideLock(Link link, ProcessConfig config, SystemConfig systemConfig) {
+            super(link, config, systemConfig);
+        }
+
+        @Override
+        public synchronized void uponPrepare(AuthedMessage authed) {
+            super.uponPrepare(authed);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        KeyGenerator.generateKeys("src/test/resources/config3.json", "/tmp/test/keys");
+        SystemConfig systemConfig = ProcessConfigBuilder.getSystemConfig();
+        ProcessConfig self = ProcessConfigBuilder.fromId(1);
+
+        // Warm up both paths
+        run(new ServiceWideLock(new NullLink(), self, systemConfig), INSTANCES / 8);
+        run(new NodeService(new NullLink(), self, systemConfig), INSTANCES / 8);
+
+        System.out.println(MessageFormat.format("{0} cores, {1} instances, {2} PREPAREs each, {3} threads",
+                Runtime.getRuntime().availableProcessors(), INSTANCES, systemConfig.getNodes().length, THREADS));
+        report("service-wide lock", run(new ServiceWideLock(new NullLink(), self, systemConfig), INSTANCES));
+        report("instance locks", run(new NodeService(new NullLink(), self, systemConfig), INSTANCES));
+        // Round change timers of the instances still pending
+        System.exit(0);
+    }
+
+    private static void report(String name, long nanos) {
+        int messages = INSTANCES * ProcessConfigBuilder.getSystemConfig().getNodes().length;
+        System.out.println(MessageFormat.format("{0}: {1} ms, {2} PREPAREs/s",
+                name, nanos / 1_000_000, (long) (messages / (nanos / 1e9))));
+    }
+
+    /*
+     * @return Nanoseconds to handle every PREPARE of the instances
+     */
+    private static long run(NodeService service, int instances) throws Exception {
+        ConcurrentLinkedQueue<AuthedMessage> queue = new ConcurrentLinkedQueue<>(prepares(instances));
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            threads.add(new Thread(() -> {
+                AuthedMessage message;
+                while ((message = queue.poll()) != null)
+                    service.uponPrepare(message);
+            }));
+        }
+
+        long start = System.nanoTime();
+        threads.forEach(Thread::start);
+        for (Thread thread : threads)
+            thread.join();
+        return System.nanoTime() - start;
+    }
+
+    // PREPAREs of every node for each instance, interleaved across instances
+    private static List<AuthedMessage> prepares(int instances) throws Exception {
+        ClientMessage request = new ClientMessage(5, Message.Type.TRANSFER, 0);
+        request.setMessage(new TransferMessage(KeyGetter.getKeyId(5), KeyGetter.getKeyId(6), 10).toJson());
+        String requestDigest = ConsensusMessage.requestDigest(new AuthedMessage(request));
+        String value = new Transaction(KeyGetter.getPublic(5), KeyGetter.getPublic(6), 10).toJson();
+        int first = HANDLED.getAndAdd(instances);
+
+        List<AuthedMessage> prepares = new ArrayList<>();
+        for (int instance = first + 1; instance <= first + instances; instance++) {
+            for (ProcessConfig node : ProcessConfigBuilder.getSystemConfig().getNodes()) {
+                ConsensusMessage prepare = new ConsensusMessageBuilder(node.getId(), Message.Type.PREPARE, requestDigest)
+                        .setConsensusInstance(instance)
+                        .setRound(1)
+                        .setClientId(5)
+                        .setMessage(new PrepareMessage(value).toJson())
+                        .build();
+                prepares.add(new AuthedMessage(prepare));
+            }
+        }
+        Collections.shuffle(prepares, new Random(instances));
+        return prepares;
+    }
+
+}
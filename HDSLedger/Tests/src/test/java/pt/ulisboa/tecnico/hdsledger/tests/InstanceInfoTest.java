@@ -0,0 +1,50 @@
+package pt.ulisboa.tecnico.hdsledger.tests;
+
+import pt.ulisboa.tecnico.hdsledger.service.models.InstanceInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InstanceInfoTest {
+
+    @Test
+    @DisplayName("Instances and their timers share one thread")
+    public void test_timers() throws Exception {
+        // Starts the shared timer thread
+        new InstanceInfo(null, 0, null).setTimer(() -> {}, 1000);
+        int threads = Thread.activeCount();
+
+        List<InstanceInfo> instances = new ArrayList<>();
+        CountDownLatch fired = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            InstanceInfo instance = new InstanceInfo(null, 0, null);
+            instance.setTimer(fired::countDown, 10);
+            instances.add(instance);
+        }
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertEquals(threads, Thread.activeCount());
+
+        // A new timer replaces the previous one, a stopped timer doesn't fire again
+        AtomicInteger replaced = new AtomicInteger(0);
+        AtomicInteger current = new AtomicInteger(0);
+        InstanceInfo instance = instances.get(0);
+        instance.setTimer(replaced::incrementAndGet, 10);
+        instance.setTimer(current::incrementAndGet, 10);
+        Thread.sleep(100);
+        instances.forEach(InstanceInfo::stopTimer);
+        int fires = current.get();
+        Thread.sleep(100);
+
+        assertEquals(0, replaced.get());
+        assertTrue(fires > 0);
+        assertEquals(fires, current.get());
+    }
+}
@@ -0,0 +1,164 @@
+package pt.ulisboa.tecnico.hdsledger.tests;
+
+import pt.ulisboa.tecnico.hdsledger.communication.messages.AuthedMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.ConsensusMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.Message;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.QuorumCertificate;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.consensus.CommitMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.consensus.PrepareMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.consensus.RoundChangeMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.consensus.builder.ConsensusMessageBuilder;
+import pt.ulisboa.tecnico.hdsledger.keygenerator.KeyGenerator;
+import pt.ulisboa.tecnico.hdsledger.service.models.MessageBucket;
+import pt.ulisboa.tecnico.hdsledger.utilities.*;
+
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class MessageBucketTest {
+    private static String nodesConfigPath = "src/test/resources/";
+
+    @BeforeAll
+    public void setup() throws Exception {
+        KeyGenerator.generateKeys(nodesConfigPath + "config3.json", "/tmp/test/keys");
+    }
+
+    @Test
+    @DisplayName("Quorum of PREPAREs tallied as they're added")
+    public void test_prepare_tallies() throws Exception {
+        MessageBucket bucket = new MessageBucket();
+        assertFalse(bucket.hasValidPrepareQuorum(1, 1).isPresent());
+
+        bucket.addMessage(prepare(1, 1, "a"));
+        bucket.addMessage(prepare(2, 1, "a"));
+        bucket.addMessage(prepare(3, 1, "b"));
+        assertFalse(bucket.hasValidPrepareQuorum(1, 1).isPresent());
+
+        // The sender of b changes its vote to a
+        bucket.addMessage(prepare(3, 1, "a"));
+        assertEquals(Optional.of("a"), bucket.hasValidPrepareQuorum(1, 1).map(Pair::getFirst));
+        Pair<String, List<MessageBucket.Entry>> quorum = bucket.getPrepareQuorum(1, 1).get();
+        assertEquals("a", quorum.getFirst());
+        assertEquals(3, quorum.getSecond().size());
+
+        // Other rounds are tallied apart
+        assertFalse(bucket.hasValidPrepareQuorum(1, 2).isPresent());
+
+        // Back below the quorum, then above it with another sender
+        bucket.addMessage(prepare(1, 1, "b"));
+        assertFalse(bucket.getPrepareQuorum(1, 1).isPresent());
+        bucket.addMessage(prepare(4, 1, "a"));
+        assertEquals(Optional.of("a"), bucket.hasValidPrepareQuorum(1, 1).map(Pair::getFirst));
+    }
+
+    @Test
+    @DisplayName("Quorum of COMMITs tallied as they're added")
+    public void test_commit_tallies() throws Exception {
+        MessageBucket bucket = new MessageBucket();
+        for (int sender = 1; sender <= 2; sender++)
+            bucket.addMessage(commit(sender, 1, "a"));
+        assertFalse(bucket.hasValidCommitQuorum(1, 1).isPresent());
+
+        // Repeated messages of a sender count once
+        bucket.addMessage(commit(2, 1, "a"));
+        assertFalse(bucket.hasValidCommitQuorum(1, 1).isPresent());
+
+        bucket.addMessage(commit(3, 1, "a"));
+        assertEquals(Optional.of("a"), bucket.hasValidCommitQuorum(1, 1).map(Pair::getFirst));
+    }
+
+    @Test
+    @DisplayName("Quorum for a value and the request it came from")
+    public void test_request_digest_tallies() throws Exception {
+        MessageBucket bucket = new MessageBucket();
+        bucket.addMessage(commit(1, 1, "a", "request"));
+        bucket.addMessage(commit(2, 1, "a", "request"));
+        // Same value, from another request
+        bucket.addMessage(commit(3, 1, "a", "forged"));
+        assertFalse(bucket.hasValidCommitQuorum(1, 1).isPresent());
+
+        bucket.addMessage(commit(4, 1, "a", "request"));
+        Pair<String, String> quorum = bucket.hasValidCommitQuorum(1, 1).get();
+        assertEquals("a", quorum.getFirst());
+        assertEquals("request", quorum.getSecond());
+
+        bucket.addMessage(prepare(1, 1, "a"));
+        bucket.addMessage(prepare(2, 1, "a"));
+        bucket.addMessage(prepare(3, 1, "a"));
+        assertEquals("digest", bucket.hasValidPrepareQuorum(1, 1).get().getSecond());
+        assertEquals("digest", bucket.getPrepareQuorum(1, 1).get().getSecond().get(0).getRequestDigest());
+    }
+
+    @Test
+    @DisplayName("ROUND_CHANGEs decoded once into entries")
+    public void test_round_change_entries() throws Exception {
+        MessageBucket bucket = new MessageBucket();
+        bucket.addMessage(roundChange(1, 2, -1, null));
+        bucket.addMessage(roundChange(2, 2, 1, "a"));
+        assertFalse(bucket.hasValidRoundChangeQuorum(1, 2).isPresent());
+        // f + 1 nodes moved past round 1
+        assertEquals(Optional.of(2), bucket.hasValidRoundChangeFp1(1, 1));
+
+        bucket.addMessage(roundChange(3, 2, 1, "a"));
+        List<MessageBucket.Entry> quorum = bucket.hasValidRoundChangeQuorum(1, 2).get();
+        assertEquals(3, quorum.size());
+        MessageBucket.Entry prepared = quorum.stream().filter((entry) -> entry.getSender() == 2).findFirst().get();
+        assertEquals(2, prepared.getRound());
+        assertEquals(1, prepared.getPreparedRound());
+        assertEquals("a", prepared.getValue());
+        assertEquals(QuorumCertificate.digest("a"), prepared.getValueDigest());
+
+        // Two nodes prepared a in round 1, one prepared nothing
+        assertFalse(bucket.hasValidRoundChangeQuorum(1, 2, 1, "a").isPresent());
+        bucket.addMessage(roundChange(4, 2, 1, "a"));
+        assertEquals(3, bucket.hasValidRoundChangeQuorum(1, 2, 1, "a").get().size());
+
+        // Same votes as the certificate of the messages themselves
+        List<AuthedMessage> messages = quorum.stream().map(MessageBucket.Entry::getAuthed).toList();
+        QuorumCertificate certificate = MessageBucket.roundChangeCertificate(1, 2, quorum);
+        assertEquals(QuorumCertificate.ofRoundChanges(1, 2, messages).getVotes().size(), certificate.getVotes().size());
+        // No prepare certificate proves round 1
+        assertFalse(certificate.isValid(3));
+
+        for (int sender = 1; sender <= 3; sender++)
+            bucket.addMessage(roundChange(sender, 3, -1, null));
+        assertTrue(MessageBucket.roundChangeCertificate(1, 3, bucket.hasValidRoundChangeQuorum(1, 3).get()).isValid(3));
+    }
+
+    private static AuthedMessage roundChange(int sender, int round, int preparedRound, String value) throws Exception {
+        return consensus(sender, Message.Type.ROUND_CHANGE, round, new RoundChangeMessage(preparedRound, value).toJson());
+    }
+
+    private static AuthedMessage prepare(int sender, int round, String value) throws Exception {
+        return consensus(sender, Message.Type.PREPARE, round, new PrepareMessage(value).toJson());
+    }
+
+    private static AuthedMessage commit(int sender, int round, String value) throws Exception {
+        return commit(sender, round, value, "digest");
+    }
+
+    private static AuthedMessage commit(int sender, int round, String value, String requestDigest) throws Exception {
+        return consensus(sender, Message.Type.COMMIT, round, new CommitMessage(value).toJson(), requestDigest);
+    }
+
+    private static AuthedMessage consensus(int sender, Message.Type type, int round, String message) throws Exception {
+        return consensus(sender, type, round, message, "digest");
+    }
+
+    private static AuthedMessage consensus(int sender, Message.Type type, int round, String message, String requestDigest) throws Exception {
+        ConsensusMessage consensus = new ConsensusMessageBuilder(sender, type, requestDigest)
+                .setConsensusInstance(1)
+                .setRound(round)
+                .setMessage(message)
+                .build();
+        return new AuthedMessage(consensus);
+    }
+}
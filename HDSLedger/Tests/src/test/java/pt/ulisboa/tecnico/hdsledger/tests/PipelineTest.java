@@ -0,0 +1,41 @@
+package pt.ulisboa.tecnico.hdsledger.tests;
+
+import pt.ulisboa.tecnico.hdsledger.service.models.Pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PipelineTest {
+
+    @Test
+    @DisplayName("A failed application counts as applied and doesn't stall later instances")
+    public void test_failed_application() {
+        Pipeline pipeline = new Pipeline(2);
+        List<Integer> applied = new ArrayList<>();
+
+        pipeline.decide(3, () -> applied.add(3));
+        pipeline.decide(2, () -> {
+            throw new IllegalStateException("ledger");
+        });
+        assertEquals(0, pipeline.getLastApplied());
+        assertEquals(2, pipeline.getBuffered());
+
+        // Filling the gap applies every decided instance in order
+        pipeline.decide(1, () -> applied.add(1));
+        assertEquals(List.of(1, 3), applied);
+        assertEquals(3, pipeline.getLastApplied());
+        assertEquals(1, pipeline.getFailed());
+
+        // Proposals past the window ran once the failed instance counted as applied
+        List<Integer> proposed = new ArrayList<>();
+        pipeline.propose(6, () -> proposed.add(6));
+        assertEquals(List.of(), proposed);
+        pipeline.decide(4, () -> {});
+        assertEquals(List.of(6), proposed);
+    }
+}
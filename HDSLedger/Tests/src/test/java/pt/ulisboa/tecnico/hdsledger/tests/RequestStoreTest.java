@@ -0,0 +1,90 @@
+package pt.ulisboa.tecnico.hdsledger.tests;
+
+import pt.ulisboa.tecnico.hdsledger.communication.messages.AuthedMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.ClientMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.ConsensusMessage;
+import pt.ulisboa.tecnico.hdsledger.communication.messages.Message;
+import pt.ulisboa.tecnico.hdsledger.keygenerator.KeyGenerator;
+import pt.ulisboa.tecnico.hdsledger.service.models.RequestStore;
+import pt.ulisboa.tecnico.hdsledger.utilities.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class RequestStoreTest {
+    private static String nodesConfigPath = "src/test/resources/";
+
+    @BeforeAll
+    public void setup() throws Exception {
+        KeyGenerator.generateKeys(nodesConfigPath + "config3.json", "/tmp/test/keys");
+    }
+
+    @Test
+    @DisplayName("Requests evicted once decided, only the latest kept")
+    public void test_eviction() throws Exception {
+        RequestStore store = new RequestStore(Runnable::run, 1, 8);
+        AuthedMessage first = request(1);
+        AuthedMessage second = request(2);
+        String firstDigest = store.add(first);
+        String secondDigest = store.add(second);
+        assertEquals(2, store.size());
+
+        store.evict(firstDigest);
+        assertEquals(1, store.size());
+        // Still answers FETCHes
+        assertSame(first, store.get(firstDigest));
+        // Not kept again by a late PRE_PREPARE
+        store.add(first);
+        assertEquals(1, store.size());
+
+        // Only the latest decided request is kept
+        store.evict(secondDigest);
+        assertEquals(0, store.size());
+        assertNull(store.get(firstDigest));
+        assertSame(second, store.get(secondDigest));
+    }
+
+    @Test
+    @DisplayName("Actions wait for valid digests, a bounded number of them")
+    public void test_waiting() throws Exception {
+        RequestStore store = new RequestStore(Runnable::run, 8, 2);
+        assertThrows(HDSSException.class, () -> store.getOrWait(null, () -> {}));
+        assertThrows(HDSSException.class, () -> store.getOrWait("digest", () -> {}));
+
+        AtomicInteger ran = new AtomicInteger(0);
+        AuthedMessage[] requests = { request(1), request(2), request(3) };
+        String[] digests = new String[requests.length];
+        for (int i = 0; i < requests.length; i++) {
+            digests[i] = ConsensusMessage.requestDigest(requests[i]);
+            assertNull(store.getOrWait(digests[i], ran::incrementAndGet));
+        }
+        // The actions of the first digest were dropped
+        assertEquals(2, store.getWaiting());
+        for (AuthedMessage request : requests)
+            store.add(request);
+        assertEquals(2, ran.get());
+        assertEquals(0, store.getWaiting());
+
+        // Known requests are returned at once
+        assertSame(requests[0], store.getOrWait(digests[0], ran::incrementAndGet));
+        assertEquals(2, ran.get());
+
+        // Actions still waiting for a request decided are dropped
+        AuthedMessage decided = request(4);
+        String digest = ConsensusMessage.requestDigest(decided);
+        store.getOrWait(digest, ran::incrementAndGet);
+        store.evict(digest);
+        assertEquals(0, store.getWaiting());
+    }
+
+    private static AuthedMessage request(int requestId) throws Exception {
+        return new AuthedMessage(new ClientMessage(1, Message.Type.TRANSFER, requestId));
+    }
+}
@@ -0,0 +1,69 @@
+package pt.ulisboa.tecnico.hdsledger.tests;
+
+import pt.ulisboa.tecnico.hdsledger.communication.simulation.LinkConditions;
+import pt.ulisboa.tecnico.hdsledger.communication.simulation.LinkConditions.LatencyDistribution;
+import pt.ulisboa.tecnico.hdsledger.communication.simulation.SimulatedNetwork;
+import pt.ulisboa.tecnico.hdsledger.service.models.Account;
+import pt.ulisboa.tecnico.hdsledger.utilities.*;
+
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+ * Consensus runs over the in memory simulated network, no sockets involved
+ */
+public class SimulationTest {
+    private static String nodesConfigPath = "src/test/resources/";
+
+    @Test
+    @DisplayName("Consensus over a simulated network")
+    public void test_simulated_network() throws Exception {
+        SimulatedNetwork network = new SimulatedNetwork(1);
+        network.setDefaultConditions(new LinkConditions(LatencyDistribution.normal(20, 5), 0, 0, 0));
+        HDSSystem system = new HDSSystem(nodesConfigPath + "config3.json", "/tmp/test/keys", network);
+
+        PublicKey sourcePublicKey = KeyGetter.getPublic(5);
+        PublicKey destinationPublicKey = KeyGetter.getPublic(6);
+
+        assertTrue(system.getClients().get(5).transfer(sourcePublicKey, destinationPublicKey, 500));
+
+        List<Transaction> ledger = new ArrayList<>();
+        ledger.add(new Transaction(sourcePublicKey, destinationPublicKey, 500));
+
+        assertTrue(Util.checkLedger(ledger, system.getNodes()));
+        assertTrue(Util.checkBalance(5, Account.INITIAL_BALANCE - 500 - Transaction.FEE, system.getNodes()));
+        // Every message crossed at least two links of about 20 virtual ms
+        assertTrue(network.getTime() >= 40);
+    }
+
+    @Test
+    @DisplayName("Consensus over lossy, duplicating and reordering links")
+    public void test_unreliable_links() throws Exception {
+        for (long seed = 1; seed <= 3; seed++) {
+            SimulatedNetwork network = new SimulatedNetwork(seed);
+            network.setDefaultConditions(new LinkConditions(LatencyDistribution.uniform(1, 50), 0.2, 0.1, 0.2));
+            HDSSystem system = new HDSSystem(nodesConfigPath + "config3.json", "/tmp/test/keys", network);
+
+            PublicKey sourcePublicKey = KeyGetter.getPublic(5);
+            PublicKey destinationPublicKey = KeyGetter.getPublic(6);
+
+            assertTrue(system.getClients().get(5).transfer(sourcePublicKey, destinationPublicKey, 500));
+            assertTrue(system.getClients().get(6).transfer(destinationPublicKey, sourcePublicKey, 200));
+
+            List<Transaction> ledger = new ArrayList<>();
+            ledger.add(new Transaction(sourcePublicKey, destinationPublicKey, 500));
+            ledger.add(new Transaction(destinationPublicKey, sourcePublicKey, 200));
+
+            assertTrue(Util.checkLedger(ledger, system.getNodes()), "seed " + seed);
+            assertTrue(Util.checkBalance(6, Account.INITIAL_BALANCE + 500 - 200 - Transaction.FEE, system.getNodes()), "seed " + seed);
+            assertTrue(network.getLostCount() > 0);
+            assertTrue(network.getDuplicatedCount() > 0);
+        }
+    }
+}
@@ -128,6 +128,29 @@ public class SystemTest {
         assertTrue(Util.checkBalance(6, Account.INITIAL_BALANCE + 500 + 240 + 300 - 400 - Transaction.FEE, system.getNodes()));
     }
 
+    @Test
+    @DisplayName("Replicas authenticated with MACs")
+    public void test_mac_replica_links() throws Exception {
+        HDSSystem system = new HDSSystem(nodesConfigPath + "config32.json", "/tmp/test/keys");
+
+        int sourceId = 5;
+        int destinationId = 6;
+
+        PublicKey sourcePublicKey = KeyGetter.getPublic(sourceId);
+        PublicKey destinationPublicKey = KeyGetter.getPublic(destinationId);
+
+        system.getClients().get(sourceId).transfer(sourcePublicKey, destinationPublicKey , 500);
+        system.getClients().get(destinationId).transfer(destinationPublicKey, sourcePublicKey , 400);
+
+        List<Transaction> ledger = new ArrayList<>();
+        ledger.add(new Transaction(sourcePublicKey, destinationPublicKey, 500));
+        ledger.add(new Transaction(destinationPublicKey, sourcePublicKey, 400));
+
+        assertTrue(Util.checkLedger(ledger, system.getNodes()));
+        assertTrue(Util.checkBalance(5, Account.INITIAL_BALANCE - 500 + 400 - Transaction.FEE, system.getNodes()));
+        assertTrue(Util.checkBalance(6, Account.INITIAL_BALANCE + 500 - 400 - Transaction.FEE, system.getNodes()));
+    }
+
     @Test
     @DisplayName("Client Tries to Transfer More Than Available Balance")
     public void test_transfer_with_insufficient_funds() throws Exception {
@@ -254,4 +277,101 @@ public class SystemTest {
         assertTrue(Util.checkBalance(6, Account.INITIAL_BALANCE + 100 - 150 - Transaction.FEE, system.getNodes()));
         assertTrue(Util.checkBalance(7, Account.INITIAL_BALANCE + 150 - 500 - Transaction.FEE, system.getNodes()));
     }
+
+    @Test
+    @DisplayName("Concurrent Clients Through a Window of One Instance")
+    public void test_pipeline_window() throws Exception {
+        HDSSystem system = new HDSSystem(nodesConfigPath + "config34.json", "/tmp/test/keys");
+
+        // Instances beyond the first wait for the one before to be applied
+        Pair<List<Thread>, List<Transaction>> lists = new Pair<>(new ArrayList<Thread>(), new ArrayList<Transaction>());
+        addRequest(lists, system, 5, 6, 100);
+        addRequest(lists, system, 6, 7, 150);
+        addRequest(lists, system, 7, 8, 200);
+        addRequest(lists, system, 8, 5, 500);
+
+        List<Transaction> ledger = lists.getSecond();
+
+        for (Thread request : lists.getFirst()) {
+            request.join();
+        }
+
+        while (!Util.waitLedgers(system.getNodes(), 4));
+
+        boolean isAny = false;
+        for (List<Transaction> permutation : Collections2.permutations(ledger)) {
+            isAny = isAny || Util.checkLedger(permutation, system.getNodes());
+        }
+
+        assertTrue(isAny);
+        assertTrue(Util.checkBalance(5, Account.INITIAL_BALANCE - 100 + 500 - Transaction.FEE, system.getNodes()));
+        assertTrue(Util.checkBalance(6, Account.INITIAL_BALANCE + 100 - 150 - Transaction.FEE, system.getNodes()));
+        assertTrue(Util.checkBalance(7, Account.INITIAL_BALANCE + 150 - 200 - Transaction.FEE, system.getNodes()));
+        assertTrue(Util.checkBalance(8, Account.INITIAL_BALANCE + 200 - 500 - Transaction.FEE, system.getNodes()));
+    }
+
+    @Test
+    @DisplayName("Concurrent Clients Through One Backed Up Event Loop Sending With the Block Policy")
+    public void test_event_loop_backpressure() throws Exception {
+        HDSSystem system = new HDSSystem(nodesConfigPath + "config37.json", "/tmp/test/keys");
+
+        // Every message of a node is handled by one loop, past its mailbox warning size. Its sends
+        // wait for the ACKs of a one message window, processed by the receiver the loop never blocks
+        Pair<List<Thread>, List<Transaction>> lists = new Pair<>(new ArrayList<Thread>(), new ArrayList<Transaction>());
+        addRequest(lists, system, 5, 6, 100);
+        addRequest(lists, system, 6, 7, 150);
+        addRequest(lists, system, 7, 8, 200);
+        addRequest(lists, system, 8, 5, 500);
+
+        List<Transaction> ledger = lists.getSecond();
+
+        for (Thread request : lists.getFirst()) {
+            request.join();
+        }
+
+        while (!Util.waitLedgers(system.getNodes(), 4));
+
+        boolean isAny = false;
+        for (List<Transaction> permutation : Collections2.permutations(ledger)) {
+            isAny = isAny || Util.checkLedger(permutation, system.getNodes());
+        }
+
+        assertTrue(isAny);
+        assertTrue(Util.checkBalance(5, Account.INITIAL_BALANCE - 100 + 500 - Transaction.FEE, system.getNodes()));
+        assertTrue(Util.checkBalance(6, Account.INITIAL_BALANCE + 100 - 150 - Transaction.FEE, system.getNodes()));
+        assertTrue(Util.checkBalance(7, Account.INITIAL_BALANCE + 150 - 200 - Transaction.FEE, system.getNodes()));
+        assertTrue(Util.checkBalance(8, Account.INITIAL_BALANCE + 200 - 500 - Transaction.FEE, system.getNodes()));
+    }
+
+    @Test
+    @DisplayName("Concurrent Clients Decided in Blocks")
+    public void test_blocks() throws Exception {
+        HDSSystem system = new HDSSystem(nodesConfigPath + "config35.json", "/tmp/test/keys");
+
+        // Requests arriving within the block delay share a consensus instance
+        Pair<List<Thread>, List<Transaction>> lists = new Pair<>(new ArrayList<Thread>(), new ArrayList<Transaction>());
+        addRequest(lists, system, 5, 6, 100);
+        addRequest(lists, system, 6, 7, 150);
+        addRequest(lists, system, 7, 8, 200);
+        addRequest(lists, system, 8, 5, 500);
+
+        List<Transaction> ledger = lists.getSecond();
+
+        for (Thread request : lists.getFirst()) {
+            request.join();
+        }
+
+        while (!Util.waitLedgers(system.getNodes(), 4));
+
+        boolean isAny = false;
+        for (List<Transaction> permutation : Collections2.permutations(ledger)) {
+            isAny = isAny || Util.checkLedger(permutation, system.getNodes());
+        }
+
+        assertTrue(isAny);
+        assertTrue(Util.checkBalance(5, Account.INITIAL_BALANCE - 100 + 500 - Transaction.FEE, system.getNodes()));
+        assertTrue(Util.checkBalance(6, Account.INITIAL_BALANCE + 100 - 150 - Transaction.FEE, system.getNodes()));
+        assertTrue(Util.checkBalance(7, Account.INITIAL_BALANCE + 150 - 200 - Transaction.FEE, system.getNodes()));
+        assertTrue(Util.checkBalance(8, Account.INITIAL_BALANCE + 200 - 500 - Transaction.FEE, system.getNodes()));
+    }
 } 
@@ -0,0 +1,30 @@
+package pt.ulisboa.tecnico.hdsledger.utilities;
+
+import java.util.List;
+import com.google.gson.Gson;
+
+/*
+ * Value decided by a consensus instance over a block of client requests: the transactions of the
+ * requests, in the order they are applied
+ */
+public class Block {
+    private static final Gson GSON = new Gson();
+
+    private List<Transaction> transactions;
+
+    public Block(List<Transaction> transactions) {
+        this.transactions = transactions;
+    }
+
+    public List<Transaction> getTransactions() {
+        return transactions;
+    }
+
+    public String toJson() {
+        return GSON.toJson(this);
+    }
+
+    public static Block fromJson(String json) {
+        return GSON.fromJson(json, Block.class);
+    }
+}
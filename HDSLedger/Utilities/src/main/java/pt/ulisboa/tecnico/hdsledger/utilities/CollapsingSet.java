@@ -43,6 +43,28 @@ public class CollapsingSet implements Set<Integer> {
         return i <= this.floor || this.set.contains(i);
     }
 
+    /*
+     * Every integer up to (and including) the floor is in the set
+     */
+    public int getFloor() {
+        synchronized (this.set) {
+            return this.floor;
+        }
+    }
+
+    /*
+     * Adds every integer up to (and including) newFloor
+     */
+    public void addUpTo(int newFloor) {
+        synchronized (this.set) {
+            if (newFloor <= this.floor) return;
+            this.floor = newFloor;
+            this.set.removeIf((i) -> i <= newFloor);
+            while (this.set.remove(this.floor + 1))
+                this.floor++;
+        }
+    }
+
     private Set<Integer> getFullSet() {
         // inefficient
         synchronized (this.set) {
@@ -10,7 +10,19 @@ public enum ErrorMessage {
     InvalidMessageWrongKey("Sent message has incorrect key"),
     InvalidClientRequest("Client sent an invalid request"),    
     AmountNotValid("Amount not valid"),
-    InvalidDestination("Cannot transfer to your own account");
+    InvalidDestination("Cannot transfer to your own account"),
+    UnknownCodec("The configured wire codec does not exist"),
+    UnknownOverflowPolicy("The configured send queue overflow policy does not exist"),
+    SendQueueFull("The send queue of the destination is full"),
+    SendDropped("The message was dropped from the full send queue of the destination"),
+    KeysNotFound("The keys of the process can't be read from the key directory"),
+    UnknownKey("No process of the system owns the key ID"),
+    UnknownSignatureScheme("The signature scheme is not supported"),
+    UnknownThreadMode("The thread mode is not supported"),
+    InvalidMessageWrongMac("Sent message has incorrect MAC"),
+    InvalidVote("Sent consensus message has an incorrect vote"),
+    InvalidRequestDigest("Sent consensus message carries a client request that doesn't match its digest"),
+    InvalidBlock("Sent block of client requests is empty or doesn't match the proposed value");
 
     private final String message;
 
@@ -8,6 +8,10 @@ public class HDSSException extends RuntimeException {
         errorMessage = message;
     }
 
+    public ErrorMessage getErrorMessage() {
+        return errorMessage;
+    }
+
     @Override
     public String getMessage() {
         return errorMessage.getMessage();
@@ -7,6 +7,7 @@ import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.InvalidKeySpecException;
 import java.util.Base64;
 import java.util.Date;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.Arrays;
 
@@ -18,10 +19,53 @@ import java.io.InputStreamReader;
 import java.io.FileNotFoundException;
 import java.nio.charset.StandardCharsets;
 
+/*
+ * Keystore of the processes in the system configuration
+ *
+ * Keys are read from the key directory once and kept in memory, indexed by key folder, process
+ * ID, Base64 encoded public key and key ID. By default each process is read on first use, load()
+ * reads them all at once. reload() drops the keystore, needed whenever the key files change.
+ *
+ * A key ID is the SHA-256 of the encoded public key (Base64, 32 bytes), carried by messages and
+ * transactions instead of the key. Wherever a key is expected its full encoding is still accepted.
+ */
 public class KeyGetter {
     public static String DEFAULT_DIR = "/tmp/keys/";
+    // Reads of a key folder before giving up, the keys may still be being written
+    private static final int MAX_READ_ATTEMPTS = 50;
+    private static final int READ_RETRY_DELAY = 100;
+    // Length of a key ID (SHA-256)
+    private static final int KEY_ID_LENGTH = 32;
     private static KeyGetter instance = new KeyGetter();
-    private String keyDirectory;
+    private volatile String keyDirectory;
+    // Key folder -> Keys
+    private final Map<String, Keys> byFolder = new ConcurrentHashMap<>();
+    // Process ID -> Keys
+    private final Map<Integer, Keys> byId = new ConcurrentHashMap<>();
+    // Base64 encoded public key -> Keys
+    private final Map<String, Keys> byEncoded = new ConcurrentHashMap<>();
+    // Key ID -> Keys
+    private final Map<String, Keys> byKeyId = new ConcurrentHashMap<>();
+    // Base64 encoded public key or key ID -> Process ID
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    // Process ID -> Key agreement (X25519) pair, read when session keys are derived
+    private final Map<Integer, KeyPair> agreementPairs = new ConcurrentHashMap<>();
+    // Every process of the configuration is in memory
+    private volatile boolean loaded = false;
+    // Keystore kept loaded on reload
+    private volatile boolean eager = false;
+
+    private static class Keys {
+        private final KeyPair pair;
+        private final String encodedPublic;
+        private final String keyId;
+
+        private Keys(KeyPair pair) {
+            this.pair = pair;
+            this.encodedPublic = Base64.getEncoder().encodeToString(pair.getPublic().getEncoded());
+            this.keyId = keyId(pair.getPublic());
+        }
+    }
 
     private KeyGetter() {
         String key_dir_var = System.getenv("KEY_DIR");
@@ -34,6 +78,7 @@ public class KeyGetter {
 
     public static void setKeyDirectory(String dir) {
         instance.keyDirectory = dir;
+        clear();
     }
 
     public static String getKeyDirectory() {
@@ -41,32 +86,45 @@ public class KeyGetter {
     }
 
     /*
-     * This method is simplified as in an ideal case getting a the private key for another process should be impossible. For simplification purposes both keys are exposed in the system but private keys are only used by their owners
+     * Reads the keys of every process in the system configuration
+     * From now on reload() reads them again right away
      */
-    public static KeyPair getPair(ProcessConfig conf)  { 
-        // Read public and private keys
-        String folder = "/" + conf.getHostname() + ":" + conf.getPort() + "/";
-        while (true) {
-            try {
-                BufferedReader publicKeyStream  = new BufferedReader(new InputStreamReader(new FileInputStream (instance.keyDirectory + folder +"public.key"), StandardCharsets.UTF_8));
-                BufferedReader privateKeyStream = new BufferedReader(new InputStreamReader(new FileInputStream (instance.keyDirectory + folder +"private.key"), StandardCharsets.UTF_8));
+    public static synchronized void load() {
+        instance.eager = true;
+        loadAll();
+    }
 
-                PublicKey publicKey  = KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(Base64.getDecoder().decode(publicKeyStream.readLine())));
-                PrivateKey privateKey = KeyFactory.getInstance("RSA").generatePrivate(new PKCS8EncodedKeySpec(Base64.getDecoder().decode(privateKeyStream.readLine())));
+    /*
+     * Drops the keystore, keys are read from disk again (right away if load() was used)
+     */
+    public static synchronized void reload() {
+        clear();
+        if (instance.eager)
+            loadAll();
+    }
 
-                publicKeyStream.close();
-                privateKeyStream.close();
+    /*
+     * Drops the keystore without reading it again, the key files or the configuration changed
+     */
+    static synchronized void clear() {
+        instance.byFolder.clear();
+        instance.byId.clear();
+        instance.byEncoded.clear();
+        instance.byKeyId.clear();
+        instance.ids.clear();
+        instance.agreementPairs.clear();
+        instance.loaded = false;
+    }
 
-                return new KeyPair(publicKey, privateKey);
-            } catch (Exception e) {
-                // Keep trying until it goes through
-                // TODO
-            }
-        }
+    /*
+     * This method is simplified as in an ideal case getting a the private key for another process should be impossible. For simplification purposes both keys are exposed in the system but private keys are only used by their owners
+     */
+    public static KeyPair getPair(ProcessConfig conf) {
+        return keys(conf).pair;
     }
 
     public static KeyPair getPair(int id) throws Exception {
-            return KeyGetter.getPair(ProcessConfigBuilder.fromId(id));
+        return keys(id).pair;
     }
 
     public static PublicKey getPublic(ProcessConfig conf) throws Exception {
@@ -77,8 +135,177 @@ public class KeyGetter {
         return KeyGetter.getPair(id).getPublic();
     }
 
+    /*
+     * X25519 pair of a process, from which pairs of processes derive a shared session key
+     */
+    public static KeyPair getAgreementPair(int id) throws Exception {
+        KeyPair pair = instance.agreementPairs.get(id);
+        if (pair != null)
+            return pair;
+
+        String folder = folder(ProcessConfigBuilder.fromId(id));
+        pair = read(folder, "agreement_public.key", "agreement_private.key", (encoded) -> {
+            KeyFactory factory = KeyFactory.getInstance("X25519");
+            return new KeyPair(factory.generatePublic(new X509EncodedKeySpec(encoded[0])), factory.generatePrivate(new PKCS8EncodedKeySpec(encoded[1])));
+        });
+        instance.agreementPairs.putIfAbsent(id, pair);
+        return pair;
+    }
+
+    /*
+     * Base64 encoding of the public key of a process, as carried by messages and transactions
+     */
+    public static String getEncodedPublic(int id) throws Exception {
+        return keys(id).encodedPublic;
+    }
+
+    /*
+     * Key ID of the public key of a process
+     */
+    public static String getKeyId(int id) throws Exception {
+        return keys(id).keyId;
+    }
+
+    /*
+     * Key ID of a public key
+     */
+    public static String keyId(PublicKey key) {
+        return keyId(key.getEncoded());
+    }
+
+    /*
+     * Key ID of a Base64 encoded public key or key ID, the form accounts are compared in
+     *
+     * @throws IllegalArgumentException if the key isn't Base64
+     */
+    public static String toKeyId(String key) {
+        Keys keys = instance.byEncoded.get(key);
+        if (keys != null)
+            return keys.keyId;
+        byte[] decoded = Base64.getDecoder().decode(key);
+        if (decoded.length == KEY_ID_LENGTH)
+            return Base64.getEncoder().encodeToString(decoded);
+        return keyId(decoded);
+    }
+
+    private static String keyId(byte[] encoded) {
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(encoded));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+     * Process owning a Base64 encoded public key or key ID
+     *
+     * @return The process ID, null if no process of the configuration owns the key
+     */
+    public static Integer getId(String key) {
+        if (lookup(key) == null)
+            return null;
+        return instance.ids.get(key);
+    }
+
     public static PublicKey fromString(String key) throws Exception {
-        return KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(Base64.getDecoder().decode(key)));
+        Keys keys = lookup(key);
+        if (keys != null)
+            return keys.pair.getPublic();
+        // Not a key of the system (e.g. forged by a byzantine process), not kept
+        byte[] decoded = Base64.getDecoder().decode(key);
+        if (decoded.length == KEY_ID_LENGTH)
+            throw new HDSSException(ErrorMessage.UnknownKey);
+        return SignatureScheme.decodePublic(decoded);
+    }
+
+    private static Keys keys(int id) throws Exception {
+        Keys keys = instance.byId.get(id);
+        if (keys != null)
+            return keys;
+        return index(ProcessConfigBuilder.fromId(id));
+    }
+
+    private static Keys keys(ProcessConfig conf) {
+        Keys keys = instance.byFolder.get(folder(conf));
+        if (keys != null)
+            return keys;
+        return index(conf);
+    }
+
+    private static Keys lookup(String key) {
+        Keys keys = indexed(key);
+        if (keys == null && !instance.loaded) {
+            // Key of a process not read yet
+            loadAll();
+            keys = indexed(key);
+        }
+        return keys;
+    }
+
+    private static Keys indexed(String key) {
+        Keys keys = instance.byEncoded.get(key);
+        return keys != null ? keys : instance.byKeyId.get(key);
+    }
+
+    private static synchronized void loadAll() {
+        if (instance.loaded)
+            return;
+        SystemConfig systemConfig = ProcessConfigBuilder.getSystemConfig();
+        for (ProcessConfig conf : systemConfig.getNodes())
+            index(conf);
+        for (ProcessConfig conf : systemConfig.getClients())
+            index(conf);
+        instance.loaded = true;
+    }
+
+    private static Keys index(ProcessConfig conf) {
+        String folder = folder(conf);
+        Keys keys = instance.byFolder.computeIfAbsent(folder, (path) -> new Keys(read(path)));
+        instance.byId.putIfAbsent(conf.getId(), keys);
+        instance.byEncoded.putIfAbsent(keys.encodedPublic, keys);
+        instance.byKeyId.putIfAbsent(keys.keyId, keys);
+        instance.ids.putIfAbsent(keys.encodedPublic, conf.getId());
+        instance.ids.putIfAbsent(keys.keyId, conf.getId());
+        return keys;
+    }
+
+    private static String folder(ProcessConfig conf) {
+        return instance.keyDirectory + "/" + conf.getHostname() + ":" + conf.getPort() + "/";
     }
-}
 
+    /*
+     * Decodes the public and private key read from a key folder
+     */
+    private interface PairDecoder {
+        KeyPair decode(byte[][] encoded) throws Exception;
+    }
+
+    static KeyPair read(String folder) {
+        return read(folder, "public.key", "private.key", (encoded) ->
+                new KeyPair(SignatureScheme.decodePublic(encoded[0]), SignatureScheme.decodePrivate(encoded[1])));
+    }
+
+    /*
+     * Reads a key pair of a key folder, retrying for a while if the files are missing or incomplete
+     */
+    private static KeyPair read(String folder, String publicFile, String privateFile, PairDecoder decoder) {
+        for (int attempt = 1; ; attempt++) {
+            try (BufferedReader publicKeyStream  = new BufferedReader(new InputStreamReader(new FileInputStream (folder + publicFile), StandardCharsets.UTF_8));
+                 BufferedReader privateKeyStream = new BufferedReader(new InputStreamReader(new FileInputStream (folder + privateFile), StandardCharsets.UTF_8))) {
+
+                return decoder.decode(new byte[][] {
+                        Base64.getDecoder().decode(publicKeyStream.readLine()),
+                        Base64.getDecoder().decode(privateKeyStream.readLine()) });
+            } catch (Exception e) {
+                if (attempt >= MAX_READ_ATTEMPTS)
+                    throw new HDSSException(ErrorMessage.KeysNotFound);
+                try {
+                    Thread.sleep(READ_RETRY_DELAY);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new HDSSException(ErrorMessage.KeysNotFound);
+                }
+            }
+        }
+    }
+}
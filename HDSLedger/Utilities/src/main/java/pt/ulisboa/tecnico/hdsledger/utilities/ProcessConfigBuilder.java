@@ -30,6 +30,8 @@ public class ProcessConfigBuilder {
     public static void setPath(String path) {
         instance.path = path;
         instance.pathChanged = true;
+        // Process IDs may now name other key folders
+        KeyGetter.clear();
     }
 
     public static String getPath() {
@@ -0,0 +1,138 @@
+package pt.ulisboa.tecnico.hdsledger.utilities;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+
+/*
+ * Signature algorithms (java.security.Signature) available to sign messages
+ *
+ * The scheme is selected by the "signatureScheme" field of the system configuration, KeyGenerator
+ * produces keys for it. Verification follows the algorithm of the key, a process reading keys of
+ * another scheme still verifies them.
+ *
+ * RSA is the default: on JDK 17 (see SignatureBenchmark) Ed25519 signs slightly faster but
+ * verifies an order of magnitude slower, and every message is verified by each receiver.
+ * Ed25519 gives smaller signatures and much faster key generation.
+ */
+public enum SignatureScheme {
+    // 64 byte signatures, fast signing and key generation
+    ED25519("Ed25519", "Ed25519"),
+    // NIST P-256, 70 byte signatures (DER)
+    ECDSA("EC", "SHA256withECDSA"),
+    // RSA-2048 with PKCS #1 v1.5 padding, 256 byte signatures, fastest verification
+    RSA("RSA", "SHA256withRSA");
+
+    // Algorithm of the keys (KeyFactory, KeyPairGenerator)
+    private final String keyAlgorithm;
+    // Algorithm of the signatures (Signature)
+    private final String signatureAlgorithm;
+    // Signature instances are not thread safe, one per thread
+    private final ThreadLocal<Signature> signatures;
+
+    SignatureScheme(String keyAlgorithm, String signatureAlgorithm) {
+        this.keyAlgorithm = keyAlgorithm;
+        this.signatureAlgorithm = signatureAlgorithm;
+        this.signatures = ThreadLocal.withInitial(() -> {
+            try {
+                return Signature.getInstance(signatureAlgorithm);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /*
+     * Scheme selected by the system configuration (rsa by default)
+     */
+    public static SignatureScheme configured() {
+        return forName(ProcessConfigBuilder.getSystemConfig().getSignatureScheme());
+    }
+
+    public static SignatureScheme forName(String name) {
+        if (name == null)
+            return RSA;
+        try {
+            return SignatureScheme.valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new HDSSException(ErrorMessage.UnknownSignatureScheme);
+        }
+    }
+
+    /*
+     * Scheme producing signatures verifiable with the key
+     */
+    public static SignatureScheme forKey(java.security.Key key) {
+        return switch (key.getAlgorithm()) {
+            case "EdDSA", "Ed25519" -> ED25519;
+            case "EC" -> ECDSA;
+            case "RSA" -> RSA;
+            default -> throw new HDSSException(ErrorMessage.UnknownSignatureScheme);
+        };
+    }
+
+    public String getKeyAlgorithm() {
+        return keyAlgorithm;
+    }
+
+    public KeyPair generateKeyPair() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance(keyAlgorithm);
+        switch (this) {
+            case ECDSA -> generator.initialize(new ECGenParameterSpec("secp256r1"));
+            case RSA -> generator.initialize(2048);
+            default -> {}
+        }
+        return generator.generateKeyPair();
+    }
+
+    public byte[] sign(PrivateKey key, byte[] data) throws GeneralSecurityException {
+        Signature signature = signatures.get();
+        signature.initSign(key);
+        signature.update(data);
+        return signature.sign();
+    }
+
+    public boolean verify(PublicKey key, byte[] data, byte[] signed) throws GeneralSecurityException {
+        Signature signature = signatures.get();
+        signature.initVerify(key);
+        signature.update(data);
+        return signature.verify(signed);
+    }
+
+    /*
+     * Public key in X.509 encoding, of any of the schemes
+     */
+    public static PublicKey decodePublic(byte[] encoded) throws GeneralSecurityException {
+        GeneralSecurityException error = null;
+        for (SignatureScheme scheme : values()) {
+            try {
+                return KeyFactory.getInstance(scheme.keyAlgorithm).generatePublic(new X509EncodedKeySpec(encoded));
+            } catch (GeneralSecurityException e) {
+                error = e;
+            }
+        }
+        throw error;
+    }
+
+    /*
+     * Private key in PKCS #8 encoding, of any of the schemes
+     */
+    public static PrivateKey decodePrivate(byte[] encoded) throws GeneralSecurityException {
+        GeneralSecurityException error = null;
+        for (SignatureScheme scheme : values()) {
+            try {
+                return KeyFactory.getInstance(scheme.keyAlgorithm).generatePrivate(new PKCS8EncodedKeySpec(encoded));
+            } catch (GeneralSecurityException e) {
+                error = e;
+            }
+        }
+        throw error;
+    }
+}
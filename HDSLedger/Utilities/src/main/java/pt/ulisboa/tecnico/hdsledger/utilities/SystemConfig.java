@@ -3,6 +3,35 @@ package pt.ulisboa.tecnico.hdsledger.utilities;
 public class SystemConfig {
     private ProcessConfig[] nodes;
     private ProcessConfig[] clients;
+    // Wire codec used by the links (json or binary)
+    private String codec;
+    // Maximum size of a datagram carrying several messages (bytes)
+    private Integer batchSize;
+    // Maximum time a message waits to share a datagram (ms), 0 disables batching
+    private Integer batchLinger;
+    // Maximum number of unacknowledged messages to a destination
+    private Integer sendWindow;
+    // Maximum number of messages waiting for the window of a destination
+    private Integer sendQueueCapacity;
+    // What happens to a message sent to a full queue: fail_fast (default, the sender is told), block,
+    // or drop_oldest (discards queued messages, opt-in)
+    private String sendOverflow;
+    // Algorithm signing the messages (ed25519, ecdsa or rsa)
+    private String signatureScheme;
+    // Authentication of the messages between replicas (signature, or mac for HMACs under pairwise session keys)
+    private String replicaAuthentication;
+    // Maximum number of consensus instances in flight past the last applied one
+    private Integer pipelineWindow;
+    // Maximum number of client requests decided by one consensus instance, 1 disables blocks
+    private Integer blockSize;
+    // Maximum time a client request waits for the leader to gather a block (ms)
+    private Integer blockDelay;
+    // Number of event loop threads handling the received messages (defaults to the cores)
+    private Integer eventLoops;
+    // Number of messages waiting in the mailbox of an event loop past which it's logged (mailboxes are unbounded)
+    private Integer mailboxWarning;
+    // Threads the tasks run on (platform, or virtual where the runtime has them)
+    private String threads;
 
     public SystemConfig() {}
 
@@ -13,4 +42,60 @@ public class SystemConfig {
     public ProcessConfig[] getClients() {
         return this.clients;
     }
+
+    public String getCodec() {
+        return this.codec;
+    }
+
+    public Integer getBatchSize() {
+        return this.batchSize;
+    }
+
+    public Integer getBatchLinger() {
+        return this.batchLinger;
+    }
+
+    public Integer getSendWindow() {
+        return this.sendWindow;
+    }
+
+    public Integer getSendQueueCapacity() {
+        return this.sendQueueCapacity;
+    }
+
+    public String getSendOverflow() {
+        return this.sendOverflow;
+    }
+
+    public String getSignatureScheme() {
+        return this.signatureScheme;
+    }
+
+    public String getReplicaAuthentication() {
+        return this.replicaAuthentication;
+    }
+
+    public Integer getPipelineWindow() {
+        return this.pipelineWindow;
+    }
+
+    public Integer getBlockSize() {
+        return this.blockSize;
+    }
+
+    public Integer getBlockDelay() {
+        return this.blockDelay;
+    }
+
+    public Integer getEventLoops() {
+        return this.eventLoops;
+    }
+
+    public Integer getMailboxWarning() {
+        return this.mailboxWarning;
+    }
+
+    public String getThreads() {
+        return this.threads;
+    }
 }
@@ -0,0 +1,83 @@
+package pt.ulisboa.tecnico.hdsledger.utilities;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Kind of threads the processes run their tasks on (event loops, deferred actions, standalone
+ * sends)
+ *
+ * The mode is selected by the "threads" field of the system configuration. Virtual threads park
+ * instead of holding a platform thread while blocked (retransmission back-off, quorum waits),
+ * they're created through reflection as the code targets JDK 17. Where the runtime has no virtual
+ * threads (JDK 17-20 without preview) the virtual mode runs on platform threads.
+ */
+public enum ThreadMode {
+    // Daemon platform thread per task
+    PLATFORM,
+    // Virtual thread per task (JDK 21+)
+    VIRTUAL;
+
+    // Thread.ofVirtual().factory(), null if the runtime has no virtual threads
+    private static final ThreadFactory VIRTUAL_FACTORY = virtualFactory();
+
+    /*
+     * Mode selected by the system configuration (platform by default)
+     */
+    public static ThreadMode configured() {
+        return forName(ProcessConfigBuilder.getSystemConfig().getThreads());
+    }
+
+    public static ThreadMode forName(String name) {
+        if (name == null)
+            return PLATFORM;
+        try {
+            return ThreadMode.valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new HDSSException(ErrorMessage.UnknownThreadMode);
+        }
+    }
+
+    /*
+     * The runtime creates virtual threads (otherwise VIRTUAL runs on platform threads)
+     */
+    public static boolean isVirtualSupported() {
+        return VIRTUAL_FACTORY != null;
+    }
+
+    /*
+     * Unstarted thread running the task
+     */
+    public Thread newThread(String name, Runnable task) {
+        Thread thread;
+        if (this == VIRTUAL && VIRTUAL_FACTORY != null) {
+            thread = VIRTUAL_FACTORY.newThread(task);
+        } else {
+            thread = new Thread(task);
+            thread.setDaemon(true);
+        }
+        thread.setName(name);
+        return thread;
+    }
+
+    /*
+     * Executor starting a thread per task, named after the prefix
+     */
+    public Executor perTask(String name) {
+        AtomicInteger count = new AtomicInteger(0);
+        return (task) -> newThread(name + "-" + count.getAndIncrement(), task).start();
+    }
+
+    private static ThreadFactory virtualFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // No virtual threads (or only as a preview feature not enabled)
+            return null;
+        }
+    }
+}
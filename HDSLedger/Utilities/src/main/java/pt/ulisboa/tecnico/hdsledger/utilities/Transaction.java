@@ -12,6 +12,7 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 public class Transaction implements Serializable {
+    private static final Gson GSON = new Gson();
     public static final int FEE = 10;
     private String source = null;
     private String destination = null;
@@ -34,9 +35,10 @@ public class Transaction implements Serializable {
         this.isCheckBalance = true;
     }
 
+    // Accounts identified by key ID
     public Transaction(PublicKey source, PublicKey destination, int amount) {
-        this.source = Base64.getEncoder().encodeToString(source.getEncoded());
-        this.destination = Base64.getEncoder().encodeToString(destination.getEncoded());
+        this.source = KeyGetter.keyId(source);
+        this.destination = KeyGetter.keyId(destination);
         this.amount = amount;
     }
 
@@ -74,11 +76,11 @@ public class Transaction implements Serializable {
 
 
     public String toJson() {
-        return new Gson().toJson(this);
+        return GSON.toJson(this);
     }
 
     public static Transaction fromJson(String json) {
-        return new Gson().fromJson(json, Transaction.class);
+        return GSON.fromJson(json, Transaction.class);
     }
 
     @Override